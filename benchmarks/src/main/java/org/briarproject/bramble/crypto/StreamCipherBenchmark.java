@@ -0,0 +1,88 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures the time taken to encrypt and decrypt a stream of full-size
+ * frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StreamCipherBenchmark {
+
+	@Param({"64", "1024"})
+	public int streamKib;
+
+	private final AuthenticatedCipher cipher =
+			new XSalsa20Poly1305AuthenticatedCipher();
+	private final SecretKey streamHeaderKey = getSecretKey();
+	private final SecretKey frameKey = getSecretKey();
+	private final byte[] streamHeaderNonce =
+			getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+	private final byte[] payload = getRandomBytes(MAX_PAYLOAD_LENGTH);
+	private final byte[] plaintext = new byte[MAX_PAYLOAD_LENGTH];
+
+	private int frames;
+	private ByteArrayOutputStream out;
+	private byte[] ciphertext;
+
+	@Setup
+	public void setUp() throws IOException {
+		int streamLength = streamKib * 1024;
+		frames = (streamLength + MAX_PAYLOAD_LENGTH - 1) / MAX_PAYLOAD_LENGTH;
+		out = new ByteArrayOutputStream(streamLength * 2);
+		encryptStream();
+		ciphertext = out.toByteArray();
+	}
+
+	@Benchmark
+	public int encrypt() throws IOException {
+		encryptStream();
+		return out.size();
+	}
+
+	@Benchmark
+	public int decrypt() throws IOException {
+		StreamDecrypterImpl d = new StreamDecrypterImpl(
+				new ByteArrayInputStream(ciphertext), cipher, 0,
+				streamHeaderKey);
+		int total = 0;
+		for (int read; (read = d.readFrame(plaintext)) != -1; ) total += read;
+		return total;
+	}
+
+	private void encryptStream() throws IOException {
+		out.reset();
+		StreamEncrypterImpl e = new StreamEncrypterImpl(out, cipher, 0, null,
+				streamHeaderNonce, streamHeaderKey, frameKey);
+		for (int i = 0; i < frames; i++) {
+			e.writeFrame(payload, MAX_PAYLOAD_LENGTH, 0, i == frames - 1);
+		}
+		e.flush();
+	}
+}
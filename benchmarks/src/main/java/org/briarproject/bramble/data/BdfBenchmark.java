@@ -0,0 +1,132 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.data.BdfReaderFactory;
+import org.briarproject.bramble.api.data.BdfWriter;
+import org.briarproject.bramble.api.data.BdfWriterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Measures BDF encoding and decoding of a message body and a metadata
+ * dictionary shaped like those of a forum post. Reading from an input stream
+ * is compared with reading a byte array in place, and with using the cursor
+ * methods to read a few fields without materialising the list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BdfBenchmark {
+
+	private final BdfReaderFactory readerFactory = new BdfReaderFactoryImpl();
+	private final BdfWriterFactory writerFactory = new BdfWriterFactoryImpl();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	private BdfList body;
+	private BdfDictionary meta;
+	private byte[] encodedBody, encodedMeta;
+
+	@Setup
+	public void setUp() throws IOException {
+		// Message type, parent ID, author, text, signature
+		BdfList author = BdfList.of(0, getRandomString(20),
+				getRandomBytes(MAX_PUBLIC_KEY_LENGTH));
+		body = BdfList.of(0, getRandomId(), author, getRandomString(500),
+				getRandomBytes(MAX_SIGNATURE_LENGTH));
+		meta = new BdfDictionary();
+		meta.put("timestamp", System.currentTimeMillis());
+		meta.put("parent", getRandomId());
+		meta.put("author", author);
+		meta.put("read", true);
+		meta.put("local", false);
+		encodedBody = encode(body);
+		encodedMeta = encode(meta);
+	}
+
+	@Benchmark
+	public int writeList() throws IOException {
+		return encode(body).length;
+	}
+
+	@Benchmark
+	public int writeDictionary() throws IOException {
+		return encode(meta).length;
+	}
+
+	@Benchmark
+	public BdfList readListFromStream() throws IOException {
+		BdfReader r = readerFactory.createReader(
+				new ByteArrayInputStream(encodedBody));
+		return r.readList();
+	}
+
+	@Benchmark
+	public BdfList readListFromArray() throws IOException {
+		BdfReader r = readerFactory.createReader(encodedBody, 0,
+				encodedBody.length);
+		return r.readList();
+	}
+
+	@Benchmark
+	public BdfDictionary readDictionaryFromStream() throws IOException {
+		BdfReader r = readerFactory.createReader(
+				new ByteArrayInputStream(encodedMeta));
+		return r.readDictionary();
+	}
+
+	@Benchmark
+	public BdfDictionary readDictionaryFromArray() throws IOException {
+		BdfReader r = readerFactory.createReader(encodedMeta, 0,
+				encodedMeta.length);
+		return r.readDictionary();
+	}
+
+	/**
+	 * Reads the message type and text, skipping the other fields.
+	 */
+	@Benchmark
+	public void readFieldsWithCursor(Blackhole bh) throws IOException {
+		BdfReader r = readerFactory.createReader(encodedBody, 0,
+				encodedBody.length);
+		r.readListStart();
+		bh.consume(r.readLong());
+		r.skipRaw();
+		r.skipList();
+		bh.consume(r.readString());
+		r.skipRaw();
+		r.readListEnd();
+	}
+
+	private byte[] encode(Object o) throws IOException {
+		out.reset();
+		BdfWriter w = writerFactory.createWriter(out);
+		if (o instanceof BdfList) w.writeList((BdfList) o);
+		else w.writeDictionary((BdfDictionary) o);
+		return out.toByteArray();
+	}
+}
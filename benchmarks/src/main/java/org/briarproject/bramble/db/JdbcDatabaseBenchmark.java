@@ -0,0 +1,240 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.validation.MessageState;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.util.IoUtils.deleteFileOrDir;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Measures the queries that are run most often during sync and by the
+ * clients, on H2 and HyperSQL. The database is populated directly rather
+ * than through the clients, so both databases can be populated in the same
+ * way. Its shape follows {@link DatabasePerformanceTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JdbcDatabaseBenchmark {
+
+	private static final int CONTACTS = 20;
+	private static final int CLIENTS = 10;
+	private static final int GROUPS_PER_CONTACT = 10;
+	private static final int MESSAGES_PER_GROUP = 20;
+	private static final int METADATA_KEYS = 5;
+	private static final int METADATA_KEY_LENGTH = 10;
+	private static final int METADATA_VALUE_LENGTH = 100;
+	private static final int OFFERED_MESSAGES_PER_CONTACT = 100;
+	private static final int MAX_LATENCY = 30 * 1000;
+	private static final int BATCH_CAPACITY =
+			(RECORD_HEADER_BYTES + MAX_MESSAGE_LENGTH) * 2;
+
+	@Param({"H2", "HyperSQL"})
+	public String database;
+
+	private final Random random = new Random();
+	private final List<ContactId> contacts = new ArrayList<>();
+	private final List<GroupId> groups = new ArrayList<>();
+	private final List<MessageId> messages = new ArrayList<>();
+	private final List<Metadata> messageMeta = new ArrayList<>();
+
+	private File dir;
+	private Database<Connection> db;
+
+	@Setup
+	public void setUp() throws IOException, DbException {
+		dir = createTempDirectory("briar-benchmark").toFile();
+		DatabaseConfig config = new TestDatabaseConfig(dir);
+		if (database.equals("H2")) {
+			db = new H2Database(config, new TestMessageFactory(),
+					new SystemClock());
+		} else {
+			db = new HyperSqlDatabase(config, new TestMessageFactory(),
+					new SystemClock());
+		}
+		db.open(getSecretKey(), null);
+		populateDatabase();
+	}
+
+	@TearDown
+	public void tearDown() throws DbException {
+		db.close();
+		deleteFileOrDir(dir);
+	}
+
+	@Benchmark
+	public Collection<MessageId> getMessagesToSend() throws DbException {
+		Connection txn = db.startTransaction();
+		Collection<MessageId> ids = db.getMessagesToSend(txn,
+				pickRandom(contacts), BATCH_CAPACITY, MAX_LATENCY, emptyMap());
+		db.commitTransaction(txn);
+		return ids;
+	}
+
+	@Benchmark
+	public Collection<MessageId> getMessagesToAck() throws DbException {
+		Connection txn = db.startTransaction();
+		Collection<MessageId> ids = db.getMessagesToAck(txn,
+				pickRandom(contacts), MAX_MESSAGE_IDS);
+		db.commitTransaction(txn);
+		return ids;
+	}
+
+	@Benchmark
+	public Collection<MessageId> getMessagesToOffer() throws DbException {
+		Connection txn = db.startTransaction();
+		Collection<MessageId> ids = db.getMessagesToOffer(txn,
+				pickRandom(contacts), MAX_MESSAGE_IDS, MAX_LATENCY, emptyMap());
+		db.commitTransaction(txn);
+		return ids;
+	}
+
+	@Benchmark
+	public boolean containsVisibleMessage() throws DbException {
+		Connection txn = db.startTransaction();
+		boolean visible = db.containsVisibleMessage(txn,
+				pickRandom(contacts), pickRandom(messages));
+		db.commitTransaction(txn);
+		return visible;
+	}
+
+	@Benchmark
+	public Metadata getGroupMetadata() throws DbException {
+		Connection txn = db.startTransaction();
+		Metadata meta = db.getGroupMetadata(txn, pickRandom(groups));
+		db.commitTransaction(txn);
+		return meta;
+	}
+
+	@Benchmark
+	public Map<MessageId, Metadata> getMessageMetadataForGroup()
+			throws DbException {
+		Connection txn = db.startTransaction();
+		Map<MessageId, Metadata> meta =
+				db.getMessageMetadata(txn, pickRandom(groups));
+		db.commitTransaction(txn);
+		return meta;
+	}
+
+	@Benchmark
+	public Collection<MessageId> getMessageIdsWithQuery() throws DbException {
+		int i = random.nextInt(messages.size());
+		GroupId g = groups.get(i / MESSAGES_PER_GROUP);
+		Connection txn = db.startTransaction();
+		Collection<MessageId> ids =
+				db.getMessageIds(txn, g, messageMeta.get(i));
+		db.commitTransaction(txn);
+		return ids;
+	}
+
+	private void populateDatabase() throws DbException {
+		Identity identity = getIdentity();
+		List<ClientId> clientIds = new ArrayList<>();
+		for (int i = 0; i < CLIENTS; i++) clientIds.add(getClientId());
+		Connection txn = db.startTransaction();
+		db.addIdentity(txn, identity);
+		for (int i = 0; i < CONTACTS; i++) {
+			ContactId c = db.addContact(txn, getAuthor(),
+					identity.getLocalAuthor().getId(), null,
+					random.nextBoolean());
+			contacts.add(c);
+			for (int j = 0; j < GROUPS_PER_CONTACT; j++) {
+				Group g = getGroup(clientIds.get(j % CLIENTS), 123);
+				groups.add(g.getId());
+				db.addGroup(txn, g);
+				db.addGroupVisibility(txn, c, g.getId(), true);
+				db.mergeGroupMetadata(txn, g.getId(), getMetadata());
+				addMessages(txn, c, g.getId());
+			}
+			for (int j = 0; j < OFFERED_MESSAGES_PER_CONTACT; j++) {
+				db.addOfferedMessage(txn, c, new MessageId(getRandomId()));
+			}
+		}
+		db.commitTransaction(txn);
+	}
+
+	private void addMessages(Connection txn, ContactId c, GroupId g)
+			throws DbException {
+		List<MessageId> groupMessages = new ArrayList<>();
+		for (int i = 0; i < MESSAGES_PER_GROUP; i++) {
+			Message m = getMessage(g);
+			MessageState state = MessageState.fromValue(random.nextInt(4));
+			ContactId sender = random.nextBoolean() ? c : null;
+			db.addMessage(txn, m, state, random.nextBoolean(),
+					random.nextBoolean(), sender);
+			if (random.nextBoolean()) db.raiseRequestedFlag(txn, c, m.getId());
+			Metadata meta = getMetadata();
+			db.mergeMessageMetadata(txn, m.getId(), meta);
+			if (i > 0) {
+				db.addMessageDependency(txn, m, pickRandom(groupMessages),
+						state);
+			}
+			groupMessages.add(m.getId());
+			messages.add(m.getId());
+			messageMeta.add(meta);
+		}
+	}
+
+	private Metadata getMetadata() {
+		Metadata meta = new Metadata();
+		for (int i = 0; i < METADATA_KEYS; i++) {
+			meta.put(getRandomString(METADATA_KEY_LENGTH),
+					getRandomBytes(METADATA_VALUE_LENGTH));
+		}
+		return meta;
+	}
+
+	private <T> T pickRandom(List<T> list) {
+		return list.get(random.nextInt(list.size()));
+	}
+}
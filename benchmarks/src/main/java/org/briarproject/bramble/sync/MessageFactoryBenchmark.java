@@ -0,0 +1,69 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.briar.benchmark.DaggerBenchmarkComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+/**
+ * Measures the time taken to create messages, which includes hashing the
+ * message to calculate its ID, and to parse and serialise raw messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MessageFactoryBenchmark {
+
+	@Param({"1024", "32768"})
+	public int bodyLength;
+
+	private final GroupId groupId = new GroupId(getRandomId());
+
+	private MessageFactory messageFactory;
+	private byte[] body, raw;
+	private Message message;
+
+	@Setup
+	public void setUp() {
+		messageFactory = new MessageFactoryImpl(
+				DaggerBenchmarkComponent.create().getCryptoComponent());
+		body = getRandomBytes(bodyLength);
+		message = messageFactory.createMessage(groupId,
+				System.currentTimeMillis(), body);
+		raw = messageFactory.getRawMessage(message);
+	}
+
+	@Benchmark
+	public Message createMessage() {
+		return messageFactory.createMessage(groupId,
+				System.currentTimeMillis(), body);
+	}
+
+	@Benchmark
+	public Message parseRawMessage() {
+		return messageFactory.createMessage(raw);
+	}
+
+	@Benchmark
+	public byte[] getRawMessage() {
+		return messageFactory.getRawMessage(message);
+	}
+}
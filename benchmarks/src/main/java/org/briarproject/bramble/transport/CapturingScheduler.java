@@ -0,0 +1,44 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A scheduler that holds on to the last scheduled task instead of running
+ * it, so the task can be run on demand.
+ */
+@NotNullByDefault
+class CapturingScheduler implements TaskScheduler {
+
+	@Nullable
+	private volatile Runnable task;
+
+	@Override
+	public Cancellable schedule(Runnable task, Executor executor, long delay,
+			TimeUnit unit) {
+		this.task = task;
+		return () -> {
+		};
+	}
+
+	@Override
+	public Cancellable scheduleWithFixedDelay(Runnable task,
+			Executor executor, long delay, long interval, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Runs the last scheduled task on the calling thread.
+	 */
+	void runScheduledTask() {
+		Runnable task = this.task;
+		if (task == null) throw new IllegalStateException();
+		task.run();
+	}
+}
@@ -0,0 +1,124 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.briar.benchmark.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures the time taken for every contact to reconnect at once, as
+ * happens when the network comes back after an outage. For each contact, an
+ * incoming stream's tag is recognised and an outgoing stream context is
+ * created, from a pool of connection threads. The time includes writing the
+ * recognised tags to the DB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReconnectionStormBenchmark {
+
+	private static final int CONNECTION_THREADS = 16;
+
+	@Param({"100", "1000"})
+	public int contacts;
+
+	private BenchmarkNode node;
+	private DatabaseComponent db;
+	private List<Contact> contactList;
+	private ExecutorService connectionExecutor, dbExecutor;
+	private TransportKeyManagerImpl transportKeyManager;
+	private List<ContactId> contactIds;
+	private List<byte[]> tags;
+
+	@Setup
+	public void setUp()
+			throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		db = node.getComponent().getDatabaseComponent();
+		contactList = node.createTestData(contacts, 0, 0, 0);
+		connectionExecutor = newFixedThreadPool(CONNECTION_THREADS);
+	}
+
+	/**
+	 * Creates a key manager for a new transport, so every iteration starts
+	 * with no recognised tags.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpIteration() throws DbException {
+		dbExecutor = newSingleThreadExecutor();
+		TransportKeyFixture fixture = new TransportKeyFixture(
+				node.getComponent(), contactList, dbExecutor,
+				new CapturingScheduler(), node.getComponent().getClock(), 1);
+		transportKeyManager = fixture.getTransportKeyManager();
+		contactIds = fixture.getContactIds();
+		tags = fixture.getTags();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws InterruptedException {
+		dbExecutor.shutdown();
+		dbExecutor.awaitTermination(10, SECONDS);
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		connectionExecutor.shutdown();
+		node.stop();
+	}
+
+	@Benchmark
+	public int reconnectAllContacts()
+			throws InterruptedException, ExecutionException {
+		List<Future<?>> futures = new ArrayList<>(contacts * 2);
+		for (int i = 0; i < contacts; i++) {
+			byte[] tag = tags.get(i);
+			ContactId c = contactIds.get(i);
+			futures.add(connectionExecutor.submit(() -> {
+				if (transportKeyManager.getStreamContext(tag) == null)
+					throw new AssertionError();
+				return null;
+			}));
+			futures.add(connectionExecutor.submit(() -> {
+				StreamContext ctx = db.transactionWithNullableResult(false,
+						txn -> transportKeyManager.getStreamContext(txn, c));
+				if (ctx == null) throw new AssertionError();
+				return null;
+			}));
+		}
+		// Each recognised tag has been written to the DB when its future
+		// completes
+		for (Future<?> f : futures) f.get();
+		return futures.size();
+	}
+}
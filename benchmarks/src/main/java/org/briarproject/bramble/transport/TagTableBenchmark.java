@@ -0,0 +1,128 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+
+/**
+ * Compares {@link TagTable} with the HashMap of wrapped tags that it
+ * replaced. Run with {@code -prof gc} to see the allocation rate of lookups
+ * and the number of bytes allocated to build each table, which approximates
+ * its footprint.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TagTableBenchmark {
+
+	/**
+	 * The number of tags. A contact has three incoming windows of 32 tags
+	 * per transport, so 100,000 tags is about 350 contacts with three
+	 * transports.
+	 */
+	@Param({"1000", "100000"})
+	public int size;
+
+	private final Object value = new Object();
+
+	private byte[][] tags, unknownTags;
+	private TagTable<Object> tagTable;
+	private Map<Bytes, Entry> hashMap;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		tags = new byte[size][];
+		unknownTags = new byte[size][];
+		for (int i = 0; i < size; i++) {
+			tags[i] = getRandomBytes(TAG_LENGTH);
+			unknownTags[i] = getRandomBytes(TAG_LENGTH);
+		}
+		tagTable = createTagTable();
+		hashMap = createHashMap();
+	}
+
+	@Benchmark
+	public Object buildTagTable() {
+		return createTagTable();
+	}
+
+	@Benchmark
+	public Object buildHashMap() {
+		return createHashMap();
+	}
+
+	@Benchmark
+	public Object tagTableHit() {
+		return tagTable.get(nextTag(tags));
+	}
+
+	@Benchmark
+	public Object tagTableMiss() {
+		return tagTable.get(nextTag(unknownTags));
+	}
+
+	@Benchmark
+	public Object hashMapHit() {
+		return hashMap.get(new Bytes(nextTag(tags)));
+	}
+
+	@Benchmark
+	public Object hashMapMiss() {
+		return hashMap.get(new Bytes(nextTag(unknownTags)));
+	}
+
+	private TagTable<Object> createTagTable() {
+		TagTable<Object> table = new TagTable<>();
+		for (int i = 0; i < size; i++) table.put(tags[i], value, i);
+		return table;
+	}
+
+	private Map<Bytes, Entry> createHashMap() {
+		Map<Bytes, Entry> map = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			map.put(new Bytes(tags[i]), new Entry(value, i));
+		}
+		return map;
+	}
+
+	private byte[] nextTag(byte[][] from) {
+		byte[] tag = from[next];
+		if (++next == size) next = 0;
+		return tag;
+	}
+
+	/**
+	 * The value stored for each tag by the HashMap, which had one context
+	 * object per tag.
+	 */
+	private static class Entry {
+
+		private final Object value;
+		private final long streamNumber;
+
+		private Entry(Object value, long streamNumber) {
+			this.value = value;
+			this.streamNumber = streamNumber;
+		}
+	}
+}
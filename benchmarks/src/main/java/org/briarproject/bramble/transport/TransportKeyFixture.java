@@ -0,0 +1,93 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.briar.benchmark.BenchmarkComponent;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+/**
+ * A {@link TransportKeyManagerImpl} for a new transport, with rotation keys
+ * for each of the given contacts, and the tags it expects to see at the
+ * start of incoming streams in the current time period.
+ */
+@NotNullByDefault
+class TransportKeyFixture {
+
+	static final long MAX_LATENCY = 30 * 1000;
+	static final long TIME_PERIOD_LENGTH = MAX_LATENCY + MAX_CLOCK_DIFFERENCE;
+
+	private final TransportKeyManagerImpl transportKeyManager;
+	private final List<ContactId> contactIds;
+	private final List<byte[]> tags;
+
+	/**
+	 * @param tagsPerContact the number of tags to encode for each contact,
+	 * starting from stream number zero
+	 */
+	TransportKeyFixture(BenchmarkComponent component, List<Contact> contacts,
+			Executor dbExecutor, TaskScheduler scheduler, Clock clock,
+			int tagsPerContact) throws DbException {
+		DatabaseComponent db = component.getDatabaseComponent();
+		TransportCrypto transportCrypto = component.getTransportCrypto();
+		TransportId transportId = getTransportId();
+		transportKeyManager = new TransportKeyManagerImpl(db,
+				transportCrypto, dbExecutor, scheduler, clock, transportId,
+				MAX_LATENCY);
+		contactIds = new ArrayList<>(contacts.size());
+		tags = new ArrayList<>(contacts.size() * tagsPerContact);
+		long now = clock.currentTimeMillis();
+		long timePeriod = now / TIME_PERIOD_LENGTH;
+		List<SecretKey> rootKeys = new ArrayList<>(contacts.size());
+		for (Contact c : contacts) {
+			contactIds.add(c.getId());
+			SecretKey rootKey = getSecretKey();
+			rootKeys.add(rootKey);
+			TransportKeys k = transportCrypto.deriveRotationKeys(transportId,
+					rootKey, timePeriod, true, true);
+			SecretKey tagKey = k.getCurrentIncomingKeys().getTagKey();
+			for (int i = 0; i < tagsPerContact; i++) {
+				byte[] tag = new byte[TAG_LENGTH];
+				transportCrypto.encodeTag(tag, tagKey, PROTOCOL_VERSION, i);
+				tags.add(tag);
+			}
+		}
+		db.transaction(false, txn -> {
+			db.addTransport(txn, transportId, MAX_LATENCY);
+			transportKeyManager.start(txn);
+			for (int i = 0; i < contactIds.size(); i++) {
+				transportKeyManager.addRotationKeys(txn, contactIds.get(i),
+						rootKeys.get(i), now, true, true);
+			}
+		});
+	}
+
+	TransportKeyManagerImpl getTransportKeyManager() {
+		return transportKeyManager;
+	}
+
+	List<ContactId> getContactIds() {
+		return contactIds;
+	}
+
+	List<byte[]> getTags() {
+		return tags;
+	}
+}
@@ -0,0 +1,146 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.test.SettableClock;
+import org.briarproject.briar.benchmark.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.transport.TransportKeyFixture.TIME_PERIOD_LENGTH;
+
+/**
+ * Measures incoming tag lookups and the effect of key rotation on the
+ * threads that use the key manager while the keys are being rotated.
+ * <p>
+ * In the rotation group, one thread rotates the keys to the next time period
+ * as fast as it can while the other threads look up tags and check whether
+ * outgoing streams can be sent. The sampled latencies of the other threads
+ * show any pauses caused by rotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TransportKeyManagerBenchmark {
+
+	@Param({"100", "1000"})
+	public int contacts;
+
+	private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+	private final SettableClock clock = new SettableClock(time);
+	private final CapturingScheduler scheduler = new CapturingScheduler();
+	private final ExecutorService dbExecutor = newSingleThreadExecutor();
+
+	private BenchmarkNode node;
+	private TransportKeyManagerImpl transportKeyManager;
+	private List<ContactId> contactIds;
+	private byte[][] tags, unknownTags;
+
+	@Setup
+	public void setUp()
+			throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		TransportKeyFixture fixture = new TransportKeyFixture(
+				node.getComponent(), node.createTestData(contacts, 0, 0, 0),
+				dbExecutor, scheduler, clock, REORDERING_WINDOW_SIZE);
+		transportKeyManager = fixture.getTransportKeyManager();
+		contactIds = fixture.getContactIds();
+		tags = fixture.getTags().toArray(new byte[0][]);
+		unknownTags = new byte[tags.length][];
+		for (int i = 0; i < tags.length; i++) {
+			unknownTags[i] = getRandomBytes(TAG_LENGTH);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		dbExecutor.shutdown();
+		dbExecutor.awaitTermination(10, SECONDS);
+		node.stop();
+	}
+
+	@Benchmark
+	@Nullable
+	public StreamContext lookUpKnownTag() {
+		return transportKeyManager.getStreamContextOnly(pickRandom(tags));
+	}
+
+	@Benchmark
+	@Nullable
+	public StreamContext lookUpUnknownTag() {
+		return transportKeyManager.getStreamContextOnly(
+				pickRandom(unknownTags));
+	}
+
+	@Benchmark
+	@Group("rotation")
+	@GroupThreads(1)
+	@BenchmarkMode(Mode.SampleTime)
+	public void rotateKeys() {
+		time.addAndGet(TIME_PERIOD_LENGTH);
+		// Run the key update on this thread
+		scheduler.runScheduledTask();
+	}
+
+	/**
+	 * Looks up tags while the keys are rotated. Tags from the starting time
+	 * period stop being recognised after two rotations, so most lookups in
+	 * this group are misses.
+	 */
+	@Benchmark
+	@Group("rotation")
+	@GroupThreads(2)
+	@BenchmarkMode(Mode.SampleTime)
+	@Nullable
+	public StreamContext lookUpTagDuringRotation() {
+		return transportKeyManager.getStreamContextOnly(pickRandom(tags));
+	}
+
+	/**
+	 * Takes the key manager's lock while the keys are rotated.
+	 */
+	@Benchmark
+	@Group("rotation")
+	@GroupThreads(1)
+	@BenchmarkMode(Mode.SampleTime)
+	public boolean canSendDuringRotation() {
+		ContactId c = contactIds.get(
+				ThreadLocalRandom.current().nextInt(contactIds.size()));
+		return transportKeyManager.canSendOutgoingStreams(c);
+	}
+
+	private byte[] pickRandom(byte[][] from) {
+		return from[ThreadLocalRandom.current().nextInt(from.length)];
+	}
+}
@@ -0,0 +1,75 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.briar.api.attachment.AttachmentHeader;
+import org.briarproject.briar.api.messaging.MessagingManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+
+/**
+ * Measures storing an attachment from a stream. Attachments that don't fit
+ * into a single message are split into blocks, which the contact supports
+ * because the fixture gives it the same client versions as ours. Divide
+ * the size by the time to get the throughput, and run with
+ * {@code -prof gc} to see how much memory is allocated per attachment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class AttachmentBenchmark {
+
+	@Param({"16", "1024", "8192"})
+	public int sizeKib;
+
+	private BenchmarkNode node;
+	private MessagingManager messagingManager;
+	private GroupId groupId;
+	private byte[] data;
+	private long timestamp;
+
+	@Setup
+	public void setUp() throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		BenchmarkComponent component = node.getComponent();
+		messagingManager = component.getMessagingManager();
+		Contact contact = node.createTestData(1, 0, 0, 0).get(0);
+		node.receiveClientVersions(contact.getId());
+		groupId = messagingManager.getContactGroup(contact).getId();
+		data = getRandomBytes(sizeKib * 1024);
+		timestamp = component.getClock().currentTimeMillis();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		node.stop();
+	}
+
+	@Benchmark
+	public AttachmentHeader addLocalAttachment()
+			throws DbException, IOException {
+		return messagingManager.addLocalAttachment(groupId, timestamp++,
+				"image/jpeg", new ByteArrayInputStream(data));
+	}
+}
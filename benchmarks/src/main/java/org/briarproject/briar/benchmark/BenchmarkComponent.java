@@ -0,0 +1,69 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.BrambleCoreModule;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.versioning.ClientVersioningManager;
+import org.briarproject.bramble.mailbox.ModularMailboxModule;
+import org.briarproject.bramble.test.BrambleCoreIntegrationTestModule;
+import org.briarproject.bramble.test.TestDnsModule;
+import org.briarproject.bramble.test.TestPluginConfigModule;
+import org.briarproject.bramble.test.TestSocksModule;
+import org.briarproject.briar.api.test.TestDataCreator;
+import org.briarproject.briar.attachment.AttachmentModule;
+import org.briarproject.briar.autodelete.AutoDeleteModule;
+import org.briarproject.briar.avatar.AvatarModule;
+import org.briarproject.briar.blog.BlogModule;
+import org.briarproject.briar.client.BriarClientModule;
+import org.briarproject.briar.conversation.ConversationModule;
+import org.briarproject.briar.forum.ForumModule;
+import org.briarproject.briar.identity.IdentityModule;
+import org.briarproject.briar.introduction.IntroductionModule;
+import org.briarproject.briar.messaging.MessagingModule;
+import org.briarproject.briar.privategroup.PrivateGroupModule;
+import org.briarproject.briar.privategroup.invitation.GroupInvitationModule;
+import org.briarproject.briar.sharing.SharingModule;
+import org.briarproject.briar.test.BriarIntegrationTestComponent;
+import org.briarproject.briar.test.TestModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		BrambleCoreIntegrationTestModule.class,
+		BrambleCoreModule.class,
+		AttachmentModule.class,
+		AutoDeleteModule.class,
+		AvatarModule.class,
+		BlogModule.class,
+		BriarClientModule.class,
+		ConversationModule.class,
+		ForumModule.class,
+		GroupInvitationModule.class,
+		IdentityModule.class,
+		IntroductionModule.class,
+		MessagingModule.class,
+		PrivateGroupModule.class,
+		SharingModule.class,
+		ModularMailboxModule.class,
+		TestDnsModule.class,
+		TestSocksModule.class,
+		TestPluginConfigModule.class,
+		TestModule.class,
+		BenchmarkModule.class
+})
+public interface BenchmarkComponent extends BriarIntegrationTestComponent {
+
+	ClientVersioningManager getClientVersioningManager();
+
+	ContactGroupFactory getContactGroupFactory();
+
+	CryptoComponent getCryptoComponent();
+
+	TestDataCreator getTestDataCreator();
+
+	TransportCrypto getTransportCrypto();
+}
@@ -0,0 +1,15 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.briar.api.test.TestAvatarCreator;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+class BenchmarkModule {
+
+	@Provides
+	TestAvatarCreator provideTestAvatarCreator() {
+		return () -> null;
+	}
+}
@@ -0,0 +1,184 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.versioning.ClientVersioningManager;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.conversation.ConversationManager;
+import org.briarproject.briar.api.forum.Forum;
+import org.briarproject.briar.api.forum.ForumManager;
+import org.briarproject.briar.api.messaging.MessagingManager;
+import org.briarproject.briar.api.test.TestDataCreator;
+import org.briarproject.briar.test.BriarIntegrationTestComponent;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.api.versioning.ClientVersioningManager.CLIENT_ID;
+import static org.briarproject.bramble.api.versioning.ClientVersioningManager.MAJOR_VERSION;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.util.IoUtils.deleteFileOrDir;
+
+/**
+ * A Briar node with its own database in a temporary directory, for use as a
+ * benchmark fixture. Test data is created by {@link TestDataCreator}, so the
+ * fixtures have the same shape as the data created by the debug builds.
+ */
+@NotNullByDefault
+public class BenchmarkNode {
+
+	private static final long TIMEOUT_MS = MINUTES.toMillis(30);
+	private static final long POLL_INTERVAL_MS = 500;
+
+	private final File dir;
+	private final BenchmarkComponent component;
+
+	public BenchmarkNode() throws IOException {
+		dir = createTempDirectory("briar-benchmark").toFile();
+		component = DaggerBenchmarkComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(component);
+	}
+
+	public BenchmarkComponent getComponent() {
+		return component;
+	}
+
+	/**
+	 * Creates an identity and starts the node's services.
+	 */
+	public void start() throws InterruptedException {
+		IdentityManager identityManager = component.getIdentityManager();
+		identityManager.registerIdentity(
+				identityManager.createIdentity("Benchmark"));
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.startServices(getSecretKey());
+		lifecycleManager.waitForStartup();
+	}
+
+	/**
+	 * Stops the node's services and deletes its database.
+	 */
+	public void stop() throws InterruptedException {
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		deleteFileOrDir(dir);
+	}
+
+	/**
+	 * Creates contacts, private messages, forums and forum posts with
+	 * {@link TestDataCreator} and waits for all the messages to be
+	 * delivered.
+	 *
+	 * @return The contacts, in the order they were created
+	 */
+	public List<Contact> createTestData(int numContacts, int numPrivateMsgs,
+			int numForums, int numForumPosts)
+			throws DbException, InterruptedException {
+		DatabaseComponent db = component.getDatabaseComponent();
+		ConversationManager conversationManager =
+				component.getConversationManager();
+		ForumManager forumManager = component.getForumManager();
+		MessageTracker messageTracker = component.getMessageTracker();
+		// The test data is created asynchronously
+		component.getTestDataCreator().createTestData(numContacts,
+				numPrivateMsgs, 0, 0, numForums, numForumPosts, 0, 0);
+		waitFor(() -> db.transactionWithResult(true, db::getContacts).size()
+				== numContacts);
+		List<Contact> contacts = new ArrayList<>(
+				db.transactionWithResult(true, db::getContacts));
+		List<ContactId> contactIds = new ArrayList<>(numContacts);
+		for (Contact c : contacts) contactIds.add(c.getId());
+		waitFor(() -> {
+			Map<ContactId, GroupCount> counts =
+					conversationManager.getGroupCounts(contactIds);
+			for (GroupCount count : counts.values()) {
+				if (count.getMsgCount() < numPrivateMsgs) return false;
+			}
+			return true;
+		});
+		waitFor(() -> {
+			Collection<Forum> forums = forumManager.getForums();
+			if (forums.size() < numForums) return false;
+			for (Forum f : forums) {
+				if (messageTracker.getGroupCount(f.getId()).getMsgCount()
+						< numForumPosts) {
+					return false;
+				}
+			}
+			return true;
+		});
+		return contacts;
+	}
+
+	/**
+	 * Receives a client versioning update from the given contact that lists
+	 * the same clients as ours, as if the contact were running the same
+	 * version of Briar, and waits for the update to be delivered. Without
+	 * this, features that depend on the contact's client versions are
+	 * unavailable.
+	 */
+	public void receiveClientVersions(ContactId c)
+			throws DbException, InterruptedException {
+		DatabaseComponent db = component.getDatabaseComponent();
+		ClientHelper clientHelper = component.getClientHelper();
+		ClientVersioningManager clientVersioningManager =
+				component.getClientVersioningManager();
+		db.transaction(false, txn -> {
+			Contact contact = db.getContact(txn, c);
+			GroupId g = component.getContactGroupFactory()
+					.createContactGroup(CLIENT_ID, MAJOR_VERSION, contact)
+					.getId();
+			// The group contains our first update, which lists our clients
+			MessageId local = db.getMessageIds(txn, g).iterator().next();
+			try {
+				BdfList body = clientHelper.getMessageAsList(txn, local);
+				Message m = clientHelper.createMessage(g,
+						component.getClock().currentTimeMillis(), body);
+				db.receiveMessage(txn, c, m);
+			} catch (FormatException e) {
+				throw new AssertionError(e);
+			}
+		});
+		waitFor(() -> db.transactionWithResult(true, txn ->
+				clientVersioningManager.getClientMinorVersion(txn, c,
+						MessagingManager.CLIENT_ID,
+						MessagingManager.MAJOR_VERSION)) >= 0);
+	}
+
+	private void waitFor(Condition condition)
+			throws DbException, InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!condition.isSatisfied()) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("Timed out creating fixture");
+			Thread.sleep(POLL_INTERVAL_MS);
+		}
+	}
+
+	private interface Condition {
+
+		boolean isSatisfied() throws DbException;
+	}
+}
@@ -0,0 +1,86 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+
+/**
+ * Measures importing many contacts at once with the bulk method, compared
+ * with adding them one at a time in separate transactions. Each iteration
+ * starts with a new node, so the imports don't slow each other down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ContactImportBenchmark {
+
+	@Param({"1000"})
+	public int contacts;
+
+	private final List<Author> remotes = new ArrayList<>();
+
+	private BenchmarkNode node;
+	private DatabaseComponent db;
+	private ContactManager contactManager;
+	private AuthorId localAuthorId;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		BenchmarkComponent component = node.getComponent();
+		db = component.getDatabaseComponent();
+		contactManager = component.getContactManager();
+		localAuthorId = component.getIdentityManager().getLocalAuthor()
+				.getId();
+		remotes.clear();
+		for (int i = 0; i < contacts; i++) remotes.add(getAuthor());
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws InterruptedException {
+		node.stop();
+	}
+
+	@Benchmark
+	public List<ContactId> addContactsInBulk() throws DbException {
+		return contactManager.addContacts(remotes, localAuthorId, true);
+	}
+
+	@Benchmark
+	public List<ContactId> addContactsOneByOne() throws DbException {
+		List<ContactId> ids = new ArrayList<>(remotes.size());
+		for (Author remote : remotes) {
+			ids.add(db.transactionWithResult(false, txn ->
+					contactManager.addContact(txn, remote, localAuthorId,
+							true)));
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,82 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.conversation.ConversationManager;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures listing the headers of a conversation, as the conversation
+ * screen does, and loading the unread counts for the contact list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConversationHeadersBenchmark {
+
+	@Param({"20"})
+	public int contacts;
+
+	@Param({"100", "1000"})
+	public int messagesPerContact;
+
+	private BenchmarkNode node;
+	private ConversationManager conversationManager;
+	private List<ContactId> contactIds;
+
+	@Setup
+	public void setUp() throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		conversationManager = node.getComponent().getConversationManager();
+		contactIds = new ArrayList<>(contacts);
+		for (Contact c : node.createTestData(contacts, messagesPerContact,
+				0, 0)) {
+			contactIds.add(c.getId());
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		node.stop();
+	}
+
+	@Benchmark
+	public Collection<ConversationMessageHeader> getMessageHeaders()
+			throws DbException {
+		ContactId c = contactIds.get(
+				ThreadLocalRandom.current().nextInt(contactIds.size()));
+		return conversationManager.getMessageHeaders(c);
+	}
+
+	@Benchmark
+	public Map<ContactId, GroupCount> getGroupCounts() throws DbException {
+		return conversationManager.getGroupCounts(contactIds);
+	}
+}
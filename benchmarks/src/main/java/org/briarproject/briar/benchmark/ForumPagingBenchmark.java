@@ -0,0 +1,91 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.briar.api.forum.ForumManager;
+import org.briarproject.briar.api.forum.ForumPostHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures loading a page of threads from a large forum, compared with
+ * loading the headers of every post in the forum. Creating the fixture for
+ * 50,000 posts takes several minutes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ForumPagingBenchmark {
+
+	private static final int CONTACTS = 10;
+	private static final int PAGE_SIZE = 20;
+
+	@Param({"1000", "50000"})
+	public int posts;
+
+	private BenchmarkNode node;
+	private DatabaseComponent db;
+	private ForumManager forumManager;
+	private GroupId forumId;
+	private int middleOffset;
+
+	@Setup
+	public void setUp() throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		db = node.getComponent().getDatabaseComponent();
+		forumManager = node.getComponent().getForumManager();
+		node.createTestData(CONTACTS, 0, 1, posts);
+		forumId = forumManager.getForums().iterator().next().getId();
+		int threads = 0;
+		for (ForumPostHeader h : forumManager.getPostHeaders(forumId)) {
+			if (h.getParentId() == null) threads++;
+		}
+		middleOffset = threads / 2;
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		node.stop();
+	}
+
+	@Benchmark
+	public List<ForumPostHeader> getFirstPage() throws DbException {
+		return getPage(0);
+	}
+
+	@Benchmark
+	public List<ForumPostHeader> getMiddlePage() throws DbException {
+		return getPage(middleOffset);
+	}
+
+	@Benchmark
+	public List<ForumPostHeader> getAllPosts() throws DbException {
+		return db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, forumId));
+	}
+
+	private List<ForumPostHeader> getPage(int offset) throws DbException {
+		return db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, forumId, offset, PAGE_SIZE));
+	}
+}
@@ -0,0 +1,116 @@
+package org.briarproject.briar.benchmark;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessageStateChangedEvent;
+import org.briarproject.briar.api.messaging.PrivateMessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+
+/**
+ * Measures the throughput of the validation pipeline: private messages from
+ * a contact are received in batches, and each batch is timed until all its
+ * messages have been validated and delivered to the messaging client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ValidationBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	private final Set<MessageId> pending = ConcurrentHashMap.newKeySet();
+	private final Semaphore delivered = new Semaphore(0);
+	private final List<Message> batch = new ArrayList<>(BATCH_SIZE);
+
+	private BenchmarkNode node;
+	private DatabaseComponent db;
+	private PrivateMessageFactory privateMessageFactory;
+	private ContactId contactId;
+	private GroupId groupId;
+	private long timestamp;
+
+	@Setup
+	public void setUp() throws IOException, DbException, InterruptedException {
+		node = new BenchmarkNode();
+		node.start();
+		BenchmarkComponent component = node.getComponent();
+		db = component.getDatabaseComponent();
+		privateMessageFactory = component.getPrivateMessageFactory();
+		Contact contact = node.createTestData(1, 0, 0, 0).get(0);
+		contactId = contact.getId();
+		groupId = component.getMessagingManager().getContactGroup(contact)
+				.getId();
+		timestamp = component.getClock().currentTimeMillis();
+		component.getEventBus().addListener(e -> {
+			if (e instanceof MessageStateChangedEvent) {
+				MessageStateChangedEvent m = (MessageStateChangedEvent) e;
+				if (m.getState() == DELIVERED &&
+						pending.remove(m.getMessageId())) {
+					delivered.release();
+				}
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		node.stop();
+	}
+
+	@Setup(Level.Invocation)
+	public void createBatch() throws FormatException {
+		batch.clear();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Message m = privateMessageFactory.createPrivateMessage(groupId,
+					timestamp++, getRandomString(200), emptyList(),
+					NO_AUTO_DELETE_TIMER).getMessage();
+			batch.add(m);
+			pending.add(m.getId());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void receiveAndValidate() throws DbException, InterruptedException {
+		db.transaction(false, txn -> {
+			for (Message m : batch) db.receiveMessage(txn, contactId, m);
+		});
+		if (!delivered.tryAcquire(BATCH_SIZE, 1, MINUTES))
+			throw new AssertionError();
+	}
+}
@@ -7,15 +7,19 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataRange;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.mailbox.MailboxUpdate;
 import org.briarproject.bramble.api.mailbox.MailboxVersion;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
@@ -23,6 +27,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 @NotNullByDefault
 public interface ClientHelper {
 
@@ -67,9 +73,33 @@ public interface ClientHelper {
 	BdfDictionary getGroupMetadataAsDictionary(Transaction txn, GroupId g)
 			throws DbException, FormatException;
 
+	/**
+	 * Returns the group metadata with the given key as a dictionary, which
+	 * is empty if the group has no metadata with the key.
+	 */
+	BdfDictionary getGroupMetadataAsDictionary(Transaction txn, GroupId g,
+			String key) throws DbException, FormatException;
+
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
+	/**
+	 * Creates a {@link MetadataQuery} that matches messages with metadata
+	 * containing all entries of the given dictionary and integer values
+	 * within all the given ranges.
+	 *
+	 * @param orderKey The key whose integer value should be used to order
+	 * the results, or null if the results are unordered
+	 * @param limit The maximum number of results, or
+	 * {@link MetadataQuery#NO_LIMIT}
+	 */
+	MetadataQuery createMetadataQuery(BdfDictionary equal,
+			Collection<MetadataRange> ranges, @Nullable String orderKey,
+			boolean descending, int limit) throws FormatException;
+
+	List<MessageId> getMessageIds(Transaction txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
 	BdfDictionary getMessageMetadataAsDictionary(MessageId m)
 			throws DbException, FormatException;
 
@@ -89,6 +119,15 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	/**
+	 * Returns the metadata for any messages in the given group that match
+	 * the given query. The map iterates over the messages in the order
+	 * requested by the query.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, MetadataQuery query)
+			throws DbException, FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -174,4 +213,13 @@ public interface ClientHelper {
 	 */
 	void setContactId(Transaction txn, GroupId contactGroupId, ContactId c)
 			throws DbException;
+
+	/**
+	 * Sets the priority with which messages belonging to the given client
+	 * are offered and sent to contacts. This should be called before the
+	 * client's messages are synced, typically when the client is
+	 * registered. Clients that don't set a priority have
+	 * {@link SendPriority#NORMAL} priority.
+	 */
+	void setSendPriority(ClientId c, int majorVersion, SendPriority p);
 }
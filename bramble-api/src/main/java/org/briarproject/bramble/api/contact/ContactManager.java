@@ -16,6 +16,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -82,6 +83,29 @@ public interface ContactManager {
 	ContactId addContact(Transaction txn, Author remote, AuthorId local,
 			boolean verified) throws DbException;
 
+	/**
+	 * Stores a contact for each of the given remote pseudonyms, associated
+	 * with the given local pseudonym, and returns the IDs of the contacts in
+	 * the same order as the pseudonyms. Contact hooks are called once for the
+	 * whole batch, which is considerably faster than calling
+	 * {@link #addContact(Transaction, Author, AuthorId, boolean)} for each
+	 * contact.
+	 *
+	 * @param verified True if the contacts' identities have been verified
+	 */
+	List<ContactId> addContacts(Transaction txn, Collection<Author> remotes,
+			AuthorId local, boolean verified) throws DbException;
+
+	/**
+	 * Stores a contact for each of the given remote pseudonyms, associated
+	 * with the given local pseudonym, and returns the IDs of the contacts in
+	 * the same order as the pseudonyms.
+	 *
+	 * @param verified True if the contacts' identities have been verified
+	 */
+	List<ContactId> addContacts(Collection<Author> remotes, AuthorId local,
+			boolean verified) throws DbException;
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * derives and stores rotation mode transport keys for each transport, and
@@ -268,6 +292,17 @@ public interface ContactManager {
 		 */
 		void addingContact(Transaction txn, Contact c) throws DbException;
 
+		/**
+		 * Called when a batch of contacts is being added. Hooks should set up
+		 * the contacts' groups with batched database operations where
+		 * possible.
+		 *
+		 * @param txn A read-write transaction
+		 * @param contacts The contacts that are being added
+		 */
+		void addingContacts(Transaction txn, Collection<Contact> contacts)
+				throws DbException;
+
 		/**
 		 * Called when a contact is being removed
 		 *
@@ -6,11 +6,16 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.io.IOException;
 
 /**
- * An interface for reading BDF objects from an input stream.
+ * An interface for reading BDF objects from an input stream or byte array.
  * <p>
  * The readX() methods throw {@link FormatException} if the data is not in
  * canonical form, but the hasX() and skipX() methods do not check for
  * canonical form.
+ * <p>
+ * Lists and dictionaries can either be read whole, or stepped through one
+ * element at a time using the readXStart(), hasXEnd() and readXEnd()
+ * methods. Stepping through avoids building the whole object when only a
+ * few elements are needed, as the rest can be skipped.
  */
 @NotNullByDefault
 public interface BdfReader {
@@ -153,6 +158,23 @@ public interface BdfReader {
 	 */
 	BdfList readList() throws IOException;
 
+	/**
+	 * Reads the start of a BDF list from the input. The list's elements can
+	 * then be read or skipped one at a time until {@link #hasListEnd()}
+	 * returns true.
+	 */
+	void readListStart() throws IOException;
+
+	/**
+	 * Returns true if the next object in the input is the end of a BDF list.
+	 */
+	boolean hasListEnd() throws IOException;
+
+	/**
+	 * Reads the end of a BDF list from the input.
+	 */
+	void readListEnd() throws IOException;
+
 	/**
 	 * Skips over a BDF list. The list's contents are parsed (to determine
 	 * their length) but not validated.
@@ -170,6 +192,26 @@ public interface BdfReader {
 	 */
 	BdfDictionary readDictionary() throws IOException;
 
+	/**
+	 * Reads the start of a BDF dictionary from the input. The dictionary's
+	 * keys and values can then be read or skipped one at a time until
+	 * {@link #hasDictionaryEnd()} returns true. Unlike
+	 * {@link #readDictionary()}, this does not check that the keys are
+	 * unique and sorted.
+	 */
+	void readDictionaryStart() throws IOException;
+
+	/**
+	 * Returns true if the next object in the input is the end of a BDF
+	 * dictionary.
+	 */
+	boolean hasDictionaryEnd() throws IOException;
+
+	/**
+	 * Reads the end of a BDF dictionary from the input.
+	 */
+	void readDictionaryEnd() throws IOException;
+
 	/**
 	 * Skips over a BDF dictionary. The dictionary's contents are parsed
 	 * (to determine their length) but not validated.
@@ -19,4 +19,13 @@ public interface BdfReaderFactory {
 
 	BdfReader createReader(InputStream in, int nestedLimit,
 			int maxBufferSize, boolean canonical);
+
+	/**
+	 * Creates a reader that reads the given range of the given array in
+	 * place, which is cheaper than wrapping the array in an input stream.
+	 */
+	BdfReader createReader(byte[] b, int off, int len);
+
+	BdfReader createReader(byte[] b, int off, int len, int nestedLimit,
+			int maxBufferSize, boolean canonical);
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.db;
 
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContact;
@@ -14,6 +15,7 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -22,10 +24,13 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.Collection;
@@ -88,6 +93,14 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	void addGroup(Transaction txn, Group g) throws DbException;
 
+	/**
+	 * Stores the given groups, ignoring any that are already stored. This is
+	 * faster than calling {@link #addGroup(Transaction, Group)} for each
+	 * group.
+	 */
+	void addGroups(Transaction txn, Collection<Group> groups)
+			throws DbException;
+
 	/**
 	 * Stores an identity.
 	 */
@@ -210,21 +223,27 @@ public interface DatabaseComponent extends TransactionManager {
 	 * Returns a batch of messages for the given contact, for transmission over
 	 * a transport with the given maximum latency. The total length of the
 	 * messages, including record headers, will be no more than the given
-	 * capacity. Returns null if there are no sendable messages that would fit
-	 * in the given capacity.
+	 * capacity. Messages are chosen in order of the given send priorities of
+	 * their clients and then by timestamp. Clients missing from the map have
+	 * {@link SendPriority#NORMAL} priority. Returns null if there are no
+	 * sendable messages that would fit in the given capacity.
 	 */
 	@Nullable
 	Collection<Message> generateBatch(Transaction txn, ContactId c,
-			long capacity, long maxLatency) throws DbException;
+			long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns an offer for the given contact for transmission over a
 	 * transport with the given maximum latency, or null if there are no
-	 * messages to offer.
+	 * messages to offer. Messages are chosen in order of the given send
+	 * priorities of their clients and then by timestamp.
 	 */
 	@Nullable
 	Offer generateOffer(Transaction txn, ContactId c, int maxMessages,
-			long maxLatency) throws DbException;
+			long maxLatency, Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns a request for the given contact, or null if there are no
@@ -239,12 +258,26 @@ public interface DatabaseComponent extends TransactionManager {
 	 * a transport with the given maximum latency. Only messages that have been
 	 * requested by the contact are returned. The total length of the messages,
 	 * including record headers, will be no more than the given capacity.
-	 * Returns null if there are no sendable messages that have been requested
-	 * by the contact and would fit in the given capacity.
+	 * Messages are chosen in order of the given send priorities of their
+	 * clients and then by timestamp. Returns null if there are no sendable
+	 * messages that have been requested by the contact and would fit in the
+	 * given capacity.
 	 */
 	@Nullable
 	Collection<Message> generateRequestedBatch(Transaction txn, ContactId c,
-			long capacity, long maxLatency) throws DbException;
+			long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
+
+	/**
+	 * Returns a summary of each group shared with the given contact that
+	 * contains at least the given number of messages the contact has not
+	 * seen, paired with the IDs of the messages the summary covers.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<Pair<Summary, Collection<MessageId>>> generateSummaries(
+			Transaction txn, ContactId c, int minUnseen) throws DbException;
 
 	/**
 	 * Returns the contact with the given ID.
@@ -297,6 +330,15 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Metadata getGroupMetadata(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the metadata for the given group with the given key. The
+	 * returned metadata is empty if the group has no metadata with the key.
+	 * <p/>
+	 * Read-only.
+	 */
+	Metadata getGroupMetadata(Transaction txn, GroupId g, String key)
+			throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -355,6 +397,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the IDs of any delivered messages in the given group that
+	 * match the given query, in the order requested by the query.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageId> getMessageIds(Transaction txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
 	/**
 	 * Returns the IDs of all messages received from the given contact that
 	 * need to be acknowledged.
@@ -368,7 +419,8 @@ public interface DatabaseComponent extends TransactionManager {
 	 * Returns the IDs of some messages that are eligible to be sent to the
 	 * given contact over a transport with the given maximum latency. The total
 	 * length of the messages including record headers will be no more than the
-	 * given capacity.
+	 * given capacity. Messages are chosen in order of the given send
+	 * priorities of their clients and then by timestamp.
 	 * <p/>
 	 * Unlike {@link #getUnackedMessagesToSend(Transaction, ContactId)} this
 	 * method does not return messages that have already been sent unless they
@@ -377,7 +429,9 @@ public interface DatabaseComponent extends TransactionManager {
 	 * Read-only.
 	 */
 	Collection<MessageId> getMessagesToSend(Transaction txn, ContactId c,
-			long capacity, long maxLatency) throws DbException;
+			long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns the IDs of any messages that need to be validated.
@@ -432,6 +486,16 @@ public interface DatabaseComponent extends TransactionManager {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any delivered messages in the given group that
+	 * match the given query. The map iterates over the messages in the order
+	 * requested by the query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered message.
 	 * <p/>
@@ -514,7 +578,8 @@ public interface DatabaseComponent extends TransactionManager {
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact.
 	 * <p>
-	 * Unlike {@link #getMessagesToSend(Transaction, ContactId, long, long)}
+	 * Unlike
+	 * {@link #getMessagesToSend(Transaction, ContactId, long, long, Map)}
 	 * this method may return messages that have already been sent and are
 	 * not yet due for retransmission.
 	 * <p/>
@@ -531,6 +596,16 @@ public interface DatabaseComponent extends TransactionManager {
 	void resetUnackedMessagesToSend(Transaction txn, ContactId c)
 			throws DbException;
 
+	/**
+	 * Resets the transmission count and expiry time of any of the given
+	 * messages that are visible to the given contact, so that messages the
+	 * contact hasn't acked can be offered or sent again without waiting for
+	 * them to expire. This is used when a connection to the contact closes
+	 * before the messages sent over it have been acked.
+	 */
+	void resetUnackedMessagesToSend(Transaction txn, ContactId c,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the total length, including headers, of all messages that are
 	 * eligible to be sent to the given contact. This may include messages
@@ -643,6 +718,14 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	void receiveAck(Transaction txn, ContactId c, Ack a) throws DbException;
 
+	/**
+	 * Processes a difference from the given contact, sent in reply to a
+	 * summary covering the given messages. Messages added to the group after
+	 * the summary was generated are not affected.
+	 */
+	void receiveDifference(Transaction txn, ContactId c, Difference d,
+			Collection<MessageId> summarised) throws DbException;
+
 	/**
 	 * Processes a message from the given contact.
 	 */
@@ -660,6 +743,12 @@ public interface DatabaseComponent extends TransactionManager {
 	void receiveRequest(Transaction txn, ContactId c, Request r)
 			throws DbException;
 
+	/**
+	 * Processes a summary from the given contact.
+	 */
+	void receiveSummary(Transaction txn, ContactId c, Summary s)
+			throws DbException;
+
 	/**
 	 * Removes a contact (and all associated state) from the database.
 	 */
@@ -734,6 +823,16 @@ public interface DatabaseComponent extends TransactionManager {
 	void setGroupVisibility(Transaction txn, ContactId c, GroupId g,
 			Visibility v) throws DbException;
 
+	/**
+	 * Sets the visibility of each of the given groups to the contact that
+	 * maps to it. This is faster than calling
+	 * {@link #setGroupVisibility(Transaction, ContactId, GroupId, Visibility)}
+	 * for each contact, especially when the groups were previously invisible,
+	 * as is the case for the contact groups of newly added contacts.
+	 */
+	void setGroupVisibility(Transaction txn, Map<ContactId, GroupId> groups,
+			Visibility v) throws DbException;
+
 	/**
 	 * Marks the given message as permanent, i.e. not temporary.
 	 */
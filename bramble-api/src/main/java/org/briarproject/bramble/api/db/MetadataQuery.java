@@ -0,0 +1,121 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * A query for messages in a group that is evaluated by the database rather
+ * than by loading and filtering the metadata of every message.
+ * <p/>
+ * A message matches the query if its metadata contains all the entries in
+ * {@link #getEqual()} and an integer value within each of the
+ * {@link #getRanges() ranges}. The matching messages may be ordered by the
+ * integer value of a metadata key, with messages that lack an integer value
+ * for that key coming last, and a page of the results may be selected with
+ * an offset and a limit.
+ */
+@Immutable
+@NotNullByDefault
+public class MetadataQuery {
+
+	/**
+	 * Limit value indicating that the number of results is not limited.
+	 */
+	public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+	private final Metadata equal;
+	private final List<MetadataRange> ranges;
+	@Nullable
+	private final String orderKey;
+	private final boolean descending;
+	private final int offset, limit;
+
+	public MetadataQuery(Metadata equal) {
+		this(equal, emptyList(), null, false, NO_LIMIT);
+	}
+
+	public MetadataQuery(Metadata equal, Collection<MetadataRange> ranges,
+			@Nullable String orderKey, boolean descending, int limit) {
+		this(equal, ranges, orderKey, descending, 0, limit);
+	}
+
+	public MetadataQuery(Metadata equal, Collection<MetadataRange> ranges,
+			@Nullable String orderKey, boolean descending, int offset,
+			int limit) {
+		if (offset < 0 || limit < 0) throw new IllegalArgumentException();
+		Metadata copy = new Metadata();
+		copy.putAll(equal);
+		this.equal = copy;
+		this.ranges = unmodifiableList(new ArrayList<>(ranges));
+		this.orderKey = orderKey;
+		this.descending = descending;
+		this.offset = offset;
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the encoded metadata values that matching messages must have.
+	 * The returned metadata must not be modified.
+	 */
+	public Metadata getEqual() {
+		return equal;
+	}
+
+	/**
+	 * Returns the ranges that matching messages' integer metadata values
+	 * must fall within.
+	 */
+	public List<MetadataRange> getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Returns the key whose integer value should be used to order the
+	 * results, or null if the results are unordered.
+	 */
+	@Nullable
+	public String getOrderKey() {
+		return orderKey;
+	}
+
+	/**
+	 * Returns true if the results should be ordered from the highest value
+	 * to the lowest.
+	 */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Returns the number of results to skip before the first result that's
+	 * returned. Messages with equal values for the order key are ordered by
+	 * message ID so that pages don't overlap.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the maximum number of results, or {@link #NO_LIMIT}.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns true if the query has no terms and therefore matches every
+	 * message.
+	 */
+	public boolean hasNoTerms() {
+		return equal.isEmpty() && ranges.isEmpty();
+	}
+}
@@ -0,0 +1,45 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A {@link MetadataQuery} term that matches messages with an integer
+ * metadata value for the given key between the given minimum and maximum,
+ * inclusive.
+ */
+@Immutable
+@NotNullByDefault
+public class MetadataRange {
+
+	private final String key;
+	private final long min, max;
+
+	public MetadataRange(String key, long min, long max) {
+		if (min > max) throw new IllegalArgumentException();
+		this.key = key;
+		this.min = min;
+		this.max = max;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public static MetadataRange atLeast(String key, long min) {
+		return new MetadataRange(key, min, Long.MAX_VALUE);
+	}
+
+	public static MetadataRange atMost(String key, long max) {
+		return new MetadataRange(key, Long.MIN_VALUE, max);
+	}
+}
@@ -8,8 +8,11 @@ import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.Wakeful;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
 import java.util.concurrent.ExecutorService;
 
+import javax.annotation.Nullable;
+
 /**
  * Manages the lifecycle of the app: opening and closing the
  * {@link DatabaseComponent} starting and stopping {@link Service Services},
@@ -59,11 +62,37 @@ public interface LifecycleManager {
 	void registerOpenDatabaseHook(OpenDatabaseHook hook);
 
 	/**
-	 * Registers a {@link Service} to be started and stopped. This method
-	 * should be called before {@link #startServices(SecretKey)}.
+	 * Registers a hook to be called after {@link Service services} have
+	 * started and the lifecycle has entered the
+	 * {@link LifecycleState#RUNNING RUNNING} state. Each deferred hook is
+	 * called in its own transaction. This is suitable for hooks that
+	 * aren't needed by services or the UI at startup, such as building
+	 * indexes. This method should be called before
+	 * {@link #startServices(SecretKey)}.
+	 */
+	void registerDeferredOpenDatabaseHook(OpenDatabaseHook hook);
+
+	/**
+	 * Registers a {@link Service} to be started and stopped. The service
+	 * will be started on the thread that calls
+	 * {@link #startServices(SecretKey)}, after all services registered
+	 * before it have started. This method should be called before
+	 * {@link #startServices(SecretKey)}.
 	 */
 	void registerService(Service s);
 
+	/**
+	 * Registers a {@link Service} to be started and stopped. The service
+	 * will be started as soon as the given services have started, and may be
+	 * started concurrently with other services. The dependencies must
+	 * already have been registered. This method should be called before
+	 * {@link #startServices(SecretKey)}.
+	 *
+	 * @throws IllegalArgumentException if any of the dependencies haven't
+	 * been registered
+	 */
+	void registerService(Service s, Collection<Service> dependencies);
+
 	/**
 	 * Registers an {@link ExecutorService} to be shut down. This method
 	 * should be called before {@link #startServices(SecretKey)}.
@@ -112,6 +141,15 @@ public interface LifecycleManager {
 	 */
 	LifecycleState getLifecycleState();
 
+	/**
+	 * Returns a report of how long startup took, or null if the lifecycle
+	 * hasn't reached the {@link LifecycleState#RUNNING RUNNING} state.
+	 * Once any deferred open database hooks have been called, the report
+	 * includes them.
+	 */
+	@Nullable
+	StartupReport getStartupReport();
+
 	interface OpenDatabaseHook {
 		/**
 		 * Called when the database is being opened, before
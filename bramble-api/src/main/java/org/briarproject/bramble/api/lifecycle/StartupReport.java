@@ -0,0 +1,75 @@
+package org.briarproject.bramble.api.lifecycle;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Map;
+
+import javax.annotation.concurrent.Immutable;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Records how long each step of starting the app took, in milliseconds.
+ * Open database hooks and services are identified by their simple class
+ * names.
+ */
+@Immutable
+@NotNullByDefault
+public class StartupReport {
+
+	private final long openDatabaseDuration, totalDuration;
+	private final Map<String, Long> hookDurations, serviceDurations;
+	private final Map<String, Long> deferredHookDurations;
+
+	public StartupReport(long openDatabaseDuration, long totalDuration,
+			Map<String, Long> hookDurations,
+			Map<String, Long> serviceDurations,
+			Map<String, Long> deferredHookDurations) {
+		this.openDatabaseDuration = openDatabaseDuration;
+		this.totalDuration = totalDuration;
+		this.hookDurations = unmodifiableMap(hookDurations);
+		this.serviceDurations = unmodifiableMap(serviceDurations);
+		this.deferredHookDurations = unmodifiableMap(deferredHookDurations);
+	}
+
+	/**
+	 * Returns how long it took to open the database, including any
+	 * migration or compaction.
+	 */
+	public long getOpenDatabaseDuration() {
+		return openDatabaseDuration;
+	}
+
+	/**
+	 * Returns how long it took to reach the
+	 * {@link LifecycleManager.LifecycleState#RUNNING RUNNING} state.
+	 */
+	public long getTotalDuration() {
+		return totalDuration;
+	}
+
+	/**
+	 * Returns how long each open database hook took, in the order the hooks
+	 * were called.
+	 */
+	public Map<String, Long> getOpenDatabaseHookDurations() {
+		return hookDurations;
+	}
+
+	/**
+	 * Returns how long each service took to start, in the order the
+	 * services finished starting.
+	 */
+	public Map<String, Long> getServiceDurations() {
+		return serviceDurations;
+	}
+
+	/**
+	 * Returns how long each deferred open database hook took, in the order
+	 * the hooks were called. This is empty until the deferred hooks have
+	 * been called.
+	 */
+	public Map<String, Long> getDeferredOpenDatabaseHookDurations() {
+		return deferredHookDurations;
+	}
+}
@@ -2,19 +2,45 @@ package org.briarproject.bramble.api.lifecycle.event;
 
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState;
+import org.briarproject.bramble.api.lifecycle.StartupReport;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 
 /**
  * An event that is broadcast when the app enters a new lifecycle state.
  */
+@Immutable
+@NotNullByDefault
 public class LifecycleEvent extends Event {
 
 	private final LifecycleState state;
+	@Nullable
+	private final StartupReport startupReport;
 
 	public LifecycleEvent(LifecycleState state) {
+		this(state, null);
+	}
+
+	public LifecycleEvent(LifecycleState state,
+			@Nullable StartupReport startupReport) {
 		this.state = state;
+		this.startupReport = startupReport;
 	}
 
 	public LifecycleState getLifecycleState() {
 		return state;
 	}
+
+	/**
+	 * Returns a report of how long startup took, if the new state is
+	 * {@link LifecycleState#RUNNING RUNNING}, or null otherwise. The report
+	 * doesn't include any deferred open database hooks, as they're called
+	 * after this event is broadcast.
+	 */
+	@Nullable
+	public StartupReport getStartupReport() {
+		return startupReport;
+	}
 }
@@ -0,0 +1,19 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A metric whose value only increases, such as a number of events or bytes.
+ */
+@ThreadSafe
+@NotNullByDefault
+public interface Counter {
+
+	void increment();
+
+	void add(long amount);
+
+	long getCount();
+}
@@ -0,0 +1,20 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A metric whose value can increase and decrease, such as the number of open
+ * connections or the length of a queue.
+ */
+@ThreadSafe
+@NotNullByDefault
+public interface Gauge {
+
+	void set(long value);
+
+	void add(long amount);
+
+	long getValue();
+}
@@ -0,0 +1,18 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A metric that counts observed durations in buckets.
+ */
+@ThreadSafe
+@NotNullByDefault
+public interface Histogram {
+
+	/**
+	 * Records a duration in milliseconds.
+	 */
+	void record(long durationMs);
+}
@@ -0,0 +1,23 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+/**
+ * Writes snapshots of metrics in a format that can be consumed by a
+ * monitoring system.
+ */
+@NotNullByDefault
+public interface MetricExporter {
+
+	/**
+	 * Returns the MIME type of the exported metrics.
+	 */
+	String getContentType();
+
+	void export(Collection<MetricFamily> families, Writer out)
+			throws IOException;
+}
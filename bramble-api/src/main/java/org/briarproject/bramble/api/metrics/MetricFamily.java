@@ -0,0 +1,43 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A snapshot of all the metrics registered under a name.
+ */
+@Immutable
+@NotNullByDefault
+public class MetricFamily {
+
+	private final String name, help;
+	private final MetricType type;
+	private final List<MetricSample> samples;
+
+	public MetricFamily(String name, String help, MetricType type,
+			List<MetricSample> samples) {
+		this.name = name;
+		this.help = help;
+		this.type = type;
+		this.samples = samples;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getHelp() {
+		return help;
+	}
+
+	public MetricType getType() {
+		return type;
+	}
+
+	public List<MetricSample> getSamples() {
+		return samples;
+	}
+}
@@ -0,0 +1,46 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+
+/**
+ * A registry of counters, gauges and histograms describing the behaviour of
+ * the running node.
+ * <p>
+ * Metrics are identified by a name and an optional label. Asking for the
+ * same name and label twice returns the same metric, so callers on hot
+ * paths should keep a reference rather than looking it up each time. Each
+ * name must always be used with the same type of metric and label name.
+ */
+@NotNullByDefault
+public interface MetricRegistry {
+
+	Counter getCounter(String name, String help);
+
+	Counter getCounter(String name, String help, String labelName,
+			String labelValue);
+
+	Gauge getGauge(String name, String help);
+
+	Gauge getGauge(String name, String help, String labelName,
+			String labelValue);
+
+	/**
+	 * Returns a histogram of durations with buckets ranging from one
+	 * millisecond to one minute.
+	 */
+	Histogram getHistogram(String name, String help);
+
+	/**
+	 * Returns a histogram of durations with buckets ranging from one
+	 * millisecond to one minute.
+	 */
+	Histogram getHistogram(String name, String help, String labelName,
+			String labelValue);
+
+	/**
+	 * Returns a snapshot of all registered metrics, sorted by name.
+	 */
+	Collection<MetricFamily> getMetrics();
+}
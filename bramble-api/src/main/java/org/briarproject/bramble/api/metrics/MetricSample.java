@@ -0,0 +1,42 @@
+package org.briarproject.bramble.api.metrics;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Map;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A single value belonging to a {@link MetricFamily}. A histogram produces
+ * several samples, one for each bucket plus the sum and count.
+ */
+@Immutable
+@NotNullByDefault
+public class MetricSample {
+
+	private final String name;
+	private final Map<String, String> labels;
+	private final long value;
+
+	public MetricSample(String name, Map<String, String> labels, long value) {
+		this.name = name;
+		this.labels = labels;
+		this.value = value;
+	}
+
+	/**
+	 * Returns the name of the sample, which is the name of the family,
+	 * possibly with a suffix such as "_bucket".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public Map<String, String> getLabels() {
+		return labels;
+	}
+
+	public long getValue() {
+		return value;
+	}
+}
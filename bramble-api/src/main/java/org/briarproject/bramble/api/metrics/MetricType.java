@@ -0,0 +1,6 @@
+package org.briarproject.bramble.api.metrics;
+
+public enum MetricType {
+
+	COUNTER, GAUGE, HISTOGRAM
+}
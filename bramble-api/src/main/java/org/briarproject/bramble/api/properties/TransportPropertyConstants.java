@@ -17,6 +17,31 @@ public interface TransportPropertyConstants {
 	 */
 	String REFLECTED_PROPERTY_PREFIX = "u:";
 
+	/**
+	 * The delay between a change to the local properties and copying the
+	 * changed properties into each contact's group. Any further changes
+	 * during this period are coalesced into the same update.
+	 */
+	long FAN_OUT_DELAY_MS = 1000;
+
+	/**
+	 * The maximum number of contact groups to update in a single transaction
+	 * when copying changed local properties into each contact's group.
+	 */
+	int FAN_OUT_BATCH_SIZE = 50;
+
+	/**
+	 * The delay before retrying a batch of a fan-out that failed. The delay
+	 * doubles with each consecutive failure, up to
+	 * {@link #MAX_FAN_OUT_RETRY_DELAY_MS}.
+	 */
+	long FAN_OUT_RETRY_DELAY_MS = 30_000;
+
+	/**
+	 * The maximum delay before retrying a batch of a fan-out that failed.
+	 */
+	long MAX_FAN_OUT_RETRY_DELAY_MS = 60 * 60 * 1000;
+
 	/**
 	 * Message metadata key for the transport ID of a local or remote update,
 	 * as a BDF string.
@@ -35,6 +60,12 @@ public interface TransportPropertyConstants {
 	 */
 	String MSG_KEY_LOCAL = "local";
 
+	/**
+	 * Message metadata key for whether a local update in the local group
+	 * still needs to be copied into each contact's group, as a BDF boolean.
+	 */
+	String MSG_KEY_FAN_OUT_PENDING = "fanOutPending";
+
 	/**
 	 * Group metadata key for any discovered transport properties of the
 	 * contact, as a BDF dictionary.
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.properties.event.LocalTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.nullsafety.NotNullByDefault;
 
@@ -77,6 +78,11 @@ public interface TransportPropertyManager {
 	/**
 	 * Merges the given properties with the existing local properties for the
 	 * given transport.
+	 * <p>
+	 * The merged properties are copied into each contact's group
+	 * asynchronously, in batches. A
+	 * {@link LocalTransportPropertiesUpdatedEvent} is broadcast when every
+	 * contact's group has been updated.
 	 */
 	void mergeLocalProperties(TransportId t, TransportProperties p)
 			throws DbException;
@@ -0,0 +1,28 @@
+package org.briarproject.bramble.api.properties.event;
+
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when the latest local
+ * {@link TransportProperties} for a transport have been copied into every
+ * contact's group.
+ */
+@Immutable
+@NotNullByDefault
+public class LocalTransportPropertiesUpdatedEvent extends Event {
+
+	private final TransportId transportId;
+
+	public LocalTransportPropertiesUpdatedEvent(TransportId transportId) {
+		this.transportId = transportId;
+	}
+
+	public TransportId getTransportId() {
+		return transportId;
+	}
+}
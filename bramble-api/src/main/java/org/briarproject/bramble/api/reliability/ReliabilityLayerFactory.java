@@ -6,7 +6,21 @@ import org.briarproject.nullsafety.NotNullByDefault;
 public interface ReliabilityLayerFactory {
 
 	/**
-	 * Returns a reliability layer that writes to the given lower layer.
+	 * The default maximum size of the send and receive windows in bytes.
+	 */
+	int DEFAULT_MAX_WINDOW_SIZE = 64 * 1024;
+
+	/**
+	 * Returns a reliability layer that writes to the given lower layer,
+	 * using windows of up to {@link #DEFAULT_MAX_WINDOW_SIZE} bytes.
 	 */
 	ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler);
+
+	/**
+	 * Returns a reliability layer that writes to the given lower layer,
+	 * using send and receive windows of up to the given size in bytes.
+	 * Larger windows keep more data in flight on high-latency links.
+	 */
+	ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler,
+			int maxWindowSize);
 }
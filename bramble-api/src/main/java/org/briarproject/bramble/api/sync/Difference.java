@@ -0,0 +1,43 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A record sent in reply to a {@link Summary}, telling the recipient which
+ * buckets of the summary differ from the sender's messages in the same
+ * group.
+ */
+@Immutable
+@NotNullByDefault
+public class Difference {
+
+	private final GroupId groupId;
+	private final int bucketBits;
+	private final boolean[] different;
+
+	public Difference(GroupId groupId, int bucketBits, boolean[] different) {
+		if (different.length != 1 << bucketBits)
+			throw new IllegalArgumentException();
+		this.groupId = groupId;
+		this.bucketBits = bucketBits;
+		this.different = different;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+
+	public int getBucketBits() {
+		return bucketBits;
+	}
+
+	public int getBucketCount() {
+		return different.length;
+	}
+
+	public boolean isDifferent(int bucket) {
+		return different[bucket];
+	}
+}
@@ -0,0 +1,13 @@
+package org.briarproject.bramble.api.sync;
+
+/**
+ * The priority with which a client's messages are offered and sent to
+ * contacts. Messages with higher priority are sent before messages with
+ * lower priority, regardless of their timestamps.
+ */
+public enum SendPriority {
+
+	HIGH, // Interactive content such as private messages
+	NORMAL, // The default for clients that don't declare a priority
+	LOW // Bulk content such as forum and blog posts
+}
@@ -0,0 +1,26 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Map;
+
+/**
+ * Keeps track of the priorities with which clients' messages are offered
+ * and sent to contacts.
+ */
+@NotNullByDefault
+public interface SendPriorityRegistry {
+
+	/**
+	 * Sets the priority with which messages belonging to the given client
+	 * are offered and sent. Clients that don't set a priority have
+	 * {@link SendPriority#NORMAL} priority.
+	 */
+	void setSendPriority(ClientId c, int majorVersion, SendPriority p);
+
+	/**
+	 * Returns a snapshot of the clients with non-default send priorities.
+	 */
+	Map<ClientMajorVersion, SendPriority> getSendPriorities();
+}
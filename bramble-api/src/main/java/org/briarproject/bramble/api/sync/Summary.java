@@ -0,0 +1,53 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A record summarising the messages in a group for set reconciliation. The
+ * messages are divided into 2^bucketBits buckets by the leading bits of
+ * their IDs, and each bucket is summarised by the number of messages it
+ * contains and a fingerprint of their IDs.
+ */
+@Immutable
+@NotNullByDefault
+public class Summary {
+
+	private final GroupId groupId;
+	private final int bucketBits;
+	private final int[] counts;
+	private final byte[][] fingerprints;
+
+	public Summary(GroupId groupId, int bucketBits, int[] counts,
+			byte[][] fingerprints) {
+		if (counts.length != 1 << bucketBits)
+			throw new IllegalArgumentException();
+		if (fingerprints.length != counts.length)
+			throw new IllegalArgumentException();
+		this.groupId = groupId;
+		this.bucketBits = bucketBits;
+		this.counts = counts;
+		this.fingerprints = fingerprints;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+
+	public int getBucketBits() {
+		return bucketBits;
+	}
+
+	public int getBucketCount() {
+		return counts.length;
+	}
+
+	public int getCount(int bucket) {
+		return counts[bucket];
+	}
+
+	public byte[] getFingerprint(int bucket) {
+		return fingerprints[bucket];
+	}
+}
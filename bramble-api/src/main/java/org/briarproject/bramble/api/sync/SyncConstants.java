@@ -4,7 +4,7 @@ import org.briarproject.bramble.api.UniqueId;
 
 import java.util.List;
 
-import static java.util.Collections.singletonList;
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 
@@ -15,10 +15,19 @@ public interface SyncConstants {
 	 */
 	byte PROTOCOL_VERSION = 0;
 
+	/**
+	 * The version of the sync protocol that added set reconciliation.
+	 * Records are still sent with {@link #PROTOCOL_VERSION}; this version is
+	 * advertised so the peer knows that {@link Summary} and
+	 * {@link Difference} records will be understood.
+	 */
+	byte RECONCILIATION_VERSION = 1;
+
 	/**
 	 * The versions of the sync protocol this peer supports.
 	 */
-	List<Byte> SUPPORTED_VERSIONS = singletonList(PROTOCOL_VERSION);
+	List<Byte> SUPPORTED_VERSIONS =
+			asList(PROTOCOL_VERSION, RECONCILIATION_VERSION);
 
 	/**
 	 * The maximum length of a group descriptor in bytes.
@@ -61,4 +70,16 @@ public interface SyncConstants {
 	 * The maximum allowed latency for any transport, in milliseconds.
 	 */
 	long MAX_TRANSPORT_LATENCY = DAYS.toMillis(365);
+
+	/**
+	 * The maximum number of bits used for dividing a group's messages into
+	 * buckets in a {@link Summary} record.
+	 */
+	int MAX_SUMMARY_BUCKET_BITS = 10;
+
+	/**
+	 * The length of the fingerprint of each bucket in a {@link Summary}
+	 * record, in bytes.
+	 */
+	int SUMMARY_FINGERPRINT_LENGTH = 16;
 }
@@ -32,4 +32,12 @@ public interface SyncRecordReader {
 	boolean hasPriority() throws IOException;
 
 	Priority readPriority() throws IOException;
+
+	boolean hasSummary() throws IOException;
+
+	Summary readSummary() throws IOException;
+
+	boolean hasDifference() throws IOException;
+
+	Difference readDifference() throws IOException;
 }
@@ -19,6 +19,10 @@ public interface SyncRecordWriter {
 
 	void writePriority(Priority p) throws IOException;
 
+	void writeSummary(Summary s) throws IOException;
+
+	void writeDifference(Difference d) throws IOException;
+
 	void flush() throws IOException;
 
 	long getBytesWritten();
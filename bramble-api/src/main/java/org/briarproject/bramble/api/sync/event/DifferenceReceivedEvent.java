@@ -0,0 +1,35 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a contact replies to a summary with a
+ * difference. The difference is processed by the outgoing session that sent
+ * the summary.
+ */
+@Immutable
+@NotNullByDefault
+public class DifferenceReceivedEvent extends Event {
+
+	private final ContactId contactId;
+	private final Difference difference;
+
+	public DifferenceReceivedEvent(ContactId contactId,
+			Difference difference) {
+		this.contactId = contactId;
+		this.difference = difference;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	public Difference getDifference() {
+		return difference;
+	}
+}
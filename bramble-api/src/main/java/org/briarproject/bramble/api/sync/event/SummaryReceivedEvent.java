@@ -0,0 +1,33 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a summary is received from a contact and
+ * the given difference needs to be sent in reply.
+ */
+@Immutable
+@NotNullByDefault
+public class SummaryReceivedEvent extends Event {
+
+	private final ContactId contactId;
+	private final Difference difference;
+
+	public SummaryReceivedEvent(ContactId contactId, Difference difference) {
+		this.contactId = contactId;
+		this.difference = difference;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	public Difference getDifference() {
+		return difference;
+	}
+}
@@ -114,7 +114,9 @@ public interface KeyManager {
 	 * Looks up the given tag and returns a {@link StreamContext} for reading
 	 * from the corresponding stream, or null if an error occurs or the tag was
 	 * unexpected. Marks the tag as recognised and updates the reordering
-	 * window.
+	 * window. The updated window is written to the database together with
+	 * any other tags recognised at the same time, and this method returns
+	 * once that transaction has committed.
 	 */
 	@Nullable
 	StreamContext getStreamContext(TransportId t, byte[] tag)
@@ -131,7 +133,9 @@ public interface KeyManager {
 			throws DbException;
 
 	/**
-	 * Marks the tag as recognised and updates the reordering window.
+	 * Marks the tag as recognised and updates the reordering window. Like
+	 * {@link #getStreamContext(TransportId, byte[])}, this method returns
+	 * once the updated window has been committed.
 	 */
 	void markTagAsRecognised(TransportId t, byte[] tag) throws DbException;
 }
@@ -8,8 +8,11 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group.Visibility;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Map;
+
 @NotNullByDefault
 public interface ClientVersioningManager {
 
@@ -38,6 +41,15 @@ public interface ClientVersioningManager {
 	Visibility getClientVisibility(Transaction txn, ContactId contactId,
 			ClientId clientId, int majorVersion) throws DbException;
 
+	/**
+	 * Sets the visibility of each of the given groups, which belong to the
+	 * given client, to the visibility of the client with respect to the
+	 * contact the group is shared with. The groups are keyed by contact ID.
+	 */
+	void setClientVisibility(Transaction txn,
+			Map<ContactId, GroupId> contactGroups, ClientId clientId,
+			int majorVersion) throws DbException;
+
 	/**
 	 * Returns the minor version of the given client that is supported by the
 	 * given contact, or -1 if the contact does not support the client.
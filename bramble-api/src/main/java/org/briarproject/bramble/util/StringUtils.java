@@ -64,6 +64,9 @@ public class StringUtils {
 
 	private static String fromUtf8(byte[] bytes, int off, int len,
 			boolean strict) throws FormatException {
+		// ASCII is valid UTF-8 and can be decoded without a decoder
+		if (isAscii(bytes, off, len))
+			return new String(bytes, off, len, US_ASCII);
 		CharsetDecoder decoder = UTF_8.newDecoder();
 		decoder.onMalformedInput(strict ? REPORT : IGNORE);
 		decoder.onUnmappableCharacter(strict ? REPORT : IGNORE);
@@ -75,6 +78,11 @@ public class StringUtils {
 		}
 	}
 
+	private static boolean isAscii(byte[] bytes, int off, int len) {
+		for (int i = off; i < off + len; i++) if (bytes[i] < 0) return false;
+		return true;
+	}
+
 	public static String truncateUtf8(String s, int maxUtf8Length) {
 		byte[] utf8 = toUtf8(s);
 		if (utf8.length <= maxUtf8Length) return s;
@@ -15,6 +15,7 @@ import org.briarproject.bramble.io.IoModule;
 import org.briarproject.bramble.keyagreement.KeyAgreementModule;
 import org.briarproject.bramble.lifecycle.LifecycleModule;
 import org.briarproject.bramble.mailbox.MailboxModule;
+import org.briarproject.bramble.metrics.MetricsModule;
 import org.briarproject.bramble.plugin.PluginModule;
 import org.briarproject.bramble.properties.PropertiesModule;
 import org.briarproject.bramble.qrcode.QrCodeModule;
@@ -46,6 +47,7 @@ import dagger.Module;
 		KeyAgreementModule.class,
 		LifecycleModule.class,
 		MailboxModule.class,
+		MetricsModule.class,
 		PluginModule.class,
 		PropertiesModule.class,
 		QrCodeModule.class,
@@ -0,0 +1,55 @@
+package org.briarproject.bramble;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+import static org.briarproject.bramble.SaturationPolicy.CALLER_RUNS;
+
+/**
+ * The bounds of a {@link MeteredExecutor} and the thresholds at which it
+ * logs warnings.
+ */
+@Immutable
+@NotNullByDefault
+public class ExecutorLimits {
+
+	/**
+	 * Limits for an executor that never applies back-pressure.
+	 */
+	public static final ExecutorLimits UNBOUNDED =
+			new ExecutorLimits(Integer.MAX_VALUE, CALLER_RUNS, Long.MAX_VALUE);
+
+	private final int maxQueueLength;
+	private final SaturationPolicy saturationPolicy;
+	private final long queueTimeWarningMs;
+
+	/**
+	 * @param maxQueueLength the maximum number of tasks that may be waiting
+	 * to run. A warning is logged when the queue is half full
+	 * @param saturationPolicy what to do with tasks that are submitted while
+	 * the queue is full
+	 * @param queueTimeWarningMs a warning is logged when a task waits longer
+	 * than this to run
+	 */
+	public ExecutorLimits(int maxQueueLength,
+			SaturationPolicy saturationPolicy, long queueTimeWarningMs) {
+		if (maxQueueLength < 1) throw new IllegalArgumentException();
+		if (queueTimeWarningMs < 0) throw new IllegalArgumentException();
+		this.maxQueueLength = maxQueueLength;
+		this.saturationPolicy = saturationPolicy;
+		this.queueTimeWarningMs = queueTimeWarningMs;
+	}
+
+	public int getMaxQueueLength() {
+		return maxQueueLength;
+	}
+
+	public SaturationPolicy getSaturationPolicy() {
+		return saturationPolicy;
+	}
+
+	public long getQueueTimeWarningMs() {
+		return queueTimeWarningMs;
+	}
+}
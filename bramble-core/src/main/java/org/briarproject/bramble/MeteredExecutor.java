@@ -0,0 +1,172 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.Gauge;
+import org.briarproject.bramble.api.metrics.Histogram;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.SaturationPolicy.QUEUE;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * An {@link Executor} that delegates its tasks to another {@link Executor}
+ * while recording the number of tasks waiting to run, how long they waited
+ * and how long they ran.
+ * <p>
+ * When the queue reaches its maximum length, the executor's
+ * {@link SaturationPolicy} decides whether the submitting thread runs the
+ * task itself, which slows down the threads that are feeding an overloaded
+ * executor, or the task is queued anyway. Warnings are logged when the queue
+ * is half full, when it's full, and when tasks wait longer than a
+ * threshold.
+ */
+@ThreadSafe
+@NotNullByDefault
+public class MeteredExecutor implements Executor {
+
+	private static final Logger LOG =
+			getLogger(MeteredExecutor.class.getName());
+
+	private final String name;
+	private final Executor delegate;
+	private final int maxQueueLength, warningQueueLength;
+	private final SaturationPolicy saturationPolicy;
+	private final long queueTimeWarningMs;
+	private final Gauge queueLength;
+	private final Histogram queueTime, runTime;
+	private final Counter saturated;
+	private final AtomicBoolean slow = new AtomicBoolean(false);
+
+	private final Object lock = new Object();
+	@GuardedBy("lock")
+	private int queued = 0;
+	@GuardedBy("lock")
+	private boolean congested = false, full = false;
+
+	/**
+	 * @param name the executor's name, which is used as a metric label and
+	 * in log messages
+	 */
+	public MeteredExecutor(String name, Executor delegate,
+			MetricRegistry metricRegistry, ExecutorLimits limits) {
+		this.name = name;
+		this.delegate = delegate;
+		maxQueueLength = limits.getMaxQueueLength();
+		warningQueueLength = Math.max(1, maxQueueLength / 2);
+		saturationPolicy = limits.getSaturationPolicy();
+		queueTimeWarningMs = limits.getQueueTimeWarningMs();
+		queueLength = metricRegistry.getGauge("bramble_executor_queue_length",
+				"Tasks waiting to run on an executor", "executor", name);
+		queueTime = metricRegistry.getHistogram(
+				"bramble_executor_queue_time_ms",
+				"Time tasks waited to run on an executor", "executor", name);
+		runTime = metricRegistry.getHistogram(
+				"bramble_executor_run_time_ms",
+				"Time tasks took to run on an executor", "executor", name);
+		saturated = metricRegistry.getCounter(
+				"bramble_executor_saturated_total",
+				"Tasks submitted to an executor while its queue was full",
+				"executor", name);
+	}
+
+	@Override
+	public void execute(Runnable r) {
+		if (!enqueue()) {
+			// The queue is full, so run the task on the submitting thread
+			run(r);
+			return;
+		}
+		long submitted = now();
+		try {
+			delegate.execute(() -> {
+				dequeue();
+				long waited = now() - submitted;
+				queueTime.record(waited);
+				checkQueueTime(waited);
+				run(r);
+			});
+		} catch (RejectedExecutionException e) {
+			dequeue();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a task to the queue if there's room, or if the saturation policy
+	 * allows the queue to grow. Returns false if the task should run on the
+	 * submitting thread.
+	 */
+	private boolean enqueue() {
+		boolean logCongested = false, logSaturated = false;
+		boolean enqueued = true;
+		synchronized (lock) {
+			if (queued >= maxQueueLength) {
+				saturated.increment();
+				if (!full) {
+					full = true;
+					logSaturated = true;
+				}
+				enqueued = saturationPolicy == QUEUE;
+			}
+			if (enqueued) {
+				queued++;
+				queueLength.add(1);
+				if (!congested && queued >= warningQueueLength) {
+					congested = true;
+					logCongested = true;
+				}
+			}
+		}
+		if (logCongested && LOG.isLoggable(WARNING)) {
+			LOG.warning(name + " executor queue length has reached "
+					+ warningQueueLength);
+		}
+		if (logSaturated && LOG.isLoggable(WARNING)) {
+			LOG.warning(name + " executor queue is full, "
+					+ (enqueued ? "queueing tasks" : "submitters run tasks"));
+		}
+		return enqueued;
+	}
+
+	private void dequeue() {
+		synchronized (lock) {
+			queued--;
+			queueLength.add(-1);
+			if (queued < warningQueueLength / 2) {
+				congested = false;
+				full = false;
+			}
+		}
+	}
+
+	private void checkQueueTime(long waited) {
+		if (waited > queueTimeWarningMs) {
+			if (slow.compareAndSet(false, true) && LOG.isLoggable(WARNING)) {
+				LOG.warning(name + " executor task waited " + waited
+						+ " ms to run");
+			}
+		} else if (waited <= queueTimeWarningMs / 2) {
+			slow.set(false);
+		}
+	}
+
+	private void run(Runnable r) {
+		long start = now();
+		try {
+			r.run();
+		} finally {
+			runTime.record(now() - start);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package org.briarproject.bramble;
+
+/**
+ * What a {@link MeteredExecutor} does with a task that's submitted while its
+ * queue is full.
+ */
+public enum SaturationPolicy {
+
+	/**
+	 * Run the task on the thread that submitted it.
+	 */
+	CALLER_RUNS,
+
+	/**
+	 * Add the task to the queue anyway, so tasks still run in the order they
+	 * were submitted and submitting a task never blocks. The queue is not
+	 * bounded: the maximum queue length is only used for metering and
+	 * warnings. This is the only policy that keeps the contract of a
+	 * single-threaded executor.
+	 */
+	QUEUE
+}
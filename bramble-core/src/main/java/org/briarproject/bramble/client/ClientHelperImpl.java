@@ -20,6 +20,8 @@ import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataRange;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorFactory;
@@ -31,29 +33,35 @@ import org.briarproject.bramble.api.mailbox.MailboxUpdateWithMailbox;
 import org.briarproject.bramble.api.mailbox.MailboxVersion;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.sync.SendPriorityRegistry;
 import org.briarproject.bramble.util.Base32;
 import org.briarproject.nullsafety.NotNullByDefault;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
 import static java.util.Collections.sort;
 import static org.briarproject.bramble.api.client.ContactGroupConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
 import static org.briarproject.bramble.api.identity.Author.FORMAT_VERSION;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
@@ -86,13 +94,15 @@ class ClientHelperImpl implements ClientHelper {
 	private final MetadataEncoder metadataEncoder;
 	private final CryptoComponent crypto;
 	private final AuthorFactory authorFactory;
+	private final SendPriorityRegistry sendPriorityRegistry;
 
 	@Inject
 	ClientHelperImpl(DatabaseComponent db, MessageFactory messageFactory,
 			BdfReaderFactory bdfReaderFactory,
 			BdfWriterFactory bdfWriterFactory, MetadataParser metadataParser,
 			MetadataEncoder metadataEncoder, CryptoComponent crypto,
-			AuthorFactory authorFactory) {
+			AuthorFactory authorFactory,
+			SendPriorityRegistry sendPriorityRegistry) {
 		this.db = db;
 		this.messageFactory = messageFactory;
 		this.bdfReaderFactory = bdfReaderFactory;
@@ -101,6 +111,7 @@ class ClientHelperImpl implements ClientHelper {
 		this.metadataEncoder = metadataEncoder;
 		this.crypto = crypto;
 		this.authorFactory = authorFactory;
+		this.sendPriorityRegistry = sendPriorityRegistry;
 	}
 
 	@Override
@@ -178,12 +189,33 @@ class ClientHelperImpl implements ClientHelper {
 		return metadataParser.parse(metadata);
 	}
 
+	@Override
+	public BdfDictionary getGroupMetadataAsDictionary(Transaction txn,
+			GroupId g, String key) throws DbException, FormatException {
+		Metadata metadata = db.getGroupMetadata(txn, g, key);
+		return metadataParser.parse(metadata);
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			BdfDictionary query) throws DbException, FormatException {
 		return db.getMessageIds(txn, g, metadataEncoder.encode(query));
 	}
 
+	@Override
+	public MetadataQuery createMetadataQuery(BdfDictionary equal,
+			Collection<MetadataRange> ranges, @Nullable String orderKey,
+			boolean descending, int limit) throws FormatException {
+		return new MetadataQuery(metadataEncoder.encode(equal), ranges,
+				orderKey, descending, limit);
+	}
+
+	@Override
+	public List<MessageId> getMessageIds(Transaction txn, GroupId g,
+			MetadataQuery query) throws DbException {
+		return db.getMessageIds(txn, g, query);
+	}
+
 	@Override
 	public BdfDictionary getMessageMetadataAsDictionary(MessageId m)
 			throws DbException, FormatException {
@@ -235,6 +267,18 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, MetadataQuery query)
+			throws DbException, FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g, query);
+		Map<MessageId, BdfDictionary> parsed =
+				new LinkedHashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -290,8 +334,7 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfDictionary toDictionary(byte[] b, int off, int len)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfDictionary dictionary = reader.readDictionary();
 			if (!reader.eof()) throw new FormatException();
@@ -324,8 +367,8 @@ class ClientHelperImpl implements ClientHelper {
 
 	private BdfList toList(byte[] b, int off, int len, boolean canonical)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in, canonical);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len,
+				DEFAULT_NESTED_LIMIT, DEFAULT_MAX_BUFFER_SIZE, canonical);
 		try {
 			BdfList list = reader.readList();
 			if (!reader.eof()) throw new FormatException();
@@ -519,4 +562,10 @@ class ClientHelperImpl implements ClientHelper {
 			throw new AssertionError(e);
 		}
 	}
+
+	@Override
+	public void setSendPriority(ClientId c, int majorVersion,
+			SendPriority p) {
+		sendPriorityRegistry.setSendPriority(c, majorVersion, p);
+	}
 }
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.connection.InterruptibleConnection;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.plugin.PluginConfig;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.ConnectionClosedEvent;
@@ -44,6 +45,7 @@ class ConnectionRegistryImpl implements ConnectionRegistry {
 			getLogger(ConnectionRegistryImpl.class.getName());
 
 	private final EventBus eventBus;
+	private final MetricRegistry metricRegistry;
 	private final Map<TransportId, List<TransportId>> transportPrefs;
 
 	private final Object lock = new Object();
@@ -53,8 +55,10 @@ class ConnectionRegistryImpl implements ConnectionRegistry {
 	private final Set<PendingContactId> connectedPendingContacts;
 
 	@Inject
-	ConnectionRegistryImpl(EventBus eventBus, PluginConfig pluginConfig) {
+	ConnectionRegistryImpl(EventBus eventBus, PluginConfig pluginConfig,
+			MetricRegistry metricRegistry) {
 		this.eventBus = eventBus;
+		this.metricRegistry = metricRegistry;
 		transportPrefs = pluginConfig.getTransportPreferences();
 		contactConnections = new HashMap<>();
 		connectedPendingContacts = new HashSet<>();
@@ -89,6 +93,10 @@ class ConnectionRegistryImpl implements ConnectionRegistry {
 			firstConnection = recs.isEmpty();
 			recs.add(new ConnectionRecord(t, conn));
 		}
+		metricRegistry.getCounter("bramble_connections_opened_total",
+				"Connections opened", "transport", t.getString()).increment();
+		metricRegistry.getGauge("bramble_connections",
+				"Open connections", "transport", t.getString()).add(1);
 		eventBus.broadcast(new ConnectionOpenedEvent(c, t, incoming));
 		if (firstConnection) {
 			LOG.info("Contact connected");
@@ -160,6 +168,13 @@ class ConnectionRegistryImpl implements ConnectionRegistry {
 				throw new IllegalArgumentException();
 			lastConnection = recs.isEmpty();
 		}
+		metricRegistry.getGauge("bramble_connections",
+				"Open connections", "transport", t.getString()).add(-1);
+		if (exception) {
+			metricRegistry.getCounter("bramble_connections_failed_total",
+					"Connections closed due to an error", "transport",
+					t.getString()).increment();
+		}
 		eventBus.broadcast(
 				new ConnectionClosedEvent(c, t, incoming, exception));
 		if (lastConnection) {
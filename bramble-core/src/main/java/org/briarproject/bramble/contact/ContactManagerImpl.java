@@ -110,6 +110,30 @@ class ContactManagerImpl implements ContactManager, EventListener {
 		return c;
 	}
 
+	@Override
+	public List<ContactId> addContacts(Transaction txn,
+			Collection<Author> remotes, AuthorId local, boolean verified)
+			throws DbException {
+		List<ContactId> ids = new ArrayList<>(remotes.size());
+		List<Contact> contacts = new ArrayList<>(remotes.size());
+		for (Author remote : remotes) {
+			ContactId c = db.addContact(txn, remote, local, null, verified);
+			ids.add(c);
+			contacts.add(db.getContact(txn, c));
+		}
+		if (!contacts.isEmpty()) {
+			for (ContactHook hook : hooks) hook.addingContacts(txn, contacts);
+		}
+		return ids;
+	}
+
+	@Override
+	public List<ContactId> addContacts(Collection<Author> remotes,
+			AuthorId local, boolean verified) throws DbException {
+		return db.transactionWithResult(false, txn ->
+				addContacts(txn, remotes, local, verified));
+	}
+
 	@Override
 	public ContactId addContact(Author remote, AuthorId local,
 			SecretKey rootKey, long timestamp, boolean alice, boolean verified,
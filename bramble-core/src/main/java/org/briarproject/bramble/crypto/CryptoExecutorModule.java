@@ -1,8 +1,11 @@
 package org.briarproject.bramble.crypto;
 
+import org.briarproject.bramble.ExecutorLimits;
+import org.briarproject.bramble.MeteredExecutor;
 import org.briarproject.bramble.TimeLoggingExecutor;
 import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -19,6 +22,7 @@ import dagger.Module;
 import dagger.Provides;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.SaturationPolicy.CALLER_RUNS;
 
 @Module
 public class CryptoExecutorModule {
@@ -38,7 +42,21 @@ public class CryptoExecutorModule {
 	private static final int MAX_EXECUTOR_THREADS =
 			Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
+	/**
+	 * The default limits for the crypto executor. Threads that submit tasks
+	 * to a full queue run the tasks themselves.
+	 */
+	public static final ExecutorLimits DEFAULT_LIMITS =
+			new ExecutorLimits(1000, CALLER_RUNS, 5000);
+
+	private final ExecutorLimits limits;
+
 	public CryptoExecutorModule() {
+		this(DEFAULT_LIMITS);
+	}
+
+	public CryptoExecutorModule(ExecutorLimits limits) {
+		this.limits = limits;
 	}
 
 	@Provides
@@ -46,7 +64,7 @@ public class CryptoExecutorModule {
 	@CryptoExecutor
 	ExecutorService provideCryptoExecutorService(
 			LifecycleManager lifecycleManager, ThreadFactory threadFactory) {
-		// Use an unbounded queue
+		// The queue is bounded by the metered executor that wraps this one
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
 		// Discard tasks that are submitted during shutdown
 		RejectedExecutionHandler policy =
@@ -60,9 +78,12 @@ public class CryptoExecutorModule {
 	}
 
 	@Provides
+	@Singleton
 	@CryptoExecutor
 	Executor provideCryptoExecutor(
-			@CryptoExecutor ExecutorService cryptoExecutor) {
-		return cryptoExecutor;
+			@CryptoExecutor ExecutorService cryptoExecutor,
+			MetricRegistry metricRegistry) {
+		return new MeteredExecutor("crypto", cryptoExecutor, metricRegistry,
+				limits);
 	}
 }
@@ -32,4 +32,17 @@ class BdfReaderFactoryImpl implements BdfReaderFactory {
 			int maxBufferSize, boolean canonical) {
 		return new BdfReaderImpl(in, nestedLimit, maxBufferSize, canonical);
 	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len) {
+		return new BdfReaderImpl(b, off, len, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE, true);
+	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len,
+			int nestedLimit, int maxBufferSize, boolean canonical) {
+		return new BdfReaderImpl(b, off, len, nestedLimit, maxBufferSize,
+				canonical);
+	}
 }
@@ -9,8 +9,11 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static java.util.Arrays.copyOfRange;
+
 import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.bramble.data.Types.DICTIONARY;
 import static org.briarproject.bramble.data.Types.END;
@@ -31,19 +34,34 @@ import static org.briarproject.bramble.data.Types.STRING_8;
 import static org.briarproject.bramble.data.Types.TRUE;
 import static org.briarproject.bramble.util.StringUtils.fromUtf8;
 
+/**
+ * A {@link BdfReader} that reads from an input stream or directly from a
+ * byte array. When reading from an array, values are decoded in place
+ * without copying the input through an intermediate buffer.
+ */
 @NotThreadSafe
 @NotNullByDefault
 final class BdfReaderImpl implements BdfReader {
 
 	private static final byte[] EMPTY_BUFFER = new byte[0];
 
+	/**
+	 * The input stream, or null if reading from an array.
+	 */
+	@Nullable
 	private final InputStream in;
 	private final int nestedLimit, maxBufferSize;
 	private final boolean canonical;
 
 	private boolean hasLookahead = false, eof = false;
 	private byte next;
-	private byte[] buf = new byte[8];
+	/**
+	 * If reading from a stream, a buffer holding the most recently read
+	 * bytes. If reading from an array, the array, of which the bytes from
+	 * pos to end have not yet been read.
+	 */
+	private byte[] buf;
+	private int pos, end;
 
 	BdfReaderImpl(InputStream in, int nestedLimit, int maxBufferSize,
 			boolean canonical) {
@@ -51,13 +69,29 @@ final class BdfReaderImpl implements BdfReader {
 		this.nestedLimit = nestedLimit;
 		this.maxBufferSize = maxBufferSize;
 		this.canonical = canonical;
+		buf = new byte[8];
+	}
+
+	BdfReaderImpl(byte[] b, int off, int len, int nestedLimit,
+			int maxBufferSize, boolean canonical) {
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IllegalArgumentException();
+		in = null;
+		this.nestedLimit = nestedLimit;
+		this.maxBufferSize = maxBufferSize;
+		this.canonical = canonical;
+		buf = b;
+		pos = off;
+		end = off + len;
 	}
 
 	private void readLookahead() throws IOException {
 		if (eof) return;
 		if (hasLookahead) throw new IllegalStateException();
 		// Read a lookahead byte
-		int i = in.read();
+		int i;
+		if (in == null) i = pos == end ? -1 : buf[pos++] & 0xFF;
+		else i = in.read();
 		if (i == -1) {
 			eof = true;
 			return;
@@ -67,6 +101,7 @@ final class BdfReaderImpl implements BdfReader {
 	}
 
 	private void readIntoBuffer(byte[] b, int length) throws IOException {
+		if (in == null) throw new AssertionError();
 		int offset = 0;
 		while (offset < length) {
 			int read = in.read(b, offset, length - offset);
@@ -75,12 +110,28 @@ final class BdfReaderImpl implements BdfReader {
 		}
 	}
 
-	private void readIntoBuffer(int length) throws IOException {
+	/**
+	 * Reads the given number of bytes and returns the offset in the buffer
+	 * at which they start.
+	 */
+	private int readIntoBuffer(int length) throws IOException {
+		if (in == null) {
+			if (length > end - pos) throw new FormatException();
+			int offset = pos;
+			pos += length;
+			return offset;
+		}
 		if (buf.length < length) buf = new byte[length];
 		readIntoBuffer(buf, length);
+		return 0;
 	}
 
 	private void skip(int length) throws IOException {
+		if (in == null) {
+			if (length > end - pos) throw new FormatException();
+			pos += length;
+			return;
+		}
 		while (length > 0) {
 			int read = in.read(buf, 0, Math.min(length, buf.length));
 			if (read == -1) throw new FormatException();
@@ -123,7 +174,7 @@ final class BdfReaderImpl implements BdfReader {
 
 	@Override
 	public void close() throws IOException {
-		in.close();
+		if (in != null) in.close();
 	}
 
 	@Override
@@ -185,13 +236,13 @@ final class BdfReaderImpl implements BdfReader {
 	}
 
 	private int readInt8() throws IOException {
-		readIntoBuffer(1);
-		return buf[0];
+		return buf[readIntoBuffer(1)];
 	}
 
 	private short readInt16() throws IOException {
-		readIntoBuffer(2);
-		short value = (short) (((buf[0] & 0xFF) << 8) + (buf[1] & 0xFF));
+		int off = readIntoBuffer(2);
+		short value =
+				(short) (((buf[off] & 0xFF) << 8) + (buf[off + 1] & 0xFF));
 		if (canonical && value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
 			// Value could have been encoded as an INT_8
 			throw new FormatException();
@@ -200,9 +251,10 @@ final class BdfReaderImpl implements BdfReader {
 	}
 
 	private int readInt32() throws IOException {
-		readIntoBuffer(4);
+		int off = readIntoBuffer(4);
 		int value = 0;
-		for (int i = 0; i < 4; i++) value |= (buf[i] & 0xFF) << (24 - i * 8);
+		for (int i = 0; i < 4; i++)
+			value |= (buf[off + i] & 0xFF) << (24 - i * 8);
 		if (canonical && value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
 			// Value could have been encoded as an INT_16
 			throw new FormatException();
@@ -211,9 +263,10 @@ final class BdfReaderImpl implements BdfReader {
 	}
 
 	private long readInt64() throws IOException {
-		readIntoBuffer(8);
+		int off = readIntoBuffer(8);
 		long value = 0;
-		for (int i = 0; i < 8; i++) value |= (buf[i] & 0xFFL) << (56 - i * 8);
+		for (int i = 0; i < 8; i++)
+			value |= (buf[off + i] & 0xFFL) << (56 - i * 8);
 		if (canonical && value >= Integer.MIN_VALUE &&
 				value <= Integer.MAX_VALUE) {
 			// Value could have been encoded as an INT_32
@@ -268,9 +321,10 @@ final class BdfReaderImpl implements BdfReader {
 	public double readDouble() throws IOException {
 		if (!hasDouble()) throw new FormatException();
 		hasLookahead = false;
-		readIntoBuffer(8);
+		int off = readIntoBuffer(8);
 		long value = 0;
-		for (int i = 0; i < 8; i++) value |= (buf[i] & 0xFFL) << (56 - i * 8);
+		for (int i = 0; i < 8; i++)
+			value |= (buf[off + i] & 0xFFL) << (56 - i * 8);
 		return Double.longBitsToDouble(value);
 	}
 
@@ -295,8 +349,8 @@ final class BdfReaderImpl implements BdfReader {
 		int length = readStringLength();
 		if (length < 0 || length > maxBufferSize) throw new FormatException();
 		if (length == 0) return "";
-		readIntoBuffer(length);
-		return fromUtf8(buf, 0, length);
+		int off = readIntoBuffer(length);
+		return fromUtf8(buf, off, length);
 	}
 
 	private int readStringLength() throws IOException {
@@ -329,6 +383,10 @@ final class BdfReaderImpl implements BdfReader {
 		int length = readRawLength();
 		if (length < 0 || length > maxBufferSize) throw new FormatException();
 		if (length == 0) return EMPTY_BUFFER;
+		if (in == null) {
+			int off = readIntoBuffer(length);
+			return copyOfRange(buf, off, off + length);
+		}
 		byte[] b = new byte[length];
 		readIntoBuffer(b, length);
 		return b;
@@ -383,6 +441,22 @@ final class BdfReaderImpl implements BdfReader {
 		hasLookahead = false;
 	}
 
+	@Override
+	public void readListStart() throws IOException {
+		if (!hasList()) throw new FormatException();
+		hasLookahead = false;
+	}
+
+	@Override
+	public boolean hasListEnd() throws IOException {
+		return hasEnd();
+	}
+
+	@Override
+	public void readListEnd() throws IOException {
+		readEnd();
+	}
+
 	@Override
 	public void skipList() throws IOException {
 		if (!hasList()) throw new FormatException();
@@ -422,6 +496,22 @@ final class BdfReaderImpl implements BdfReader {
 		return dictionary;
 	}
 
+	@Override
+	public void readDictionaryStart() throws IOException {
+		if (!hasDictionary()) throw new FormatException();
+		hasLookahead = false;
+	}
+
+	@Override
+	public boolean hasDictionaryEnd() throws IOException {
+		return hasEnd();
+	}
+
+	@Override
+	public void readDictionaryEnd() throws IOException {
+		readEnd();
+	}
+
 	@Override
 	public void skipDictionary() throws IOException {
 		if (!hasDictionary()) throw new FormatException();
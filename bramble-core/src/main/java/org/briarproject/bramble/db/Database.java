@@ -13,6 +13,7 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -26,10 +27,12 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.Collection;
@@ -104,6 +107,11 @@ interface Database<T> {
 	 */
 	void addGroup(T txn, Group g) throws DbException;
 
+	/**
+	 * Stores the given groups in a single batch.
+	 */
+	void addGroups(T txn, Collection<Group> groups) throws DbException;
+
 	/**
 	 * Sets the given group's visibility to the given contact to either
 	 * {@link Visibility VISIBLE} or {@link Visibility SHARED}.
@@ -111,6 +119,14 @@ interface Database<T> {
 	void addGroupVisibility(T txn, ContactId c, GroupId g, boolean shared)
 			throws DbException;
 
+	/**
+	 * Sets the visibility of each of the given groups to the contact that
+	 * maps to it to either {@link Visibility VISIBLE} or
+	 * {@link Visibility SHARED}, in a single batch.
+	 */
+	void addGroupVisibilities(T txn, Map<ContactId, GroupId> groups,
+			boolean shared) throws DbException;
+
 	/**
 	 * Stores an identity.
 	 */
@@ -227,6 +243,19 @@ interface Database<T> {
 	boolean containsPendingContact(T txn, PendingContactId p)
 			throws DbException;
 
+	/**
+	 * Returns true if the database contains the given message, the visibility
+	 * of the message's group to the given contact is either
+	 * {@link Visibility VISIBLE} or {@link Visibility SHARED}, and the message
+	 * is either shared or delivered. Unlike
+	 * {@link #containsVisibleMessage(Object, ContactId, MessageId)}, this
+	 * includes messages that were received from the contact but not shared.
+	 * <p/>
+	 * Read-only.
+	 */
+	boolean containsSharedOrDeliveredMessage(T txn, ContactId c, MessageId m)
+			throws DbException;
+
 	/**
 	 * Returns true if the database contains the given transport.
 	 * <p/>
@@ -334,6 +363,15 @@ interface Database<T> {
 	 */
 	Metadata getGroupMetadata(T txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the metadata for the given group with the given key. The
+	 * returned metadata is empty if the group has no metadata with the key.
+	 * <p/>
+	 * Read-only.
+	 */
+	Metadata getGroupMetadata(T txn, GroupId g, String key)
+			throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -423,6 +461,15 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any delivered messages in the given group that
+	 * match the given query, in the order requested by the query.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageId> getMessageIds(T txn, GroupId g, MetadataQuery query)
+			throws DbException;
+
 	/**
 	 * Returns the length of the given message in bytes, including the
 	 * message header.
@@ -447,6 +494,16 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any delivered messages in the given group that
+	 * match the given query. The map iterates over the messages in the order
+	 * requested by the query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -501,12 +558,16 @@ interface Database<T> {
 
 	/**
 	 * Returns the IDs of some messages that are eligible to be offered to the
-	 * given contact, up to the given number of messages.
+	 * given contact, up to the given number of messages. Messages are ordered
+	 * by the given send priorities of their clients and then by timestamp.
+	 * Clients missing from the map have {@link SendPriority#NORMAL} priority.
 	 * <p/>
 	 * Read-only.
 	 */
 	Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
-			int maxMessages, long maxLatency) throws DbException;
+			int maxMessages, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns the IDs of some messages that are eligible to be requested from
@@ -522,6 +583,10 @@ interface Database<T> {
 	 * given contact. The total length of the messages including record headers
 	 * will be no more than the given capacity.
 	 * <p/>
+	 * Messages are ordered by the given send priorities of their clients and
+	 * then by timestamp. Clients missing from the map have
+	 * {@link SendPriority#NORMAL} priority.
+	 * <p/>
 	 * Unlike {@link #getUnackedMessagesToSend(Object, ContactId)} this method
 	 * does not return messages that have already been sent unless they are
 	 * due for retransmission.
@@ -529,13 +594,14 @@ interface Database<T> {
 	 * Read-only.
 	 */
 	Collection<MessageId> getMessagesToSend(T txn, ContactId c, long capacity,
-			long maxLatency) throws DbException;
+			long maxLatency, Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact.
 	 * <p/>
-	 * Unlike {@link #getMessagesToSend(Object, ContactId, long, long)} this
+	 * Unlike {@link #getMessagesToSend(Object, ContactId, long, long, Map)} this
 	 * method may return messages that have already been sent and are not yet
 	 * due for retransmission.
 	 * <p/>
@@ -553,6 +619,26 @@ interface Database<T> {
 	 */
 	long getUnackedMessageBytesToSend(T txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the IDs of all messages in the given group that are eligible
+	 * to be sent to the given contact. This may include messages that have
+	 * already been sent and are not yet due for retransmission.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getUnackedMessagesToSend(T txn, ContactId c,
+			GroupId g) throws DbException;
+
+	/**
+	 * Returns the number of messages in each group that are eligible to be
+	 * sent to the given contact. Groups without any such messages are not
+	 * included in the map.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Integer> getUnackedMessageCounts(T txn, ContactId c)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of any messages that need to be validated.
 	 * <p/>
@@ -627,12 +713,15 @@ interface Database<T> {
 	 * Returns the IDs of some messages that are eligible to be sent to the
 	 * given contact and have been requested by the contact. The total length
 	 * of the messages including record headers will be no more than the given
-	 * capacity.
+	 * capacity. Messages are ordered by the given send priorities of their
+	 * clients and then by timestamp.
 	 * <p/>
 	 * Read-only.
 	 */
 	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
-			long capacity, long maxLatency) throws DbException;
+			long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException;
 
 	/**
 	 * Returns all settings in the given namespace.
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
@@ -23,6 +24,7 @@ import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.db.EventAction;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -47,6 +49,7 @@ import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.event.SettingsUpdatedEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -55,6 +58,8 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
@@ -66,17 +71,23 @@ import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent;
+import org.briarproject.bramble.api.sync.event.SummaryReceivedEvent;
 import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -94,6 +105,11 @@ import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
 import static org.briarproject.bramble.db.DatabaseConstants.MAX_OFFERED_MESSAGES;
+import static org.briarproject.bramble.db.SummaryUtils.allDifferent;
+import static org.briarproject.bramble.db.SummaryUtils.compare;
+import static org.briarproject.bramble.db.SummaryUtils.createSummary;
+import static org.briarproject.bramble.db.SummaryUtils.getBucketBits;
+import static org.briarproject.bramble.db.SummaryUtils.getMatchingIds;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.LogUtils.now;
@@ -263,6 +279,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void addGroups(Transaction transaction, Collection<Group> groups)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		Set<GroupId> ids = new HashSet<>();
+		List<Group> added = new ArrayList<>();
+		for (Group g : groups) {
+			if (ids.add(g.getId()) && !db.containsGroup(txn, g.getId()))
+				added.add(g);
+		}
+		if (added.isEmpty()) return;
+		db.addGroups(txn, added);
+		for (Group g : added) {
+			transaction.attach(new GroupAddedEvent(g));
+		}
+	}
+
 	@Override
 	public void addIdentity(Transaction transaction, Identity i)
 			throws DbException {
@@ -438,13 +472,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	@Nullable
 	@Override
 	public Collection<Message> generateBatch(Transaction transaction,
-			ContactId c, long capacity, long maxLatency) throws DbException {
+			ContactId c, long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, c, capacity, maxLatency);
+		Collection<MessageId> ids = db.getMessagesToSend(txn, c, capacity,
+				maxLatency, priorities);
 		if (ids.isEmpty()) return null;
 		long totalLength = 0;
 		List<Message> messages = new ArrayList<>(ids.size());
@@ -459,16 +495,38 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return messages;
 	}
 
+	@Override
+	public Collection<Pair<Summary, Collection<MessageId>>> generateSummaries(
+			Transaction transaction, ContactId c, int minUnseen)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		List<Pair<Summary, Collection<MessageId>>> summaries =
+				new ArrayList<>();
+		Map<GroupId, Integer> counts = db.getUnackedMessageCounts(txn, c);
+		for (Entry<GroupId, Integer> e : counts.entrySet()) {
+			if (e.getValue() < minUnseen) continue;
+			GroupId g = e.getKey();
+			Collection<MessageId> ids = db.getMessageIds(txn, g);
+			Summary s = createSummary(g, ids, getBucketBits(ids.size()));
+			summaries.add(new Pair<>(s, ids));
+		}
+		return summaries;
+	}
+
 	@Nullable
 	@Override
 	public Offer generateOffer(Transaction transaction, ContactId c,
-			int maxMessages, long maxLatency) throws DbException {
+			int maxMessages, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
+		Collection<MessageId> ids = db.getMessagesToOffer(txn, c,
+				maxMessages, maxLatency, priorities);
 		if (ids.isEmpty()) return null;
 		for (MessageId m : ids)
 			db.updateRetransmissionData(txn, c, m, maxLatency);
@@ -493,13 +551,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	@Nullable
 	@Override
 	public Collection<Message> generateRequestedBatch(Transaction transaction,
-			ContactId c, long capacity, long maxLatency) throws DbException {
+			ContactId c, long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getRequestedMessagesToSend(txn, c, capacity, maxLatency);
+		Collection<MessageId> ids = db.getRequestedMessagesToSend(txn, c,
+				capacity, maxLatency, priorities);
 		if (ids.isEmpty()) return null;
 		long totalLength = 0;
 		List<Message> messages = new ArrayList<>(ids.size());
@@ -573,6 +633,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroupMetadata(txn, g);
 	}
 
+	@Override
+	public Metadata getGroupMetadata(Transaction transaction, GroupId g,
+			String key) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getGroupMetadata(txn, g, key);
+	}
+
 	@Override
 	public Collection<Group> getGroups(Transaction transaction, ClientId c,
 			int majorVersion) throws DbException {
@@ -632,6 +701,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageIds(txn, g, query);
 	}
 
+	@Override
+	public List<MessageId> getMessageIds(Transaction transaction, GroupId g,
+			MetadataQuery query) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageIds(txn, g, query);
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToAck(Transaction transaction,
 			ContactId c) throws DbException {
@@ -643,11 +721,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 
 	@Override
 	public Collection<MessageId> getMessagesToSend(Transaction transaction,
-			ContactId c, long capacity, long maxLatency) throws DbException {
+			ContactId c, long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		return db.getMessagesToSend(txn, c, capacity, maxLatency);
+		return db.getMessagesToSend(txn, c, capacity, maxLatency, priorities);
 	}
 
 	@Override
@@ -696,6 +776,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, g, query);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			GroupId g, MetadataQuery query) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageMetadata(txn, g, query);
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Transaction transaction, MessageId m)
 			throws DbException {
@@ -795,6 +884,19 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.resetUnackedMessagesToSend(txn, c);
 	}
 
+	@Override
+	public void resetUnackedMessagesToSend(Transaction transaction,
+			ContactId c, Collection<MessageId> ids) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		for (MessageId m : ids) {
+			if (db.containsVisibleMessage(txn, c, m))
+				db.resetExpiryTime(txn, c, m);
+		}
+	}
+
 	@Override
 	public long getUnackedMessageBytesToSend(Transaction transaction,
 			ContactId c) throws DbException {
@@ -957,6 +1059,27 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void receiveDifference(Transaction transaction, ContactId c,
+			Difference d, Collection<MessageId> summarised)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		GroupId g = d.getGroupId();
+		if (db.getGroupVisibility(txn, c, g) == SHARED) {
+			// The contact has all the summarised messages in the matching
+			// buckets. Messages added since the summary was generated may
+			// fall into those buckets, but the contact may not have them
+			Set<MessageId> unacked =
+					new HashSet<>(db.getUnackedMessagesToSend(txn, c, g));
+			for (MessageId m : getMatchingIds(d, summarised)) {
+				if (unacked.contains(m)) db.raiseSeenFlag(txn, c, m);
+			}
+		}
+	}
+
 	@Override
 	public void receiveMessage(Transaction transaction, ContactId c, Message m)
 			throws DbException {
@@ -986,7 +1109,10 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		boolean ack = false, request = false;
 		int count = db.countOfferedMessages(txn, c);
 		for (MessageId m : o.getMessageIds()) {
-			if (db.containsVisibleMessage(txn, c, m)) {
+			// Ack any message we already have, including messages received
+			// from the contact in an earlier connection that weren't shared,
+			// so an interrupted transfer isn't requested again from the start
+			if (db.containsSharedOrDeliveredMessage(txn, c, m)) {
 				db.raiseSeenFlag(txn, c, m);
 				db.raiseAckFlag(txn, c, m);
 				ack = true;
@@ -1018,6 +1144,29 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (requested) transaction.attach(new MessageRequestedEvent(c));
 	}
 
+	@Override
+	public void receiveSummary(Transaction transaction, ContactId c,
+			Summary s) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		GroupId g = s.getGroupId();
+		Difference d;
+		if (db.getGroupVisibility(txn, c, g) == SHARED) {
+			d = compare(s, db.getMessageIds(txn, g));
+			// The contact has all our messages in the matching buckets
+			Collection<MessageId> unacked =
+					db.getUnackedMessagesToSend(txn, c, g);
+			for (MessageId m : getMatchingIds(d, unacked))
+				db.raiseSeenFlag(txn, c, m);
+		} else {
+			// Don't reveal anything about groups the contact can't see
+			d = allDifferent(s);
+		}
+		transaction.attach(new SummaryReceivedEvent(c, d));
+	}
+
 	@Override
 	public void removeContact(Transaction transaction, ContactId c)
 			throws DbException {
@@ -1166,6 +1315,33 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new GroupVisibilityUpdatedEvent(v, affected));
 	}
 
+	@Override
+	public void setGroupVisibility(Transaction transaction,
+			Map<ContactId, GroupId> groups, Visibility v) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		Map<ContactId, GroupId> invisible = new LinkedHashMap<>();
+		List<ContactId> affected = new ArrayList<>();
+		for (Entry<ContactId, GroupId> e : groups.entrySet()) {
+			ContactId c = e.getKey();
+			GroupId g = e.getValue();
+			if (!db.containsContact(txn, c))
+				throw new NoSuchContactException();
+			if (!db.containsGroup(txn, g))
+				throw new NoSuchGroupException();
+			Visibility old = db.getGroupVisibility(txn, c, g);
+			if (old == v) continue;
+			if (old == INVISIBLE) invisible.put(c, g);
+			else if (v == INVISIBLE) db.removeGroupVisibility(txn, c, g);
+			else db.setGroupVisibility(txn, c, g, v == SHARED);
+			affected.add(c);
+		}
+		if (!invisible.isEmpty())
+			db.addGroupVisibilities(txn, invisible, v == SHARED);
+		if (!affected.isEmpty())
+			transaction.attach(new GroupVisibilityUpdatedEvent(v, affected));
+	}
+
 	@Override
 	public void setMessagePermanent(Transaction transaction, MessageId m)
 			throws DbException {
@@ -1,8 +1,11 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.ExecutorLimits;
+import org.briarproject.bramble.MeteredExecutor;
 import org.briarproject.bramble.TimeLoggingExecutor;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -19,6 +22,7 @@ import dagger.Module;
 import dagger.Provides;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.SaturationPolicy.QUEUE;
 
 @Module
 public class DatabaseExecutorModule {
@@ -29,12 +33,31 @@ public class DatabaseExecutorModule {
 		ExecutorService executorService;
 	}
 
+	/**
+	 * The default limits for the database executor. Tasks submitted to a
+	 * full queue are still queued, as {@link DatabaseExecutor} promises that
+	 * tasks run one at a time in the order they were submitted, and that
+	 * submitting a task never blocks. The limit is only used for warnings.
+	 */
+	public static final ExecutorLimits DEFAULT_LIMITS =
+			new ExecutorLimits(1000, QUEUE, 5000);
+
+	private final ExecutorLimits limits;
+
+	public DatabaseExecutorModule() {
+		this(DEFAULT_LIMITS);
+	}
+
+	public DatabaseExecutorModule(ExecutorLimits limits) {
+		this.limits = limits;
+	}
+
 	@Provides
 	@Singleton
 	@DatabaseExecutor
 	ExecutorService provideDatabaseExecutorService(
 			LifecycleManager lifecycleManager, ThreadFactory threadFactory) {
-		// Use an unbounded queue
+		// The metered executor that wraps this one warns if the queue grows
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
 		// Discard tasks that are submitted during shutdown
 		RejectedExecutionHandler policy =
@@ -51,7 +74,8 @@ public class DatabaseExecutorModule {
 	@Singleton
 	@DatabaseExecutor
 	Executor provideDatabaseExecutor(
-			@DatabaseExecutor ExecutorService dbExecutor) {
-		return dbExecutor;
+			@DatabaseExecutor ExecutorService dbExecutor,
+			MetricRegistry metricRegistry) {
+		return new MeteredExecutor("db", dbExecutor, metricRegistry, limits);
 	}
 }
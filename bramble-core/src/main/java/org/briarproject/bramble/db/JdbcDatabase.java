@@ -17,6 +17,8 @@ import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataRange;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -32,6 +34,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -39,6 +42,7 @@ import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.sql.Connection;
@@ -50,12 +54,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -64,6 +67,7 @@ import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+import static java.sql.Types.BIGINT;
 import static java.sql.Types.BINARY;
 import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
@@ -76,10 +80,12 @@ import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.db.DatabaseComponent.NO_CLEANUP_DEADLINE;
 import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTED;
 import static org.briarproject.bramble.api.db.Metadata.REMOVE;
+import static org.briarproject.bramble.api.db.MetadataQuery.NO_LIMIT;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.SendPriority.NORMAL;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
@@ -89,6 +95,7 @@ import static org.briarproject.bramble.db.DatabaseConstants.DIRTY_KEY;
 import static org.briarproject.bramble.db.DatabaseConstants.SCHEMA_VERSION_KEY;
 import static org.briarproject.bramble.db.ExponentialBackoff.calculateExpiry;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.db.MetadataUtils.getIntegerValue;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.LogUtils.now;
@@ -101,7 +108,7 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 50;
+	static final int CODE_SCHEMA_VERSION = 51;
 
 	/**
 	 * The maximum number of idle connections to keep open.
@@ -207,6 +214,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " state INT NOT NULL," // Denormalised
 					+ " metaKey _STRING NOT NULL,"
 					+ " value _BINARY NOT NULL,"
+					+ " longValue BIGINT," // Null if value is not an integer
 					+ " PRIMARY KEY (messageId, metaKey),"
 					+ " FOREIGN KEY (messageId)"
 					+ " REFERENCES messages (messageId)"
@@ -337,6 +345,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
 					+ " ON messageMetadata (groupId, state)";
 
+	private static final String
+			INDEX_MESSAGE_METADATA_BY_GROUP_ID_META_KEY_LONG_VALUE =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " messageMetadataByGroupIdMetaKeyLongValue"
+					+ " ON messageMetadata (groupId, metaKey, longValue)";
+
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
 					+ " ON messageDependencies (dependencyId)";
@@ -499,7 +513,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration46_47(dbTypes),
 				new Migration47_48(),
 				new Migration48_49(),
-				new Migration49_50()
+				new Migration49_50(),
+				new Migration50_51()
 		);
 	}
 
@@ -559,6 +574,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(
+					INDEX_MESSAGE_METADATA_BY_GROUP_ID_META_KEY_LONG_VALUE);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
@@ -762,6 +779,35 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void addGroups(Connection txn, Collection<Group> groups)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO groups"
+					+ " (groupId, clientId, majorVersion, descriptor)"
+					+ " VALUES (?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			for (Group g : groups) {
+				ps.setBytes(1, g.getId().getBytes());
+				ps.setString(2, g.getClientId().getString());
+				ps.setInt(3, g.getMajorVersion());
+				ps.setBytes(4, g.getDescriptor());
+				ps.addBatch();
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != groups.size())
+				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows != 1) throw new DbStateException();
+			}
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void addGroupVisibility(Connection txn, ContactId c, GroupId g,
 			boolean groupShared) throws DbException {
@@ -785,6 +831,39 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void addGroupVisibilities(Connection txn,
+			Map<ContactId, GroupId> groups, boolean groupShared)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO groupVisibilities"
+					+ " (contactId, groupId, shared)"
+					+ " VALUES (?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBoolean(3, groupShared);
+			for (Entry<ContactId, GroupId> e : groups.entrySet()) {
+				ps.setInt(1, e.getKey().getInt());
+				ps.setBytes(2, e.getValue().getBytes());
+				ps.addBatch();
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != groups.size())
+				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows != 1) throw new DbStateException();
+			}
+			ps.close();
+			// Create a status row for each message in each group
+			for (Entry<ContactId, GroupId> e : groups.entrySet()) {
+				addStatus(txn, e.getKey(), e.getValue(), groupShared);
+			}
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	private void addStatus(Connection txn, ContactId c, GroupId g,
 			boolean groupShared) throws DbException {
 		PreparedStatement ps = null;
@@ -1343,6 +1422,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean containsSharedOrDeliveredMessage(Connection txn,
+			ContactId c, MessageId m) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT NULL FROM statuses"
+					+ " WHERE messageId = ? AND contactId = ?"
+					+ " AND (messageShared = TRUE OR state = ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			ps.setInt(2, c.getInt());
+			ps.setInt(3, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return found;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean containsTransport(Connection txn, TransportId t)
 			throws DbException {
@@ -1917,33 +2022,31 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
 			Metadata query) throws DbException {
-		// If there are no query terms, return all delivered messages
-		if (query.isEmpty()) return getMessageIds(txn, g);
+		return getMessageIds(txn, g, new MetadataQuery(query));
+	}
+
+	@Override
+	public List<MessageId> getMessageIds(Connection txn, GroupId g,
+			MetadataQuery query) throws DbException {
+		String orderKey = query.getOrderKey();
+		// If there are no query terms, ordering, offset or limit, return all
+		// delivered messages
+		boolean paged = query.getOffset() > 0 || query.getLimit() != NO_LIMIT;
+		if (query.hasNoTerms() && orderKey == null && !paged) {
+			return new ArrayList<>(getMessageIds(txn, g));
+		}
+		if (query.getLimit() == 0) return Collections.emptyList();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setBytes(1, g.getBytes());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
-			}
-			return intersection;
+			ps = txn.prepareStatement(getMessageIdQuery(query, false));
+			setMessageIdQueryParameters(ps, g, query);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1951,6 +2054,85 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns a statement that selects the IDs of the delivered messages in
+	 * a group that match the given query, in the query's order. If
+	 * {@code sortColumns} is true, the columns used for ordering are also
+	 * selected, as {@code nullLast} and {@code orderValue}, so the statement
+	 * can be used as a subquery and the outer query can keep the order.
+	 */
+	private String getMessageIdQuery(MetadataQuery query,
+			boolean sortColumns) {
+		String orderKey = query.getOrderKey();
+		boolean paged = query.getOffset() > 0 || query.getLimit() != NO_LIMIT;
+		// Each term is evaluated as a subquery against the metadata index,
+		// so the whole query runs as a single statement
+		StringBuilder sql = new StringBuilder("SELECT m.messageId");
+		if (sortColumns) {
+			if (orderKey == null) {
+				sql.append(", 0 AS nullLast, 0 AS orderValue");
+			} else {
+				sql.append(", CASE WHEN o.longValue IS NULL"
+						+ " THEN 1 ELSE 0 END AS nullLast,"
+						+ " o.longValue AS orderValue");
+			}
+		}
+		sql.append(" FROM messages AS m");
+		if (orderKey != null) {
+			sql.append(" LEFT OUTER JOIN messageMetadata AS o"
+					+ " ON o.messageId = m.messageId AND o.metaKey = ?");
+		}
+		sql.append(" WHERE m.groupId = ? AND m.state = ?");
+		for (int i = 0; i < query.getEqual().size(); i++) {
+			sql.append(" AND EXISTS (SELECT NULL FROM messageMetadata AS t"
+					+ " WHERE t.messageId = m.messageId"
+					+ " AND t.groupId = m.groupId"
+					+ " AND t.metaKey = ? AND t.value = ?)");
+		}
+		for (int i = 0; i < query.getRanges().size(); i++) {
+			sql.append(" AND EXISTS (SELECT NULL FROM messageMetadata AS t"
+					+ " WHERE t.messageId = m.messageId"
+					+ " AND t.groupId = m.groupId"
+					+ " AND t.metaKey = ?"
+					+ " AND t.longValue >= ? AND t.longValue <= ?)");
+		}
+		if (orderKey != null) {
+			// Messages without an integer value for the key come last
+			String direction = query.isDescending() ? " DESC" : " ASC";
+			sql.append(" ORDER BY CASE WHEN o.longValue IS NULL"
+					+ " THEN 1 ELSE 0 END, o.longValue")
+					.append(direction).append(", m.messageId");
+		} else if (paged) {
+			// Use a stable order so that pages don't overlap
+			sql.append(" ORDER BY m.messageId");
+		}
+		if (paged) sql.append(" LIMIT ? OFFSET ?");
+		return sql.toString();
+	}
+
+	private void setMessageIdQueryParameters(PreparedStatement ps, GroupId g,
+			MetadataQuery query) throws SQLException {
+		String orderKey = query.getOrderKey();
+		boolean paged = query.getOffset() > 0 || query.getLimit() != NO_LIMIT;
+		int index = 1;
+		if (orderKey != null) ps.setString(index++, orderKey);
+		ps.setBytes(index++, g.getBytes());
+		ps.setInt(index++, DELIVERED.getValue());
+		for (Entry<String, byte[]> e : query.getEqual().entrySet()) {
+			ps.setString(index++, e.getKey());
+			ps.setBytes(index++, e.getValue());
+		}
+		for (MetadataRange r : query.getRanges()) {
+			ps.setString(index++, r.getKey());
+			ps.setLong(index++, r.getMin());
+			ps.setLong(index++, r.getMax());
+		}
+		if (paged) {
+			ps.setInt(index++, query.getLimit());
+			ps.setInt(index, query.getOffset());
+		}
+	}
+
 	@Override
 	public int getMessageLength(Connection txn, MessageId m)
 			throws DbException {
@@ -2012,13 +2194,48 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<>(matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
+		return getMessageMetadata(txn, g, new MetadataQuery(query));
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, MetadataQuery query) throws DbException {
+		if (query.getLimit() == 0) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Join the matching message IDs with their metadata, keeping the
+			// order of the IDs. Matching messages without any metadata are
+			// returned with empty metadata
+			String direction = query.isDescending() ? " DESC" : " ASC";
+			String sql = "SELECT p.messageId, md.metaKey, md.value"
+					+ " FROM (" + getMessageIdQuery(query, true) + ") AS p"
+					+ " LEFT OUTER JOIN messageMetadata AS md"
+					+ " ON md.messageId = p.messageId"
+					+ " ORDER BY p.nullLast, p.orderValue" + direction
+					+ ", p.messageId";
+			ps = txn.prepareStatement(sql);
+			setMessageIdQueryParameters(ps, g, query);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new LinkedHashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				Metadata metadata = all.get(messageId);
+				if (metadata == null) {
+					metadata = new Metadata();
+					all.put(messageId, metadata);
+				}
+				String key = rs.getString(2);
+				if (key != null) metadata.put(key, rs.getBytes(3));
+			}
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -2044,6 +2261,31 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Metadata getGroupMetadata(Connection txn, GroupId g, String key)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT value FROM groupMetadata"
+					+ " WHERE groupId = ? AND metaKey = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setString(2, key);
+			rs = ps.executeQuery();
+			Metadata metadata = new Metadata();
+			if (rs.next()) metadata.put(key, rs.getBytes(1));
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return metadata;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Connection txn, MessageId m)
 			throws DbException {
@@ -2266,25 +2508,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public Collection<MessageId> getMessagesToOffer(Connection txn,
-			ContactId c, int maxMessages, long maxLatency) throws DbException {
+			ContactId c, int maxMessages, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		long now = clock.currentTimeMillis();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = FALSE"
-					+ " AND (expiry <= ? OR maxLatency IS NULL"
-					+ " OR ? < maxLatency)"
-					+ " ORDER BY timestamp LIMIT ?";
+			String sql = "SELECT s.messageId FROM statuses AS s"
+					+ getSendPriorityJoin(priorities)
+					+ " WHERE s.contactId = ? AND s.state = ?"
+					+ " AND s.groupShared = TRUE AND s.messageShared = TRUE"
+					+ " AND s.deleted = FALSE"
+					+ " AND s.seen = FALSE AND s.requested = FALSE"
+					+ " AND (s.expiry <= ? OR s.maxLatency IS NULL"
+					+ " OR ? < s.maxLatency)"
+					+ getSendPriorityOrder(priorities)
+					+ " LIMIT ?";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, maxLatency);
-			ps.setInt(5, maxMessages);
+			int index = setSendPriorityParameters(ps, priorities, 5);
+			ps.setInt(index, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
@@ -2325,24 +2572,28 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public Collection<MessageId> getMessagesToSend(Connection txn,
-			ContactId c, long capacity, long maxLatency) throws DbException {
+			ContactId c, long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		long now = clock.currentTimeMillis();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE"
-					+ " AND (expiry <= ? OR maxLatency IS NULL"
-					+ " OR ? < maxLatency)"
-					+ " ORDER BY timestamp";
+			String sql = "SELECT s.length, s.messageId FROM statuses AS s"
+					+ getSendPriorityJoin(priorities)
+					+ " WHERE s.contactId = ? AND s.state = ?"
+					+ " AND s.groupShared = TRUE AND s.messageShared = TRUE"
+					+ " AND s.deleted = FALSE"
+					+ " AND s.seen = FALSE"
+					+ " AND (s.expiry <= ? OR s.maxLatency IS NULL"
+					+ " OR ? < s.maxLatency)"
+					+ getSendPriorityOrder(priorities);
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, maxLatency);
+			setSendPriorityParameters(ps, priorities, 5);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) {
@@ -2414,6 +2665,62 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<MessageId> getUnackedMessagesToSend(Connection txn,
+			ContactId c, GroupId g) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			ps.setInt(3, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<GroupId, Integer> getUnackedMessageCounts(Connection txn,
+			ContactId c) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId, COUNT(*) FROM statuses"
+					+ " WHERE contactId = ? AND state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE"
+					+ " GROUP BY groupId";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			Map<GroupId, Integer> counts = new HashMap<>();
+			while (rs.next()) {
+				counts.put(new GroupId(rs.getBytes(1)), rs.getInt(2));
+			}
+			rs.close();
+			ps.close();
+			return counts;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToValidate(Connection txn)
 			throws DbException {
@@ -2636,24 +2943,28 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
-			ContactId c, long capacity, long maxLatency) throws DbException {
+			ContactId c, long capacity, long maxLatency,
+			Map<ClientMajorVersion, SendPriority> priorities)
+			throws DbException {
 		long now = clock.currentTimeMillis();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = TRUE"
-					+ " AND (expiry <= ? OR maxLatency IS NULL"
-					+ " OR ? < maxLatency)"
-					+ " ORDER BY timestamp";
+			String sql = "SELECT s.length, s.messageId FROM statuses AS s"
+					+ getSendPriorityJoin(priorities)
+					+ " WHERE s.contactId = ? AND s.state = ?"
+					+ " AND s.groupShared = TRUE AND s.messageShared = TRUE"
+					+ " AND s.deleted = FALSE"
+					+ " AND s.seen = FALSE AND s.requested = TRUE"
+					+ " AND (s.expiry <= ? OR s.maxLatency IS NULL"
+					+ " OR ? < s.maxLatency)"
+					+ getSendPriorityOrder(priorities);
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, maxLatency);
+			setSendPriorityParameters(ps, priorities, 5);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) {
@@ -2911,7 +3222,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			Map<String, byte[]> added = removeOrUpdateMetadata(txn,
-					g.getBytes(), meta, "groupMetadata", "groupId");
+					g.getBytes(), meta, "groupMetadata", "groupId", false);
 			if (added.isEmpty()) return;
 			// Insert any keys that don't already exist
 			String sql = "INSERT INTO groupMetadata (groupId, metaKey, value)"
@@ -2942,7 +3253,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			Map<String, byte[]> added = removeOrUpdateMetadata(txn,
-					m.getBytes(), meta, "messageMetadata", "messageId");
+					m.getBytes(), meta, "messageMetadata", "messageId", true);
 			if (added.isEmpty()) return;
 			// Get the group ID and message state for the denormalised columns
 			String sql = "SELECT groupId, state FROM messages"
@@ -2957,8 +3268,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.close();
 			// Insert any keys that don't already exist
 			sql = "INSERT INTO messageMetadata"
-					+ " (messageId, groupId, state, metaKey, value)"
-					+ " VALUES (?, ?, ?, ?, ?)";
+					+ " (messageId, groupId, state, metaKey, value, longValue)"
+					+ " VALUES (?, ?, ?, ?, ?, ?)";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setBytes(2, g.getBytes());
@@ -2966,6 +3277,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			for (Entry<String, byte[]> e : added.entrySet()) {
 				ps.setString(4, e.getKey());
 				ps.setBytes(5, e.getValue());
+				Long longValue = getIntegerValue(e.getValue());
+				if (longValue == null) ps.setNull(6, BIGINT);
+				else ps.setLong(6, longValue);
 				ps.addBatch();
 			}
 			int[] batchAffected = ps.executeBatch();
@@ -2982,10 +3296,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	// Removes or updates any existing entries, returns any entries that
-	// need to be added
+	// need to be added. If the table has a typed column for integer values,
+	// it's updated along with the value
 	private Map<String, byte[]> removeOrUpdateMetadata(Connection txn,
-			byte[] id, Metadata meta, String tableName, String columnName)
-			throws DbException {
+			byte[] id, Metadata meta, String tableName, String columnName,
+			boolean hasLongValue) throws DbException {
 		PreparedStatement ps = null;
 		try {
 			// Determine which keys are being removed
@@ -3017,12 +3332,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (notRemoved.isEmpty()) return Collections.emptyMap();
 			// Update any keys that already exist
 			String sql = "UPDATE " + tableName + " SET value = ?"
+					+ (hasLongValue ? ", longValue = ?" : "")
 					+ " WHERE " + columnName + " = ? AND metaKey = ?";
 			ps = txn.prepareStatement(sql);
-			ps.setBytes(2, id);
+			int index = hasLongValue ? 3 : 2;
+			ps.setBytes(index, id);
 			for (Entry<String, byte[]> e : notRemoved.entrySet()) {
 				ps.setBytes(1, e.getValue());
-				ps.setString(3, e.getKey());
+				if (hasLongValue) {
+					Long longValue = getIntegerValue(e.getValue());
+					if (longValue == null) ps.setNull(2, BIGINT);
+					else ps.setLong(2, longValue);
+				}
+				ps.setString(index + 1, e.getKey());
 				ps.addBatch();
 			}
 			int[] batchAffected = ps.executeBatch();
@@ -3633,6 +3955,52 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns a clause joining the statuses table, which must be aliased as
+	 * "s", to the groups table if any clients have non-default send
+	 * priorities.
+	 */
+	private String getSendPriorityJoin(
+			Map<ClientMajorVersion, SendPriority> priorities) {
+		if (priorities.isEmpty()) return "";
+		return " JOIN groups AS g ON s.groupId = g.groupId";
+	}
+
+	/**
+	 * Returns a clause ordering statuses by the send priorities of their
+	 * clients and then by timestamp.
+	 */
+	private String getSendPriorityOrder(
+			Map<ClientMajorVersion, SendPriority> priorities) {
+		if (priorities.isEmpty()) return " ORDER BY s.timestamp";
+		StringBuilder sb = new StringBuilder(" ORDER BY CASE");
+		for (Entry<ClientMajorVersion, SendPriority> e :
+				priorities.entrySet()) {
+			sb.append(" WHEN g.clientId = ? AND g.majorVersion = ? THEN ");
+			sb.append(e.getValue().ordinal());
+		}
+		sb.append(" ELSE ").append(NORMAL.ordinal());
+		sb.append(" END, s.timestamp");
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters of the clause returned by
+	 * {@link #getSendPriorityOrder(Map)}, starting at the given index, and
+	 * returns the index of the next parameter.
+	 */
+	private int setSendPriorityParameters(PreparedStatement ps,
+			Map<ClientMajorVersion, SendPriority> priorities, int index)
+			throws SQLException {
+		for (Entry<ClientMajorVersion, SendPriority> e :
+				priorities.entrySet()) {
+			ClientMajorVersion cv = e.getKey();
+			ps.setString(index++, cv.getClientId().getString());
+			ps.setInt(index++, cv.getMajorVersion());
+		}
+		return index;
+	}
+
 	@Override
 	public void setSyncVersions(Connection txn, ContactId c,
 			List<Byte> supported) throws DbException {
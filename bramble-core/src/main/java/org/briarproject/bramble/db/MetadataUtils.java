@@ -0,0 +1,39 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decodes integer metadata values so they can be stored in a typed column
+ * for range queries and ordering.
+ */
+@NotNullByDefault
+class MetadataUtils {
+
+	// BDF type codes for integers, see BdfWriter
+	private static final byte INT_8 = 0x21;
+	private static final byte INT_16 = 0x22;
+	private static final byte INT_32 = 0x24;
+	private static final byte INT_64 = 0x28;
+
+	/**
+	 * Returns the integer encoded by the given BDF metadata value, or null
+	 * if the value does not encode a single integer.
+	 */
+	@Nullable
+	static Long getIntegerValue(byte[] value) {
+		if (value.length == 0) return null;
+		int length;
+		if (value[0] == INT_8) length = 1;
+		else if (value[0] == INT_16) length = 2;
+		else if (value[0] == INT_32) length = 4;
+		else if (value[0] == INT_64) length = 8;
+		else return null;
+		if (value.length != 1 + length) return null;
+		// Sign-extend from the first byte of the big-endian value
+		long l = value[1];
+		for (int i = 2; i <= length; i++) l = (l << 8) | (value[i] & 0xFF);
+		return l;
+	}
+}
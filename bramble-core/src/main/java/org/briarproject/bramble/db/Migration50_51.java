@@ -0,0 +1,90 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.db.MetadataUtils.getIntegerValue;
+
+class Migration50_51 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration50_51.class.getName());
+
+	/**
+	 * The maximum number of rows to update in each batch, to bound the
+	 * memory used by the migration.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	@Override
+	public int getStartVersion() {
+		return 50;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 51;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			s = txn.createStatement();
+			// Null if value is not an integer
+			s.execute("ALTER TABLE messageMetadata"
+					+ " ADD COLUMN longValue BIGINT");
+			// Decode any existing integer values
+			rs = s.executeQuery("SELECT messageId, metaKey, value"
+					+ " FROM messageMetadata");
+			ps = txn.prepareStatement("UPDATE messageMetadata"
+					+ " SET longValue = ?"
+					+ " WHERE messageId = ? AND metaKey = ?");
+			int updates = 0;
+			while (rs.next()) {
+				Long longValue = getIntegerValue(rs.getBytes(3));
+				if (longValue == null) continue;
+				ps.setLong(1, longValue);
+				ps.setBytes(2, rs.getBytes(1));
+				ps.setString(3, rs.getString(2));
+				ps.addBatch();
+				if (++updates == BATCH_SIZE) {
+					executeBatch(ps, updates);
+					updates = 0;
+				}
+			}
+			rs.close();
+			if (updates > 0) executeBatch(ps, updates);
+			ps.close();
+			// Create the index once the values have been decoded, so it
+			// doesn't have to be updated for every row
+			s.execute("CREATE INDEX IF NOT EXISTS"
+					+ " messageMetadataByGroupIdMetaKeyLongValue"
+					+ " ON messageMetadata (groupId, metaKey, longValue)");
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private void executeBatch(PreparedStatement ps, int updates)
+			throws SQLException {
+		int[] batchAffected = ps.executeBatch();
+		if (batchAffected.length != updates) throw new DbStateException();
+		for (int rows : batchAffected)
+			if (rows != 1) throw new DbStateException();
+	}
+}
@@ -0,0 +1,117 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Summary;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUMMARY_BUCKET_BITS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUMMARY_FINGERPRINT_LENGTH;
+
+/**
+ * Creates and compares {@link Summary summaries} of the messages in a group
+ * for set reconciliation.
+ */
+@NotNullByDefault
+class SummaryUtils {
+
+	/**
+	 * The number of messages per bucket that summaries aim for. Smaller
+	 * buckets mean fewer messages need to be offered when a bucket differs,
+	 * at the cost of larger summaries.
+	 */
+	private static final int TARGET_BUCKET_SIZE = 16;
+
+	/**
+	 * Returns the number of bucket bits to use for summarising the given
+	 * number of messages.
+	 */
+	static int getBucketBits(int messages) {
+		int bits = 0;
+		while (bits < MAX_SUMMARY_BUCKET_BITS &&
+				messages >> bits > TARGET_BUCKET_SIZE) {
+			bits++;
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the bucket that contains the given message, which is given by
+	 * the leading bits of the message ID.
+	 */
+	static int getBucket(MessageId m, int bucketBits) {
+		if (bucketBits == 0) return 0;
+		byte[] id = m.getBytes();
+		int prefix = ((id[0] & 0xFF) << 8) | (id[1] & 0xFF);
+		return prefix >>> (16 - bucketBits);
+	}
+
+	static Summary createSummary(GroupId g, Collection<MessageId> ids,
+			int bucketBits) {
+		int buckets = 1 << bucketBits;
+		int[] counts = new int[buckets];
+		byte[][] fingerprints = new byte[buckets][SUMMARY_FINGERPRINT_LENGTH];
+		// The leading bytes of each ID determine its bucket, so the
+		// fingerprint is calculated from the trailing bytes
+		int offset = UniqueId.LENGTH - SUMMARY_FINGERPRINT_LENGTH;
+		for (MessageId m : ids) {
+			int bucket = getBucket(m, bucketBits);
+			counts[bucket]++;
+			byte[] id = m.getBytes();
+			byte[] fingerprint = fingerprints[bucket];
+			for (int i = 0; i < SUMMARY_FINGERPRINT_LENGTH; i++) {
+				fingerprint[i] ^= id[offset + i];
+			}
+		}
+		return new Summary(g, bucketBits, counts, fingerprints);
+	}
+
+	/**
+	 * Compares a summary received from a contact with the given IDs, which
+	 * are summarised using the same number of bucket bits.
+	 */
+	static Difference compare(Summary remote, Collection<MessageId> ids) {
+		Summary local = createSummary(remote.getGroupId(), ids,
+				remote.getBucketBits());
+		boolean[] different = new boolean[remote.getBucketCount()];
+		for (int i = 0; i < different.length; i++) {
+			different[i] = remote.getCount(i) != local.getCount(i) ||
+					!Arrays.equals(remote.getFingerprint(i),
+							local.getFingerprint(i));
+		}
+		return new Difference(remote.getGroupId(), remote.getBucketBits(),
+				different);
+	}
+
+	/**
+	 * Returns a difference in which every bucket of the given summary
+	 * differs. This is used for replying to summaries of groups that aren't
+	 * shared with the contact.
+	 */
+	static Difference allDifferent(Summary remote) {
+		boolean[] different = new boolean[remote.getBucketCount()];
+		Arrays.fill(different, true);
+		return new Difference(remote.getGroupId(), remote.getBucketBits(),
+				different);
+	}
+
+	/**
+	 * Returns the IDs that belong to buckets that do not differ.
+	 */
+	static List<MessageId> getMatchingIds(Difference d,
+			Collection<MessageId> ids) {
+		List<MessageId> matching = new ArrayList<>();
+		for (MessageId m : ids) {
+			if (!d.isDifferent(getBucket(m, d.getBucketBits())))
+				matching.add(m);
+		}
+		return matching;
+	}
+}
@@ -1,6 +1,9 @@
 package org.briarproject.bramble.event;
 
+import org.briarproject.bramble.ExecutorLimits;
+import org.briarproject.bramble.MeteredExecutor;
 import org.briarproject.bramble.api.event.EventExecutor;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
@@ -11,6 +14,7 @@ import dagger.Module;
 import dagger.Provides;
 
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.briarproject.bramble.SaturationPolicy.QUEUE;
 
 /**
  * Default implementation of {@link EventExecutor} that uses a dedicated thread
@@ -20,15 +24,38 @@ import static java.util.concurrent.Executors.newSingleThreadExecutor;
 @Module
 public class DefaultEventExecutorModule {
 
+	/**
+	 * The default limits for the event executor. Events broadcast while the
+	 * queue is full are still queued, as {@link EventExecutor} promises that
+	 * events are delivered one at a time in the order they were broadcast,
+	 * and that broadcasting never blocks. The limit is only used for
+	 * warnings.
+	 */
+	public static final ExecutorLimits DEFAULT_LIMITS =
+			new ExecutorLimits(10_000, QUEUE, 5000);
+
+	private final ExecutorLimits limits;
+
+	public DefaultEventExecutorModule() {
+		this(DEFAULT_LIMITS);
+	}
+
+	public DefaultEventExecutorModule(ExecutorLimits limits) {
+		this.limits = limits;
+	}
+
 	@Provides
 	@Singleton
 	@EventExecutor
-	Executor provideEventExecutor(ThreadFactory threadFactory) {
-		return newSingleThreadExecutor(r -> {
+	Executor provideEventExecutor(ThreadFactory threadFactory,
+			MetricRegistry metricRegistry) {
+		Executor eventExecutor = newSingleThreadExecutor(r -> {
 			Thread t = threadFactory.newThread(r);
 			t.setDaemon(true);
 			t.setName(t.getName() + "-Event");
 			return t;
 		});
+		return new MeteredExecutor("event", eventExecutor, metricRegistry,
+				limits);
 	}
 }
@@ -10,20 +10,34 @@ import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.Service;
 import org.briarproject.bramble.api.lifecycle.ServiceException;
+import org.briarproject.bramble.api.lifecycle.StartupReport;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.synchronizedMap;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
@@ -59,23 +73,29 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 	private final DatabaseComponent db;
 	private final EventBus eventBus;
 	private final Clock clock;
-	private final List<Service> services;
+	private final ThreadFactory threadFactory;
+	private final List<ServiceEntry> services;
 	private final List<OpenDatabaseHook> openDatabaseHooks;
+	private final List<OpenDatabaseHook> deferredOpenDatabaseHooks;
 	private final List<ExecutorService> executors;
 	private final CountDownLatch dbLatch = new CountDownLatch(1);
 	private final CountDownLatch startupLatch = new CountDownLatch(1);
 	private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 	private final AtomicReference<LifecycleState> state =
 			new AtomicReference<>(CREATED);
+	private final AtomicReference<StartupReport> startupReport =
+			new AtomicReference<>();
 
 	@Inject
 	LifecycleManagerImpl(DatabaseComponent db, EventBus eventBus,
-			Clock clock) {
+			Clock clock, ThreadFactory threadFactory) {
 		this.db = db;
 		this.eventBus = eventBus;
 		this.clock = clock;
+		this.threadFactory = threadFactory;
 		services = new CopyOnWriteArrayList<>();
 		openDatabaseHooks = new CopyOnWriteArrayList<>();
+		deferredOpenDatabaseHooks = new CopyOnWriteArrayList<>();
 		executors = new CopyOnWriteArrayList<>();
 	}
 
@@ -83,7 +103,26 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 	public void registerService(Service s) {
 		if (LOG.isLoggable(INFO))
 			LOG.info("Registering service " + s.getClass().getSimpleName());
-		services.add(s);
+		services.add(new ServiceEntry(s, null));
+	}
+
+	@Override
+	public void registerService(Service s, Collection<Service> dependencies) {
+		if (LOG.isLoggable(INFO))
+			LOG.info("Registering service " + s.getClass().getSimpleName());
+		for (Service dependency : dependencies) {
+			if (!isRegistered(dependency)) {
+				throw new IllegalArgumentException("Dependency "
+						+ dependency.getClass().getSimpleName()
+						+ " is not registered");
+			}
+		}
+		services.add(new ServiceEntry(s, new ArrayList<>(dependencies)));
+	}
+
+	private boolean isRegistered(Service s) {
+		for (ServiceEntry e : services) if (e.service == s) return true;
+		return false;
 	}
 
 	@Override
@@ -95,6 +134,15 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		openDatabaseHooks.add(hook);
 	}
 
+	@Override
+	public void registerDeferredOpenDatabaseHook(OpenDatabaseHook hook) {
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Registering deferred open database hook "
+					+ hook.getClass().getSimpleName());
+		}
+		deferredOpenDatabaseHooks.add(hook);
+	}
+
 	@Override
 	public void registerForShutdown(ExecutorService e) {
 		LOG.info("Registering executor " + e.getClass().getSimpleName());
@@ -114,23 +162,30 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 			}
 			return CLOCK_ERROR;
 		}
+		// Runs the services that can start concurrently, then the deferred
+		// hooks. Threads are created as needed and exit when idle
+		ExecutorService startupExecutor = newCachedThreadPool(threadFactory);
 		try {
 			LOG.info("Opening database");
-			long start = now();
+			long startupStart = now();
 			boolean reopened = db.open(dbKey, this);
-			if (reopened) logDuration(LOG, "Reopening database", start);
-			else logDuration(LOG, "Creating database", start);
+			if (reopened) logDuration(LOG, "Reopening database", startupStart);
+			else logDuration(LOG, "Creating database", startupStart);
+			long openDatabaseDuration = now() - startupStart;
 
+			Map<String, Long> hookDurations = new LinkedHashMap<>();
 			db.transaction(false, txn -> {
-				long start1 = now();
+				long start = now();
 				db.removeTemporaryMessages(txn);
-				logDuration(LOG, "Removing temporary messages", start1);
+				logDuration(LOG, "Removing temporary messages", start);
 				for (OpenDatabaseHook hook : openDatabaseHooks) {
-					start1 = now();
+					start = now();
 					hook.onDatabaseOpened(txn);
+					String name = hook.getClass().getSimpleName();
+					hookDurations.put(name, now() - start);
 					if (LOG.isLoggable(FINE)) {
 						logDuration(LOG, "Calling open database hook "
-								+ hook.getClass().getSimpleName(), start1);
+								+ name, start);
 					}
 				}
 			});
@@ -140,18 +195,20 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 			dbLatch.countDown();
 			eventBus.broadcast(new LifecycleEvent(STARTING_SERVICES));
 
-			for (Service s : services) {
-				start = now();
-				s.startService();
-				if (LOG.isLoggable(FINE)) {
-					logDuration(LOG, "Starting service "
-							+ s.getClass().getSimpleName(), start);
-				}
-			}
+			Map<String, Long> serviceDurations =
+					startServices(startupExecutor);
 
+			StartupReport report = new StartupReport(openDatabaseDuration,
+					now() - startupStart, hookDurations, serviceDurations,
+					emptyMap());
+			startupReport.set(report);
+			logDuration(LOG, "Starting up", startupStart);
 			state.set(RUNNING);
 			startupLatch.countDown();
-			eventBus.broadcast(new LifecycleEvent(RUNNING));
+			eventBus.broadcast(new LifecycleEvent(RUNNING, report));
+			if (!deferredOpenDatabaseHooks.isEmpty()) {
+				startupExecutor.execute(this::callDeferredOpenDatabaseHooks);
+			}
 			return SUCCESS;
 		} catch (DataTooOldException e) {
 			logException(LOG, WARNING, e);
@@ -165,7 +222,111 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		} catch (ServiceException e) {
 			logException(LOG, WARNING, e);
 			return SERVICE_ERROR;
+		} finally {
+			// Tasks that have already been submitted will still run
+			startupExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Starts the registered services, returning the time taken to start
+	 * each service. Services that were registered with explicit dependencies
+	 * are started on the given executor as soon as their dependencies have
+	 * started. Other services are started on the calling thread after
+	 * all the services registered before them have started.
+	 * <p>
+	 * Dependencies must be registered before the services that depend on
+	 * them, so the order of registration is also a valid order for starting
+	 * the services.
+	 */
+	private Map<String, Long> startServices(ExecutorService executor)
+			throws ServiceException {
+		Map<String, Long> durations = synchronizedMap(new LinkedHashMap<>());
+		Map<Service, FutureTask<Void>> tasks = new HashMap<>();
+		List<FutureTask<Void>> ordered = new ArrayList<>();
+		List<FutureTask<Void>> concurrent = new ArrayList<>();
+		List<FutureTask<Void>> inline = new ArrayList<>();
+		for (ServiceEntry e : services) {
+			// Services without explicit dependencies depend on all the
+			// services registered before them
+			List<FutureTask<Void>> dependencies;
+			if (e.dependencies != null) {
+				dependencies = new ArrayList<>();
+				for (Service dependency : e.dependencies) {
+					dependencies.add(tasks.get(dependency));
+				}
+			} else {
+				dependencies = new ArrayList<>(ordered);
+			}
+			FutureTask<Void> task = new FutureTask<>(() -> {
+				for (FutureTask<Void> dependency : dependencies) {
+					dependency.get();
+				}
+				long start = now();
+				e.service.startService();
+				String name = e.service.getClass().getSimpleName();
+				durations.put(name, now() - start);
+				if (LOG.isLoggable(FINE)) {
+					logDuration(LOG, "Starting service " + name, start);
+				}
+				return null;
+			});
+			tasks.put(e.service, task);
+			ordered.add(task);
+			if (e.dependencies != null) concurrent.add(task);
+			else inline.add(task);
+		}
+		try {
+			for (FutureTask<Void> task : concurrent) executor.execute(task);
+			for (FutureTask<Void> task : inline) task.run();
+			for (FutureTask<Void> task : ordered) task.get();
+		} catch (InterruptedException e) {
+			for (FutureTask<Void> task : ordered) task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ServiceException(e);
+		} catch (ExecutionException e) {
+			for (FutureTask<Void> task : ordered) task.cancel(true);
+			Throwable cause = e.getCause();
+			while (cause instanceof ExecutionException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof ServiceException) {
+				throw (ServiceException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ServiceException(cause);
 		}
+		return new LinkedHashMap<>(durations);
+	}
+
+	private void callDeferredOpenDatabaseHooks() {
+		Map<String, Long> durations = new LinkedHashMap<>();
+		for (OpenDatabaseHook hook : deferredOpenDatabaseHooks) {
+			if (state.get() != RUNNING) {
+				LOG.info("Not calling deferred hooks, no longer running");
+				return;
+			}
+			String name = hook.getClass().getSimpleName();
+			try {
+				long start = now();
+				db.transaction(false, hook::onDatabaseOpened);
+				durations.put(name, now() - start);
+				if (LOG.isLoggable(FINE)) {
+					logDuration(LOG, "Calling deferred open database hook "
+							+ name, start);
+				}
+			} catch (DbException | RuntimeException e) {
+				// Carry on with the other hooks
+				logException(LOG, WARNING, e);
+			}
+		}
+		StartupReport r = startupReport.get();
+		startupReport.set(new StartupReport(r.getOpenDatabaseDuration(),
+				r.getTotalDuration(), r.getOpenDatabaseHookDurations(),
+				r.getServiceDurations(), durations));
 	}
 
 	@Override
@@ -188,7 +349,8 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		}
 		LOG.info("Stopping services");
 		eventBus.broadcast(new LifecycleEvent(STOPPING));
-		for (Service s : services) {
+		for (ServiceEntry entry : services) {
+			Service s = entry.service;
 			try {
 				long start = now();
 				s.stopService();
@@ -238,4 +400,29 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 	public LifecycleState getLifecycleState() {
 		return state.get();
 	}
+
+	@Nullable
+	@Override
+	public StartupReport getStartupReport() {
+		return startupReport.get();
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class ServiceEntry {
+
+		private final Service service;
+		/**
+		 * The service's dependencies, or null if the service was registered
+		 * without explicit dependencies.
+		 */
+		@Nullable
+		private final List<Service> dependencies;
+
+		private ServiceEntry(Service service,
+				@Nullable List<Service> dependencies) {
+			this.service = service;
+			this.dependencies = dependencies;
+		}
+	}
 }
@@ -1,8 +1,10 @@
 package org.briarproject.bramble.lifecycle;
 
+import org.briarproject.bramble.MeteredExecutor;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -19,6 +21,7 @@ import dagger.Module;
 import dagger.Provides;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.ExecutorLimits.UNBOUNDED;
 
 @Module
 public class LifecycleModule {
@@ -46,7 +49,7 @@ public class LifecycleModule {
 	@Singleton
 	@IoExecutor
 	Executor provideIoExecutor(LifecycleManager lifecycleManager,
-			ThreadFactory threadFactory) {
+			ThreadFactory threadFactory, MetricRegistry metricRegistry) {
 		// The thread pool is unbounded, so use direct handoff
 		BlockingQueue<Runnable> queue = new SynchronousQueue<>();
 		// Discard tasks that are submitted during shutdown
@@ -56,6 +59,9 @@ public class LifecycleModule {
 		ExecutorService ioExecutor = new ThreadPoolExecutor(0,
 				Integer.MAX_VALUE, 60, SECONDS, queue, threadFactory, policy);
 		lifecycleManager.registerForShutdown(ioExecutor);
-		return ioExecutor;
+		// IO tasks often block for a long time, so bounding the number of
+		// tasks could starve connections. Record metrics without a bound
+		return new MeteredExecutor("io", ioExecutor, metricRegistry,
+				UNBOUNDED);
 	}
 }
@@ -12,6 +12,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 
@@ -87,6 +88,18 @@ interface MailboxApi {
 	void addFile(MailboxProperties properties, MailboxFolderId folderId,
 			File file) throws IOException, ApiException;
 
+	/**
+	 * Like {@link #addFile(MailboxProperties, MailboxFolderId, File)}, but
+	 * the file's contents are written by the given {@link FileWriter} while
+	 * the request is being sent, so the contents don't need to be stored
+	 * first and the upload can start before they're complete.
+	 * <p>
+	 * The writer is called at most once. If it throws an exception, the
+	 * request is aborted and the exception is rethrown.
+	 */
+	void addFile(MailboxProperties properties, MailboxFolderId folderId,
+			FileWriter writer) throws IOException, ApiException;
+
 	/**
 	 * Used by owner and contacts to list their files to retrieve.
 	 * <p>
@@ -138,6 +151,14 @@ interface MailboxApi {
 	List<MailboxFolderId> getFolders(MailboxProperties properties)
 			throws IOException, ApiException;
 
+	/**
+	 * Writes the contents of a file that's being uploaded.
+	 */
+	interface FileWriter {
+
+		void writeTo(OutputStream out) throws IOException;
+	}
+
 	@Immutable
 	@JsonSerialize
 	class MailboxContact {
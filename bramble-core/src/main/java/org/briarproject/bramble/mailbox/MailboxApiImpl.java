@@ -32,6 +32,7 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
 
 import static com.fasterxml.jackson.databind.MapperFeature.BLOCK_UNSAFE_POLYMORPHIC_BASE_TYPES;
 import static java.util.Collections.sort;
@@ -216,6 +217,15 @@ class MailboxApiImpl implements MailboxApi {
 		if (response.code() != 200) throw new ApiException();
 	}
 
+	@Override
+	public void addFile(MailboxProperties properties, MailboxFolderId folderId,
+			FileWriter writer) throws IOException, ApiException {
+		String path = "/files/" + folderId;
+		RequestBody body = new StreamingRequestBody(writer);
+		Response response = sendPostRequest(properties, path, body);
+		if (response.code() != 200) throw new ApiException();
+	}
+
 	@Override
 	public List<MailboxFile> getFiles(MailboxProperties properties,
 			MailboxFolderId folderId)
@@ -352,4 +362,40 @@ class MailboxApiImpl implements MailboxApi {
 	private String getBaseUrl(MailboxProperties properties) {
 		return urlConverter.convertOnionToBaseUrl(properties.getOnion());
 	}
+
+	/**
+	 * A request body that's written by a {@link FileWriter} while the
+	 * request is being sent. The length of the body isn't known in advance,
+	 * so the body is sent with chunked transfer encoding.
+	 */
+	private static class StreamingRequestBody extends RequestBody {
+
+		private final FileWriter writer;
+
+		private StreamingRequestBody(FileWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return FILE;
+		}
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isOneShot() {
+			// The writer can't be called again if the request is retried
+			return true;
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			writer.writeTo(sink.outputStream());
+			sink.flush();
+		}
+	}
 }
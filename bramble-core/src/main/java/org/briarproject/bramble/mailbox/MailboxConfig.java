@@ -21,4 +21,17 @@ interface MailboxConfig {
 	 */
 	long getTorReachabilityPeriod();
 
+	/**
+	 * Returns true if outgoing sync sessions should be written directly to
+	 * the body of the upload request, or false if they should be written to
+	 * a temporary file that's uploaded when the session is complete.
+	 */
+	boolean isUploadStreamingEnabled();
+
+	/**
+	 * The maximum number of downloads and deletes a download worker may
+	 * have in progress at the same time.
+	 */
+	int getMaxConcurrentTransfers();
+
 }
@@ -27,4 +27,14 @@ class MailboxConfigImpl implements MailboxConfig {
 	public long getTorReachabilityPeriod() {
 		return TorReachabilityMonitor.REACHABILITY_PERIOD_MS;
 	}
+
+	@Override
+	public boolean isUploadStreamingEnabled() {
+		return true;
+	}
+
+	@Override
+	public int getMaxConcurrentTransfers() {
+		return MailboxDownloadWorker.MAX_CONCURRENT_TRANSFERS;
+	}
 }
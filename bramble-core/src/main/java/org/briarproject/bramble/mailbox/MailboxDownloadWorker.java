@@ -12,6 +12,9 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.logging.Logger;
 
@@ -20,6 +23,7 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.nullsafety.NullSafety.requireNonNull;
 
 @ThreadSafe
 @NotNullByDefault
@@ -30,7 +34,8 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 	 * When the worker is started it waits for a connectivity check, then
 	 * starts its first download cycle: checking for files to download,
 	 * downloading and deleting the files, and checking again until all files
-	 * have been downloaded and deleted.
+	 * have been downloaded and deleted. Several files may be downloaded and
+	 * deleted at the same time.
 	 * <p>
 	 * The worker then waits for our Tor hidden service to be reachable before
 	 * starting its second download cycle. This ensures that if a contact
@@ -51,12 +56,19 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 	protected static final Logger LOG =
 			getLogger(MailboxDownloadWorker.class.getName());
 
+	/**
+	 * The default maximum number of downloads and deletes that may be in
+	 * progress at the same time.
+	 */
+	static final int MAX_CONCURRENT_TRANSFERS = 4;
+
 	private final ConnectivityChecker connectivityChecker;
 	private final TorReachabilityMonitor torReachabilityMonitor;
 	protected final MailboxApiCaller mailboxApiCaller;
 	protected final MailboxApi mailboxApi;
 	private final MailboxFileManager mailboxFileManager;
 	protected final MailboxProperties mailboxProperties;
+	private final int maxConcurrentTransfers;
 	protected final Object lock = new Object();
 
 	@GuardedBy("lock")
@@ -66,6 +78,31 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 	@Nullable
 	protected Cancellable apiCall = null;
 
+	/**
+	 * The files waiting to be downloaded in the current download cycle, or
+	 * null if we're not downloading files.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private Queue<FolderFile> downloadQueue = null;
+
+	/**
+	 * The files that have been downloaded and are waiting to be deleted.
+	 */
+	@GuardedBy("lock")
+	private final Queue<FolderFile> deleteQueue = new LinkedList<>();
+
+	/**
+	 * The downloads and deletes that have been started since we last
+	 * checked for files, so they can be cancelled if the worker is
+	 * destroyed.
+	 */
+	@GuardedBy("lock")
+	private final List<Cancellable> transfers = new ArrayList<>();
+
+	@GuardedBy("lock")
+	private int activeTransfers = 0;
+
 	/**
 	 * Creates the API call that starts the worker's download cycle.
 	 */
@@ -77,13 +114,15 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 			MailboxApiCaller mailboxApiCaller,
 			MailboxApi mailboxApi,
 			MailboxFileManager mailboxFileManager,
-			MailboxProperties mailboxProperties) {
+			MailboxProperties mailboxProperties,
+			int maxConcurrentTransfers) {
 		this.connectivityChecker = connectivityChecker;
 		this.torReachabilityMonitor = torReachabilityMonitor;
 		this.mailboxApiCaller = mailboxApiCaller;
 		this.mailboxApi = mailboxApi;
 		this.mailboxFileManager = mailboxFileManager;
 		this.mailboxProperties = mailboxProperties;
+		this.maxConcurrentTransfers = maxConcurrentTransfers;
 	}
 
 	@Override
@@ -108,12 +147,16 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 	public void destroy() {
 		LOG.info("Destroyed");
 		Cancellable apiCall;
+		List<Cancellable> transfers;
 		synchronized (lock) {
 			state = State.DESTROYED;
 			apiCall = this.apiCall;
 			this.apiCall = null;
+			transfers = new ArrayList<>(this.transfers);
+			this.transfers.clear();
 		}
 		if (apiCall != null) apiCall.cancel();
+		for (Cancellable transfer : transfers) transfer.cancel();
 		connectivityChecker.removeObserver(this);
 		torReachabilityMonitor.removeObserver(this);
 	}
@@ -156,24 +199,72 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 		}
 	}
 
-	void downloadNextFile(Queue<FolderFile> queue) {
+	/**
+	 * Downloads and deletes the files in the given queue, then starts
+	 * another download cycle to check for files that may have arrived while
+	 * we were downloading. Up to {@link #maxConcurrentTransfers} downloads
+	 * and deletes are in progress at any time. Each file is passed to the
+	 * file manager as soon as it's been downloaded, and deletes are started
+	 * in preference to downloads so that the mailbox's storage is released
+	 * as soon as possible.
+	 */
+	void downloadFiles(Queue<FolderFile> queue) {
 		synchronized (lock) {
 			if (state == State.DESTROYED) return;
-			if (queue.isEmpty()) {
-				// Check for files again, as new files may have arrived while
-				// we were downloading
-				apiCall = mailboxApiCaller.retryWithBackoff(
-						createApiCallForDownloadCycle());
+			downloadQueue = queue;
+			startTransfers();
+		}
+	}
+
+	@GuardedBy("lock")
+	private void startTransfers() {
+		Queue<FolderFile> downloadQueue =
+				requireNonNull(this.downloadQueue);
+		while (activeTransfers < maxConcurrentTransfers) {
+			if (!deleteQueue.isEmpty()) {
+				FolderFile file = deleteQueue.remove();
+				startTransfer(new SimpleApiCall(() ->
+						apiCallDeleteFile(file)));
+			} else if (!downloadQueue.isEmpty()) {
+				FolderFile file = downloadQueue.remove();
+				startTransfer(new SimpleApiCall(() ->
+						apiCallDownloadFile(file)));
 			} else {
-				FolderFile file = queue.remove();
-				apiCall = mailboxApiCaller.retryWithBackoff(
-						new SimpleApiCall(() ->
-								apiCallDownloadFile(file, queue)));
+				break;
 			}
 		}
+		if (activeTransfers == 0) {
+			// Check for files again, as new files may have arrived while
+			// we were downloading
+			this.downloadQueue = null;
+			transfers.clear();
+			apiCall = mailboxApiCaller.retryWithBackoff(
+					createApiCallForDownloadCycle());
+		}
 	}
 
-	private void apiCallDownloadFile(FolderFile file, Queue<FolderFile> queue)
+	@GuardedBy("lock")
+	private void startTransfer(ApiCall transfer) {
+		activeTransfers++;
+		transfers.add(mailboxApiCaller.retryWithBackoff(transfer));
+	}
+
+	/**
+	 * Called when a download or delete has finished.
+	 *
+	 * @param downloaded the file that was downloaded, if it needs to be
+	 * deleted
+	 */
+	private void onTransferFinished(@Nullable FolderFile downloaded) {
+		synchronized (lock) {
+			if (state == State.DESTROYED) return;
+			activeTransfers--;
+			if (downloaded != null) deleteQueue.add(downloaded);
+			startTransfers();
+		}
+	}
+
+	private void apiCallDownloadFile(FolderFile file)
 			throws IOException, ApiException {
 		synchronized (lock) {
 			if (state == State.DESTROYED) return;
@@ -194,22 +285,14 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 			if (!tempFile.delete()) {
 				LOG.warning("Failed to delete temporary file");
 			}
-			downloadNextFile(queue);
+			onTransferFinished(null);
 			return;
 		}
 		mailboxFileManager.handleDownloadedFile(tempFile);
-		deleteFile(file, queue);
-	}
-
-	private void deleteFile(FolderFile file, Queue<FolderFile> queue) {
-		synchronized (lock) {
-			if (state == State.DESTROYED) return;
-			apiCall = mailboxApiCaller.retryWithBackoff(
-					new SimpleApiCall(() -> apiCallDeleteFile(file, queue)));
-		}
+		onTransferFinished(file);
 	}
 
-	private void apiCallDeleteFile(FolderFile file, Queue<FolderFile> queue)
+	private void apiCallDeleteFile(FolderFile file)
 			throws IOException, ApiException {
 		synchronized (lock) {
 			if (state == State.DESTROYED) return;
@@ -221,7 +304,7 @@ abstract class MailboxDownloadWorker implements MailboxWorker,
 			// File not found - continue to the next file
 			LOG.warning("File does not exist");
 		}
-		downloadNextFile(queue);
+		onTransferFinished(null);
 	}
 
 	@Override
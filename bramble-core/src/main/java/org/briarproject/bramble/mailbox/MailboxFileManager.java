@@ -6,6 +6,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -26,6 +27,18 @@ interface MailboxFileManager {
 	File createAndWriteTempFileForUpload(ContactId contactId,
 			OutgoingSessionRecord sessionRecord) throws IOException;
 
+	/**
+	 * Writes any waiting data for the given contact to the given stream,
+	 * without creating a file. The IDs of any messages sent or acked will be
+	 * added to the given {@link OutgoingSessionRecord}. The stream is not
+	 * closed.
+	 *
+	 * @throws IOException if an exception occurs while writing to the stream
+	 */
+	void writeStreamForUpload(ContactId contactId,
+			OutgoingSessionRecord sessionRecord, OutputStream out)
+			throws IOException;
+
 	/**
 	 * Handles a file that has been downloaded. The file should be created
 	 * with {@link #createTempFileForDownload()}.
@@ -104,6 +104,21 @@ class MailboxFileManagerImpl implements MailboxFileManager, EventListener {
 		return f;
 	}
 
+	@Override
+	public void writeStreamForUpload(ContactId contactId,
+			OutgoingSessionRecord sessionRecord, OutputStream out)
+			throws IOException {
+		// We shouldn't reach this point until the plugin has been started
+		SimplexPlugin plugin =
+				(SimplexPlugin) requireNonNull(pluginManager.getPlugin(ID));
+		MailboxFileWriter decorated =
+				new MailboxFileWriter(new MailboxStreamWriter(plugin, out));
+		LOG.info("Writing stream for upload");
+		connectionManager.manageOutgoingConnection(contactId, ID, decorated,
+				sessionRecord);
+		if (decorated.awaitDisposal()) throw new IOException();
+	}
+
 	private File createTempFile(String dirName) throws IOException {
 		// Wait for orphaned files to be handled before creating new files
 		try {
@@ -218,6 +233,48 @@ class MailboxFileManagerImpl implements MailboxFileManager, EventListener {
 		}
 	}
 
+	/**
+	 * A writer that writes to a stream owned by the caller, using the
+	 * plugin's latency and idle time. The stream is not closed when the
+	 * writer is disposed.
+	 */
+	private static class MailboxStreamWriter
+			implements TransportConnectionWriter {
+
+		private final SimplexPlugin plugin;
+		private final OutputStream out;
+
+		private MailboxStreamWriter(SimplexPlugin plugin, OutputStream out) {
+			this.plugin = plugin;
+			this.out = out;
+		}
+
+		@Override
+		public long getMaxLatency() {
+			return plugin.getMaxLatency();
+		}
+
+		@Override
+		public int getMaxIdleTime() {
+			return plugin.getMaxIdleTime();
+		}
+
+		@Override
+		public boolean isLossyAndCheap() {
+			return plugin.isLossyAndCheap();
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public void dispose(boolean exception) {
+			// The stream is flushed by the session and closed by the caller
+		}
+	}
+
 	private static class MailboxFileWriter
 			implements TransportConnectionWriter {
 
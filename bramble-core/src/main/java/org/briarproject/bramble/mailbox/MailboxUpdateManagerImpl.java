@@ -41,7 +41,9 @@ import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -142,6 +144,37 @@ class MailboxUpdateManagerImpl implements MailboxUpdateManager,
 		addingContact(txn, c, true);
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		// Create a group to share with each contact
+		Map<Contact, Group> groups = new LinkedHashMap<>();
+		for (Contact c : contacts) groups.put(c, getContactGroup(c));
+		db.addGroups(txn, groups.values());
+		// Apply the client's visibility to each contact group
+		Map<ContactId, GroupId> groupIds = new HashMap<>();
+		for (Entry<Contact, Group> e : groups.entrySet()) {
+			groupIds.put(e.getKey().getId(), e.getValue().getId());
+		}
+		clientVersioningManager.setClientVisibility(txn, groupIds, CLIENT_ID,
+				MAJOR_VERSION);
+		MailboxProperties ownProps =
+				mailboxSettingsManager.getOwnMailboxProperties(txn);
+		for (Entry<Contact, Group> e : groups.entrySet()) {
+			Contact c = e.getKey();
+			// Attach the contact ID to the group
+			clientHelper.setContactId(txn, e.getValue().getId(), c.getId());
+			MailboxUpdate u;
+			if (ownProps != null) {
+				u = createAndSendUpdateWithMailbox(txn, c,
+						ownProps.getServerSupports(), ownProps.getOnion());
+			} else {
+				u = sendUpdateNoMailbox(txn, c);
+			}
+			txn.attach(new MailboxUpdateSentToNewContactEvent(c.getId(), u));
+		}
+	}
+
 	/**
 	 * @param attachEvent True if a {@link MailboxUpdateSentToNewContactEvent}
 	 * should be attached to the transaction. We should only do this when
@@ -68,6 +68,11 @@ class MailboxUploadWorker implements MailboxWorker, ConnectivityObserver,
 	 * disconnects. However, if the worker has already started writing and
 	 * uploading a file when the contact connects, the worker will finish the
 	 * upload.
+	 * <p>
+	 * If upload streaming is enabled, the worker doesn't write a file.
+	 * Instead, each attempt to upload writes a new sync session directly to
+	 * the upload request, so messages are only recorded as sent or acked
+	 * once the mailbox has accepted a complete session.
 	 */
 	private enum State {
 		CREATED,
@@ -114,6 +119,7 @@ class MailboxUploadWorker implements MailboxWorker, ConnectivityObserver,
 	private final MailboxProperties mailboxProperties;
 	private final MailboxFolderId folderId;
 	private final ContactId contactId;
+	private final boolean streamUploads;
 
 	private final Object lock = new Object();
 
@@ -140,7 +146,8 @@ class MailboxUploadWorker implements MailboxWorker, ConnectivityObserver,
 			MailboxFileManager mailboxFileManager,
 			MailboxProperties mailboxProperties,
 			MailboxFolderId folderId,
-			ContactId contactId) {
+			ContactId contactId,
+			boolean streamUploads) {
 		this.ioExecutor = ioExecutor;
 		this.db = db;
 		this.clock = clock;
@@ -154,6 +161,7 @@ class MailboxUploadWorker implements MailboxWorker, ConnectivityObserver,
 		this.mailboxProperties = mailboxProperties;
 		this.folderId = folderId;
 		this.contactId = contactId;
+		this.streamUploads = streamUploads;
 	}
 
 	@Override
@@ -300,7 +308,38 @@ class MailboxUploadWorker implements MailboxWorker, ConnectivityObserver,
 			if (state != State.CONNECTIVITY_CHECK) return;
 			state = State.WRITING_UPLOADING;
 		}
-		ioExecutor.execute(this::writeAndUploadFile);
+		if (streamUploads) ioExecutor.execute(this::streamFile);
+		else ioExecutor.execute(this::writeAndUploadFile);
+	}
+
+	@IoExecutor
+	private void streamFile() {
+		synchronized (lock) {
+			if (state != State.WRITING_UPLOADING) return;
+			apiCall = mailboxApiCaller.retryWithBackoff(
+					new SimpleApiCall(this::apiCallStreamFile));
+		}
+	}
+
+	@IoExecutor
+	private void apiCallStreamFile() throws IOException, ApiException {
+		synchronized (lock) {
+			if (state != State.WRITING_UPLOADING) return;
+		}
+		LOG.info("Streaming file");
+		// If the upload fails, the messages aren't recorded as sent or acked,
+		// so the next attempt will write them again
+		OutgoingSessionRecord sessionRecord = new OutgoingSessionRecord();
+		mailboxApi.addFile(mailboxProperties, folderId, out ->
+				mailboxFileManager.writeStreamForUpload(contactId,
+						sessionRecord, out));
+		markMessagesSentOrAcked(sessionRecord);
+		synchronized (lock) {
+			if (state != State.WRITING_UPLOADING) return;
+			state = State.CHECKING_FOR_DATA;
+			apiCall = null;
+		}
+		checkForDataToSend();
 	}
 
 	@IoExecutor
@@ -0,0 +1,241 @@
+package org.briarproject.bramble.metrics;
+
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.Gauge;
+import org.briarproject.bramble.api.metrics.Histogram;
+import org.briarproject.bramble.api.metrics.MetricFamily;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
+import org.briarproject.bramble.api.metrics.MetricSample;
+import org.briarproject.bramble.api.metrics.MetricType;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static java.util.Collections.unmodifiableList;
+import static org.briarproject.bramble.api.metrics.MetricType.COUNTER;
+import static org.briarproject.bramble.api.metrics.MetricType.GAUGE;
+import static org.briarproject.bramble.api.metrics.MetricType.HISTOGRAM;
+
+@ThreadSafe
+@NotNullByDefault
+public class MetricRegistryImpl implements MetricRegistry {
+
+	/**
+	 * The upper bounds of the histogram buckets in milliseconds.
+	 */
+	// Package access for testing
+	static final long[] BUCKETS_MS =
+			{1, 5, 10, 50, 100, 500, 1000, 5000, 10_000, 60_000};
+
+	private final ConcurrentMap<String, Family> families =
+			new ConcurrentHashMap<>();
+
+	@Inject
+	public MetricRegistryImpl() {
+	}
+
+	@Override
+	public Counter getCounter(String name, String help) {
+		return (Counter) getMetric(name, help, COUNTER, null, "");
+	}
+
+	@Override
+	public Counter getCounter(String name, String help, String labelName,
+			String labelValue) {
+		return (Counter) getMetric(name, help, COUNTER, labelName,
+				labelValue);
+	}
+
+	@Override
+	public Gauge getGauge(String name, String help) {
+		return (Gauge) getMetric(name, help, GAUGE, null, "");
+	}
+
+	@Override
+	public Gauge getGauge(String name, String help, String labelName,
+			String labelValue) {
+		return (Gauge) getMetric(name, help, GAUGE, labelName, labelValue);
+	}
+
+	@Override
+	public Histogram getHistogram(String name, String help) {
+		return (Histogram) getMetric(name, help, HISTOGRAM, null, "");
+	}
+
+	@Override
+	public Histogram getHistogram(String name, String help, String labelName,
+			String labelValue) {
+		return (Histogram) getMetric(name, help, HISTOGRAM, labelName,
+				labelValue);
+	}
+
+	@Override
+	public Collection<MetricFamily> getMetrics() {
+		// Sort the families by name and the metrics by label value
+		Map<String, Family> sorted = new TreeMap<>(families);
+		List<MetricFamily> snapshot = new ArrayList<>(sorted.size());
+		for (Family f : sorted.values()) {
+			List<MetricSample> samples = new ArrayList<>();
+			Map<String, Object> metrics = new TreeMap<>(f.metrics);
+			for (Entry<String, Object> e : metrics.entrySet()) {
+				Map<String, String> labels = f.labelName == null ?
+						emptyMap() : singletonMap(f.labelName, e.getKey());
+				addSamples(f.name, f.type, labels, e.getValue(), samples);
+			}
+			snapshot.add(new MetricFamily(f.name, f.help, f.type,
+					unmodifiableList(samples)));
+		}
+		return unmodifiableList(snapshot);
+	}
+
+	private Object getMetric(String name, String help, MetricType type,
+			@Nullable String labelName, String labelValue) {
+		Family f = families.get(name);
+		if (f == null) {
+			Family created = new Family(name, help, type, labelName);
+			f = families.putIfAbsent(name, created);
+			if (f == null) f = created;
+		}
+		if (f.type != type) {
+			throw new IllegalArgumentException(name + " is a " + f.type);
+		}
+		if (f.labelName == null ? labelName != null :
+				!f.labelName.equals(labelName)) {
+			throw new IllegalArgumentException(name + " has label "
+					+ f.labelName);
+		}
+		Object metric = f.metrics.get(labelValue);
+		if (metric == null) {
+			Object created = createMetric(type);
+			metric = f.metrics.putIfAbsent(labelValue, created);
+			if (metric == null) metric = created;
+		}
+		return metric;
+	}
+
+	private Object createMetric(MetricType type) {
+		if (type == COUNTER) return new CounterImpl();
+		else if (type == GAUGE) return new GaugeImpl();
+		else return new HistogramImpl();
+	}
+
+	private void addSamples(String name, MetricType type,
+			Map<String, String> labels, Object metric,
+			List<MetricSample> samples) {
+		if (type == COUNTER) {
+			long count = ((CounterImpl) metric).getCount();
+			samples.add(new MetricSample(name, labels, count));
+		} else if (type == GAUGE) {
+			long value = ((GaugeImpl) metric).getValue();
+			samples.add(new MetricSample(name, labels, value));
+		} else {
+			HistogramImpl h = (HistogramImpl) metric;
+			// Bucket counts are cumulative, ending with an infinite bucket
+			long cumulative = 0;
+			for (int i = 0; i <= BUCKETS_MS.length; i++) {
+				cumulative += h.buckets.get(i);
+				String le = i == BUCKETS_MS.length ?
+						"+Inf" : String.valueOf(BUCKETS_MS[i]);
+				Map<String, String> bucketLabels = new TreeMap<>(labels);
+				bucketLabels.put("le", le);
+				samples.add(new MetricSample(name + "_bucket", bucketLabels,
+						cumulative));
+			}
+			samples.add(new MetricSample(name + "_sum", labels,
+					h.sum.get()));
+			samples.add(new MetricSample(name + "_count", labels,
+					cumulative));
+		}
+	}
+
+	private static class Family {
+
+		private final String name, help;
+		private final MetricType type;
+		@Nullable
+		private final String labelName;
+		private final ConcurrentMap<String, Object> metrics =
+				new ConcurrentHashMap<>();
+
+		private Family(String name, String help, MetricType type,
+				@Nullable String labelName) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.labelName = labelName;
+		}
+	}
+
+	private static class CounterImpl implements Counter {
+
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void increment() {
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void add(long amount) {
+			if (amount < 0) throw new IllegalArgumentException();
+			count.addAndGet(amount);
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	private static class GaugeImpl implements Gauge {
+
+		private final AtomicLong value = new AtomicLong();
+
+		@Override
+		public void set(long value) {
+			this.value.set(value);
+		}
+
+		@Override
+		public void add(long amount) {
+			value.addAndGet(amount);
+		}
+
+		@Override
+		public long getValue() {
+			return value.get();
+		}
+	}
+
+	private static class HistogramImpl implements Histogram {
+
+		// One bucket for each upper bound, plus one for larger values
+		private final AtomicLongArray buckets =
+				new AtomicLongArray(BUCKETS_MS.length + 1);
+		private final AtomicLong sum = new AtomicLong();
+
+		@Override
+		public void record(long durationMs) {
+			if (durationMs < 0) durationMs = 0;
+			int i = 0;
+			while (i < BUCKETS_MS.length && durationMs > BUCKETS_MS[i]) i++;
+			buckets.incrementAndGet(i);
+			sum.addAndGet(durationMs);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package org.briarproject.bramble.metrics;
+
+import org.briarproject.bramble.api.metrics.MetricExporter;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
+
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+public class MetricsModule {
+
+	@Provides
+	@Singleton
+	MetricRegistry provideMetricRegistry(MetricRegistryImpl metricRegistry) {
+		return metricRegistry;
+	}
+
+	@Provides
+	MetricExporter provideMetricExporter(PrometheusExporter exporter) {
+		return exporter;
+	}
+}
@@ -0,0 +1,75 @@
+package org.briarproject.bramble.metrics;
+
+import org.briarproject.bramble.api.metrics.MetricExporter;
+import org.briarproject.bramble.api.metrics.MetricFamily;
+import org.briarproject.bramble.api.metrics.MetricSample;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+/**
+ * Exports metrics in the Prometheus text exposition format.
+ */
+@Immutable
+@NotNullByDefault
+class PrometheusExporter implements MetricExporter {
+
+	private static final String CONTENT_TYPE =
+			"text/plain; version=0.0.4; charset=utf-8";
+
+	@Inject
+	PrometheusExporter() {
+	}
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public void export(Collection<MetricFamily> families, Writer out)
+			throws IOException {
+		for (MetricFamily f : families) {
+			out.write("# HELP " + f.getName() + " "
+					+ escapeHelp(f.getHelp()) + "\n");
+			out.write("# TYPE " + f.getName() + " "
+					+ f.getType().name().toLowerCase(Locale.US) + "\n");
+			for (MetricSample s : f.getSamples()) {
+				out.write(s.getName());
+				writeLabels(s.getLabels(), out);
+				out.write(" " + s.getValue() + "\n");
+			}
+		}
+		out.flush();
+	}
+
+	private void writeLabels(Map<String, String> labels, Writer out)
+			throws IOException {
+		if (labels.isEmpty()) return;
+		out.write('{');
+		boolean first = true;
+		for (Entry<String, String> e : labels.entrySet()) {
+			if (!first) out.write(',');
+			first = false;
+			out.write(e.getKey() + "=\"" + escapeLabelValue(e.getValue())
+					+ "\"");
+		}
+		out.write('}');
+	}
+
+	private String escapeHelp(String s) {
+		return s.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+
+	private String escapeLabelValue(String s) {
+		return escapeHelp(s).replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,28 @@
+package org.briarproject.bramble.plugin;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+interface PollerConstants {
+
+	/**
+	 * The maximum number of connection attempts the poller may have in
+	 * progress for each plugin, including attempts started by earlier polls.
+	 * Contacts with data waiting to be sent are attempted first, followed by
+	 * the contacts that were attempted least recently.
+	 */
+	int MAX_POLL_ATTEMPTS = 20;
+
+	/**
+	 * How long a connection attempt that hasn't succeeded counts as being
+	 * in progress. Plugins don't report failed attempts, so after this time
+	 * the attempt is considered to have failed. This is longer than the
+	 * time taken for any plugin's connection attempts to time out.
+	 */
+	long MAX_ATTEMPT_TIME_MS = MINUTES.toMillis(3);
+
+	/**
+	 * The maximum time to wait before polling an unreachable contact again.
+	 */
+	long MAX_BACKOFF_MS = HOURS.toMillis(1);
+}
@@ -6,10 +6,15 @@ import org.briarproject.bramble.api.connection.ConnectionManager;
 import org.briarproject.bramble.api.connection.ConnectionRegistry;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.Histogram;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.plugin.ConnectionHandler;
 import org.briarproject.bramble.api.plugin.Plugin;
 import org.briarproject.bramble.api.plugin.PluginManager;
@@ -35,6 +40,8 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Executor;
@@ -46,10 +53,16 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.Collections.sort;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_ATTEMPT_TIME_MS;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_BACKOFF_MS;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_POLL_ATTEMPTS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
 @ThreadSafe
@@ -58,39 +71,53 @@ class PollerImpl implements Poller, EventListener {
 
 	private static final Logger LOG = getLogger(PollerImpl.class.getName());
 
+	private static final long NO_ATTEMPT = -1;
+
 	private final Executor ioExecutor, wakefulIoExecutor;
 	private final TaskScheduler scheduler;
+	private final DatabaseComponent db;
 	private final ConnectionManager connectionManager;
 	private final ConnectionRegistry connectionRegistry;
 	private final PluginManager pluginManager;
 	private final TransportPropertyManager transportPropertyManager;
 	private final SecureRandom random;
 	private final Clock clock;
+	private final MetricRegistry metricRegistry;
 	private final Lock lock;
 	@GuardedBy("lock")
 	private final Map<TransportId, ScheduledPollTask> tasks;
+	@GuardedBy("lock")
+	private final Map<TransportId, Map<ContactId, Reachability>> reachability;
+	@GuardedBy("lock")
+	private final Map<TransportId, PollingStats> stats;
 
 	@Inject
 	PollerImpl(@IoExecutor Executor ioExecutor,
 			@WakefulIoExecutor Executor wakefulIoExecutor,
 			TaskScheduler scheduler,
+			DatabaseComponent db,
 			ConnectionManager connectionManager,
 			ConnectionRegistry connectionRegistry,
 			PluginManager pluginManager,
 			TransportPropertyManager transportPropertyManager,
 			SecureRandom random,
-			Clock clock) {
+			Clock clock,
+			MetricRegistry metricRegistry) {
 		this.ioExecutor = ioExecutor;
 		this.wakefulIoExecutor = wakefulIoExecutor;
 		this.scheduler = scheduler;
+		this.db = db;
 		this.connectionManager = connectionManager;
 		this.connectionRegistry = connectionRegistry;
 		this.pluginManager = pluginManager;
 		this.transportPropertyManager = transportPropertyManager;
 		this.random = random;
 		this.clock = clock;
+		this.metricRegistry = metricRegistry;
 		lock = new ReentrantLock();
 		tasks = new HashMap<>();
+		reachability = new HashMap<>();
+		stats = new HashMap<>();
 	}
 
 	@Override
@@ -99,6 +126,10 @@ class PollerImpl implements Poller, EventListener {
 			ContactAddedEvent c = (ContactAddedEvent) e;
 			// Connect to the newly added contact
 			connectToContact(c.getContactId());
+		} else if (e instanceof ContactRemovedEvent) {
+			ContactRemovedEvent c = (ContactRemovedEvent) e;
+			// Forget the removed contact's reachability
+			removeReachability(c.getContactId());
 		} else if (e instanceof ConnectionClosedEvent) {
 			ConnectionClosedEvent c = (ConnectionClosedEvent) e;
 			// Reschedule polling, the polling interval may have decreased
@@ -109,6 +140,8 @@ class PollerImpl implements Poller, EventListener {
 			}
 		} else if (e instanceof ConnectionOpenedEvent) {
 			ConnectionOpenedEvent c = (ConnectionOpenedEvent) e;
+			// The contact is reachable, so stop backing off
+			resetReachability(c.getContactId(), c.getTransportId());
 			// Reschedule polling, the polling interval may have decreased
 			reschedule(c.getTransportId());
 		} else if (e instanceof TransportActiveEvent) {
@@ -221,19 +254,224 @@ class PollerImpl implements Poller, EventListener {
 					transportPropertyManager.getRemoteProperties(t);
 			Collection<ContactId> connected =
 					connectionRegistry.getConnectedOrBetterContacts(t);
+			List<ContactId> unconnected = new ArrayList<>();
+			for (ContactId c : remote.keySet()) {
+				if (!connected.contains(c)) unconnected.add(c);
+			}
+			if (unconnected.isEmpty()) return;
+			long now = clock.currentTimeMillis();
+			List<ContactId> eligible = getEligibleContacts(p, unconnected, now);
+			if (eligible.isEmpty()) return;
+			Collection<ContactId> dataToSend =
+					getContactsWithDataToSend(p, eligible, now);
+			List<ContactId> selected =
+					selectContacts(t, eligible, dataToSend, now);
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Connecting to " + selected.size() + " of "
+						+ unconnected.size() + " unconnected contacts, "
+						+ (unconnected.size() - eligible.size())
+						+ " backing off or already connecting");
+			}
+			if (selected.isEmpty()) return;
 			Collection<Pair<TransportProperties, ConnectionHandler>>
 					properties = new ArrayList<>();
-			for (Entry<ContactId, TransportProperties> e : remote.entrySet()) {
-				ContactId c = e.getKey();
-				if (!connected.contains(c))
-					properties.add(new Pair<>(e.getValue(), new Handler(c, t)));
+			for (ContactId c : selected) {
+				properties.add(new Pair<>(remote.get(c), new Handler(c, t)));
 			}
-			if (!properties.isEmpty()) p.poll(properties);
+			p.poll(properties);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
+	/**
+	 * Returns the given contacts, excluding any that are backing off after
+	 * failed connection attempts or that have an attempt in progress. Any
+	 * attempts that haven't succeeded within
+	 * {@link PollerConstants#MAX_ATTEMPT_TIME_MS} are counted as failures.
+	 */
+	private List<ContactId> getEligibleContacts(Plugin p,
+			List<ContactId> unconnected, long now) {
+		TransportId t = p.getId();
+		int pollingInterval = p.getPollingInterval();
+		List<ContactId> eligible = new ArrayList<>();
+		lock.lock();
+		try {
+			PollingStats s = getStats(t);
+			for (ContactId c : unconnected) {
+				Reachability r = getReachability(t, c);
+				if (r.attemptStarted != NO_ATTEMPT) {
+					long expiry = r.attemptStarted + MAX_ATTEMPT_TIME_MS;
+					// Don't start another attempt while one is in progress
+					if (now < expiry) continue;
+					r.attemptStarted = NO_ATTEMPT;
+					r.failures++;
+					r.retryAfter =
+							expiry + getBackoff(pollingInterval, r.failures);
+					s.failures.increment();
+				}
+				// Allow some slack, as the next poll may run slightly early
+				if (now >= r.retryAfter - pollingInterval / 2) eligible.add(c);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return eligible;
+	}
+
+	private Collection<ContactId> getContactsWithDataToSend(Plugin p,
+			List<ContactId> contacts, long now) throws DbException {
+		long maxLatency = p.getMaxLatency();
+		return db.transactionWithResult(true, txn -> {
+			Collection<ContactId> dataToSend = new HashSet<>();
+			for (ContactId c : contacts) {
+				if (db.getNextSendTime(txn, c, maxLatency) <= now)
+					dataToSend.add(c);
+			}
+			return dataToSend;
+		});
+	}
+
+	/**
+	 * Chooses which of the given contacts to connect to, preferring contacts
+	 * with data to send and then contacts that were polled least recently,
+	 * and records the attempts. The number of attempts in progress for the
+	 * transport, including any started by earlier polls, is capped at
+	 * {@link PollerConstants#MAX_POLL_ATTEMPTS}.
+	 */
+	private List<ContactId> selectContacts(TransportId t,
+			List<ContactId> eligible, Collection<ContactId> dataToSend,
+			long now) {
+		lock.lock();
+		try {
+			int available =
+					max(0, MAX_POLL_ATTEMPTS - countAttemptsInProgress(t, now));
+			sort(eligible, (a, b) -> {
+				boolean sendA = dataToSend.contains(a);
+				boolean sendB = dataToSend.contains(b);
+				if (sendA != sendB) return sendA ? -1 : 1;
+				long lastA = getReachability(t, a).lastAttempt;
+				long lastB = getReachability(t, b).lastAttempt;
+				if (lastA == lastB) return 0;
+				return lastA < lastB ? -1 : 1;
+			});
+			List<ContactId> selected = eligible;
+			if (selected.size() > available)
+				selected = new ArrayList<>(eligible.subList(0, available));
+			PollingStats s = getStats(t);
+			for (ContactId c : selected) {
+				Reachability r = getReachability(t, c);
+				r.attemptStarted = now;
+				r.lastAttempt = now;
+				s.attempts.increment();
+			}
+			return selected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@GuardedBy("lock")
+	private int countAttemptsInProgress(TransportId t, long now) {
+		int attempts = 0;
+		for (Reachability r : getReachability(t).values()) {
+			if (r.attemptStarted != NO_ATTEMPT &&
+					now < r.attemptStarted + MAX_ATTEMPT_TIME_MS) {
+				attempts++;
+			}
+		}
+		return attempts;
+	}
+
+	private void connected(ContactId c, TransportId t) {
+		long connectTime = NO_ATTEMPT;
+		PollingStats s;
+		lock.lock();
+		try {
+			Reachability r = getReachability(t, c);
+			s = getStats(t);
+			if (r.attemptStarted != NO_ATTEMPT) {
+				connectTime = clock.currentTimeMillis() - r.attemptStarted;
+				s.successes.increment();
+				s.connectTime.record(connectTime);
+			}
+			r.reset();
+		} finally {
+			lock.unlock();
+		}
+		if (connectTime != NO_ATTEMPT && LOG.isLoggable(INFO)) {
+			LOG.info("Connected to contact via " + t + " in "
+					+ connectTime + " ms, " + s);
+		}
+	}
+
+	private void resetReachability(ContactId c, TransportId t) {
+		lock.lock();
+		try {
+			Map<ContactId, Reachability> contacts = reachability.get(t);
+			if (contacts == null) return;
+			Reachability r = contacts.get(c);
+			if (r != null) r.reset();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void removeReachability(ContactId c) {
+		lock.lock();
+		try {
+			for (Map<ContactId, Reachability> contacts : reachability.values())
+				contacts.remove(c);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@GuardedBy("lock")
+	private Map<ContactId, Reachability> getReachability(TransportId t) {
+		Map<ContactId, Reachability> contacts = reachability.get(t);
+		if (contacts == null) {
+			contacts = new HashMap<>();
+			reachability.put(t, contacts);
+		}
+		return contacts;
+	}
+
+	@GuardedBy("lock")
+	private Reachability getReachability(TransportId t, ContactId c) {
+		Map<ContactId, Reachability> contacts = getReachability(t);
+		Reachability r = contacts.get(c);
+		if (r == null) {
+			r = new Reachability();
+			contacts.put(c, r);
+		}
+		return r;
+	}
+
+	@GuardedBy("lock")
+	private PollingStats getStats(TransportId t) {
+		PollingStats s = stats.get(t);
+		if (s == null) {
+			s = new PollingStats(metricRegistry, t);
+			stats.put(t, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns how long to wait before polling a contact again after the
+	 * given number of consecutive failed attempts. The first failure skips
+	 * one poll, and each further failure doubles the number of polls that
+	 * are skipped, up to {@link PollerConstants#MAX_BACKOFF_MS}.
+	 */
+	// Package access for testing
+	static long getBackoff(int pollingInterval, int failures) {
+		long backoff = pollingInterval;
+		for (int i = 1; i < failures && backoff < MAX_BACKOFF_MS; i++)
+			backoff *= 2;
+		return min(backoff, MAX_BACKOFF_MS);
+	}
+
 	private class ScheduledPollTask {
 
 		private final PollTask task;
@@ -290,6 +528,7 @@ class PollerImpl implements Poller, EventListener {
 
 		@Override
 		public void handleConnection(DuplexTransportConnection c) {
+			connected(contactId, transportId);
 			connectionManager.manageOutgoingConnection(contactId,
 					transportId, c);
 		}
@@ -302,8 +541,54 @@ class PollerImpl implements Poller, EventListener {
 
 		@Override
 		public void handleWriter(TransportConnectionWriter w) {
+			connected(contactId, transportId);
 			connectionManager.manageOutgoingConnection(contactId,
 					transportId, w);
 		}
 	}
+
+	private static class Reachability {
+
+		private int failures = 0;
+		private long retryAfter = 0, attemptStarted = NO_ATTEMPT;
+		private long lastAttempt = 0;
+
+		private void reset() {
+			failures = 0;
+			retryAfter = 0;
+			attemptStarted = NO_ATTEMPT;
+		}
+	}
+
+	private static class PollingStats {
+
+		private final Counter attempts, successes, failures;
+		private final Histogram connectTime;
+
+		private PollingStats(MetricRegistry metricRegistry, TransportId t) {
+			String transport = t.getString();
+			attempts = metricRegistry.getCounter(
+					"bramble_poll_attempts_total",
+					"Connections attempted by the poller",
+					"transport", transport);
+			successes = metricRegistry.getCounter(
+					"bramble_poll_successes_total",
+					"Connections made by the poller", "transport", transport);
+			failures = metricRegistry.getCounter(
+					"bramble_poll_failures_total",
+					"Connections attempted by the poller that failed",
+					"transport", transport);
+			connectTime = metricRegistry.getHistogram(
+					"bramble_poll_connect_time_ms",
+					"Time taken by the poller to connect to a contact",
+					"transport", transport);
+		}
+
+		@Override
+		public String toString() {
+			return attempts.getCount() + " attempts, "
+					+ successes.getCount() + " successes, "
+					+ failures.getCount() + " failures";
+		}
+	}
 }
@@ -7,9 +7,11 @@ import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
@@ -17,6 +19,7 @@ import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
+import org.briarproject.bramble.api.properties.event.LocalTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.properties.event.RemoteTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
@@ -26,60 +29,108 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.validation.IncomingMessageHook;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_BATCH_SIZE;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_DELAY_MS;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_RETRY_DELAY_MS;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MAX_FAN_OUT_RETRY_DELAY_MS;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.GROUP_KEY_DISCOVERED;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_FAN_OUT_PENDING;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_LOCAL;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_TRANSPORT_ID;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_VERSION;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.REFLECTED_PROPERTY_PREFIX;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
+import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.StringUtils.isNullOrEmpty;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class TransportPropertyManagerImpl implements TransportPropertyManager,
 		OpenDatabaseHook, ContactHook, ClientVersioningHook,
 		IncomingMessageHook {
 
+	private static final Logger LOG =
+			getLogger(TransportPropertyManagerImpl.class.getName());
+
 	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
 	private final ClientVersioningManager clientVersioningManager;
 	private final MetadataParser metadataParser;
 	private final ContactGroupFactory contactGroupFactory;
 	private final Clock clock;
+	private final TaskScheduler taskScheduler;
+	private final Executor dbExecutor;
 	private final Group localGroup;
+	private final Object lock = new Object();
+
+	/**
+	 * Transports for which a fan-out has been scheduled but not yet started.
+	 */
+	@GuardedBy("lock")
+	private final Set<TransportId> scheduled = new HashSet<>();
 
 	@Inject
 	TransportPropertyManagerImpl(DatabaseComponent db,
 			ClientHelper clientHelper,
 			ClientVersioningManager clientVersioningManager,
 			MetadataParser metadataParser,
-			ContactGroupFactory contactGroupFactory, Clock clock) {
+			ContactGroupFactory contactGroupFactory, Clock clock,
+			TaskScheduler taskScheduler,
+			@DatabaseExecutor Executor dbExecutor) {
 		this.db = db;
 		this.clientHelper = clientHelper;
 		this.clientVersioningManager = clientVersioningManager;
 		this.metadataParser = metadataParser;
 		this.contactGroupFactory = contactGroupFactory;
 		this.clock = clock;
+		this.taskScheduler = taskScheduler;
+		this.dbExecutor = dbExecutor;
 		localGroup = contactGroupFactory.createLocalGroup(CLIENT_ID,
 				MAJOR_VERSION);
 	}
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
-		if (db.containsGroup(txn, localGroup.getId())) return;
+		if (db.containsGroup(txn, localGroup.getId())) {
+			// Resume any fan-outs that were interrupted by shutting down
+			try {
+				for (TransportId t : findPendingFanOuts(txn)) {
+					txn.attach(() -> scheduleFanOut(t));
+				}
+			} catch (FormatException e) {
+				throw new DbException(e);
+			}
+			return;
+		}
 		db.addGroup(txn, localGroup);
 		// Set things up for any pre-existing contacts
 		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
@@ -102,6 +153,30 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		}
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		// Create a group to share with each contact
+		Map<ContactId, Group> groups = new LinkedHashMap<>();
+		for (Contact c : contacts) groups.put(c.getId(), getContactGroup(c));
+		db.addGroups(txn, groups.values());
+		// Apply the client's visibility to each contact group
+		Map<ContactId, GroupId> groupIds = new HashMap<>();
+		for (Entry<ContactId, Group> e : groups.entrySet()) {
+			groupIds.put(e.getKey(), e.getValue().getId());
+		}
+		clientVersioningManager.setClientVisibility(txn, groupIds, CLIENT_ID,
+				MAJOR_VERSION);
+		// Copy the latest local properties into each group
+		Map<TransportId, TransportProperties> local = getLocalProperties(txn);
+		for (Group g : groups.values()) {
+			for (Entry<TransportId, TransportProperties> e : local.entrySet()) {
+				storeMessage(txn, g.getId(), e.getKey(), e.getValue(), 1,
+						true, true);
+			}
+		}
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		db.removeGroup(txn, getContactGroup(c));
@@ -332,13 +407,12 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					// Store the merged properties in the local group
 					long version = latest == null ? 1 : latest.version + 1;
 					storeMessage(txn, localGroup.getId(), t, merged, version,
-							true, false);
+							true, false, true);
 					// Delete the previous update, if any
 					if (latest != null) db.removeMessage(txn, latest.messageId);
-					// Store the merged properties in each contact's group
-					for (Contact c : db.getContacts(txn)) {
-						storeLocalProperties(txn, c, t, merged);
-					}
+					// Copy the merged properties into each contact's group
+					// when the transaction has been committed
+					txn.attach(() -> scheduleFanOut(t));
 				}
 			});
 		} catch (FormatException e) {
@@ -346,6 +420,96 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		}
 	}
 
+	private void scheduleFanOut(TransportId t) {
+		synchronized (lock) {
+			// If a fan-out is already scheduled it will pick up this change
+			if (!scheduled.add(t)) return;
+		}
+		taskScheduler.schedule(() -> startFanOut(t), dbExecutor,
+				FAN_OUT_DELAY_MS, MILLISECONDS);
+	}
+
+	// Package access for testing
+	@DatabaseExecutor
+	void startFanOut(TransportId t) {
+		synchronized (lock) {
+			// Any further changes will schedule another fan-out
+			scheduled.remove(t);
+		}
+		startFanOut(t, 0);
+	}
+
+	@DatabaseExecutor
+	private void startFanOut(TransportId t, int failures) {
+		try {
+			List<Contact> contacts = new ArrayList<>(
+					db.transactionWithResult(true, db::getContacts));
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Copying local properties for " + t.getString()
+						+ " to " + contacts.size() + " contacts");
+			}
+			fanOutBatch(new FanOut(t, contacts), 0);
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			// Try again later so every contact eventually gets the update
+			retryLater(() -> startFanOut(t, failures + 1), failures);
+		}
+	}
+
+	@DatabaseExecutor
+	private void fanOutBatch(FanOut f, int start) {
+		int end = min(start + FAN_OUT_BATCH_SIZE, f.contacts.size());
+		try {
+			db.transaction(false, txn -> {
+				// Copy the latest local properties, which may have changed
+				// since the fan-out started
+				LatestUpdate latest = findLatest(txn, localGroup.getId(),
+						f.transportId, true);
+				if (latest == null) return;
+				if (f.version == null) f.version = latest.version;
+				BdfList message = clientHelper.getMessageAsList(txn,
+						latest.messageId, false);
+				TransportProperties p = parseProperties(message);
+				for (Contact c : f.contacts.subList(start, end)) {
+					// Skip any contacts that have been removed
+					Group g = getContactGroup(c);
+					if (!db.containsGroup(txn, g.getId())) continue;
+					storeLocalProperties(txn, c, f.transportId, p);
+				}
+				// If the properties haven't changed during the fan-out then
+				// every contact's group is now up to date
+				if (end == f.contacts.size() && f.version == latest.version) {
+					BdfDictionary meta = BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE));
+					clientHelper.mergeMessageMetadata(txn, latest.messageId,
+							meta);
+					txn.attach(new LocalTransportPropertiesUpdatedEvent(
+							f.transportId));
+				}
+			});
+		} catch (DbException | FormatException e) {
+			logException(LOG, WARNING, e);
+			// Try the same batch again later so every contact eventually
+			// gets the update
+			retryLater(() -> fanOutBatch(f, start), f.failures++);
+			return;
+		}
+		f.failures = 0;
+		// Submit the next batch, allowing other tasks to run in between
+		if (end < f.contacts.size()) {
+			dbExecutor.execute(() -> fanOutBatch(f, end));
+		}
+	}
+
+	private void retryLater(Runnable task, int failures) {
+		long delay = FAN_OUT_RETRY_DELAY_MS << min(failures, 16);
+		delay = min(delay, MAX_FAN_OUT_RETRY_DELAY_MS);
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Retrying fan-out in " + delay + " ms");
+		}
+		taskScheduler.schedule(task, dbExecutor, delay, MILLISECONDS);
+	}
+
 	private void storeLocalProperties(Transaction txn, Contact c,
 			TransportId t, TransportProperties p)
 			throws DbException, FormatException {
@@ -369,6 +533,12 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 				combined.put(key, e.getValue());
 			}
 		}
+		if (latest != null) {
+			// Don't store a new update if the properties are unchanged
+			BdfList message = clientHelper.getMessageAsList(txn,
+					latest.messageId, false);
+			if (parseProperties(message).equals(combined)) return;
+		}
 		storeMessage(txn, g.getId(), t, combined, version, true, true);
 		// Delete the previous update, if any
 		if (latest != null) db.removeMessage(txn, latest.messageId);
@@ -382,6 +552,12 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	private void storeMessage(Transaction txn, GroupId g, TransportId t,
 			TransportProperties p, long version, boolean local, boolean shared)
 			throws DbException {
+		storeMessage(txn, g, t, p, version, local, shared, false);
+	}
+
+	private void storeMessage(Transaction txn, GroupId g, TransportId t,
+			TransportProperties p, long version, boolean local, boolean shared,
+			boolean fanOutPending) throws DbException {
 		try {
 			BdfList body = encodeProperties(t, p, version);
 			long now = clock.currentTimeMillis();
@@ -390,6 +566,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 			meta.put(MSG_KEY_TRANSPORT_ID, t.getString());
 			meta.put(MSG_KEY_VERSION, version);
 			meta.put(MSG_KEY_LOCAL, local);
+			if (fanOutPending) meta.put(MSG_KEY_FAN_OUT_PENDING, true);
 			clientHelper.addLocalMessage(txn, m, meta, shared, false);
 		} catch (FormatException e) {
 			throw new RuntimeException(e);
@@ -416,6 +593,20 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		return latestUpdates;
 	}
 
+	private List<TransportId> findPendingFanOuts(Transaction txn)
+			throws DbException, FormatException {
+		List<TransportId> pending = new ArrayList<>();
+		Map<MessageId, BdfDictionary> metadata = clientHelper
+				.getMessageMetadataAsDictionary(txn, localGroup.getId());
+		for (BdfDictionary meta : metadata.values()) {
+			if (meta.getBoolean(MSG_KEY_FAN_OUT_PENDING, false)) {
+				pending.add(new TransportId(
+						meta.getString(MSG_KEY_TRANSPORT_ID)));
+			}
+		}
+		return pending;
+	}
+
 	@Nullable
 	private LatestUpdate findLatest(Transaction txn, GroupId g, TransportId t,
 			boolean local) throws DbException, FormatException {
@@ -439,6 +630,28 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		return clientHelper.parseAndValidateTransportProperties(dictionary);
 	}
 
+	private static class FanOut {
+
+		private final TransportId transportId;
+		private final List<Contact> contacts;
+
+		/**
+		 * The version of the local properties seen by the first batch.
+		 */
+		@Nullable
+		private Long version = null;
+
+		/**
+		 * The number of consecutive times a batch has failed.
+		 */
+		private int failures = 0;
+
+		private FanOut(TransportId transportId, List<Contact> contacts) {
+			this.transportId = transportId;
+			this.contacts = contacts;
+		}
+	}
+
 	private static class LatestUpdate {
 
 		private final MessageId messageId;
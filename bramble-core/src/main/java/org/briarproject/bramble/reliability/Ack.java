@@ -5,28 +5,111 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
+/**
+ * An acknowledgement frame. Besides the sequence number of the data frame
+ * that caused it to be sent, an ack carries the receive window, the highest
+ * sequence number up to which all data frames have been received, and up to
+ * {@link #MAX_SACK_BLOCKS} ranges of data frames that have been received
+ * out of order.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class Ack extends Frame {
 
-	static final int LENGTH = 11;
+	static final int MIN_LENGTH = 18, SACK_BLOCK_LENGTH = 8;
+	static final int MAX_SACK_BLOCKS = 4;
+	static final int MAX_LENGTH =
+			MIN_LENGTH + MAX_SACK_BLOCKS * SACK_BLOCK_LENGTH;
 
-	Ack() {
-		super(new byte[LENGTH]);
-		buf[0] = Frame.ACK_FLAG;
+	private static final int WINDOW_OFFSET = 5, CUMULATIVE_OFFSET = 9;
+	private static final int BLOCK_COUNT_OFFSET = 13, BLOCKS_OFFSET = 14;
+
+	Ack(int sackBlocks) {
+		super(new byte[MIN_LENGTH + sackBlocks * SACK_BLOCK_LENGTH]);
+		if (sackBlocks < 0 || sackBlocks > MAX_SACK_BLOCKS)
+			throw new IllegalArgumentException();
+		buf[0] = Frame.SACK_FLAG;
+		buf[BLOCK_COUNT_OFFSET] = (byte) sackBlocks;
 	}
 
 	Ack(byte[] buf) {
 		super(buf);
-		if (buf.length != LENGTH) throw new IllegalArgumentException();
-		buf[0] = Frame.ACK_FLAG;
+		if (buf.length < MIN_LENGTH || buf.length > MAX_LENGTH)
+			throw new IllegalArgumentException();
+		buf[0] = Frame.SACK_FLAG;
+	}
+
+	/**
+	 * Returns true if the number of SACK blocks matches the frame's length.
+	 */
+	boolean isValid() {
+		int sackBlocks = buf[BLOCK_COUNT_OFFSET] & 0xFF;
+		return sackBlocks <= MAX_SACK_BLOCKS &&
+				buf.length == MIN_LENGTH + sackBlocks * SACK_BLOCK_LENGTH;
 	}
 
 	int getWindowSize() {
-		return ByteUtils.readUint16(buf, 5);
+		long windowSize = ByteUtils.readUint32(buf, WINDOW_OFFSET);
+		return (int) Math.min(windowSize, Integer.MAX_VALUE);
 	}
 
 	void setWindowSize(int windowSize) {
-		ByteUtils.writeUint16(windowSize, buf, 5);
+		ByteUtils.writeUint32(windowSize, buf, WINDOW_OFFSET);
+	}
+
+	long getCumulativeAck() {
+		return ByteUtils.readUint32(buf, CUMULATIVE_OFFSET);
+	}
+
+	void setCumulativeAck(long cumulativeAck) {
+		ByteUtils.writeUint32(cumulativeAck, buf, CUMULATIVE_OFFSET);
+	}
+
+	int getSackBlockCount() {
+		return buf[BLOCK_COUNT_OFFSET] & 0xFF;
+	}
+
+	long getSackBlockStart(int i) {
+		return ByteUtils.readUint32(buf, BLOCKS_OFFSET + i * SACK_BLOCK_LENGTH);
+	}
+
+	long getSackBlockEnd(int i) {
+		return ByteUtils.readUint32(buf,
+				BLOCKS_OFFSET + i * SACK_BLOCK_LENGTH + 4);
+	}
+
+	/**
+	 * Sets the i'th SACK block, covering the given inclusive range of
+	 * sequence numbers.
+	 */
+	void setSackBlock(int i, long start, long end) {
+		int offset = BLOCKS_OFFSET + i * SACK_BLOCK_LENGTH;
+		ByteUtils.writeUint32(start, buf, offset);
+		ByteUtils.writeUint32(end, buf, offset + 4);
+	}
+
+	/**
+	 * Returns true if the ack covers the given sequence number, either
+	 * cumulatively or in a SACK block.
+	 */
+	boolean covers(long sequenceNumber) {
+		if (sequenceNumber <= getCumulativeAck()) return true;
+		int sackBlocks = getSackBlockCount();
+		for (int i = 0; i < sackBlocks; i++) {
+			if (sequenceNumber >= getSackBlockStart(i) &&
+					sequenceNumber <= getSackBlockEnd(i)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the highest sequence number covered by the ack.
+	 */
+	long getHighestSequenceNumber() {
+		long highest = getCumulativeAck();
+		int sackBlocks = getSackBlockCount();
+		for (int i = 0; i < sackBlocks; i++)
+			highest = Math.max(highest, getSackBlockEnd(i));
+		return highest;
 	}
 }
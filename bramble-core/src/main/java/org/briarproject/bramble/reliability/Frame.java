@@ -9,7 +9,20 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotNullByDefault
 abstract class Frame {
 
-	static final byte ACK_FLAG = (byte) 128, FIN_FLAG = 64;
+	static final byte FIN_FLAG = 64;
+
+	/**
+	 * The type of ack frames in the original format, which had no SACK
+	 * blocks. This type is no longer sent, and frames of this type are
+	 * ignored rather than being parsed as {@link #SACK_FLAG} frames.
+	 */
+	static final byte ACK_FLAG = (byte) 128;
+
+	/**
+	 * The type of ack frames with SACK blocks. Peers that only support
+	 * {@link #ACK_FLAG} frames ignore this frame type.
+	 */
+	static final byte SACK_FLAG = (byte) 160;
 
 	protected final byte[] buf;
 
@@ -5,10 +5,6 @@ import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -16,13 +12,13 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.reliability.Ack.MAX_SACK_BLOCKS;
 
 @ThreadSafe
 @NotNullByDefault
 class Receiver implements ReadHandler {
 
 	private static final int READ_TIMEOUT = 5 * 60 * 1000; // Milliseconds
-	private static final int MAX_WINDOW_SIZE = 8 * Data.MAX_PAYLOAD_LENGTH;
 
 	private final Clock clock;
 	private final Sender sender;
@@ -30,18 +26,25 @@ class Receiver implements ReadHandler {
 	private final Condition dataFrameAvailable = windowLock.newCondition();
 
 	// The following are locking: windowLock
-	private final SortedSet<Data> dataFrames;
-	private int windowSize = MAX_WINDOW_SIZE;
+	/**
+	 * A ring buffer holding the data frames that have been received but not
+	 * yet read, indexed by sequence number modulo the buffer's length.
+	 */
+	private final Data[] dataFrames;
+	private int windowSize;
 
 	private long finalSequenceNumber = Long.MAX_VALUE;
 	private long nextSequenceNumber = 1;
+	private long highestSequenceNumber = 0;
 
 	private volatile boolean valid = true;
 
-	Receiver(Clock clock, Sender sender) {
+	Receiver(Clock clock, Sender sender, int maxWindowSize) {
 		this.sender = sender;
 		this.clock = clock;
-		dataFrames = new TreeSet<>(new SequenceNumberComparator());
+		int frames = Math.max(1, maxWindowSize / Data.MAX_PAYLOAD_LENGTH);
+		dataFrames = new Data[frames];
+		windowSize = maxWindowSize;
 	}
 
 	Data read() throws IOException, InterruptedException {
@@ -49,22 +52,18 @@ class Receiver implements ReadHandler {
 		try {
 			long now = clock.currentTimeMillis(), end = now + READ_TIMEOUT;
 			while (now < end && valid) {
-				if (dataFrames.isEmpty()) {
-					// Wait for a data frame
+				int index = getIndex(nextSequenceNumber);
+				Data d = dataFrames[index];
+				if (d == null) {
+					// Wait for the next in-order data frame
 					dataFrameAvailable.await(end - now, MILLISECONDS);
 				} else {
-					Data d = dataFrames.first();
-					if (d.getSequenceNumber() == nextSequenceNumber) {
-						dataFrames.remove(d);
-						// Update the window
-						windowSize += d.getPayloadLength();
-						sender.sendAck(0, windowSize);
-						nextSequenceNumber++;
-						return d;
-					} else {
-						// Wait for the next in-order data frame
-						dataFrameAvailable.await(end - now, MILLISECONDS);
-					}
+					dataFrames[index] = null;
+					nextSequenceNumber++;
+					// Update the window
+					windowSize += d.getPayloadLength();
+					sender.sendAck(createAck(0));
+					return d;
 				}
 				now = clock.currentTimeMillis();
 			}
@@ -93,7 +92,7 @@ class Receiver implements ReadHandler {
 			case Frame.FIN_FLAG:
 				handleData(b);
 				break;
-			case Frame.ACK_FLAG:
+			case Frame.SACK_FLAG:
 				sender.handleAck(b);
 				break;
 			default:
@@ -120,40 +119,84 @@ class Receiver implements ReadHandler {
 				// Window probe
 			} else if (sequenceNumber < nextSequenceNumber) {
 				// Duplicate data frame
+			} else if (sequenceNumber >=
+					nextSequenceNumber + dataFrames.length) {
+				// No space in the ring buffer
 			} else if (d.isLastFrame()) {
 				finalSequenceNumber = sequenceNumber;
 				// Remove any data frames with higher sequence numbers
-				Iterator<Data> it = dataFrames.iterator();
-				while (it.hasNext()) {
-					Data d1 = it.next();
-					if (d1.getSequenceNumber() >= finalSequenceNumber)
-						it.remove();
-				}
-				if (dataFrames.add(d)) {
-					windowSize -= payloadLength;
-					dataFrameAvailable.signalAll();
+				for (long s = sequenceNumber + 1; s <= highestSequenceNumber;
+						s++) {
+					int index = getIndex(s);
+					Data d1 = dataFrames[index];
+					if (d1 != null) {
+						dataFrames[index] = null;
+						windowSize += d1.getPayloadLength();
+					}
 				}
+				highestSequenceNumber = Math.min(highestSequenceNumber,
+						sequenceNumber);
+				add(d);
 			} else if (sequenceNumber < finalSequenceNumber) {
-				if (dataFrames.add(d)) {
-					windowSize -= payloadLength;
-					dataFrameAvailable.signalAll();
-				}
+				add(d);
 			}
 			// Acknowledge the data frame even if it's a duplicate
-			sender.sendAck(sequenceNumber, windowSize);
+			sender.sendAck(createAck(sequenceNumber));
 		} finally {
 			windowLock.unlock();
 		}
 	}
 
-	private static class SequenceNumberComparator implements Comparator<Data> {
+	// Locking: windowLock
+	private void add(Data d) {
+		long sequenceNumber = d.getSequenceNumber();
+		int index = getIndex(sequenceNumber);
+		if (dataFrames[index] != null) return; // Duplicate data frame
+		dataFrames[index] = d;
+		windowSize -= d.getPayloadLength();
+		if (sequenceNumber > highestSequenceNumber)
+			highestSequenceNumber = sequenceNumber;
+		dataFrameAvailable.signalAll();
+	}
 
-		@Override
-		public int compare(Data d1, Data d2) {
-			long s1 = d1.getSequenceNumber(), s2 = d2.getSequenceNumber();
-			if (s1 < s2) return -1;
-			if (s1 > s2) return 1;
-			return 0;
+	/**
+	 * Creates an ack for the given sequence number that reports the
+	 * contiguous data frames that have been received, and up to
+	 * {@link Ack#MAX_SACK_BLOCKS} ranges of data frames that have been
+	 * received out of order.
+	 */
+	// Locking: windowLock
+	private Ack createAck(long sequenceNumber) {
+		long cumulative = nextSequenceNumber - 1;
+		while (cumulative < highestSequenceNumber && isBuffered(cumulative + 1))
+			cumulative++;
+		long[] starts = new long[MAX_SACK_BLOCKS];
+		long[] ends = new long[MAX_SACK_BLOCKS];
+		int blocks = 0;
+		long s = cumulative + 1;
+		while (s <= highestSequenceNumber && blocks < MAX_SACK_BLOCKS) {
+			if (isBuffered(s)) {
+				starts[blocks] = s;
+				while (s < highestSequenceNumber && isBuffered(s + 1)) s++;
+				ends[blocks] = s;
+				blocks++;
+			}
+			s++;
 		}
+		Ack a = new Ack(blocks);
+		a.setSequenceNumber(sequenceNumber);
+		a.setWindowSize(windowSize);
+		a.setCumulativeAck(cumulative);
+		for (int i = 0; i < blocks; i++) a.setSackBlock(i, starts[i], ends[i]);
+		return a;
+	}
+
+	// Locking: windowLock
+	private boolean isBuffered(long sequenceNumber) {
+		return dataFrames[getIndex(sequenceNumber)] != null;
+	}
+
+	private int getIndex(long sequenceNumber) {
+		return (int) (sequenceNumber % dataFrames.length);
 	}
 }
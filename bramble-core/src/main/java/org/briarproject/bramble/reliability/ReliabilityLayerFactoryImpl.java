@@ -28,6 +28,15 @@ class ReliabilityLayerFactoryImpl implements ReliabilityLayerFactory {
 
 	@Override
 	public ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler) {
-		return new ReliabilityLayerImpl(ioExecutor, clock, writeHandler);
+		return createReliabilityLayer(writeHandler, DEFAULT_MAX_WINDOW_SIZE);
+	}
+
+	@Override
+	public ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler,
+			int maxWindowSize) {
+		if (maxWindowSize < Data.MAX_PAYLOAD_LENGTH)
+			throw new IllegalArgumentException();
+		return new ReliabilityLayerImpl(ioExecutor, clock, writeHandler,
+				maxWindowSize);
 	}
 }
@@ -30,6 +30,7 @@ class ReliabilityLayerImpl implements ReliabilityLayer, WriteHandler {
 	private final Executor executor;
 	private final Clock clock;
 	private final WriteHandler writeHandler;
+	private final int maxWindowSize;
 	private final BlockingQueue<byte[]> writes;
 
 	private volatile Receiver receiver = null;
@@ -39,18 +40,19 @@ class ReliabilityLayerImpl implements ReliabilityLayer, WriteHandler {
 	private volatile boolean running = false;
 
 	ReliabilityLayerImpl(Executor executor, Clock clock,
-			WriteHandler writeHandler) {
+			WriteHandler writeHandler, int maxWindowSize) {
 		this.executor = executor;
 		this.clock = clock;
 		this.writeHandler = writeHandler;
+		this.maxWindowSize = maxWindowSize;
 		writes = new LinkedBlockingQueue<>();
 	}
 
 	@Override
 	public void start() {
 		SlipEncoder encoder = new SlipEncoder(this);
-		Sender sender = new Sender(clock, encoder);
-		receiver = new Receiver(clock, sender);
+		Sender sender = new Sender(clock, encoder, maxWindowSize);
+		receiver = new Receiver(clock, sender, maxWindowSize);
 		decoder = new SlipDecoder(receiver, Data.MAX_LENGTH);
 		inputStream = new ReceiverInputStream(receiver);
 		outputStream = new SenderOutputStream(sender);
@@ -25,96 +25,125 @@ class Sender {
 	private static final int WRITE_TIMEOUT = 5 * 60 * 1000;
 	private static final int MIN_RTO = 1000;
 	private static final int MAX_RTO = 60 * 1000;
-	private static final int INITIAL_RTT = 0;
-	private static final int INITIAL_RTT_VAR = 3 * 1000;
-	private static final int MAX_WINDOW_SIZE = 64 * Data.MAX_PAYLOAD_LENGTH;
+	private static final int INITIAL_RTO = 3 * 1000;
+
+	/**
+	 * The number of acks for later data frames that cause an outstanding
+	 * data frame to be retransmitted without waiting for it to time out.
+	 */
+	private static final int FAST_RETRANSMIT_THRESHOLD = 3;
 
 	private final Clock clock;
 	private final WriteHandler writeHandler;
+	private final int maxWindowSize;
 	private final Lock windowLock = new ReentrantLock();
 	private final Condition sendWindowAvailable = windowLock.newCondition();
 
 	// The following are locking: windowLock
-	private final LinkedList<Outstanding> outstanding;
+	private final LinkedList<Outstanding> outstanding; // In sequence order
 	private int outstandingBytes = 0;
 	private int windowSize = Data.MAX_PAYLOAD_LENGTH;
-	private int rtt = INITIAL_RTT, rttVar = INITIAL_RTT_VAR;
-	private int rto = rtt + (rttVar << 2);
-	private long lastWindowUpdateOrProbe = Long.MAX_VALUE;
+	private boolean rttMeasured = false;
+	private int srtt = 0, rttVar = 0, rto = INITIAL_RTO;
+	private long lastWindowUpdateOrProbe;
 	private boolean dataWaiting = false;
 
-	Sender(Clock clock, WriteHandler writeHandler) {
+	Sender(Clock clock, WriteHandler writeHandler, int maxWindowSize) {
 		this.clock = clock;
 		this.writeHandler = writeHandler;
+		this.maxWindowSize = maxWindowSize;
 		outstanding = new LinkedList<>();
+		// If the initial window is too small, probe for a larger one
+		lastWindowUpdateOrProbe = clock.currentTimeMillis();
 	}
 
-	void sendAck(long sequenceNumber, int windowSize) throws IOException {
-		Ack a = new Ack();
-		a.setSequenceNumber(sequenceNumber);
-		a.setWindowSize(windowSize);
+	void sendAck(Ack a) throws IOException {
 		a.setChecksum(a.calculateChecksum());
 		writeHandler.handleWrite(a.getBuffer());
 	}
 
 	void handleAck(byte[] b) throws IOException {
-		if (b.length != Ack.LENGTH) {
+		if (b.length < Ack.MIN_LENGTH || b.length > Ack.MAX_LENGTH) {
 			// Ignore ack frame with invalid length
 			return;
 		}
 		Ack a = new Ack(b);
+		if (!a.isValid()) {
+			// Ignore ack frame with invalid number of SACK blocks
+			return;
+		}
 		if (a.getChecksum() != a.calculateChecksum()) {
 			// Ignore ack frame with invalid checksum
 			return;
 		}
 		long sequenceNumber = a.getSequenceNumber();
+		long highest = a.getHighestSequenceNumber();
 		long now = clock.currentTimeMillis();
-		Outstanding fastRetransmit = null;
+		List<Outstanding> fastRetransmit = null;
 		windowLock.lock();
 		try {
-			// Remove the acked data frame if it's outstanding
-			int foundIndex = -1;
+			// Remove any outstanding data frames covered by the ack
+			boolean acked = false;
 			Iterator<Outstanding> it = outstanding.iterator();
-			for (int i = 0; it.hasNext(); i++) {
+			while (it.hasNext()) {
 				Outstanding o = it.next();
-				if (o.data.getSequenceNumber() == sequenceNumber) {
+				long s = o.data.getSequenceNumber();
+				if (s > highest && s >= sequenceNumber) break;
+				if (a.covers(s)) {
 					it.remove();
 					outstandingBytes -= o.data.getPayloadLength();
-					foundIndex = i;
-					// Update the round-trip time and retransmission timeout
-					if (!o.retransmitted) {
-						int sample = (int) (now - o.lastTransmitted);
-						int error = sample - rtt;
-						rtt += (error >> 3);
-						rttVar += (Math.abs(error) - rttVar) >> 2;
-						rto = rtt + (rttVar << 2);
-						if (rto < MIN_RTO) rto = MIN_RTO;
-						else if (rto > MAX_RTO) rto = MAX_RTO;
+					acked = true;
+					// Don't measure the round-trip time of a data frame
+					// that's been retransmitted, as we can't tell which
+					// transmission the ack belongs to
+					if (s == sequenceNumber && !o.retransmitted)
+						updateRto((int) (now - o.lastTransmitted));
+				} else if (s < sequenceNumber) {
+					// A later data frame has arrived, so this one may have
+					// been lost
+					o.laterAcks++;
+					if (o.laterAcks == FAST_RETRANSMIT_THRESHOLD) {
+						o.lastTransmitted = now;
+						o.retransmitted = true;
+						o.laterAcks = 0;
+						if (fastRetransmit == null)
+							fastRetransmit = new ArrayList<>();
+						fastRetransmit.add(o);
 					}
-					break;
 				}
 			}
-			// If any older data frames are outstanding, retransmit the oldest
-			if (foundIndex > 0) {
-				fastRetransmit = outstanding.poll();
-				fastRetransmit.lastTransmitted = now;
-				fastRetransmit.retransmitted = true;
-				outstanding.add(fastRetransmit);
-			}
 			// Update the window
 			lastWindowUpdateOrProbe = now;
 			int oldWindowSize = windowSize;
 			// Don't accept an unreasonably large window size
-			windowSize = Math.min(a.getWindowSize(), MAX_WINDOW_SIZE);
+			windowSize = Math.min(a.getWindowSize(), maxWindowSize);
 			// If space has become available, notify any waiting writers
-			if (windowSize > oldWindowSize || foundIndex != -1)
+			if (windowSize > oldWindowSize || acked)
 				sendWindowAvailable.signalAll();
 		} finally {
 			windowLock.unlock();
 		}
 		// Fast retransmission
-		if (fastRetransmit != null)
-			writeHandler.handleWrite(fastRetransmit.data.getBuffer());
+		if (fastRetransmit != null) {
+			for (Outstanding o : fastRetransmit)
+				writeHandler.handleWrite(o.data.getBuffer());
+		}
+	}
+
+	// Locking: windowLock
+	private void updateRto(int sample) {
+		// Estimate the round-trip time as described in RFC 6298
+		if (rttMeasured) {
+			rttVar += (Math.abs(srtt - sample) - rttVar) >> 2;
+			srtt += (sample - srtt) >> 3;
+		} else {
+			srtt = sample;
+			rttVar = sample >> 1;
+			rttMeasured = true;
+		}
+		rto = srtt + (rttVar << 2);
+		if (rto < MIN_RTO) rto = MIN_RTO;
+		else if (rto > MAX_RTO) rto = MAX_RTO;
 	}
 
 	void tick() throws IOException {
@@ -130,25 +159,20 @@ class Sender {
 					if (rto > MAX_RTO) rto = MAX_RTO;
 				}
 			} else {
-				Iterator<Outstanding> it = outstanding.iterator();
-				while (it.hasNext()) {
-					Outstanding o = it.next();
+				for (Outstanding o : outstanding) {
 					if (now - o.lastTransmitted > rto) {
-						it.remove();
+						o.lastTransmitted = now;
+						o.retransmitted = true;
+						o.laterAcks = 0;
 						if (retransmit == null)
 							retransmit = new ArrayList<>();
 						retransmit.add(o);
-						// Update the retransmission timeout
-						rto <<= 1;
-						if (rto > MAX_RTO) rto = MAX_RTO;
 					}
 				}
+				// Back off the retransmission timeout
 				if (retransmit != null) {
-					for (Outstanding o : retransmit) {
-						o.lastTransmitted = now;
-						o.retransmitted = true;
-						outstanding.add(o);
-					}
+					rto <<= 1;
+					if (rto > MAX_RTO) rto = MAX_RTO;
 				}
 			}
 		} finally {
@@ -175,12 +199,12 @@ class Sender {
 			// Wait for space in the window
 			long now = clock.currentTimeMillis(), end = now + WRITE_TIMEOUT;
 			while (now < end &&
-					outstandingBytes + payloadLength >= windowSize) {
+					outstandingBytes + payloadLength > windowSize) {
 				dataWaiting = true;
 				sendWindowAvailable.await(end - now, MILLISECONDS);
 				now = clock.currentTimeMillis();
 			}
-			if (outstandingBytes + payloadLength >= windowSize)
+			if (outstandingBytes + payloadLength > windowSize)
 				throw new IOException("Write timed out");
 			outstanding.add(new Outstanding(d, now));
 			outstandingBytes += payloadLength;
@@ -205,13 +229,14 @@ class Sender {
 
 		private final Data data;
 
-		private volatile long lastTransmitted;
-		private volatile boolean retransmitted;
+		// The following are locking: windowLock
+		private long lastTransmitted;
+		private boolean retransmitted = false;
+		private int laterAcks = 0;
 
 		private Outstanding(Data data, long lastTransmitted) {
 			this.data = data;
 			this.lastTransmitted = lastTransmitted;
-			retransmitted = false;
 		}
 	}
 }
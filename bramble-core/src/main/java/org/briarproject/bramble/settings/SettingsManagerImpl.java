@@ -7,15 +7,32 @@ import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.SettingsManager;
 import org.briarproject.nullsafety.NotNullByDefault;
 
-import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class SettingsManagerImpl implements SettingsManager {
 
 	private final DatabaseComponent db;
 
+	/**
+	 * Settings that have been loaded from the database, indexed by namespace.
+	 * The cached objects are never modified or returned to callers, who
+	 * receive copies instead.
+	 * <p>
+	 * Entries are only added during read-only transactions, which can't
+	 * overlap with a write transaction, so uncommitted settings are never
+	 * cached. An entry is removed when settings in its namespace are merged,
+	 * so if the merging transaction is rolled back the cache is no more than
+	 * empty, and the next read loads the committed settings.
+	 */
+	private final ConcurrentMap<String, Settings> cache =
+			new ConcurrentHashMap<>();
+
 	@Inject
 	SettingsManagerImpl(DatabaseComponent db) {
 		this.db = db;
@@ -23,24 +40,38 @@ class SettingsManagerImpl implements SettingsManager {
 
 	@Override
 	public Settings getSettings(String namespace) throws DbException {
+		Settings cached = cache.get(namespace);
+		if (cached != null) return copy(cached);
 		return db.transactionWithResult(true, txn ->
-				db.getSettings(txn, namespace));
+				getSettings(txn, namespace));
 	}
 
 	@Override
 	public Settings getSettings(Transaction txn, String namespace)
 			throws DbException {
-		return db.getSettings(txn, namespace);
+		Settings cached = cache.get(namespace);
+		if (cached != null) return copy(cached);
+		Settings s = db.getSettings(txn, namespace);
+		if (!txn.isReadOnly()) return s;
+		cache.put(namespace, s);
+		return copy(s);
 	}
 
 	@Override
 	public void mergeSettings(Settings s, String namespace) throws DbException {
-		db.transaction(false, txn -> db.mergeSettings(txn, s, namespace));
+		db.transaction(false, txn -> mergeSettings(txn, s, namespace));
 	}
 
 	@Override
 	public void mergeSettings(Transaction txn, Settings s, String namespace)
 			throws DbException {
+		cache.remove(namespace);
 		db.mergeSettings(txn, s, namespace);
 	}
+
+	private Settings copy(Settings s) {
+		Settings copy = new Settings();
+		copy.putAll(s);
+		return copy;
+	}
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
@@ -14,29 +15,43 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncConstants;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.api.sync.event.CloseSyncConnectionsEvent;
+import org.briarproject.bramble.api.sync.event.DifferenceReceivedEvent;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
 import org.briarproject.bramble.api.sync.event.MessageRequestedEvent;
 import org.briarproject.bramble.api.sync.event.MessageSharedEvent;
 import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
+import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
+import org.briarproject.bramble.api.sync.event.SummaryReceivedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -45,6 +60,8 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.lang.Boolean.TRUE;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.newSetFromMap;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
@@ -54,14 +71,29 @@ import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.RECONCILIATION_VERSION;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 /**
  * An outgoing {@link SyncSession} suitable for duplex transports. The session
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p>
+ * If the contact supports set reconciliation, the session starts by sending
+ * a {@link Summary} of each group with many messages the contact hasn't seen,
+ * and holds back offers until the contact has replied to every summary with a
+ * {@link Difference}, or until the transport's maximum latency has passed.
+ * Messages in buckets that don't differ are held by the contact, so they
+ * don't need to be offered.
+ * <p>
+ * When the session ends, any messages it offered or sent that the contact
+ * hasn't acked are made available to send again straight away, rather than
+ * waiting for them to expire. If the connection was dropped, the next
+ * session offers those messages again, and the contact acks the ones it
+ * received, so only the missing messages are sent in full.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -86,6 +118,24 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private static final int BATCH_CAPACITY =
 			(RECORD_HEADER_BYTES + MAX_MESSAGE_LENGTH) * 2;
 
+	/**
+	 * Writer tasks are run in order of rank, and tasks with the same rank
+	 * are run in the order they were queued. Acks, requests and offers are
+	 * small and keep the protocol moving, so they're written before
+	 * messages. Batches are written one message at a time so that other
+	 * records can be interleaved with large batches. Differences are written
+	 * with acks, as the contact's offers are held back until it receives
+	 * them, and summaries are written with offers.
+	 */
+	private static final int RANK_CONTROL = 0, RANK_ACK = 1, RANK_REQUEST = 2,
+			RANK_OFFER = 3, RANK_BATCH = 4;
+
+	/**
+	 * The minimum number of messages the contact hasn't seen for a group to
+	 * be summarised.
+	 */
+	private static final int MIN_UNSEEN_MESSAGES = 64;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
@@ -97,7 +147,9 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final SyncRecordWriter recordWriter;
 	@Nullable
 	private final Priority priority;
-	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
+	private final SyncMetrics metrics;
+	private final Map<ClientMajorVersion, SendPriority> sendPriorities;
+	private final BlockingQueue<WriterTask> writerTasks;
 
 	private final AtomicBoolean generateAckQueued = new AtomicBoolean(false);
 	private final AtomicBoolean generateBatchQueued = new AtomicBoolean(false);
@@ -105,14 +157,30 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final AtomicBoolean generateRequestQueued =
 			new AtomicBoolean(false);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong nextWriterTask = new AtomicLong(0);
+	private final AtomicBoolean offersPaused = new AtomicBoolean(true);
+	/**
+	 * The IDs of the messages covered by each summary that has been sent in
+	 * this session and has not been replied to.
+	 */
+	private final Map<GroupId, Collection<MessageId>> summariesAwaitingReply =
+			new ConcurrentHashMap<>();
+	/**
+	 * Messages that have been offered or sent in this session and have not
+	 * been acked by the contact.
+	 */
+	private final Set<MessageId> unacked =
+			newSetFromMap(new ConcurrentHashMap<>());
 
 	private volatile boolean interrupted = false;
+	private volatile long reconciliationDeadline = Long.MAX_VALUE;
 
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, Clock clock, ContactId contactId,
 			TransportId transportId, long maxLatency, int maxIdleTime,
 			StreamWriter streamWriter, SyncRecordWriter recordWriter,
-			@Nullable Priority priority) {
+			@Nullable Priority priority, SyncMetrics metrics,
+			Map<ClientMajorVersion, SendPriority> sendPriorities) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
@@ -124,7 +192,9 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
 		this.priority = priority;
-		writerTasks = new LinkedBlockingQueue<>();
+		this.metrics = metrics;
+		this.sendPriorities = sendPriorities;
+		writerTasks = new PriorityBlockingQueue<>();
 	}
 
 	@IoExecutor
@@ -136,13 +206,15 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
 			// Send our connection priority, if this is an outgoing connection
 			if (priority != null) recordWriter.writePriority(priority);
-			// Start a query for each type of record
+			long now = clock.currentTimeMillis();
+			long nextKeepalive = now + maxIdleTime;
+			reconciliationDeadline = now + maxLatency;
+			// Start a query for each type of record. Offers are generated
+			// once any summaries have been replied to
 			generateAck();
 			generateBatch();
-			generateOffer();
+			generateSummaries();
 			generateRequest();
-			long now = clock.currentTimeMillis();
-			long nextKeepalive = now + maxIdleTime;
 			boolean dataToFlush = true;
 			// Write records until interrupted
 			try {
@@ -152,6 +224,11 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 					long keepaliveWait = Math.max(0, nextKeepalive - now);
 					long sendWait = Math.max(0, nextSendTime.get() - now);
 					long wait = Math.min(keepaliveWait, sendWait);
+					if (offersPaused.get()) {
+						long reconciliationWait =
+								Math.max(0, reconciliationDeadline - now);
+						wait = Math.min(wait, reconciliationWait);
+					}
 					// Flush any unflushed data if we're going to wait
 					if (wait > 0 && dataToFlush && writerTasks.isEmpty()) {
 						recordWriter.flush();
@@ -159,10 +236,16 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						nextKeepalive = now + maxIdleTime;
 					}
 					// Wait for a record
-					ThrowingRunnable<IOException> task = writerTasks.poll(wait,
-							MILLISECONDS);
+					WriterTask queued = writerTasks.poll(wait, MILLISECONDS);
+					ThrowingRunnable<IOException> task =
+							queued == null ? null : queued.task;
 					if (task == null) {
 						now = clock.currentTimeMillis();
+						if (offersPaused.get() &&
+								now >= reconciliationDeadline) {
+							LOG.info("Timed out waiting for differences");
+							resumeOffers();
+						}
 						if (now >= nextSendTime.get()) {
 							// Check for retransmittable messages
 							LOG.info("Checking for retransmittable messages");
@@ -194,6 +277,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			}
 		} finally {
 			eventBus.removeListener(this);
+			resetUnacked();
 		}
 	}
 
@@ -208,31 +292,63 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	private void generateOffer() {
+		if (offersPaused.get()) return;
 		if (generateOfferQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateOffer());
 	}
 
+	private void generateSummaries() {
+		dbExecutor.execute(new GenerateSummaries());
+	}
+
+	private void receiveDifference(Difference d) {
+		Collection<MessageId> summarised =
+				summariesAwaitingReply.get(d.getGroupId());
+		// Ignore differences that don't reply to our summaries
+		if (summarised != null)
+			dbExecutor.execute(new ReceiveDifference(d, summarised));
+	}
+
+	private void resumeOffers() {
+		if (offersPaused.getAndSet(false)) generateOffer();
+	}
+
 	private void generateRequest() {
 		if (generateRequestQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateRequest());
 	}
 
+	private void resetUnacked() {
+		if (unacked.isEmpty()) return;
+		List<MessageId> ids = new ArrayList<>(unacked);
+		dbExecutor.execute(new ResetUnacked(ids));
+	}
+
 	private void setNextSendTime(long time) {
 		long old = nextSendTime.getAndSet(time);
-		if (time < old) writerTasks.add(NEXT_SEND_TIME_DECREASED);
+		if (time < old) queueWriterTask(RANK_CONTROL, NEXT_SEND_TIME_DECREASED);
+	}
+
+	private void queueWriterTask(int rank,
+			ThrowingRunnable<IOException> task) {
+		writerTasks.add(new WriterTask(rank, nextWriterTask.getAndIncrement(),
+				task));
 	}
 
 	@Override
 	public void interrupt() {
 		interrupted = true;
-		writerTasks.add(CLOSE);
+		queueWriterTask(RANK_CONTROL, CLOSE);
 	}
 
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ContactRemovedEvent) {
 			ContactRemovedEvent c = (ContactRemovedEvent) e;
-			if (c.getContactId().equals(contactId)) interrupt();
+			if (c.getContactId().equals(contactId)) {
+				unacked.clear();
+				interrupt();
+			}
 		} else if (e instanceof MessageSharedEvent) {
 			MessageSharedEvent m = (MessageSharedEvent) e;
 			// If the contact is present in the map (ie the value is not null)
@@ -247,6 +363,10 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 					g.getAffectedContacts().contains(contactId)) {
 				generateOffer();
 			}
+		} else if (e instanceof MessagesAckedEvent) {
+			MessagesAckedEvent m = (MessagesAckedEvent) e;
+			if (m.getContactId().equals(contactId))
+				unacked.removeAll(m.getMessageIds());
 		} else if (e instanceof MessageRequestedEvent) {
 			if (((MessageRequestedEvent) e).getContactId().equals(contactId))
 				generateBatch();
@@ -256,6 +376,16 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		} else if (e instanceof MessageToRequestEvent) {
 			if (((MessageToRequestEvent) e).getContactId().equals(contactId))
 				generateRequest();
+		} else if (e instanceof SummaryReceivedEvent) {
+			SummaryReceivedEvent s = (SummaryReceivedEvent) e;
+			if (s.getContactId().equals(contactId)) {
+				queueWriterTask(RANK_ACK,
+						new WriteDifference(s.getDifference()));
+			}
+		} else if (e instanceof DifferenceReceivedEvent) {
+			DifferenceReceivedEvent d = (DifferenceReceivedEvent) e;
+			if (d.getContactId().equals(contactId))
+				receiveDifference(d.getDifference());
 		} else if (e instanceof LifecycleEvent) {
 			LifecycleEvent l = (LifecycleEvent) e;
 			if (l.getLifecycleState() == STOPPING) interrupt();
@@ -280,7 +410,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.generateAck(txn, contactId, MAX_MESSAGE_IDS));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated ack: " + (a != null));
-				if (a != null) writerTasks.add(new WriteAck(a));
+				if (a != null) queueWriterTask(RANK_ACK, new WriteAck(a));
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -291,6 +421,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private class WriteAck implements ThrowingRunnable<IOException> {
 
 		private final Ack ack;
+		private final long queued = now();
 
 		private WriteAck(Ack ack) {
 			this.ack = ack;
@@ -300,7 +431,9 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
+			metrics.recordWriterQueueTime(queued);
 			recordWriter.writeAck(ack);
+			metrics.acksSent.increment();
 			LOG.info("Sent ack");
 			generateAck();
 		}
@@ -319,14 +452,21 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.transactionWithNullableResult(false, txn -> {
 							Collection<Message> batch =
 									db.generateRequestedBatch(txn, contactId,
-											BATCH_CAPACITY, maxLatency);
+											BATCH_CAPACITY, maxLatency,
+											sendPriorities);
 							setNextSendTime(db.getNextSendTime(txn, contactId,
 									maxLatency));
 							return batch;
 						});
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
+				if (b != null) {
+					// The messages' expiry times have been updated, so they
+					// need to be reset if the session ends before they're
+					// acked, even if they haven't been written
+					for (Message m : b) unacked.add(m.getId());
+					queueWriterTask(RANK_BATCH, new WriteBatch(b));
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -336,19 +476,29 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 
 	private class WriteBatch implements ThrowingRunnable<IOException> {
 
-		private final Collection<Message> batch;
+		private final List<Message> batch;
+		private final long queued = now();
+
+		private int written = 0;
 
 		private WriteBatch(Collection<Message> batch) {
-			this.batch = batch;
+			this.batch = new ArrayList<>(batch);
 		}
 
 		@IoExecutor
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
-			for (Message m : batch) recordWriter.writeMessage(m);
-			LOG.info("Sent batch");
-			generateBatch();
+			if (written == 0) metrics.recordWriterQueueTime(queued);
+			recordWriter.writeMessage(batch.get(written++));
+			metrics.messagesSent.increment();
+			if (written < batch.size()) {
+				// Give any higher-ranked tasks a chance to run
+				queueWriterTask(RANK_BATCH, this);
+			} else {
+				LOG.info("Sent batch");
+				generateBatch();
+			}
 		}
 	}
 
@@ -363,14 +513,17 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			try {
 				Offer o = db.transactionWithNullableResult(false, txn -> {
 					Offer offer = db.generateOffer(txn, contactId,
-							MAX_MESSAGE_IDS, maxLatency);
+							MAX_MESSAGE_IDS, maxLatency, sendPriorities);
 					setNextSendTime(db.getNextSendTime(txn, contactId,
 							maxLatency));
 					return offer;
 				});
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated offer: " + (o != null));
-				if (o != null) writerTasks.add(new WriteOffer(o));
+				if (o != null) {
+					unacked.addAll(o.getMessageIds());
+					queueWriterTask(RANK_OFFER, new WriteOffer(o));
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -381,6 +534,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private class WriteOffer implements ThrowingRunnable<IOException> {
 
 		private final Offer offer;
+		private final long queued = now();
 
 		private WriteOffer(Offer offer) {
 			this.offer = offer;
@@ -390,7 +544,9 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
+			metrics.recordWriterQueueTime(queued);
 			recordWriter.writeOffer(offer);
+			metrics.offersSent.increment();
 			LOG.info("Sent offer");
 			generateOffer();
 		}
@@ -409,7 +565,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.generateRequest(txn, contactId, MAX_MESSAGE_IDS));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated request: " + (r != null));
-				if (r != null) writerTasks.add(new WriteRequest(r));
+				if (r != null)
+					queueWriterTask(RANK_REQUEST, new WriteRequest(r));
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -420,6 +577,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private class WriteRequest implements ThrowingRunnable<IOException> {
 
 		private final Request request;
+		private final long queued = now();
 
 		private WriteRequest(Request request) {
 			this.request = request;
@@ -429,9 +587,167 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
+			metrics.recordWriterQueueTime(queued);
 			recordWriter.writeRequest(request);
+			metrics.requestsSent.increment();
 			LOG.info("Sent request");
 			generateRequest();
 		}
 	}
+
+	private class GenerateSummaries implements Runnable {
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				Collection<Pair<Summary, Collection<MessageId>>> summaries =
+						db.transactionWithResult(true, txn -> {
+							List<Byte> supported =
+									db.getSyncVersions(txn, contactId);
+							if (!supported.contains(RECONCILIATION_VERSION))
+								return emptyList();
+							return db.generateSummaries(txn, contactId,
+									MIN_UNSEEN_MESSAGES);
+						});
+				if (LOG.isLoggable(INFO))
+					LOG.info("Generated " + summaries.size() + " summaries");
+				if (summaries.isEmpty()) {
+					resumeOffers();
+				} else {
+					// Wait for replies to all the summaries before any of
+					// them are written
+					for (Pair<Summary, Collection<MessageId>> p : summaries) {
+						summariesAwaitingReply.put(p.getFirst().getGroupId(),
+								p.getSecond());
+					}
+					for (Pair<Summary, Collection<MessageId>> p : summaries) {
+						queueWriterTask(RANK_OFFER,
+								new WriteSummary(p.getFirst()));
+					}
+				}
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class WriteSummary implements ThrowingRunnable<IOException> {
+
+		private final Summary summary;
+		private final long queued = now();
+
+		private WriteSummary(Summary summary) {
+			this.summary = summary;
+		}
+
+		@IoExecutor
+		@Override
+		public void run() throws IOException {
+			if (interrupted) return;
+			metrics.recordWriterQueueTime(queued);
+			recordWriter.writeSummary(summary);
+			metrics.summariesSent.increment();
+			LOG.info("Sent summary");
+		}
+	}
+
+	private class WriteDifference implements ThrowingRunnable<IOException> {
+
+		private final Difference difference;
+		private final long queued = now();
+
+		private WriteDifference(Difference difference) {
+			this.difference = difference;
+		}
+
+		@IoExecutor
+		@Override
+		public void run() throws IOException {
+			if (interrupted) return;
+			metrics.recordWriterQueueTime(queued);
+			recordWriter.writeDifference(difference);
+			metrics.differencesSent.increment();
+			LOG.info("Sent difference");
+		}
+	}
+
+	private class ReceiveDifference implements Runnable {
+
+		private final Difference difference;
+		private final Collection<MessageId> summarised;
+
+		private ReceiveDifference(Difference difference,
+				Collection<MessageId> summarised) {
+			this.difference = difference;
+			this.summarised = summarised;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				db.transaction(false, txn -> db.receiveDifference(txn,
+						contactId, difference, summarised));
+				// Offers are resumed once the seen flags have been raised
+				// for every summary, so matching messages aren't offered
+				GroupId g = difference.getGroupId();
+				if (summariesAwaitingReply.remove(g) != null &&
+						summariesAwaitingReply.isEmpty()) {
+					resumeOffers();
+				}
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class ResetUnacked implements Runnable {
+
+		private final Collection<MessageId> ids;
+
+		private ResetUnacked(Collection<MessageId> ids) {
+			this.ids = ids;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			try {
+				db.transaction(false, txn ->
+						db.resetUnackedMessagesToSend(txn, contactId, ids));
+				if (LOG.isLoggable(INFO)) {
+					LOG.info("Reset " + ids.size()
+							+ " unacked messages for retransmission");
+				}
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+			}
+		}
+	}
+
+	private static class WriterTask implements Comparable<WriterTask> {
+
+		private final int rank;
+		private final long sequence;
+		private final ThrowingRunnable<IOException> task;
+
+		private WriterTask(int rank, long sequence,
+				ThrowingRunnable<IOException> task) {
+			this.rank = rank;
+			this.sequence = sequence;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(WriterTask w) {
+			if (rank != w.rank) return rank < w.rank ? -1 : 1;
+			if (sequence == w.sequence) return 0;
+			return sequence < w.sequence ? -1 : 1;
+		}
+	}
 }
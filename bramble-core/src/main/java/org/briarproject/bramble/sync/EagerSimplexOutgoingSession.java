@@ -17,6 +17,7 @@ import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.emptyMap;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Logger.getLogger;
 
@@ -38,8 +39,9 @@ class EagerSimplexOutgoingSession extends SimplexOutgoingSession {
 			long maxLatency,
 			StreamWriter streamWriter,
 			SyncRecordWriter recordWriter) {
+		// Unacked messages are sent regardless of their clients' priorities
 		super(db, eventBus, contactId, transportId, maxLatency, streamWriter,
-				recordWriter);
+				recordWriter, emptyMap());
 	}
 
 	@Override
@@ -12,14 +12,17 @@ import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.PriorityHandler;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.DifferenceReceivedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
@@ -33,6 +36,7 @@ import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 /**
  * An incoming {@link SyncSession}.
@@ -50,18 +54,21 @@ class IncomingSession implements SyncSession, EventListener {
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
 	private final PriorityHandler priorityHandler;
+	private final SyncMetrics metrics;
 
 	private volatile boolean interrupted = false;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, ContactId contactId,
-			SyncRecordReader recordReader, PriorityHandler priorityHandler) {
+			SyncRecordReader recordReader, PriorityHandler priorityHandler,
+			SyncMetrics metrics) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
 		this.priorityHandler = priorityHandler;
+		this.metrics = metrics;
 	}
 
 	@IoExecutor
@@ -93,6 +100,16 @@ class IncomingSession implements SyncSession, EventListener {
 				} else if (recordReader.hasPriority()) {
 					Priority p = recordReader.readPriority();
 					priorityHandler.handle(p);
+				} else if (recordReader.hasSummary()) {
+					Summary s = recordReader.readSummary();
+					dbExecutor.execute(new ReceiveSummary(s));
+				} else if (recordReader.hasDifference()) {
+					// The difference is processed by the outgoing session,
+					// which knows which messages were summarised
+					Difference d = recordReader.readDifference();
+					eventBus.broadcast(
+							new DifferenceReceivedEvent(contactId, d));
+					metrics.differencesReceived.increment();
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
@@ -123,6 +140,7 @@ class IncomingSession implements SyncSession, EventListener {
 	private class ReceiveAck implements Runnable {
 
 		private final Ack ack;
+		private final long read = now();
 
 		private ReceiveAck(Ack ack) {
 			this.ack = ack;
@@ -134,6 +152,8 @@ class IncomingSession implements SyncSession, EventListener {
 			try {
 				db.transaction(false, txn ->
 						db.receiveAck(txn, contactId, ack));
+				metrics.acksReceived.increment();
+				metrics.recordReceiveTime(read);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -144,6 +164,7 @@ class IncomingSession implements SyncSession, EventListener {
 	private class ReceiveMessage implements Runnable {
 
 		private final Message message;
+		private final long read = now();
 
 		private ReceiveMessage(Message message) {
 			this.message = message;
@@ -155,6 +176,8 @@ class IncomingSession implements SyncSession, EventListener {
 			try {
 				db.transaction(false, txn ->
 						db.receiveMessage(txn, contactId, message));
+				metrics.messagesReceived.increment();
+				metrics.recordReceiveTime(read);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -165,6 +188,7 @@ class IncomingSession implements SyncSession, EventListener {
 	private class ReceiveOffer implements Runnable {
 
 		private final Offer offer;
+		private final long read = now();
 
 		private ReceiveOffer(Offer offer) {
 			this.offer = offer;
@@ -176,6 +200,8 @@ class IncomingSession implements SyncSession, EventListener {
 			try {
 				db.transaction(false, txn ->
 						db.receiveOffer(txn, contactId, offer));
+				metrics.offersReceived.increment();
+				metrics.recordReceiveTime(read);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -186,6 +212,7 @@ class IncomingSession implements SyncSession, EventListener {
 	private class ReceiveRequest implements Runnable {
 
 		private final Request request;
+		private final long read = now();
 
 		private ReceiveRequest(Request request) {
 			this.request = request;
@@ -197,6 +224,8 @@ class IncomingSession implements SyncSession, EventListener {
 			try {
 				db.transaction(false, txn ->
 						db.receiveRequest(txn, contactId, request));
+				metrics.requestsReceived.increment();
+				metrics.recordReceiveTime(read);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -225,4 +254,28 @@ class IncomingSession implements SyncSession, EventListener {
 			}
 		}
 	}
+
+	private class ReceiveSummary implements Runnable {
+
+		private final Summary summary;
+		private final long read = now();
+
+		private ReceiveSummary(Summary summary) {
+			this.summary = summary;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			try {
+				db.transaction(false, txn ->
+						db.receiveSummary(txn, contactId, summary));
+				metrics.summariesReceived.increment();
+				metrics.recordReceiveTime(read);
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
 }
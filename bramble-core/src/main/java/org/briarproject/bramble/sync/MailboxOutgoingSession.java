@@ -9,14 +9,17 @@ import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.OutgoingSessionRecord;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -54,9 +57,10 @@ class MailboxOutgoingSession extends SimplexOutgoingSession {
 			StreamWriter streamWriter,
 			SyncRecordWriter recordWriter,
 			OutgoingSessionRecord sessionRecord,
-			long capacity) {
+			long capacity,
+			Map<ClientMajorVersion, SendPriority> sendPriorities) {
 		super(db, eventBus, contactId, transportId, maxLatency, streamWriter,
-				recordWriter);
+				recordWriter, sendPriorities);
 		this.sessionRecord = sessionRecord;
 		this.initialCapacity = capacity;
 	}
@@ -115,7 +119,8 @@ class MailboxOutgoingSession extends SimplexOutgoingSession {
 			return emptyList(); // Out of capacity
 		}
 		Collection<MessageId> ids = db.transactionWithResult(true, txn ->
-				db.getMessagesToSend(txn, contactId, capacity, maxLatency));
+				db.getMessagesToSend(txn, contactId, capacity, maxLatency,
+						sendPriorities));
 		if (LOG.isLoggable(INFO)) {
 			LOG.info(ids.size() + " messages to send");
 		}
@@ -0,0 +1,42 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.sync.SendPriorityRegistry;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.api.sync.SendPriority.NORMAL;
+
+@ThreadSafe
+@NotNullByDefault
+class SendPriorityRegistryImpl implements SendPriorityRegistry {
+
+	private final ConcurrentMap<ClientMajorVersion, SendPriority> priorities =
+			new ConcurrentHashMap<>();
+
+	@Inject
+	SendPriorityRegistryImpl() {
+	}
+
+	@Override
+	public void setSendPriority(ClientId c, int majorVersion,
+			SendPriority p) {
+		ClientMajorVersion cv = new ClientMajorVersion(c, majorVersion);
+		if (p == NORMAL) priorities.remove(cv);
+		else priorities.put(cv, p);
+	}
+
+	@Override
+	public Map<ClientMajorVersion, SendPriority> getSendPriorities() {
+		return new HashMap<>(priorities);
+	}
+}
@@ -14,16 +14,19 @@ import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.bramble.api.sync.SyncConstants;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.api.sync.event.CloseSyncConnectionsEvent;
 import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -67,6 +70,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	protected final long maxLatency;
 	protected final StreamWriter streamWriter;
 	protected final SyncRecordWriter recordWriter;
+	protected final Map<ClientMajorVersion, SendPriority> sendPriorities;
 
 	private volatile boolean interrupted = false;
 
@@ -76,7 +80,8 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 			TransportId transportId,
 			long maxLatency,
 			StreamWriter streamWriter,
-			SyncRecordWriter recordWriter) {
+			SyncRecordWriter recordWriter,
+			Map<ClientMajorVersion, SendPriority> sendPriorities) {
 		this.db = db;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
@@ -84,6 +89,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		this.maxLatency = maxLatency;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
+		this.sendPriorities = sendPriorities;
 	}
 
 	@IoExecutor
@@ -152,7 +158,8 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 
 	private boolean generateAndSendBatch() throws DbException, IOException {
 		Collection<Message> b = db.transactionWithNullableResult(false, txn ->
-				db.generateBatch(txn, contactId, BATCH_CAPACITY, maxLatency));
+				db.generateBatch(txn, contactId, BATCH_CAPACITY, maxLatency,
+						sendPriorities));
 		if (LOG.isLoggable(INFO))
 			LOG.info("Generated batch: " + (b != null));
 		if (b == null) return false; // No more messages to send
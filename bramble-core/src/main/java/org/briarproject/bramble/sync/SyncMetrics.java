@@ -0,0 +1,82 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.Histogram;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * Metrics shared by all sync sessions.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SyncMetrics {
+
+	final Counter acksSent, messagesSent, offersSent, requestsSent,
+			summariesSent, differencesSent;
+	final Counter acksReceived, messagesReceived, offersReceived,
+			requestsReceived, summariesReceived, differencesReceived;
+
+	private final Histogram writerQueueTime, receiveTime;
+
+	@Inject
+	SyncMetrics(MetricRegistry metricRegistry) {
+		acksSent = getSentCounter(metricRegistry, "ack");
+		messagesSent = getSentCounter(metricRegistry, "message");
+		offersSent = getSentCounter(metricRegistry, "offer");
+		requestsSent = getSentCounter(metricRegistry, "request");
+		summariesSent = getSentCounter(metricRegistry, "summary");
+		differencesSent = getSentCounter(metricRegistry, "difference");
+		acksReceived = getReceivedCounter(metricRegistry, "ack");
+		messagesReceived = getReceivedCounter(metricRegistry, "message");
+		offersReceived = getReceivedCounter(metricRegistry, "offer");
+		requestsReceived = getReceivedCounter(metricRegistry, "request");
+		summariesReceived = getReceivedCounter(metricRegistry, "summary");
+		differencesReceived =
+				getReceivedCounter(metricRegistry, "difference");
+		writerQueueTime = metricRegistry.getHistogram(
+				"bramble_sync_writer_queue_time_ms",
+				"Time records waited to be written by outgoing sessions");
+		receiveTime = metricRegistry.getHistogram(
+				"bramble_sync_receive_time_ms",
+				"Time from reading a record to storing it in the database");
+	}
+
+	/**
+	 * Records the time a record waited to be written.
+	 *
+	 * @param queued the time the record was queued, as returned by
+	 * {@link org.briarproject.bramble.util.LogUtils#now()}
+	 */
+	void recordWriterQueueTime(long queued) {
+		writerQueueTime.record(now() - queued);
+	}
+
+	/**
+	 * Records the time taken to store a received record.
+	 *
+	 * @param read the time the record was read, as returned by
+	 * {@link org.briarproject.bramble.util.LogUtils#now()}
+	 */
+	void recordReceiveTime(long read) {
+		receiveTime.record(now() - read);
+	}
+
+	private static Counter getSentCounter(MetricRegistry metricRegistry,
+			String type) {
+		return metricRegistry.getCounter("bramble_sync_records_sent_total",
+				"Sync records sent", "type", type);
+	}
+
+	private static Counter getReceivedCounter(MetricRegistry metricRegistry,
+			String type) {
+		return metricRegistry.getCounter(
+				"bramble_sync_records_received_total",
+				"Sync records received", "type", type);
+	}
+}
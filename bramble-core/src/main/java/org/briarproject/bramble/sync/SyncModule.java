@@ -2,6 +2,7 @@ package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.SendPriorityRegistry;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
@@ -36,6 +37,13 @@ public class SyncModule {
 		return recordWriterFactory;
 	}
 
+	@Provides
+	@Singleton
+	SendPriorityRegistry provideSendPriorityRegistry(
+			SendPriorityRegistryImpl sendPriorityRegistry) {
+		return sendPriorityRegistry;
+	}
+
 	@Provides
 	@Singleton
 	SyncSessionFactory provideSyncSessionFactory(
@@ -6,12 +6,15 @@ import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.record.RecordReader.RecordPredicate;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.util.ByteUtils;
@@ -25,16 +28,21 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.DIFFERENCE;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SUMMARY;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUMMARY_BUCKET_BITS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUMMARY_FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -52,7 +60,8 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private static boolean isKnownRecordType(byte type) {
 		return type == ACK || type == MESSAGE || type == OFFER ||
-				type == REQUEST || type == VERSIONS || type == PRIORITY;
+				type == REQUEST || type == VERSIONS || type == PRIORITY ||
+				type == SUMMARY || type == DIFFERENCE;
 	}
 
 	private final MessageFactory messageFactory;
@@ -199,4 +208,76 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		nextRecord = null;
 		return payload;
 	}
+
+	@Override
+	public boolean hasSummary() throws IOException {
+		return !eof() && getNextRecordType() == SUMMARY;
+	}
+
+	@Override
+	public Summary readSummary() throws IOException {
+		if (!hasSummary()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		int bucketBits = readBucketBits(payload);
+		int buckets = 1 << bucketBits;
+		int bucketLength = INT_32_BYTES + SUMMARY_FINGERPRINT_LENGTH;
+		if (payload.length != UniqueId.LENGTH + 1 + buckets * bucketLength)
+			throw new FormatException();
+		int[] counts = new int[buckets];
+		byte[][] fingerprints = new byte[buckets][];
+		int off = UniqueId.LENGTH + 1;
+		for (int i = 0; i < buckets; i++) {
+			long count = ByteUtils.readUint32(payload, off);
+			if (count > Integer.MAX_VALUE) throw new FormatException();
+			counts[i] = (int) count;
+			off += INT_32_BYTES;
+			byte[] fingerprint = new byte[SUMMARY_FINGERPRINT_LENGTH];
+			System.arraycopy(payload, off, fingerprint, 0,
+					SUMMARY_FINGERPRINT_LENGTH);
+			fingerprints[i] = fingerprint;
+			off += SUMMARY_FINGERPRINT_LENGTH;
+		}
+		nextRecord = null;
+		return new Summary(readGroupId(payload), bucketBits, counts,
+				fingerprints);
+	}
+
+	@Override
+	public boolean hasDifference() throws IOException {
+		return !eof() && getNextRecordType() == DIFFERENCE;
+	}
+
+	@Override
+	public Difference readDifference() throws IOException {
+		if (!hasDifference()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		int bucketBits = readBucketBits(payload);
+		int buckets = 1 << bucketBits;
+		int bitmapLength = (buckets + 7) / 8;
+		if (payload.length != UniqueId.LENGTH + 1 + bitmapLength)
+			throw new FormatException();
+		boolean[] different = new boolean[buckets];
+		int off = UniqueId.LENGTH + 1;
+		for (int i = 0; i < buckets; i++) {
+			different[i] = (payload[off + i / 8] & (0x80 >> (i % 8))) != 0;
+		}
+		nextRecord = null;
+		return new Difference(readGroupId(payload), bucketBits, different);
+	}
+
+	private int readBucketBits(byte[] payload) throws IOException {
+		if (payload.length < UniqueId.LENGTH + 1) throw new FormatException();
+		int bucketBits = payload[UniqueId.LENGTH];
+		if (bucketBits < 0 || bucketBits > MAX_SUMMARY_BUCKET_BITS)
+			throw new FormatException();
+		return bucketBits;
+	}
+
+	private GroupId readGroupId(byte[] payload) {
+		byte[] id = new byte[UniqueId.LENGTH];
+		System.arraycopy(payload, 0, id, 0, UniqueId.LENGTH);
+		return new GroupId(id);
+	}
 }
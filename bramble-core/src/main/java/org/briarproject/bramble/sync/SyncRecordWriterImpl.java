@@ -3,12 +3,14 @@ package org.briarproject.bramble.sync;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordWriter;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.nullsafety.NotNullByDefault;
@@ -19,12 +21,16 @@ import java.io.IOException;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.DIFFERENCE;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SUMMARY;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -81,6 +87,31 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 				new Record(PROTOCOL_VERSION, PRIORITY, p.getNonce()));
 	}
 
+	@Override
+	public void writeSummary(Summary s) throws IOException {
+		payload.write(s.getGroupId().getBytes());
+		payload.write(s.getBucketBits());
+		byte[] count = new byte[INT_32_BYTES];
+		for (int i = 0; i < s.getBucketCount(); i++) {
+			writeUint32(s.getCount(i), count, 0);
+			payload.write(count);
+			payload.write(s.getFingerprint(i));
+		}
+		writeRecord(SUMMARY);
+	}
+
+	@Override
+	public void writeDifference(Difference d) throws IOException {
+		payload.write(d.getGroupId().getBytes());
+		payload.write(d.getBucketBits());
+		byte[] bitmap = new byte[(d.getBucketCount() + 7) / 8];
+		for (int i = 0; i < d.getBucketCount(); i++) {
+			if (d.isDifferent(i)) bitmap[i / 8] |= 0x80 >> (i % 8);
+		}
+		payload.write(bitmap);
+		writeRecord(DIFFERENCE);
+	}
+
 	@Override
 	public void flush() throws IOException {
 		writer.flush();
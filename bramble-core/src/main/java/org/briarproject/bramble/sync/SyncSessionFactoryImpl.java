@@ -8,6 +8,7 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.sync.OutgoingSessionRecord;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.PriorityHandler;
+import org.briarproject.bramble.api.sync.SendPriorityRegistry;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
@@ -38,18 +39,23 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 	private final Clock clock;
 	private final SyncRecordReaderFactory recordReaderFactory;
 	private final SyncRecordWriterFactory recordWriterFactory;
+	private final SyncMetrics metrics;
+	private final SendPriorityRegistry sendPriorityRegistry;
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
 			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
 			Clock clock, SyncRecordReaderFactory recordReaderFactory,
-			SyncRecordWriterFactory recordWriterFactory) {
+			SyncRecordWriterFactory recordWriterFactory, SyncMetrics metrics,
+			SendPriorityRegistry sendPriorityRegistry) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
 		this.recordWriterFactory = recordWriterFactory;
+		this.metrics = metrics;
+		this.sendPriorityRegistry = sendPriorityRegistry;
 	}
 
 	@Override
@@ -58,7 +64,7 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		SyncRecordReader recordReader =
 				recordReaderFactory.createRecordReader(in);
 		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader,
-				handler);
+				handler, metrics);
 	}
 
 	@Override
@@ -72,7 +78,8 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 					maxLatency, streamWriter, recordWriter);
 		} else {
 			return new SimplexOutgoingSession(db, eventBus, c, t,
-					maxLatency, streamWriter, recordWriter);
+					maxLatency, streamWriter, recordWriter,
+					sendPriorityRegistry.getSendPriorities());
 		}
 	}
 
@@ -85,7 +92,8 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 				recordWriterFactory.createRecordWriter(out);
 		return new MailboxOutgoingSession(db, eventBus, c, t, maxLatency,
 				streamWriter, recordWriter, sessionRecord,
-				MAX_FILE_PAYLOAD_BYTES);
+				MAX_FILE_PAYLOAD_BYTES,
+				sendPriorityRegistry.getSendPriorities());
 	}
 
 	@Override
@@ -96,6 +104,7 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
 		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c, t,
-				maxLatency, maxIdleTime, streamWriter, recordWriter, priority);
+				maxLatency, maxIdleTime, streamWriter, recordWriter, priority,
+				metrics, sendPriorityRegistry.getSendPriorities());
 	}
 }
@@ -1,10 +1,15 @@
 package org.briarproject.bramble.sync.validation;
 
+import org.briarproject.bramble.ExecutorLimits;
+import org.briarproject.bramble.MeteredExecutor;
 import org.briarproject.bramble.PoliteExecutor;
 import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
+import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 
 import java.util.concurrent.Executor;
 
@@ -14,6 +19,9 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.SaturationPolicy.CALLER_RUNS;
+
 @Module
 public class ValidationModule {
 
@@ -32,12 +40,37 @@ public class ValidationModule {
 	private static final int MAX_CONCURRENT_VALIDATION_TASKS =
 			Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
+	/**
+	 * The default limits for the validation executor. Threads that submit
+	 * tasks to a full queue run the tasks themselves.
+	 */
+	public static final ExecutorLimits DEFAULT_LIMITS =
+			new ExecutorLimits(1000, CALLER_RUNS, 10_000);
+
+	private final ExecutorLimits limits;
+
+	public ValidationModule() {
+		this(DEFAULT_LIMITS);
+	}
+
+	public ValidationModule(ExecutorLimits limits) {
+		this.limits = limits;
+	}
+
 	@Provides
 	@Singleton
 	ValidationManager provideValidationManager(
 			LifecycleManager lifecycleManager, EventBus eventBus,
-			ValidationManagerImpl validationManager) {
-		lifecycleManager.registerService(validationManager);
+			ValidationManagerImpl validationManager,
+			ClientVersioningManager clientVersioningManager) {
+		// Delivering messages may read the client versions, which the
+		// versioning manager updates when it starts
+		if (clientVersioningManager instanceof Service) {
+			lifecycleManager.registerService(validationManager,
+					singletonList((Service) clientVersioningManager));
+		} else {
+			lifecycleManager.registerService(validationManager);
+		}
 		eventBus.addListener(validationManager);
 		return validationManager;
 	}
@@ -46,8 +79,11 @@ public class ValidationModule {
 	@Singleton
 	@ValidationExecutor
 	Executor provideValidationExecutor(
-			@CryptoExecutor Executor cryptoExecutor) {
-		return new PoliteExecutor("ValidationExecutor", cryptoExecutor,
-				MAX_CONCURRENT_VALIDATION_TASKS);
+			@CryptoExecutor Executor cryptoExecutor,
+			MetricRegistry metricRegistry) {
+		Executor polite = new PoliteExecutor("ValidationExecutor",
+				cryptoExecutor, MAX_CONCURRENT_VALIDATION_TASKS);
+		return new MeteredExecutor("validation", polite, metricRegistry,
+				limits);
 	}
 }
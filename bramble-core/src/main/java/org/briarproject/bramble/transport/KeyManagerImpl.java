@@ -107,7 +107,16 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 	}
 
 	@Override
-	public void stopService() {
+	public void stopService() throws ServiceException {
+		// Write any reordering windows that are waiting to be written, as
+		// the tasks that would have written them may not run
+		try {
+			for (TransportKeyManager m : managers.values()) {
+				m.writeRecognisedTags();
+			}
+		} catch (DbException e) {
+			throw new ServiceException(e);
+		}
 	}
 
 	@Override
@@ -210,24 +219,23 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 	@Override
 	public StreamContext getStreamContext(TransportId t, byte[] tag)
 			throws DbException {
-		return withManager(t, m ->
-				db.transactionWithNullableResult(false, txn ->
-						m.getStreamContext(txn, tag)));
+		// Tags are recognised without a transaction, so incoming streams
+		// can be recognised in parallel and their updated reordering
+		// windows can be committed together
+		return withManager(t, m -> m.getStreamContext(tag));
 	}
 
 	@Override
 	public StreamContext getStreamContextOnly(TransportId t, byte[] tag)
 			throws DbException {
-		return withManager(t, m ->
-				db.transactionWithNullableResult(false, txn ->
-						m.getStreamContextOnly(txn, tag)));
+		return withManager(t, m -> m.getStreamContextOnly(tag));
 	}
 
 	@Override
 	public void markTagAsRecognised(TransportId t, byte[] tag)
 			throws DbException {
 		withManager(t, m -> {
-			db.transaction(false, txn -> m.markTagAsRecognised(txn, tag));
+			m.markTagAsRecognised(tag);
 			return null;
 		});
 	}
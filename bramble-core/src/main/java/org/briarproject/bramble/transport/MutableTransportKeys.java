@@ -34,6 +34,23 @@ class MutableTransportKeys {
 		}
 	}
 
+	/**
+	 * Creates mutable keys from the given parts, which allows the mutable
+	 * state of incoming keys to be retained across a key update.
+	 */
+	MutableTransportKeys(TransportId transportId, MutableIncomingKeys inPrev,
+			MutableIncomingKeys inCurr, MutableIncomingKeys inNext,
+			MutableOutgoingKeys outCurr, @Nullable SecretKey rootKey,
+			boolean alice) {
+		this.transportId = transportId;
+		this.inPrev = inPrev;
+		this.inCurr = inCurr;
+		this.inNext = inNext;
+		this.outCurr = outCurr;
+		this.rootKey = rootKey;
+		this.alice = rootKey != null && alice;
+	}
+
 	TransportKeys snapshot() {
 		if (rootKey == null) {
 			return new TransportKeys(transportId, inPrev.snapshot(),
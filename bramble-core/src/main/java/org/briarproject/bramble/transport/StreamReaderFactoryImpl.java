@@ -2,6 +2,8 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.StreamReaderFactory;
 import org.briarproject.nullsafety.NotNullByDefault;
@@ -16,29 +18,41 @@ import javax.inject.Inject;
 class StreamReaderFactoryImpl implements StreamReaderFactory {
 
 	private final StreamDecrypterFactory streamDecrypterFactory;
+	private final MetricRegistry metricRegistry;
 
 	@Inject
-	StreamReaderFactoryImpl(StreamDecrypterFactory streamDecrypterFactory) {
+	StreamReaderFactoryImpl(StreamDecrypterFactory streamDecrypterFactory,
+			MetricRegistry metricRegistry) {
 		this.streamDecrypterFactory = streamDecrypterFactory;
+		this.metricRegistry = metricRegistry;
 	}
 
 	@Override
 	public InputStream createStreamReader(InputStream in, StreamContext ctx) {
 		return new StreamReaderImpl(streamDecrypterFactory
-				.createStreamDecrypter(in, ctx));
+				.createStreamDecrypter(in, ctx),
+				getCounter(ctx.getTransportId().getString()));
 	}
 
 	@Override
 	public InputStream createContactExchangeStreamReader(InputStream in,
 			SecretKey headerKey) {
 		return new StreamReaderImpl(streamDecrypterFactory
-				.createContactExchangeStreamDecrypter(in, headerKey));
+				.createContactExchangeStreamDecrypter(in, headerKey),
+				getCounter("contact_exchange"));
 	}
 
 	@Override
 	public InputStream createLogStreamReader(InputStream in,
 			SecretKey headerKey) {
 		return new StreamReaderImpl(streamDecrypterFactory
-				.createLogStreamDecrypter(in, headerKey));
+				.createLogStreamDecrypter(in, headerKey),
+				getCounter("log"));
+	}
+
+	private Counter getCounter(String stream) {
+		return metricRegistry.getCounter("bramble_stream_bytes_read_total",
+				"Payload bytes read from transport streams", "stream",
+				stream);
 	}
 }
@@ -1,6 +1,7 @@
 package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamDecrypter;
+import org.briarproject.bramble.api.metrics.Counter;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
@@ -18,12 +19,14 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYL
 class StreamReaderImpl extends InputStream {
 
 	private final StreamDecrypter decrypter;
+	private final Counter bytesRead;
 	private final byte[] payload;
 
 	private int offset = 0, length = 0;
 
-	StreamReaderImpl(StreamDecrypter decrypter) {
+	StreamReaderImpl(StreamDecrypter decrypter, Counter bytesRead) {
 		this.decrypter = decrypter;
+		this.bytesRead = bytesRead;
 		payload = new byte[MAX_PAYLOAD_LENGTH];
 	}
 
@@ -61,5 +64,6 @@ class StreamReaderImpl extends InputStream {
 		if (length != 0) throw new IllegalStateException();
 		offset = 0;
 		length = decrypter.readFrame(payload);
+		if (length > 0) bytesRead.add(length);
 	}
 }
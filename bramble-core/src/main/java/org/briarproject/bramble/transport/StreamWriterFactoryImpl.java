@@ -2,6 +2,8 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
@@ -17,30 +19,42 @@ import javax.inject.Inject;
 class StreamWriterFactoryImpl implements StreamWriterFactory {
 
 	private final StreamEncrypterFactory streamEncrypterFactory;
+	private final MetricRegistry metricRegistry;
 
 	@Inject
-	StreamWriterFactoryImpl(StreamEncrypterFactory streamEncrypterFactory) {
+	StreamWriterFactoryImpl(StreamEncrypterFactory streamEncrypterFactory,
+			MetricRegistry metricRegistry) {
 		this.streamEncrypterFactory = streamEncrypterFactory;
+		this.metricRegistry = metricRegistry;
 	}
 
 	@Override
 	public StreamWriter createStreamWriter(OutputStream out,
 			StreamContext ctx) {
 		return new StreamWriterImpl(streamEncrypterFactory
-				.createStreamEncrypter(out, ctx));
+				.createStreamEncrypter(out, ctx),
+				getCounter(ctx.getTransportId().getString()));
 	}
 
 	@Override
 	public StreamWriter createContactExchangeStreamWriter(OutputStream out,
 			SecretKey headerKey) {
 		return new StreamWriterImpl(streamEncrypterFactory
-				.createContactExchangeStreamEncrypter(out, headerKey));
+				.createContactExchangeStreamEncrypter(out, headerKey),
+				getCounter("contact_exchange"));
 	}
 
 	@Override
 	public StreamWriter createLogStreamWriter(OutputStream out,
 			SecretKey headerKey) {
 		return new StreamWriterImpl(streamEncrypterFactory
-				.createLogStreamEncrypter(out, headerKey));
+				.createLogStreamEncrypter(out, headerKey),
+				getCounter("log"));
+	}
+
+	private Counter getCounter(String stream) {
+		return metricRegistry.getCounter("bramble_stream_bytes_written_total",
+				"Payload bytes written to transport streams", "stream",
+				stream);
 	}
 }
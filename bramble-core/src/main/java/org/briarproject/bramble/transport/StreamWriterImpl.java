@@ -1,6 +1,7 @@
 package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.metrics.Counter;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.nullsafety.NotNullByDefault;
 
@@ -21,12 +22,14 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYL
 class StreamWriterImpl extends OutputStream implements StreamWriter {
 
 	private final StreamEncrypter encrypter;
+	private final Counter bytesWritten;
 	private final byte[] payload;
 
 	private int length = 0;
 
-	StreamWriterImpl(StreamEncrypter encrypter) {
+	StreamWriterImpl(StreamEncrypter encrypter, Counter bytesWritten) {
 		this.encrypter = encrypter;
+		this.bytesWritten = bytesWritten;
 		payload = new byte[MAX_PAYLOAD_LENGTH];
 	}
 
@@ -83,6 +86,7 @@ class StreamWriterImpl extends OutputStream implements StreamWriter {
 
 	private void writeFrame(boolean finalFrame) throws IOException {
 		encrypter.writeFrame(payload, length, 0, finalFrame);
+		bytesWritten.add(length);
 		length = 0;
 	}
 }
@@ -0,0 +1,255 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+
+/**
+ * An open addressing hash table that maps incoming stream tags to a value
+ * and a stream number. Tags are stored as pairs of longs in a primitive
+ * array, so neither storing nor looking up a tag allocates a wrapper object.
+ * <p>
+ * Writes must be synchronized by the caller. Reads don't need to be
+ * synchronized: a reader retries if the table is modified while it's
+ * reading.
+ */
+@ThreadSafe
+@NotNullByDefault
+class TagTable<T> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private volatile Slots slots = new Slots(MIN_CAPACITY);
+	/**
+	 * Incremented before and after each modification, so the value is odd
+	 * while a modification is in progress.
+	 */
+	private volatile int version = 0;
+	private int size = 0;
+
+	/**
+	 * Returns the value and stream number for the given tag, or null if the
+	 * tag is not in the table. This method doesn't need to be synchronized.
+	 */
+	@Nullable
+	Match<T> get(byte[] tag) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		while (true) {
+			int before = version;
+			if ((before & 1) == 0) {
+				Match<T> match = find(slots, hi, lo);
+				if (version == before) return match;
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Stores the given value and stream number for the given tag, replacing
+	 * any existing entry for the tag. Calls to this method must be
+	 * synchronized.
+	 */
+	void put(byte[] tag, T value, long streamNumber) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		Slots s = slots;
+		if ((size + 1) * 2 > s.capacity) {
+			// Build the bigger table before publishing it, so readers of
+			// the old table don't need to retry
+			s = copy(s, s.capacity * 2, null);
+			slots = s;
+		}
+		version++;
+		try {
+			int i = s.getHome(lo);
+			while (s.values.get(i) != null) {
+				if (s.matches(i, hi, lo)) {
+					s.set(i, hi, lo, value, streamNumber);
+					return;
+				}
+				i = (i + 1) & s.mask;
+			}
+			s.set(i, hi, lo, value, streamNumber);
+			size++;
+		} finally {
+			version++;
+		}
+	}
+
+	/**
+	 * Removes the entry for the given tag, if any, and returns true if an
+	 * entry was removed. Calls to this method must be synchronized.
+	 */
+	boolean remove(byte[] tag) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		Slots s = slots;
+		int i = s.getHome(lo);
+		while (true) {
+			if (s.values.get(i) == null) return false;
+			if (s.matches(i, hi, lo)) break;
+			i = (i + 1) & s.mask;
+		}
+		version++;
+		try {
+			// Shift back any later entries in the same run that would be
+			// unreachable once the slot is empty
+			int j = i;
+			while (true) {
+				j = (j + 1) & s.mask;
+				if (s.values.get(j) == null) break;
+				int home = s.getHome(s.longs.get(j * 3 + 1));
+				boolean reachable = i <= j ? i < home && home <= j
+						: i < home || home <= j;
+				if (reachable) continue;
+				s.copySlot(j, i);
+				i = j;
+			}
+			s.clear(i);
+			size--;
+			return true;
+		} finally {
+			version++;
+		}
+	}
+
+	/**
+	 * Removes all entries with values that match the given predicate. Calls
+	 * to this method must be synchronized.
+	 */
+	void removeIf(Predicate<T> predicate) {
+		Slots s = slots;
+		slots = copy(s, s.capacity, predicate);
+	}
+
+	/**
+	 * Returns the number of entries in the table. Calls to this method must
+	 * be synchronized.
+	 */
+	int size() {
+		return size;
+	}
+
+	@Nullable
+	private Match<T> find(Slots s, long hi, long lo) {
+		int i = s.getHome(lo);
+		// Stop after visiting every slot, in case a concurrent modification
+		// has left the table without any empty slots
+		for (int probes = 0; probes < s.capacity; probes++) {
+			Object value = s.values.get(i);
+			if (value == null) return null;
+			if (s.matches(i, hi, lo)) {
+				@SuppressWarnings("unchecked")
+				T t = (T) value;
+				return new Match<>(t, s.longs.get(i * 3 + 2));
+			}
+			i = (i + 1) & s.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the entries of the given table into a new table with the given
+	 * capacity, skipping any entries with values that match the given
+	 * predicate, and updates the size.
+	 */
+	private Slots copy(Slots s, int capacity,
+			@Nullable Predicate<T> predicate) {
+		Slots copy = new Slots(capacity);
+		int copied = 0;
+		for (int i = 0; i < s.capacity; i++) {
+			Object value = s.values.get(i);
+			if (value == null) continue;
+			@SuppressWarnings("unchecked")
+			T t = (T) value;
+			if (predicate != null && predicate.test(t)) continue;
+			long hi = s.longs.get(i * 3), lo = s.longs.get(i * 3 + 1);
+			int j = copy.getHome(lo);
+			while (copy.values.get(j) != null) j = (j + 1) & copy.mask;
+			copy.set(j, hi, lo, value, s.longs.get(i * 3 + 2));
+			copied++;
+		}
+		size = copied;
+		return copy;
+	}
+
+	private static long getHigh(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		return readUint64(tag, 0);
+	}
+
+	private static long getLow(byte[] tag) {
+		return readUint64(tag, INT_64_BYTES);
+	}
+
+	static class Match<T> {
+
+		private final T value;
+		private final long streamNumber;
+
+		private Match(T value, long streamNumber) {
+			this.value = value;
+			this.streamNumber = streamNumber;
+		}
+
+		T getValue() {
+			return value;
+		}
+
+		long getStreamNumber() {
+			return streamNumber;
+		}
+	}
+
+	/**
+	 * The storage for a table. Each slot uses three consecutive longs for
+	 * the high and low halves of the tag and the stream number, and one
+	 * reference for the value, which is null if the slot is empty.
+	 */
+	private static class Slots {
+
+		private final int capacity, mask;
+		private final AtomicLongArray longs;
+		private final AtomicReferenceArray<Object> values;
+
+		private Slots(int capacity) {
+			this.capacity = capacity;
+			mask = capacity - 1;
+			longs = new AtomicLongArray(capacity * 3);
+			values = new AtomicReferenceArray<>(capacity);
+		}
+
+		private int getHome(long lo) {
+			// Tags are pseudo-random, so no further mixing is needed
+			return (int) (lo ^ (lo >>> 32)) & mask;
+		}
+
+		private boolean matches(int i, long hi, long lo) {
+			return longs.get(i * 3) == hi && longs.get(i * 3 + 1) == lo;
+		}
+
+		private void set(int i, long hi, long lo, Object value,
+				long streamNumber) {
+			longs.set(i * 3, hi);
+			longs.set(i * 3 + 1, lo);
+			longs.set(i * 3 + 2, streamNumber);
+			values.set(i, value);
+		}
+
+		private void copySlot(int from, int to) {
+			set(to, longs.get(from * 3), longs.get(from * 3 + 1),
+					values.get(from), longs.get(from * 3 + 2));
+		}
+
+		private void clear(int i) {
+			values.set(i, null);
+		}
+	}
+}
@@ -44,13 +44,29 @@ interface TransportKeyManager {
 	StreamContext getStreamContext(Transaction txn, PendingContactId p)
 			throws DbException;
 
+	/**
+	 * Looks up the given tag and marks it as recognised. This method doesn't
+	 * need a transaction: the updated reordering window is written to the
+	 * DB by a task that may also write other recognised tags, and this
+	 * method returns when the task's transaction has committed.
+	 */
 	@Nullable
-	StreamContext getStreamContext(Transaction txn, byte[] tag)
-			throws DbException;
+	StreamContext getStreamContext(byte[] tag) throws DbException;
 
 	@Nullable
-	StreamContext getStreamContextOnly(Transaction txn, byte[] tag);
-
-	void markTagAsRecognised(Transaction txn, byte[] tag) throws DbException;
+	StreamContext getStreamContextOnly(byte[] tag);
+
+	/**
+	 * Marks the given tag as recognised. This method doesn't need a
+	 * transaction: like {@link #getStreamContext(byte[])}, it returns when
+	 * the updated reordering window has been committed.
+	 */
+	void markTagAsRecognised(byte[] tag) throws DbException;
+
+	/**
+	 * Writes any reordering windows and key activations that are waiting to
+	 * be written to the DB, in a transaction of its own.
+	 */
+	void writeRecognisedTags() throws DbException;
 
 }
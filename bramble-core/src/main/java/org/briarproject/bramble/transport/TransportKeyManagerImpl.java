@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -13,18 +12,24 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.TaskScheduler;
 import org.briarproject.bramble.api.system.Wakeful;
+import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
+import org.briarproject.bramble.transport.TagTable.Match;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -34,6 +39,7 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
@@ -41,7 +47,9 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOC
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 import static org.briarproject.nullsafety.NullSafety.requireExactlyOneNull;
 
 @ThreadSafe
@@ -63,14 +71,35 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
-	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	/**
+	 * Modified while holding the lock but read without holding it.
+	 */
+	private final TagTable<TagContext> inContexts = new TagTable<>();
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
 	@GuardedBy("lock")
 	private final Map<PendingContactId, MutableTransportKeySet>
 			pendingContactOutContexts = new HashMap<>();
+	/**
+	 * The contexts of incoming keys with reordering windows that have
+	 * changed since they were last written to the DB.
+	 */
+	@GuardedBy("lock")
+	private final Set<TagContext> unwrittenWindows = new HashSet<>();
+	/**
+	 * Key sets with outgoing keys that have been activated by recognising
+	 * a tag since they were last written to the DB.
+	 */
+	@GuardedBy("lock")
+	private final Set<KeySetId> unwrittenActivations = new HashSet<>();
+	@GuardedBy("lock")
+	private boolean writeScheduled = false;
+	/**
+	 * The write that will include the changes that are currently unwritten.
+	 */
+	@GuardedBy("lock")
+	private PendingWrite pendingWrite = new PendingWrite();
 
 	TransportKeyManagerImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto,
@@ -162,13 +191,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
 			MutableIncomingKeys inKeys, boolean handshakeMode) {
+		TagContext tagCtx = new TagContext(keySetId, contactId,
+				pendingContactId, inKeys, handshakeMode);
 		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx = new TagContext(keySetId, contactId,
-					pendingContactId, inKeys, streamNumber, handshakeMode);
-			byte[] tag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
-					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+			byte[] tag = encodeTag(inKeys.getTagKey(), streamNumber);
+			inContexts.put(tag, tagCtx, streamNumber);
 		}
 	}
 
@@ -206,11 +233,112 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@DatabaseExecutor
 	@Wakeful
 	private void updateKeys() {
+		long start = now();
+		long now = clock.currentTimeMillis();
+		long timePeriod = now / timePeriodLength;
+		// Derive the updated keys and tags without holding the lock
+		List<KeyUpdate> updates = prepareKeyUpdates(timePeriod);
 		try {
-			db.transaction(false, this::updateKeys);
+			db.transaction(false, txn ->
+					applyKeyUpdates(txn, updates, timePeriod));
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
+			return;
+		}
+		logDuration(LOG, "Updating transport keys", start);
+		// Schedule the next key update
+		scheduleKeyUpdate(now);
+	}
+
+	private List<KeyUpdate> prepareKeyUpdates(long timePeriod) {
+		// Take a snapshot of the keys, which doesn't involve any crypto
+		List<MutableTransportKeySet> keySets;
+		List<TransportKeys> snapshots;
+		lock.lock();
+		try {
+			keySets = new ArrayList<>(keys.values());
+			snapshots = new ArrayList<>(keySets.size());
+			for (MutableTransportKeySet ks : keySets) {
+				snapshots.add(ks.getKeys().snapshot());
+			}
+		} finally {
+			lock.unlock();
 		}
+		List<KeyUpdate> updates = new ArrayList<>();
+		for (int i = 0; i < keySets.size(); i++) {
+			KeyUpdate u = prepareKeyUpdate(keySets.get(i), snapshots.get(i),
+					timePeriod);
+			if (u != null) updates.add(u);
+		}
+		return updates;
+	}
+
+	/**
+	 * Derives the updated keys for the given key set and encodes the tags
+	 * for any incoming keys that will be added or removed by the update.
+	 * Tags for incoming keys that are retained across the update are
+	 * already in the tag table and don't need to be encoded again.
+	 * Returns null if the keys don't need to be updated.
+	 */
+	@Nullable
+	private KeyUpdate prepareKeyUpdate(MutableTransportKeySet ks,
+			TransportKeys k, long timePeriod) {
+		TransportKeys k1 = transportCrypto.updateTransportKeys(k, timePeriod);
+		if (k1.getTimePeriod() <= k.getTimePeriod()) return null;
+		KeyUpdate u = new KeyUpdate(ks, k1);
+		List<IncomingKeys> before = getIncomingKeys(k);
+		List<IncomingKeys> after = getIncomingKeys(k1);
+		for (IncomingKeys in : before) {
+			if (!containsTimePeriod(after, in.getTimePeriod()))
+				encodeTags(u, in);
+		}
+		for (IncomingKeys in : after) {
+			if (!containsTimePeriod(before, in.getTimePeriod()))
+				encodeTags(u, in);
+		}
+		return u;
+	}
+
+	private List<IncomingKeys> getIncomingKeys(TransportKeys k) {
+		return asList(k.getPreviousIncomingKeys(), k.getCurrentIncomingKeys(),
+				k.getNextIncomingKeys());
+	}
+
+	private boolean containsTimePeriod(List<IncomingKeys> inKeys,
+			long timePeriod) {
+		for (IncomingKeys in : inKeys) {
+			if (in.getTimePeriod() == timePeriod) return true;
+		}
+		return false;
+	}
+
+	private void encodeTags(KeyUpdate u, IncomingKeys in) {
+		ReorderingWindow window = new ReorderingWindow(in.getWindowBase(),
+				in.getWindowBitmap());
+		Map<Long, byte[]> tags = new HashMap<>();
+		for (long streamNumber : window.getUnseen()) {
+			tags.put(streamNumber, encodeTag(in.getTagKey(), streamNumber));
+		}
+		u.tags.put(in.getTimePeriod(), tags);
+	}
+
+	private byte[] encodeTag(SecretKey tagKey, long streamNumber) {
+		byte[] tag = new byte[TAG_LENGTH];
+		transportCrypto.encodeTag(tag, tagKey, PROTOCOL_VERSION, streamNumber);
+		return tag;
+	}
+
+	/**
+	 * Returns the tag for the given stream number, using the tag encoded by
+	 * {@link #prepareKeyUpdate(MutableTransportKeySet, TransportKeys, long)}
+	 * if there is one. A tag may be missing if the reordering window has
+	 * moved since the snapshot was taken.
+	 */
+	private byte[] getTag(KeyUpdate u, MutableIncomingKeys in,
+			long streamNumber) {
+		Map<Long, byte[]> tags = u.tags.get(in.getTimePeriod());
+		byte[] tag = tags == null ? null : tags.get(streamNumber);
+		return tag == null ? encodeTag(in.getTagKey(), streamNumber) : tag;
 	}
 
 	@Override
@@ -297,13 +425,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			inContexts.removeIf(tagCtx -> c.equals(tagCtx.contactId));
 			contactOutContexts.remove(c);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (c.equals(it1.next().getContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (c.equals(it.next().getContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -314,13 +440,12 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			inContexts.removeIf(tagCtx ->
+					p.equals(tagCtx.pendingContactId));
 			pendingContactOutContexts.remove(p);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (p.equals(it1.next().getPendingContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (p.equals(it.next().getPendingContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -389,116 +514,302 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	}
 
 	@Override
-	public StreamContext getStreamContext(Transaction txn, byte[] tag)
-			throws DbException {
-		lock.lock();
-		try {
-			StreamContext ctx = streamContextFromTag(tag);
-			if (ctx == null) return null;
-			markTagAsRecognised(txn, tag);
-			return ctx;
-		} finally {
-			lock.unlock();
-		}
+	public StreamContext getStreamContext(byte[] tag) throws DbException {
+		Match<TagContext> match = recogniseTag(tag);
+		return match == null ? null : createStreamContext(match);
 	}
 
 	@Override
-	public StreamContext getStreamContextOnly(Transaction txn, byte[] tag) {
+	public StreamContext getStreamContextOnly(byte[] tag) {
+		// The tag table can be read without holding the lock
+		Match<TagContext> match = inContexts.get(tag);
+		return match == null ? null : createStreamContext(match);
+	}
+
+	@Override
+	public void markTagAsRecognised(byte[] tag) throws DbException {
+		recogniseTag(tag);
+	}
+
+	/**
+	 * Marks the given tag as recognised, schedules a task to write the
+	 * updated reordering window to the DB, and waits for the task's
+	 * transaction to commit. Returns the tag's match, or null if the tag
+	 * was not found or another thread has already recognised it.
+	 * <p>
+	 * The lock is only held while updating the tag table, and the tag can't
+	 * be used again while we're running, as it's removed from the tag table
+	 * immediately. Tags recognised while the task is waiting to run are
+	 * committed together, so many incoming streams can be recognised with a
+	 * single transaction. As we don't return until the updated window has
+	 * been committed, a stream is never read before its tag is persisted,
+	 * so the tag can't be accepted again after a crash.
+	 *
+	 * @throws DbException if the transaction that should have written the
+	 * updated window didn't commit
+	 */
+	@Nullable
+	private Match<TagContext> recogniseTag(byte[] tag) throws DbException {
+		// Unrecognised tags can be rejected without holding the lock
+		if (inContexts.get(tag) == null) return null;
+		Match<TagContext> match;
+		PendingWrite write;
+		boolean scheduleWrite;
 		lock.lock();
 		try {
-			return streamContextFromTag(tag);
+			// Look up the tag again in case it's been recognised since
+			match = inContexts.get(tag);
+			if (match == null) return null;
+			updateReorderingWindow(tag, match);
+			write = pendingWrite;
+			scheduleWrite = !writeScheduled;
+			writeScheduled = true;
 		} finally {
 			lock.unlock();
 		}
+		// Don't hold the lock while submitting the task, as the executor may
+		// make us wait if its queue is full
+		if (scheduleWrite) dbExecutor.execute(this::writeScheduledTags);
+		write.await();
+		return match;
 	}
 
-	@GuardedBy("lock")
-	@Nullable
-	private StreamContext streamContextFromTag(byte[] tag) {
-		// Look up the incoming keys for the tag
-		TagContext tagCtx = inContexts.get(new Bytes(tag));
-		if (tagCtx == null) return null;
+	private StreamContext createStreamContext(Match<TagContext> match) {
+		TagContext tagCtx = match.getValue();
 		MutableIncomingKeys inKeys = tagCtx.inKeys;
-		// Create a stream context
 		return new StreamContext(tagCtx.contactId,
 				tagCtx.pendingContactId, transportId,
 				inKeys.getTagKey(), inKeys.getHeaderKey(),
-				tagCtx.streamNumber, tagCtx.handshakeMode);
+				match.getStreamNumber(), tagCtx.handshakeMode);
 	}
 
-	@Override
-	public void markTagAsRecognised(Transaction txn, byte[] tag)
-			throws DbException {
-		TagContext tagCtx = inContexts.remove(new Bytes(tag));
-		if (tagCtx == null) return;
+	@GuardedBy("lock")
+	private void updateReorderingWindow(byte[] tag, Match<TagContext> match) {
+		inContexts.remove(tag);
+		TagContext tagCtx = match.getValue();
+		long seen = match.getStreamNumber();
 		MutableIncomingKeys inKeys = tagCtx.inKeys;
 		// Update the reordering window
 		ReorderingWindow window = inKeys.getWindow();
-		Change change = window.setSeen(tagCtx.streamNumber);
+		Change change = window.setSeen(seen);
 		// Add tags for any stream numbers added to the window
 		for (long streamNumber : change.getAdded()) {
-			byte[] addTag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(addTag, inKeys.getTagKey(),
-					PROTOCOL_VERSION, streamNumber);
-			TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
-					tagCtx.contactId, tagCtx.pendingContactId, inKeys,
-					streamNumber, tagCtx.handshakeMode);
-			inContexts.put(new Bytes(addTag), tagCtx1);
+			byte[] addTag = encodeTag(inKeys.getTagKey(), streamNumber);
+			inContexts.put(addTag, tagCtx, streamNumber);
 		}
 		// Remove tags for any stream numbers removed from the window
 		for (long streamNumber : change.getRemoved()) {
-			if (streamNumber == tagCtx.streamNumber) continue;
-			byte[] removeTag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
-					PROTOCOL_VERSION, streamNumber);
-			inContexts.remove(new Bytes(removeTag));
-		}
-		// Write the window back to the DB
-		db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
-				inKeys.getTimePeriod(), window.getBase(),
-				window.getBitmap());
+			if (streamNumber == seen) continue;
+			inContexts.remove(encodeTag(inKeys.getTagKey(), streamNumber));
+		}
+		unwrittenWindows.add(tagCtx);
 		// If the outgoing keys are inactive, activate them
 		MutableTransportKeySet ks = keys.get(tagCtx.keySetId);
-		MutableOutgoingKeys outKeys =
-				ks.getKeys().getCurrentOutgoingKeys();
+		MutableOutgoingKeys outKeys = ks.getKeys().getCurrentOutgoingKeys();
 		if (!outKeys.isActive()) {
 			LOG.info("Activating outgoing keys");
 			outKeys.activate();
 			considerReplacingOutgoingKeys(ks);
-			db.setTransportKeysActive(txn, transportId, tagCtx.keySetId);
+			unwrittenActivations.add(tagCtx.keySetId);
 		}
 	}
 
 	@DatabaseExecutor
-	@Wakeful
-	private void updateKeys(Transaction txn) throws DbException {
-		long now = clock.currentTimeMillis();
+	private void writeScheduledTags() {
+		try {
+			writeRecognisedTags();
+		} catch (DbException | RuntimeException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+
+	@Override
+	public void writeRecognisedTags() throws DbException {
+		UnwrittenTags unwritten = takeUnwrittenTags();
+		if (unwritten.windows.isEmpty() && unwritten.activations.isEmpty()) {
+			unwritten.write.complete(true);
+			return;
+		}
+		try {
+			db.transaction(false, txn -> writeRecognisedTags(txn, unwritten));
+		} catch (DbException | RuntimeException e) {
+			// The transaction didn't commit, so the changes are still
+			// unwritten. They'll be written with the next recognised tag,
+			// but the streams waiting for this write must be rejected
+			restoreUnwrittenTags(unwritten);
+			unwritten.write.complete(false);
+			throw e;
+		}
+		unwritten.write.complete(true);
+	}
+
+	/**
+	 * Takes a snapshot of the unwritten changes. As write transactions don't
+	 * overlap, no transaction that commits after the one that writes this
+	 * snapshot can write an older snapshot.
+	 */
+	private UnwrittenTags takeUnwrittenTags() {
 		lock.lock();
 		try {
-			// Update the keys to the current time period
-			Collection<TransportKeySet> snapshot = new ArrayList<>(keys.size());
-			for (MutableTransportKeySet ks : keys.values()) {
-				snapshot.add(new TransportKeySet(ks.getKeySetId(),
-						ks.getContactId(), ks.getPendingContactId(),
-						ks.getKeys().snapshot()));
+			writeScheduled = false;
+			List<WindowSnapshot> windows =
+					new ArrayList<>(unwrittenWindows.size());
+			for (TagContext tagCtx : unwrittenWindows) {
+				windows.add(new WindowSnapshot(tagCtx));
 			}
-			UpdateResult updateResult = updateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
-			contactOutContexts.clear();
-			pendingContactOutContexts.clear();
-			keys.clear();
-			addKeys(updateResult.current);
-			// Write any updated keys back to the DB
-			if (!updateResult.updated.isEmpty())
-				db.updateTransportKeys(txn, updateResult.updated);
+			unwrittenWindows.clear();
+			List<KeySetId> activations = new ArrayList<>(unwrittenActivations);
+			unwrittenActivations.clear();
+			PendingWrite write = pendingWrite;
+			pendingWrite = new PendingWrite();
+			return new UnwrittenTags(windows, activations, write);
 		} finally {
 			lock.unlock();
 		}
-		// Schedule the next key update
-		scheduleKeyUpdate(now);
 	}
 
+	/**
+	 * Marks the changes in a snapshot that wasn't written as unwritten
+	 * again. The windows will be written with their state at that time,
+	 * which can't be older than the snapshot.
+	 */
+	private void restoreUnwrittenTags(UnwrittenTags unwritten) {
+		lock.lock();
+		try {
+			for (WindowSnapshot w : unwritten.windows) {
+				unwrittenWindows.add(w.tagCtx);
+			}
+			unwrittenActivations.addAll(unwritten.activations);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeRecognisedTags(Transaction txn, UnwrittenTags unwritten)
+			throws DbException {
+		// Keys that have since been removed or rotated out of use have no
+		// rows to update, so they don't need to be skipped
+		for (WindowSnapshot w : unwritten.windows) {
+			db.setReorderingWindow(txn, w.keySetId, transportId, w.timePeriod,
+					w.base, w.bitmap);
+		}
+		for (KeySetId k : unwritten.activations) {
+			db.setTransportKeysActive(txn, transportId, k);
+		}
+	}
+
+	@DatabaseExecutor
+	private void applyKeyUpdates(Transaction txn, List<KeyUpdate> updates,
+			long timePeriod) throws DbException {
+		Collection<TransportKeySet> updated = new ArrayList<>(updates.size());
+		// Swap in the updated keys one key set at a time, so incoming streams
+		// can be recognised while the update is in progress
+		for (KeyUpdate u : updates) {
+			lock.lock();
+			try {
+				TransportKeySet ks = applyKeyUpdate(u);
+				if (ks != null) updated.add(ks);
+			} finally {
+				lock.unlock();
+			}
+		}
+		// Update any keys that were added or replaced after the snapshot
+		lock.lock();
+		try {
+			for (MutableTransportKeySet ks : new ArrayList<>(keys.values())) {
+				MutableTransportKeys m = ks.getKeys();
+				if (m.getCurrentOutgoingKeys().getTimePeriod() >= timePeriod)
+					continue;
+				KeyUpdate u = prepareKeyUpdate(ks, m.snapshot(), timePeriod);
+				if (u == null) continue;
+				TransportKeySet ks1 = applyKeyUpdate(u);
+				if (ks1 != null) updated.add(ks1);
+			}
+		} finally {
+			lock.unlock();
+		}
+		// Write the updated keys back to the DB
+		if (!updated.isEmpty()) db.updateTransportKeys(txn, updated);
+	}
+
+	/**
+	 * Replaces the mutable state for the key set that was updated, retaining
+	 * the state of any incoming keys that are still in use, and returns a
+	 * snapshot of the updated keys. Returns null if the key set has been
+	 * removed or replaced since the update was prepared.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private TransportKeySet applyKeyUpdate(KeyUpdate u) {
+		MutableTransportKeySet ks = u.keySet;
+		KeySetId keySetId = ks.getKeySetId();
+		if (keys.get(keySetId) != ks) return null;
+		MutableTransportKeys m = ks.getKeys();
+		Map<Long, MutableIncomingKeys> old = new HashMap<>();
+		for (MutableIncomingKeys in : asList(m.getPreviousIncomingKeys(),
+				m.getCurrentIncomingKeys(), m.getNextIncomingKeys())) {
+			old.put(in.getTimePeriod(), in);
+		}
+		TransportKeys k = u.keys;
+		MutableIncomingKeys inPrev =
+				updateIncomingKeys(u, old, k.getPreviousIncomingKeys());
+		MutableIncomingKeys inCurr =
+				updateIncomingKeys(u, old, k.getCurrentIncomingKeys());
+		MutableIncomingKeys inNext =
+				updateIncomingKeys(u, old, k.getNextIncomingKeys());
+		// Remove the tags for any incoming keys that are no longer in use
+		for (MutableIncomingKeys in : old.values()) {
+			for (long streamNumber : in.getWindow().getUnseen()) {
+				inContexts.remove(getTag(u, in, streamNumber));
+			}
+		}
+		MutableOutgoingKeys outCurr =
+				new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
+		// The outgoing keys may have been activated since the snapshot
+		if (m.getCurrentOutgoingKeys().isActive()) outCurr.activate();
+		MutableTransportKeys m1;
+		if (m.isHandshakeMode()) {
+			m1 = new MutableTransportKeys(m.getTransportId(), inPrev, inCurr,
+					inNext, outCurr, m.getRootKey(), m.isAlice());
+		} else {
+			m1 = new MutableTransportKeys(m.getTransportId(), inPrev, inCurr,
+					inNext, outCurr, null, false);
+		}
+		ContactId c = ks.getContactId();
+		PendingContactId p = ks.getPendingContactId();
+		MutableTransportKeySet ks1 =
+				new MutableTransportKeySet(keySetId, c, p, m1);
+		keys.put(keySetId, ks1);
+		// If the old keys were used for outgoing streams, use the new keys
+		if (getOutgoingKeySet(c, p) == ks) {
+			if (c == null) pendingContactOutContexts.put(p, ks1);
+			else contactOutContexts.put(c, ks1);
+		}
+		return new TransportKeySet(keySetId, c, p, m1.snapshot());
+	}
+
+	@GuardedBy("lock")
+	private MutableIncomingKeys updateIncomingKeys(KeyUpdate u,
+			Map<Long, MutableIncomingKeys> old, IncomingKeys in) {
+		MutableIncomingKeys retained = old.remove(in.getTimePeriod());
+		if (retained != null) return retained;
+		// Add tags for the new incoming keys
+		MutableTransportKeySet ks = u.keySet;
+		MutableIncomingKeys inKeys = new MutableIncomingKeys(in);
+		TagContext tagCtx = new TagContext(ks.getKeySetId(),
+				ks.getContactId(), ks.getPendingContactId(), inKeys,
+				ks.getKeys().isHandshakeMode());
+		for (long streamNumber : inKeys.getWindow().getUnseen()) {
+			inContexts.put(getTag(u, inKeys, streamNumber), tagCtx,
+					streamNumber);
+		}
+		return inKeys;
+	}
+
+	/**
+	 * The context shared by all the tags of a set of incoming keys. The
+	 * stream number of each tag is stored in the tag table.
+	 */
 	private static class TagContext {
 
 		private final KeySetId keySetId;
@@ -507,23 +818,95 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		@Nullable
 		private final PendingContactId pendingContactId;
 		private final MutableIncomingKeys inKeys;
-		private final long streamNumber;
 		private final boolean handshakeMode;
 
 		private TagContext(KeySetId keySetId, @Nullable ContactId contactId,
 				@Nullable PendingContactId pendingContactId,
-				MutableIncomingKeys inKeys, long streamNumber,
-				boolean handshakeMode) {
+				MutableIncomingKeys inKeys, boolean handshakeMode) {
 			requireExactlyOneNull(contactId, pendingContactId);
 			this.keySetId = keySetId;
 			this.contactId = contactId;
 			this.pendingContactId = pendingContactId;
 			this.inKeys = inKeys;
-			this.streamNumber = streamNumber;
 			this.handshakeMode = handshakeMode;
 		}
 	}
 
+	/**
+	 * The state of a reordering window at the time it was taken from the
+	 * set of unwritten windows.
+	 */
+	private static class UnwrittenTags {
+
+		private final List<WindowSnapshot> windows;
+		private final List<KeySetId> activations;
+		private final PendingWrite write;
+
+		private UnwrittenTags(List<WindowSnapshot> windows,
+				List<KeySetId> activations, PendingWrite write) {
+			this.windows = windows;
+			this.activations = activations;
+			this.write = write;
+		}
+	}
+
+	/**
+	 * A write that threads recognising tags can wait for.
+	 */
+	private static class PendingWrite {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile boolean committed = false;
+
+		private void complete(boolean committed) {
+			this.committed = committed;
+			latch.countDown();
+		}
+
+		private void await() throws DbException {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DbException(e);
+			}
+			if (!committed) throw new DbException();
+		}
+	}
+
+	private static class WindowSnapshot {
+
+		private final TagContext tagCtx;
+		private final KeySetId keySetId;
+		private final long timePeriod, base;
+		private final byte[] bitmap;
+
+		private WindowSnapshot(TagContext tagCtx) {
+			this.tagCtx = tagCtx;
+			ReorderingWindow window = tagCtx.inKeys.getWindow();
+			keySetId = tagCtx.keySetId;
+			timePeriod = tagCtx.inKeys.getTimePeriod();
+			base = window.getBase();
+			bitmap = window.getBitmap();
+		}
+	}
+
+	private static class KeyUpdate {
+
+		private final MutableTransportKeySet keySet;
+		private final TransportKeys keys;
+		/**
+		 * Tags for incoming keys that will be added or removed, indexed by
+		 * time period and stream number.
+		 */
+		private final Map<Long, Map<Long, byte[]>> tags = new HashMap<>();
+
+		private KeyUpdate(MutableTransportKeySet keySet, TransportKeys keys) {
+			this.keySet = keySet;
+			this.keys = keys;
+		}
+	}
+
 	private static class UpdateResult {
 
 		private final Collection<TransportKeySet> current = new ArrayList<>();
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.transport.KeyManager;
 import org.briarproject.bramble.api.transport.StreamReaderFactory;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
@@ -24,14 +25,18 @@ public class TransportModule {
 
 	@Provides
 	StreamReaderFactory provideStreamReaderFactory(
-			StreamDecrypterFactory streamDecrypterFactory) {
-		return new StreamReaderFactoryImpl(streamDecrypterFactory);
+			StreamDecrypterFactory streamDecrypterFactory,
+			MetricRegistry metricRegistry) {
+		return new StreamReaderFactoryImpl(streamDecrypterFactory,
+				metricRegistry);
 	}
 
 	@Provides
 	StreamWriterFactory provideStreamWriterFactory(
-			StreamEncrypterFactory streamEncrypterFactory) {
-		return new StreamWriterFactoryImpl(streamEncrypterFactory);
+			StreamEncrypterFactory streamEncrypterFactory,
+			MetricRegistry metricRegistry) {
+		return new StreamWriterFactoryImpl(streamEncrypterFactory,
+				metricRegistry);
 	}
 
 	@Provides
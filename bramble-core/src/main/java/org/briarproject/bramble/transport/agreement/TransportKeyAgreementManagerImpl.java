@@ -160,6 +160,12 @@ class TransportKeyAgreementManagerImpl extends BdfIncomingMessageHook
 		db.setGroupVisibility(txn, c.getId(), g.getId(), client);
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		db.removeGroup(txn, getContactGroup(c));
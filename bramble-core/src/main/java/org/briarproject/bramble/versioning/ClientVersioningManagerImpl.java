@@ -33,8 +33,10 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -107,6 +109,30 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 		}
 	}
 
+	@Override
+	public void setClientVisibility(Transaction txn,
+			Map<ContactId, GroupId> contactGroups, ClientId clientId,
+			int majorVersion) throws DbException {
+		// Group the groups by visibility so each visibility can be set with
+		// a single call
+		Map<Visibility, Map<ContactId, GroupId>> visibilities =
+				new EnumMap<>(Visibility.class);
+		for (Entry<ContactId, GroupId> e : contactGroups.entrySet()) {
+			Visibility client = getClientVisibility(txn, e.getKey(), clientId,
+					majorVersion);
+			Map<ContactId, GroupId> groupIds = visibilities.get(client);
+			if (groupIds == null) {
+				groupIds = new HashMap<>();
+				visibilities.put(client, groupIds);
+			}
+			groupIds.put(e.getKey(), e.getValue());
+		}
+		for (Entry<Visibility, Map<ContactId, GroupId>> e :
+				visibilities.entrySet()) {
+			db.setGroupVisibility(txn, e.getValue(), e.getKey());
+		}
+	}
+
 	@Override
 	public int getClientMinorVersion(Transaction txn, ContactId contactId,
 			ClientId clientId, int majorVersion) throws DbException {
@@ -168,6 +194,29 @@ class ClientVersioningManagerImpl implements ClientVersioningManager,
 		storeFirstUpdate(txn, g.getId(), versions);
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		// Create a group for each contact and share it with the contact
+		Map<ContactId, GroupId> groupIds = new LinkedHashMap<>();
+		List<Group> groups = new ArrayList<>(contacts.size());
+		for (Contact c : contacts) {
+			Group g = getContactGroup(c);
+			groups.add(g);
+			groupIds.put(c.getId(), g.getId());
+		}
+		db.addGroups(txn, groups);
+		db.setGroupVisibility(txn, groupIds, SHARED);
+		// Create and store the first local update for each contact
+		List<ClientVersion> versions = new ArrayList<>(clients);
+		Collections.sort(versions);
+		for (Entry<ContactId, GroupId> e : groupIds.entrySet()) {
+			// Attach the contact ID to the group
+			clientHelper.setContactId(txn, e.getValue(), e.getKey());
+			storeFirstUpdate(txn, e.getValue(), versions);
+		}
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		db.removeGroup(txn, getContactGroup(c));
@@ -32,13 +32,10 @@ public class VersioningModule {
 	@Singleton
 	ClientVersioningManager provideClientVersioningManager(
 			ClientVersioningManagerImpl clientVersioningManager,
-			LifecycleManager lifecycleManager, ContactManager contactManager,
-			ValidationManager validationManager) {
+			LifecycleManager lifecycleManager, ContactManager contactManager) {
 		lifecycleManager.registerOpenDatabaseHook(clientVersioningManager);
 		lifecycleManager.registerService(clientVersioningManager);
 		contactManager.registerContactHook(clientVersioningManager);
-		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
-				clientVersioningManager);
 		return clientVersioningManager;
 	}
 
@@ -46,11 +43,17 @@ public class VersioningModule {
 	@Singleton
 	ClientVersioningValidator provideClientVersioningValidator(
 			ClientHelper clientHelper, MetadataEncoder metadataEncoder,
-			Clock clock, ValidationManager validationManager) {
+			Clock clock, ValidationManager validationManager,
+			ClientVersioningManager clientVersioningManager) {
 		ClientVersioningValidator validator = new ClientVersioningValidator(
 				clientHelper, metadataEncoder, clock);
 		validationManager.registerMessageValidator(CLIENT_ID, MAJOR_VERSION,
 				validator);
+		// The hook is registered here rather than when providing the
+		// versioning manager, as the validation manager depends on the
+		// versioning manager
+		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
+				(ClientVersioningManagerImpl) clientVersioningManager);
 		return validator;
 	}
 }
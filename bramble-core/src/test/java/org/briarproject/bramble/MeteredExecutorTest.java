@@ -0,0 +1,169 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.metrics.MetricFamily;
+import org.briarproject.bramble.api.metrics.MetricSample;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.SaturationPolicy.CALLER_RUNS;
+import static org.briarproject.bramble.SaturationPolicy.QUEUE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MeteredExecutorTest extends BrambleTestCase {
+
+	private static final String NAME = "test";
+
+	private final MetricRegistryImpl metricRegistry = new MetricRegistryImpl();
+	// Tasks that have been delegated but not run
+	private final List<Runnable> delegated = new Vector<>();
+	private final Executor delegate = delegated::add;
+
+	@Test
+	public void testRecordsQueueLengthAndTimes() {
+		MeteredExecutor executor = new MeteredExecutor(NAME, delegate,
+				metricRegistry, ExecutorLimits.UNBOUNDED);
+		AtomicBoolean ran = new AtomicBoolean(false);
+		executor.execute(() -> ran.set(true));
+		executor.execute(() -> {
+		});
+		assertEquals(2, getQueueLength());
+		assertFalse(ran.get());
+
+		delegated.remove(0).run();
+		assertTrue(ran.get());
+		assertEquals(1, getQueueLength());
+		delegated.remove(0).run();
+		assertEquals(0, getQueueLength());
+
+		assertEquals(2, getCount("bramble_executor_queue_time_ms"));
+		assertEquals(2, getCount("bramble_executor_run_time_ms"));
+		assertEquals(0, getSaturatedCount());
+	}
+
+	@Test
+	public void testCallerRunsTaskWhenQueueIsFull() {
+		MeteredExecutor executor = new MeteredExecutor(NAME, delegate,
+				metricRegistry, new ExecutorLimits(2, CALLER_RUNS, 1000));
+		executor.execute(() -> {
+		});
+		executor.execute(() -> {
+		});
+		assertEquals(2, delegated.size());
+
+		// The queue is full, so the next task should run on this thread
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		executor.execute(() -> thread.set(Thread.currentThread()));
+		assertSame(Thread.currentThread(), thread.get());
+		assertEquals(2, delegated.size());
+		assertEquals(2, getQueueLength());
+		assertEquals(1, getSaturatedCount());
+		assertEquals(1, getCount("bramble_executor_run_time_ms"));
+
+		// Once a task has started there's room for another task
+		delegated.remove(0).run();
+		executor.execute(() -> fail());
+		assertEquals(2, delegated.size());
+	}
+
+	@Test
+	public void testQueuesTaskWhenQueueIsFull() {
+		MeteredExecutor executor = new MeteredExecutor(NAME, delegate,
+				metricRegistry, new ExecutorLimits(1, QUEUE, 1000));
+		AtomicBoolean ran = new AtomicBoolean(false);
+		executor.execute(() -> {
+		});
+		executor.execute(() -> ran.set(true));
+		executor.execute(() -> {
+		});
+
+		// The queue is full, but the tasks should be queued rather than
+		// running on this thread
+		assertFalse(ran.get());
+		assertEquals(3, delegated.size());
+		assertEquals(3, getQueueLength());
+		assertEquals(2, getSaturatedCount());
+	}
+
+	@Test
+	public void testKeepsSubmissionOrderWhenQueueIsFull() throws Exception {
+		ExecutorService singleThread = newSingleThreadExecutor();
+		MeteredExecutor executor = new MeteredExecutor(NAME, singleThread,
+				metricRegistry, new ExecutorLimits(10, QUEUE, 1000));
+		// Block the executor's thread until all the tasks have been
+		// submitted
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch submitted = new CountDownLatch(1);
+		executor.execute(() -> {
+			started.countDown();
+			try {
+				assertTrue(submitted.await(10, SECONDS));
+			} catch (InterruptedException e) {
+				fail();
+			}
+		});
+		assertTrue(started.await(10, SECONDS));
+		// Submit more tasks than the queue can hold
+		List<Integer> order = new Vector<>();
+		List<Thread> threads = new Vector<>();
+		int tasks = 100;
+		for (int i = 0; i < tasks; i++) {
+			int task = i;
+			executor.execute(() -> {
+				order.add(task);
+				threads.add(Thread.currentThread());
+			});
+		}
+		// No tasks should have run on this thread
+		assertTrue(order.isEmpty());
+		assertEquals(tasks - 10, getSaturatedCount());
+
+		submitted.countDown();
+		singleThread.shutdown();
+		assertTrue(singleThread.awaitTermination(10, SECONDS));
+		// The tasks should have run one at a time, in submission order, on
+		// the executor's thread
+		assertEquals(tasks, order.size());
+		for (int i = 0; i < tasks; i++) {
+			assertEquals(i, order.get(i).intValue());
+			assertNotSame(Thread.currentThread(), threads.get(i));
+			assertSame(threads.get(0), threads.get(i));
+		}
+	}
+
+	private long getQueueLength() {
+		return metricRegistry.getGauge("bramble_executor_queue_length",
+				"", "executor", NAME).getValue();
+	}
+
+	private long getSaturatedCount() {
+		return metricRegistry.getCounter("bramble_executor_saturated_total",
+				"", "executor", NAME).getCount();
+	}
+
+	private long getCount(String histogramName) {
+		for (MetricFamily f : metricRegistry.getMetrics()) {
+			if (!f.getName().equals(histogramName)) continue;
+			for (MetricSample s : f.getSamples()) {
+				if (s.getName().equals(histogramName + "_count"))
+					return s.getValue();
+			}
+		}
+		throw new AssertionError();
+	}
+}
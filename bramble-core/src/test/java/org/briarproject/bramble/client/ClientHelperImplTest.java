@@ -29,13 +29,13 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SendPriorityRegistry;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.jmock.Expectations;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,6 +43,8 @@ import java.util.Map;
 import java.util.Random;
 
 import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
@@ -82,6 +84,8 @@ public class ClientHelperImplTest extends BrambleMockTestCase {
 			context.mock(CryptoComponent.class);
 	private final AuthorFactory authorFactory =
 			context.mock(AuthorFactory.class);
+	private final SendPriorityRegistry sendPriorityRegistry =
+			context.mock(SendPriorityRegistry.class);
 	private final KeyParser keyParser = context.mock(KeyParser.class);
 
 	private final GroupId groupId = new GroupId(getRandomId());
@@ -96,7 +100,8 @@ public class ClientHelperImplTest extends BrambleMockTestCase {
 
 	private final ClientHelper clientHelper = new ClientHelperImpl(db,
 			messageFactory, bdfReaderFactory, bdfWriterFactory, metadataParser,
-			metadataEncoder, cryptoComponent, authorFactory);
+			metadataEncoder, cryptoComponent, authorFactory,
+			sendPriorityRegistry);
 
 	private final MailboxUpdateWithMailbox validMailboxUpdateWithMailbox;
 	private final BdfList emptyClientSupports;
@@ -545,8 +550,10 @@ public class ClientHelperImplTest extends BrambleMockTestCase {
 		BdfReader bdfReader = context.mock(BdfReader.class);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory)
-					.createReader(with(any(InputStream.class)), with(true));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(any(int.class)), with(any(int.class)),
+					with(DEFAULT_NESTED_LIMIT), with(DEFAULT_MAX_BUFFER_SIZE),
+					with(true));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(list));
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.connection.InterruptibleConnection;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
 import org.briarproject.bramble.api.plugin.PluginConfig;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.ConnectionClosedEvent;
@@ -15,6 +16,7 @@ import org.briarproject.bramble.api.plugin.event.ContactDisconnectedEvent;
 import org.briarproject.bramble.api.rendezvous.event.RendezvousConnectionClosedEvent;
 import org.briarproject.bramble.api.rendezvous.event.RendezvousConnectionOpenedEvent;
 import org.briarproject.bramble.api.sync.Priority;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.jmock.Expectations;
 import org.junit.Test;
@@ -38,6 +40,7 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 
 	private final EventBus eventBus = context.mock(EventBus.class);
 	private final PluginConfig pluginConfig = context.mock(PluginConfig.class);
+	private final MetricRegistry metricRegistry = new MetricRegistryImpl();
 	private final InterruptibleConnection conn1 =
 			context.mock(InterruptibleConnection.class, "conn1");
 	private final InterruptibleConnection conn2 =
@@ -70,7 +73,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// The registry should be empty
 		assertEquals(emptyList(), c.getConnectedContacts(transportId1));
@@ -108,6 +112,7 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 		c.registerIncomingConnection(contactId1, transportId1, conn2);
 		context.assertIsSatisfied();
+		assertEquals(2, getOpenConnections(transportId1));
 
 		assertEquals(singletonList(contactId1),
 				c.getConnectedContacts(transportId1));
@@ -140,6 +145,7 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 		c.unregisterConnection(contactId1, transportId1, conn2, true, false);
 		context.assertIsSatisfied();
+		assertEquals(0, getOpenConnections(transportId1));
 
 		assertEquals(emptyList(), c.getConnectedContacts(transportId1));
 		assertEquals(emptyList(), c.getConnectedOrBetterContacts(transportId1));
@@ -164,7 +170,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Register two contacts with one transport, then one of the contacts
 		// with a second transport - this should broadcast three
@@ -215,7 +222,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Connect via transport 1 (worse than 2) with no priority set
 		context.checking(new Expectations() {{
@@ -286,7 +294,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Connect via transport 1 (better than 2) and set priority to low
 		context.checking(new Expectations() {{
@@ -384,7 +393,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Connect via transport 1 (worse than 2) and set priority to high
 		context.checking(new Expectations() {{
@@ -477,7 +487,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Register a connection with high priority
 		context.checking(new Expectations() {{
@@ -540,7 +551,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		// Register a connection with low priority
 		context.checking(new Expectations() {{
@@ -589,7 +601,8 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 		}});
 
 		ConnectionRegistry c =
-				new ConnectionRegistryImpl(eventBus, pluginConfig);
+				new ConnectionRegistryImpl(eventBus, pluginConfig,
+						metricRegistry);
 
 		context.checking(new Expectations() {{
 			oneOf(eventBus).broadcast(with(any(
@@ -613,4 +626,9 @@ public class ConnectionRegistryImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 	}
+
+	private long getOpenConnections(TransportId t) {
+		return metricRegistry.getGauge("bramble_connections", "",
+				"transport", t.getString()).getValue();
+	}
 }
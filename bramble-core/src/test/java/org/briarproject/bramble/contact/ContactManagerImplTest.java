@@ -3,6 +3,7 @@ package org.briarproject.bramble.contact;
 import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.contact.PendingContact;
 import org.briarproject.bramble.api.contact.PendingContactState;
 import org.briarproject.bramble.api.crypto.KeyPair;
@@ -22,6 +23,7 @@ import org.junit.Test;
 import java.util.Collection;
 import java.util.Random;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.contact.HandshakeLinkConstants.BASE32_LINK_BYTES;
@@ -84,6 +86,32 @@ public class ContactManagerImplTest extends BrambleMockTestCase {
 				rootKey, timestamp, alice, verified, active));
 	}
 
+	@Test
+	public void testAddContactsCallsHooksOnceForBatch() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		ContactHook hook = context.mock(ContactHook.class);
+		Author remote1 = getAuthor();
+		Contact contact1 = getContact(remote1, local, verified);
+		ContactId contactId1 = contact1.getId();
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(false), withDbCallable(txn));
+			oneOf(db).addContact(txn, remote, local, null, verified);
+			will(returnValue(contactId));
+			oneOf(db).getContact(txn, contactId);
+			will(returnValue(contact));
+			oneOf(db).addContact(txn, remote1, local, null, verified);
+			will(returnValue(contactId1));
+			oneOf(db).getContact(txn, contactId1);
+			will(returnValue(contact1));
+			oneOf(hook).addingContacts(txn, asList(contact, contact1));
+		}});
+
+		contactManager.registerContactHook(hook);
+		assertEquals(asList(contactId, contactId1), contactManager.addContacts(
+				asList(remote, remote1), local, verified));
+	}
+
 	@Test
 	public void testGetContact() throws Exception {
 		Transaction txn = new Transaction(null, true);
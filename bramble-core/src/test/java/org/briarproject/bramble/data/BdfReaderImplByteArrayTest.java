@@ -0,0 +1,40 @@
+package org.briarproject.bramble.data;
+
+import org.junit.Test;
+
+import static org.briarproject.bramble.data.BdfReaderImpl.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link BdfReaderImplTest} tests against a reader that reads
+ * directly from a byte array.
+ */
+public class BdfReaderImplByteArrayTest extends BdfReaderImplTest {
+
+	private static final int PADDING = 3;
+
+	@Override
+	BdfReaderImpl createReader(byte[] contents, int maxBufferSize) {
+		// Surround the contents with bytes that must not be read
+		byte[] padded = new byte[contents.length + PADDING * 2];
+		for (int i = 0; i < padded.length; i++) padded[i] = (byte) 0xFF;
+		System.arraycopy(contents, 0, padded, PADDING, contents.length);
+		return new BdfReaderImpl(padded, PADDING, contents.length,
+				DEFAULT_NESTED_LIMIT, maxBufferSize, true);
+	}
+
+	@Test
+	public void testReadRawIsNotBackedByInput() throws Exception {
+		byte[] contents = fromHexString("51" + "03" + "010203");
+		BdfReaderImpl r = new BdfReaderImpl(contents, 0, contents.length,
+				DEFAULT_NESTED_LIMIT, contents.length, true);
+		byte[] raw = r.readRaw();
+		assertArrayEquals(fromHexString("010203"), raw);
+		contents[2] = 0;
+		assertEquals(1, raw[0]);
+		assertTrue(r.eof());
+	}
+}
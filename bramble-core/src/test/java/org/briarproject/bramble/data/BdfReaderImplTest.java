@@ -536,6 +536,47 @@ public class BdfReaderImplTest extends BrambleTestCase {
 		assertTrue(r.eof());
 	}
 
+	@Test
+	public void testStepThroughList() throws Exception {
+		// A list containing 1, "foo", and a list containing null
+		setContents("60" + "21" + "01" +
+				"41" + "03" + "666F6F" +
+				"60" + "00" + "80" + "80");
+		r.readListStart();
+		assertFalse(r.hasListEnd());
+		r.skipLong();
+		assertEquals("foo", r.readString());
+		assertFalse(r.hasListEnd());
+		r.skipList();
+		assertTrue(r.hasListEnd());
+		r.readListEnd();
+		assertTrue(r.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testStepThroughListChecksEnd() throws Exception {
+		// A list containing 1
+		setContents("60" + "21" + "01" + "80");
+		r.readListStart();
+		r.readListEnd();
+	}
+
+	@Test
+	public void testStepThroughDictionary() throws Exception {
+		// A dictionary containing "bar" -> null and "foo" -> 123
+		setContents("70" + "41" + "03" + "626172" + "00" +
+				"41" + "03" + "666F6F" + "21" + "7B" + "80");
+		r.readDictionaryStart();
+		assertFalse(r.hasDictionaryEnd());
+		assertEquals("bar", r.readString());
+		r.skipNull();
+		assertEquals("foo", r.readString());
+		assertEquals(123, r.readLong());
+		assertTrue(r.hasDictionaryEnd());
+		r.readDictionaryEnd();
+		assertTrue(r.eof());
+	}
+
 	@Test
 	public void testReadDictionary() throws Exception {
 		// A dictionary containing "bar" -> null and "foo" -> 123
@@ -681,7 +722,12 @@ public class BdfReaderImplTest extends BrambleTestCase {
 
 	private void setContents(String hex, int maxBufferSize)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(fromHexString(hex));
-		r = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT, maxBufferSize, true);
+		r = createReader(fromHexString(hex), maxBufferSize);
+	}
+
+	BdfReaderImpl createReader(byte[] contents, int maxBufferSize) {
+		ByteArrayInputStream in = new ByteArrayInputStream(contents);
+		return new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT, maxBufferSize,
+				true);
 	}
 }
@@ -12,6 +12,7 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.NoSuchIdentityException;
@@ -31,6 +32,7 @@ import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.event.SettingsUpdatedEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -38,6 +40,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
@@ -49,6 +52,7 @@ import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent;
+import org.briarproject.bramble.api.sync.event.SummaryReceivedEvent;
 import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
@@ -56,12 +60,15 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.PredicateMatcher;
 import org.jmock.Expectations;
 import org.jmock.Sequence;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -82,6 +89,7 @@ import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERE
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.briarproject.bramble.db.DatabaseConstants.MAX_OFFERED_MESSAGES;
+import static org.briarproject.bramble.db.SummaryUtils.createSummary;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPrivateKey;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPublicKey;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
@@ -353,7 +361,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		try {
 			db.transaction(false, transaction ->
-					db.generateBatch(transaction, contactId, 123, 456));
+					db.generateBatch(transaction, contactId, 123, 456,
+							emptyMap()));
 			fail();
 		} catch (NoSuchContactException expected) {
 			// Expected
@@ -361,7 +370,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		try {
 			db.transaction(false, transaction ->
-					db.generateOffer(transaction, contactId, 123, 456));
+					db.generateOffer(transaction, contactId, 123, 456,
+							emptyMap()));
 			fail();
 		} catch (NoSuchContactException expected) {
 			// Expected
@@ -402,7 +412,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		try {
 			db.transaction(true, transaction ->
-					db.getMessagesToSend(transaction, contactId, 123, 456));
+					db.getMessagesToSend(transaction, contactId, 123, 456,
+							emptyMap()));
 			fail();
 		} catch (NoSuchContactException expected) {
 			// Expected
@@ -599,11 +610,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the group is in the DB (which it's not)
-			exactly(10).of(database).startTransaction();
+			exactly(12).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(10).of(database).containsGroup(txn, groupId);
+			exactly(12).of(database).containsGroup(txn, groupId);
 			will(returnValue(false));
-			exactly(10).of(database).abortTransaction(txn);
+			exactly(12).of(database).abortTransaction(txn);
 			// Allow other checks to pass
 			allowing(database).containsContact(txn, contactId);
 			will(returnValue(true));
@@ -643,6 +654,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getMessageIds(transaction, groupId,
+							new MetadataQuery(new Metadata())));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(true, transaction ->
 					db.getMessageMetadata(transaction, groupId));
@@ -660,6 +680,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getMessageMetadata(transaction, groupId,
+							new MetadataQuery(new Metadata())));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(true, transaction ->
 					db.getMessageStatus(transaction, contactId, groupId));
@@ -1004,7 +1033,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
 			oneOf(database).getMessagesToSend(txn, contactId,
-					BATCH_CAPACITY, maxLatency);
+					BATCH_CAPACITY, maxLatency, emptyMap());
 			will(returnValue(ids));
 			// First message
 			oneOf(database).getMessage(txn, messageId);
@@ -1025,7 +1054,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		db.transaction(false, transaction ->
 				assertEquals(messages, db.generateBatch(transaction, contactId,
-						BATCH_CAPACITY, maxLatency)));
+						BATCH_CAPACITY, maxLatency, emptyMap())));
 	}
 
 	@Test
@@ -1037,7 +1066,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency);
+			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency,
+					emptyMap());
 			will(returnValue(ids));
 			oneOf(database).updateRetransmissionData(txn, contactId, messageId,
 					maxLatency);
@@ -1049,7 +1079,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				eventExecutor, shutdownManager);
 
 		db.transaction(false, transaction -> {
-			Offer o = db.generateOffer(transaction, contactId, 123, maxLatency);
+			Offer o = db.generateOffer(transaction, contactId, 123, maxLatency,
+					emptyMap());
 			assertNotNull(o);
 			assertEquals(ids, o.getMessageIds());
 		});
@@ -1089,7 +1120,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
 			oneOf(database).getRequestedMessagesToSend(txn, contactId,
-					BATCH_CAPACITY, maxLatency);
+					BATCH_CAPACITY, maxLatency, emptyMap());
 			will(returnValue(ids));
 			// First message
 			oneOf(database).getMessage(txn, messageId);
@@ -1110,7 +1141,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		db.transaction(false, transaction ->
 				assertEquals(messages, db.generateRequestedBatch(transaction,
-						contactId, BATCH_CAPACITY, maxLatency)));
+						contactId, BATCH_CAPACITY, maxLatency, emptyMap())));
 	}
 
 	@Test
@@ -1254,6 +1285,113 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		});
 	}
 
+	@Test
+	public void testReceiveSummaryRaisesSeenFlagsInMatchingBuckets()
+			throws Exception {
+		Summary summary = createSummary(groupId, singletonList(messageId), 0);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			oneOf(database).getMessageIds(txn, groupId);
+			will(returnValue(singletonList(messageId)));
+			oneOf(database).getUnackedMessagesToSend(txn, contactId, groupId);
+			will(returnValue(singletonList(messageId)));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(new PredicateMatcher<>(
+					SummaryReceivedEvent.class,
+					e -> !e.getDifference().isDifferent(0))));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveSummary(transaction, contactId, summary));
+	}
+
+	@Test
+	public void testReceiveSummaryOfInvisibleGroupDiffersEverywhere()
+			throws Exception {
+		Summary summary = createSummary(groupId, singletonList(messageId), 0);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(INVISIBLE));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(new PredicateMatcher<>(
+					SummaryReceivedEvent.class,
+					e -> e.getDifference().isDifferent(0))));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveSummary(transaction, contactId, summary));
+	}
+
+	@Test
+	public void testReceiveDifferenceRaisesSeenFlagsInMatchingBuckets()
+			throws Exception {
+		Difference difference =
+				new Difference(groupId, 0, new boolean[] {false});
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			oneOf(database).getUnackedMessagesToSend(txn, contactId, groupId);
+			will(returnValue(singletonList(messageId)));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveDifference(transaction, contactId, difference,
+						singletonList(messageId)));
+	}
+
+	@Test
+	public void testReceiveDifferenceIgnoresMessagesAddedAfterSummary()
+			throws Exception {
+		// Both messages fall into the only bucket, which matches, but the
+		// second message was added after the summary was sent
+		Difference difference =
+				new Difference(groupId, 0, new boolean[] {false});
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			oneOf(database).getUnackedMessagesToSend(txn, contactId, groupId);
+			will(returnValue(asList(messageId, messageId1)));
+			// Only the summarised message is marked as seen
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveDifference(transaction, contactId, difference,
+						singletonList(messageId)));
+	}
+
 	@Test
 	public void testReceiveMessage() throws Exception {
 		context.checking(new Expectations() {{
@@ -1351,20 +1489,24 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			oneOf(database).countOfferedMessages(txn, contactId);
 			will(returnValue(MAX_OFFERED_MESSAGES - 2));
 			// The first message isn't visible - request it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
+			oneOf(database).containsSharedOrDeliveredMessage(txn, contactId,
+					messageId);
 			will(returnValue(false));
 			oneOf(database).addOfferedMessage(txn, contactId, messageId);
 			// The second message is visible - ack it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId1);
+			oneOf(database).containsSharedOrDeliveredMessage(txn, contactId,
+					messageId1);
 			will(returnValue(true));
 			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
 			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
 			// The third message isn't visible - request it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId2);
+			oneOf(database).containsSharedOrDeliveredMessage(txn, contactId,
+					messageId2);
 			will(returnValue(false));
 			oneOf(database).addOfferedMessage(txn, contactId, messageId2);
 			// The fourth message isn't visible, but there's no room to store it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId3);
+			oneOf(database).containsSharedOrDeliveredMessage(txn, contactId,
+					messageId3);
 			will(returnValue(false));
 			oneOf(database).commitTransaction(txn);
 			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
@@ -1401,6 +1543,30 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				db.receiveRequest(transaction, contactId, r));
 	}
 
+	@Test
+	public void testResetUnackedMessagesToSend() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			// The first message is visible, so its expiry time is reset
+			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
+			will(returnValue(true));
+			oneOf(database).resetExpiryTime(txn, contactId, messageId);
+			// The second message isn't visible, so it's ignored
+			oneOf(database).containsVisibleMessage(txn, contactId, messageId1);
+			will(returnValue(false));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.resetUnackedMessagesToSend(transaction, contactId,
+						asList(messageId, messageId1)));
+	}
+
 	@Test
 	public void testSetAckSent() throws Exception {
 		Collection<MessageId> acked = asList(messageId, messageId1);
@@ -1540,6 +1706,85 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 						VISIBLE));
 	}
 
+	@Test
+	public void testAddingGroupsSkipsExistingGroups() throws Exception {
+		Group group1 = getGroup(clientId, majorVersion);
+
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsGroup(txn, groupId);
+			will(returnValue(true)); // Already stored
+			oneOf(database).containsGroup(txn, group1.getId());
+			will(returnValue(false));
+			oneOf(database).addGroups(txn, singletonList(group1));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(GroupAddedEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.addGroups(transaction, asList(group, group1, group1)));
+	}
+
+	@Test
+	public void testChangingVisibilityOfMultipleGroupsBatchesNewVisibilities()
+			throws Exception {
+		ContactId contactId1 = new ContactId(contactId.getInt() + 1);
+		ContactId contactId2 = new ContactId(contactId.getInt() + 2);
+		GroupId groupId1 = new GroupId(getRandomId());
+		GroupId groupId2 = new GroupId(getRandomId());
+		Map<ContactId, GroupId> groups = new LinkedHashMap<>();
+		groups.put(contactId, groupId);
+		groups.put(contactId1, groupId1);
+		groups.put(contactId2, groupId2);
+		Map<ContactId, GroupId> invisible = new LinkedHashMap<>();
+		invisible.put(contactId, groupId);
+		invisible.put(contactId1, groupId1);
+		AtomicReference<GroupVisibilityUpdatedEvent> event =
+				new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).containsGroup(txn, groupId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(INVISIBLE));
+			oneOf(database).containsContact(txn, contactId1);
+			will(returnValue(true));
+			oneOf(database).containsGroup(txn, groupId1);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId1, groupId1);
+			will(returnValue(INVISIBLE));
+			oneOf(database).containsContact(txn, contactId2);
+			will(returnValue(true));
+			oneOf(database).containsGroup(txn, groupId2);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId2, groupId2);
+			will(returnValue(SHARED)); // Already shared
+			oneOf(database).addGroupVisibilities(txn, invisible, true);
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(
+					GroupVisibilityUpdatedEvent.class)));
+			will(new CaptureArgumentAction<>(event,
+					GroupVisibilityUpdatedEvent.class, 0));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.setGroupVisibility(transaction, groups, SHARED));
+
+		GroupVisibilityUpdatedEvent e = event.get();
+		assertNotNull(e);
+		assertEquals(SHARED, e.getVisibility());
+		assertEquals(asList(contactId, contactId1), e.getAffectedContacts());
+	}
+
 	@Test
 	public void testTransportKeys() throws Exception {
 		TransportKeys transportKeys = createTransportKeys();
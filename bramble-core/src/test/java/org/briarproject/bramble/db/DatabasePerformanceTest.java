@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import static java.util.Collections.emptyMap;
 import static java.util.logging.Level.OFF;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
@@ -454,7 +455,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getMessagesToOffer(txn, pickRandom(contacts).getId(),
-					MAX_MESSAGE_IDS, MAX_LATENCY);
+					MAX_MESSAGE_IDS, MAX_LATENCY, emptyMap());
 			db.commitTransaction(txn);
 		});
 	}
@@ -476,7 +477,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getMessagesToSend(txn, pickRandom(contacts).getId(),
-					BATCH_CAPACITY, MAX_LATENCY);
+					BATCH_CAPACITY, MAX_LATENCY, emptyMap());
 			db.commitTransaction(txn);
 		});
 	}
@@ -527,7 +528,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getRequestedMessagesToSend(txn, pickRandom(contacts).getId(),
-					BATCH_CAPACITY, MAX_LATENCY);
+					BATCH_CAPACITY, MAX_LATENCY, emptyMap());
 			db.commitTransaction(txn);
 		});
 	}
@@ -10,6 +10,8 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataRange;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.Identity;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -22,6 +24,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendPriority;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -29,6 +32,7 @@ import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.bramble.system.SystemClock;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.SettableClock;
@@ -47,6 +51,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -57,17 +62,24 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.briarproject.bramble.api.db.DatabaseComponent.NO_CLEANUP_DEADLINE;
 import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTED;
 import static org.briarproject.bramble.api.db.Metadata.REMOVE;
+import static org.briarproject.bramble.api.db.MetadataQuery.NO_LIMIT;
+import static org.briarproject.bramble.api.db.MetadataRange.atLeast;
+import static org.briarproject.bramble.api.db.MetadataRange.atMost;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.SendPriority.HIGH;
+import static org.briarproject.bramble.api.sync.SendPriority.LOW;
+import static org.briarproject.bramble.api.sync.SendPriority.NORMAL;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
@@ -353,12 +365,14 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertOneMessageToSendEagerly(db, txn);
 		long capacity = RECORD_HEADER_BYTES + message.getRawLength() - 1;
 		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, contactId, capacity, MAX_LATENCY);
+				db.getMessagesToSend(txn, contactId, capacity, MAX_LATENCY,
+						emptyMap());
 		assertTrue(ids.isEmpty());
 
 		// The message is just the right size to send
 		capacity = RECORD_HEADER_BYTES + message.getRawLength();
-		ids = db.getMessagesToSend(txn, contactId, capacity, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, capacity, MAX_LATENCY,
+				emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		db.commitTransaction(txn);
@@ -606,6 +620,40 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testContainsSharedOrDeliveredMessage() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// The message is not in the database
+		assertFalse(db.containsSharedOrDeliveredMessage(txn, contactId,
+				messageId));
+
+		// Receive an unshared message from the contact that hasn't been
+		// delivered yet - it should not be found
+		db.addMessage(txn, message, UNKNOWN, false, false, contactId);
+		assertFalse(db.containsVisibleMessage(txn, contactId, messageId));
+		assertFalse(db.containsSharedOrDeliveredMessage(txn, contactId,
+				messageId));
+
+		// Deliver the message without sharing it - it should be found, but
+		// it should still not be visible
+		db.setMessageState(txn, messageId, DELIVERED);
+		assertFalse(db.containsVisibleMessage(txn, contactId, messageId));
+		assertTrue(db.containsSharedOrDeliveredMessage(txn, contactId,
+				messageId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGroupVisibility() throws Exception {
 		Database<Connection> db = open(false);
@@ -648,6 +696,47 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testAddGroupsAndGroupVisibilities() throws Exception {
+		Group group1 = getGroup(clientId, majorVersion);
+		GroupId groupId1 = group1.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add two contacts and a batch of two groups
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		ContactId contactId1 = db.addContact(txn, getAuthor(),
+				localAuthor.getId(), null, true);
+		db.addGroups(txn, asList(group, group1));
+		assertTrue(db.containsGroup(txn, groupId));
+		assertTrue(db.containsGroup(txn, groupId1));
+
+		// Add a message to the first group
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// Share each group with one of the contacts
+		Map<ContactId, GroupId> groups = new HashMap<>();
+		groups.put(contactId, groupId);
+		groups.put(contactId1, groupId1);
+		db.addGroupVisibilities(txn, groups, true);
+		assertEquals(SHARED, db.getGroupVisibility(txn, contactId, groupId));
+		assertEquals(SHARED, db.getGroupVisibility(txn, contactId1, groupId1));
+		assertEquals(INVISIBLE,
+				db.getGroupVisibility(txn, contactId, groupId1));
+		assertEquals(INVISIBLE,
+				db.getGroupVisibility(txn, contactId1, groupId));
+
+		// A status row should have been created for the existing message
+		assertEquals(1, db.getMessageStatus(txn, contactId, groupId).size());
+		assertTrue(db.getMessageStatus(txn, contactId1, groupId1).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testTransportKeys() throws Exception {
 		long timePeriod = 123, timePeriod1 = 234;
@@ -1234,6 +1323,12 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), retrieved.get("baz"));
 
+		// Retrieve the metadata with a single key
+		retrieved = db.getGroupMetadata(txn, groupId, "foo");
+		assertEquals(1, retrieved.size());
+		assertArrayEquals(metadata.get("foo"), retrieved.get("foo"));
+		assertTrue(db.getGroupMetadata(txn, groupId, "bam").isEmpty());
+
 		// Update the metadata
 		metadata.put("foo", REMOVE);
 		metadata.put("baz", new byte[] {'q', 'u', 'x'});
@@ -1245,6 +1340,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertFalse(retrieved.containsKey("foo"));
 		assertTrue(retrieved.containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), retrieved.get("baz"));
+		assertTrue(db.getGroupMetadata(txn, groupId, "foo").isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
@@ -1547,6 +1643,138 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMetadataQueriesWithRangesOrderingAndLimit()
+			throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		Message message2 = getMessage(groupId);
+		MessageId messageId2 = message2.getId();
+		byte[] kind = new byte[] {'b', 'a', 'r'};
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and three messages
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+
+		// Attach integer values of different widths to the first two
+		// messages and a non-integer value to the third
+		Metadata metadata = new Metadata();
+		metadata.put("kind", kind);
+		metadata.put("time", new byte[] {0x21, (byte) 0xFB}); // -5
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("kind", kind);
+		metadata1.put("time", new byte[] {0x22, 0x01, 0x2C}); // 300
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		Metadata metadata2 = new Metadata();
+		metadata2.put("time", new byte[] {0x41, 0x01, 'x'}); // "x"
+		db.mergeMessageMetadata(txn, messageId2, metadata2);
+
+		// Order by time - the message without an integer value comes last
+		MetadataQuery query = new MetadataQuery(new Metadata(), emptyList(),
+				"time", false, NO_LIMIT);
+		assertEquals(asList(messageId, messageId1, messageId2),
+				db.getMessageIds(txn, groupId, query));
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", true,
+				NO_LIMIT);
+		assertEquals(asList(messageId1, messageId, messageId2),
+				db.getMessageIds(txn, groupId, query));
+
+		// The metadata is returned in the same order
+		Map<MessageId, Metadata> ordered =
+				db.getMessageMetadata(txn, groupId, query);
+		assertEquals(asList(messageId1, messageId, messageId2),
+				new ArrayList<>(ordered.keySet()));
+		assertMetadataEquals(metadata1, ordered.get(messageId1));
+		assertMetadataEquals(metadata, ordered.get(messageId));
+		assertMetadataEquals(metadata2, ordered.get(messageId2));
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", true,
+				1, 1);
+		ordered = db.getMessageMetadata(txn, groupId, query);
+		assertEquals(singletonList(messageId),
+				new ArrayList<>(ordered.keySet()));
+		assertMetadataEquals(metadata, ordered.get(messageId));
+
+		// Limit the number of results
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", true,
+				1);
+		assertEquals(singletonList(messageId1),
+				db.getMessageIds(txn, groupId, query));
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", true,
+				0);
+		assertEquals(emptyList(), db.getMessageIds(txn, groupId, query));
+
+		// Skip some results
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", false,
+				1, 1);
+		assertEquals(singletonList(messageId1),
+				db.getMessageIds(txn, groupId, query));
+		query = new MetadataQuery(new Metadata(), emptyList(), "time", false,
+				2, NO_LIMIT);
+		assertEquals(singletonList(messageId2),
+				db.getMessageIds(txn, groupId, query));
+
+		// Query a range - non-integer values don't match
+		query = new MetadataQuery(new Metadata(),
+				singletonList(atLeast("time", -5)), "time", false, NO_LIMIT);
+		assertEquals(asList(messageId, messageId1),
+				db.getMessageIds(txn, groupId, query));
+		query = new MetadataQuery(new Metadata(),
+				singletonList(new MetadataRange("time", -4, 300)), null,
+				false, NO_LIMIT);
+		assertEquals(singletonList(messageId1),
+				db.getMessageIds(txn, groupId, query));
+
+		// Combine an equality term, a range, ordering and a limit
+		Metadata equal = new Metadata();
+		equal.put("kind", kind);
+		query = new MetadataQuery(equal,
+				singletonList(atMost("time", 1000)), "time", false, 1);
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, query);
+		assertEquals(singletonList(messageId), new ArrayList<>(all.keySet()));
+		assertMetadataEquals(metadata, all.get(messageId));
+
+		// Updating a value updates its integer value
+		Metadata update = new Metadata();
+		update.put("time", new byte[] {0x28, 0, 0, 0, 1, 0, 0, 0, 0}); // 2^32
+		db.mergeMessageMetadata(txn, messageId, update);
+		query = new MetadataQuery(new Metadata(),
+				singletonList(atLeast("time", 1L << 32)), null, false,
+				NO_LIMIT);
+		assertEquals(singletonList(messageId),
+				db.getMessageIds(txn, groupId, query));
+
+		// Replacing an integer with a non-integer clears the integer value
+		update.put("time", new byte[] {0x41, 0x01, 'y'}); // "y"
+		db.mergeMessageMetadata(txn, messageId, update);
+		assertEquals(emptyList(), db.getMessageIds(txn, groupId, query));
+
+		// Only delivered messages match
+		db.setMessageState(txn, messageId1, PENDING);
+		query = new MetadataQuery(equal, emptyList(), "time", false,
+				NO_LIMIT);
+		assertEquals(singletonList(messageId),
+				db.getMessageIds(txn, groupId, query));
+
+		// Matching messages without metadata have empty metadata
+		Message message3 = getMessage(groupId);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+		query = new MetadataQuery(new Metadata(), emptyList(), null, false,
+				NO_LIMIT);
+		all = db.getMessageMetadata(txn, groupId, query);
+		assertEquals(3, all.size());
+		assertTrue(all.get(message3.getId()).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	private void assertMetadataEquals(Metadata m1, Metadata m2) {
 		assertEquals(m1.keySet(), m2.keySet());
 		for (Entry<String, byte[]> e : m1.entrySet()) {
@@ -2122,7 +2350,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now
 		// Retrieve the message from the database
 		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+				ONE_MEGABYTE, MAX_LATENCY, emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		// Time: now
@@ -2136,13 +2364,15 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now + MAX_LATENCY * 2 - 1
 		// The message should not yet be sendable
 		time.set(now + MAX_LATENCY * 2 - 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+				emptyMap());
 		assertTrue(ids.isEmpty());
 
 		// Time: now + MAX_LATENCY * 2
 		// The message should have expired and should now be sendable
 		time.set(now + MAX_LATENCY * 2);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+				emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		db.commitTransaction(txn);
@@ -2167,7 +2397,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Retrieve the message from the database
 		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+				ONE_MEGABYTE, MAX_LATENCY, emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		// Mark the message as sent
@@ -2178,23 +2408,92 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 				db.getNextSendTime(txn, contactId, MAX_LATENCY));
 
 		// The message should not be sendable via the same transport
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+				emptyMap());
 		assertTrue(ids.isEmpty());
 
 		// The message should be sendable via a transport with a lower latency
 		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
-				MAX_LATENCY - 1);
+				MAX_LATENCY - 1, emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		// The message should not be sendable via a slower transport
 		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
-				MAX_LATENCY + 1);
+				MAX_LATENCY + 1, emptyMap());
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
 		db.close();
 	}
 
+	@Test
+	public void testMessagesAreSentInOrderOfClientPriority()
+			throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and three shared groups belonging to different clients
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		Group high = getGroup(getClientId(), 123);
+		Group normal = getGroup(getClientId(), 123);
+		Group low = getGroup(getClientId(), 123);
+		for (Group g : asList(high, normal, low)) {
+			db.addGroup(txn, g);
+			db.addGroupVisibility(txn, contactId, g.getId(), true);
+		}
+
+		// Add a message to each group, with the oldest in the low priority
+		// group and the newest in the high priority group
+		long now = System.currentTimeMillis();
+		Message lowMessage = getMessage(low.getId(), 100, now - 2);
+		Message normalMessage = getMessage(normal.getId(), 100, now - 1);
+		Message highMessage = getMessage(high.getId(), 100, now);
+		for (Message m : asList(lowMessage, normalMessage, highMessage)) {
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			db.raiseRequestedFlag(txn, contactId, m.getId());
+		}
+
+		// Without priorities the messages should be ordered by timestamp
+		List<MessageId> byTimestamp = asList(lowMessage.getId(),
+				normalMessage.getId(), highMessage.getId());
+		assertEquals(byTimestamp, db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY, emptyMap()));
+		assertEquals(byTimestamp, db.getRequestedMessagesToSend(txn,
+				contactId, ONE_MEGABYTE, MAX_LATENCY, emptyMap()));
+
+		// With priorities the messages should be ordered by priority
+		Map<ClientMajorVersion, SendPriority> priorities = new HashMap<>();
+		priorities.put(new ClientMajorVersion(high.getClientId(), 123), HIGH);
+		priorities.put(new ClientMajorVersion(low.getClientId(), 123), LOW);
+		// A different major version of the client is unaffected
+		priorities.put(new ClientMajorVersion(normal.getClientId(), 124),
+				HIGH);
+		List<MessageId> byPriority = asList(highMessage.getId(),
+				normalMessage.getId(), lowMessage.getId());
+		assertEquals(byPriority, db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY, priorities));
+		assertEquals(byPriority, db.getRequestedMessagesToSend(txn,
+				contactId, ONE_MEGABYTE, MAX_LATENCY, priorities));
+
+		// The limit on offers should be applied after ordering by priority
+		db.lowerRequestedFlag(txn, contactId, byPriority);
+		assertEquals(byPriority.subList(0, 2),
+				db.getMessagesToOffer(txn, contactId, 2, MAX_LATENCY,
+						priorities));
+
+		// A client with normal priority should use the default ordering
+		priorities.put(new ClientMajorVersion(high.getClientId(), 123),
+				NORMAL);
+		assertEquals(asList(normalMessage.getId(), highMessage.getId(),
+				lowMessage.getId()), db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY, priorities));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testResetRetransmissionTimes() throws Exception {
 		long now = System.currentTimeMillis();
@@ -2214,7 +2513,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now
 		// Retrieve the message from the database
 		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+				ONE_MEGABYTE, MAX_LATENCY, emptyMap());
 		assertEquals(singletonList(messageId), ids);
 
 		// Time: now
@@ -2228,7 +2527,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now + MAX_LATENCY * 2 - 1
 		// The message should not yet be sendable
 		time.set(now + MAX_LATENCY * 2 - 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+				emptyMap());
 		assertTrue(ids.isEmpty());
 
 		// Reset the retransmission times
@@ -2238,7 +2538,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertEquals(0, db.getNextSendTime(txn, contactId, MAX_LATENCY));
 
 		// The message should be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+				emptyMap());
 		assertFalse(ids.isEmpty());
 
 		db.commitTransaction(txn);
@@ -2590,9 +2891,11 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertFalse(
 				db.containsMessagesToSend(txn, contactId, MAX_LATENCY, false));
 		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+						emptyMap());
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+				emptyMap());
 		assertTrue(ids.isEmpty());
 	}
 
@@ -2601,9 +2904,11 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(
 				db.containsMessagesToSend(txn, contactId, MAX_LATENCY, false));
 		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY,
+						emptyMap());
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+				emptyMap());
 		assertEquals(singletonList(messageId), ids);
 	}
 
@@ -2615,6 +2920,9 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 				db.getUnackedMessagesToSend(txn, contactId);
 		assertTrue(unacked.isEmpty());
 		assertEquals(0, db.getUnackedMessageBytesToSend(txn, contactId));
+		unacked = db.getUnackedMessagesToSend(txn, contactId, groupId);
+		assertTrue(unacked.isEmpty());
+		assertTrue(db.getUnackedMessageCounts(txn, contactId).isEmpty());
 	}
 
 	private void assertOneMessageToSendEagerly(Database<Connection> db,
@@ -2626,6 +2934,10 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertEquals(singletonList(messageId), unacked);
 		assertEquals(message.getRawLength(),
 				db.getUnackedMessageBytesToSend(txn, contactId));
+		unacked = db.getUnackedMessagesToSend(txn, contactId, groupId);
+		assertEquals(singletonList(messageId), unacked);
+		assertEquals(singletonMap(groupId, 1),
+				db.getUnackedMessageCounts(txn, contactId));
 	}
 
 	private static class StoppedClock implements Clock {
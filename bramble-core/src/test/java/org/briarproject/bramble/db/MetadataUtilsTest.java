@@ -0,0 +1,38 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static org.briarproject.bramble.db.MetadataUtils.getIntegerValue;
+import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetadataUtilsTest extends BrambleTestCase {
+
+	@Test
+	public void testDecodesIntegers() throws Exception {
+		assertEquals(Long.valueOf(0), getIntegerValue(fromHexString("2100")));
+		assertEquals(Long.valueOf(-1), getIntegerValue(fromHexString("21FF")));
+		assertEquals(Long.valueOf(Short.MIN_VALUE),
+				getIntegerValue(fromHexString("228000")));
+		assertEquals(Long.valueOf(Integer.MAX_VALUE),
+				getIntegerValue(fromHexString("247FFFFFFF")));
+		assertEquals(Long.valueOf(Long.MIN_VALUE),
+				getIntegerValue(fromHexString("288000000000000000")));
+	}
+
+	@Test
+	public void testDoesNotDecodeOtherValues() throws Exception {
+		// Empty (removed) value
+		assertNull(getIntegerValue(new byte[0]));
+		// Null, true, float and string
+		assertNull(getIntegerValue(fromHexString("00")));
+		assertNull(getIntegerValue(fromHexString("11")));
+		assertNull(getIntegerValue(fromHexString("380000000000000000")));
+		assertNull(getIntegerValue(fromHexString("4103666F6F")));
+		// Truncated and overlong integers
+		assertNull(getIntegerValue(fromHexString("2401")));
+		assertNull(getIntegerValue(fromHexString("210102")));
+	}
+}
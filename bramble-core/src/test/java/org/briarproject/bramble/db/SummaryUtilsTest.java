@@ -0,0 +1,107 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Summary;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUMMARY_BUCKET_BITS;
+import static org.briarproject.bramble.db.SummaryUtils.compare;
+import static org.briarproject.bramble.db.SummaryUtils.createSummary;
+import static org.briarproject.bramble.db.SummaryUtils.getBucketBits;
+import static org.briarproject.bramble.db.SummaryUtils.getMatchingIds;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SummaryUtilsTest extends BrambleTestCase {
+
+	private final GroupId groupId = new GroupId(getRandomId());
+
+	@Test
+	public void testBucketBitsGrowWithNumberOfMessages() {
+		assertEquals(0, getBucketBits(0));
+		assertEquals(0, getBucketBits(16));
+		assertEquals(1, getBucketBits(17));
+		assertEquals(6, getBucketBits(1000));
+		assertEquals(MAX_SUMMARY_BUCKET_BITS, getBucketBits(1_000_000));
+	}
+
+	@Test
+	public void testBucketIsGivenByLeadingBits() {
+		byte[] id = new byte[MessageId.LENGTH];
+		id[0] = (byte) 0xA5; // 1010 0101
+		id[1] = (byte) 0xC0; // 1100 0000
+		MessageId m = new MessageId(id);
+		assertEquals(0, SummaryUtils.getBucket(m, 0));
+		assertEquals(1, SummaryUtils.getBucket(m, 1));
+		assertEquals(0xA, SummaryUtils.getBucket(m, 4));
+		assertEquals(0xA5 << 2 | 3, SummaryUtils.getBucket(m, 10));
+	}
+
+	@Test
+	public void testIdenticalSetsDoNotDiffer() {
+		List<MessageId> ids = getMessageIds(1000);
+		Summary summary = createSummary(groupId, ids, getBucketBits(1000));
+		Difference difference = compare(summary, ids);
+		for (int i = 0; i < difference.getBucketCount(); i++) {
+			assertFalse(difference.isDifferent(i));
+		}
+		assertEquals(ids, getMatchingIds(difference, ids));
+	}
+
+	@Test
+	public void testEmptySetDiffersFromNonEmptySet() {
+		List<MessageId> ids = getMessageIds(1);
+		Summary summary = createSummary(groupId, ids, 0);
+		Difference difference = compare(summary, emptyList());
+		assertTrue(difference.isDifferent(0));
+		assertEquals(emptyList(), getMatchingIds(difference, ids));
+	}
+
+	@Test
+	public void testOnlyMessagesNearDifferencesAreLeftToOffer() {
+		// Two peers share a large group, and each has a few messages the
+		// other doesn't have
+		List<MessageId> shared = getMessageIds(10_000);
+		List<MessageId> onlyA = getMessageIds(10);
+		List<MessageId> onlyB = getMessageIds(10);
+		List<MessageId> a = new ArrayList<>(shared);
+		a.addAll(onlyA);
+		List<MessageId> b = new ArrayList<>(shared);
+		b.addAll(onlyB);
+
+		// A summarises the group and B replies
+		Summary summary = createSummary(groupId, a, getBucketBits(a.size()));
+		Difference difference = compare(summary, b);
+
+		// Neither peer treats a message the other doesn't have as seen
+		List<MessageId> matchingA = getMatchingIds(difference, a);
+		List<MessageId> matchingB = getMatchingIds(difference, b);
+		for (MessageId m : onlyA) assertFalse(matchingA.contains(m));
+		for (MessageId m : onlyB) assertFalse(matchingB.contains(m));
+
+		// At most 20 buckets differ, so only a small fraction of the shared
+		// messages still need to be offered
+		int different = 0;
+		for (int i = 0; i < difference.getBucketCount(); i++) {
+			if (difference.isDifferent(i)) different++;
+		}
+		assertTrue(different <= 20);
+		assertTrue(a.size() - matchingA.size() < a.size() / 20);
+		assertTrue(b.size() - matchingB.size() < b.size() / 20);
+	}
+
+	private List<MessageId> getMessageIds(int count) {
+		List<MessageId> ids = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) ids.add(new MessageId(getRandomId()));
+		return ids;
+	}
+}
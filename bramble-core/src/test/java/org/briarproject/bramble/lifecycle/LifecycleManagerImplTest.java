@@ -6,36 +6,68 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
 import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.lifecycle.ServiceException;
+import org.briarproject.bramble.api.lifecycle.StartupReport;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.RUNNING;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STARTING;
+import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STARTING_SERVICES;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPED;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.ALREADY_RUNNING;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.CLOCK_ERROR;
+import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.SERVICE_ERROR;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.SUCCESS;
 import static org.briarproject.bramble.api.system.Clock.MAX_REASONABLE_TIME_MS;
 import static org.briarproject.bramble.api.system.Clock.MIN_REASONABLE_TIME_MS;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class LifecycleManagerImplTest extends BrambleMockTestCase {
 
+	private static final String STARTUP_THREAD_NAME = "startup";
+
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final EventBus eventBus = context.mock(EventBus.class);
 	private final Clock clock = context.mock(Clock.class);
 	private final OpenDatabaseHook hook = context.mock(OpenDatabaseHook.class);
+	private final OpenDatabaseHook deferredHook =
+			context.mock(OpenDatabaseHook.class, "deferredHook");
+	private final OpenDatabaseHook deferredHook1 =
+			context.mock(OpenDatabaseHook.class, "deferredHook1");
 	private final Service service = context.mock(Service.class);
+	private final Service service1 =
+			context.mock(Service.class, "service1");
+	private final Service service2 =
+			context.mock(Service.class, "service2");
 
 	private final SecretKey dbKey = getSecretKey();
 
+	private final ThreadFactory threadFactory =
+			r -> new Thread(r, STARTUP_THREAD_NAME);
+
 	private final LifecycleManagerImpl lifecycleManager =
-			new LifecycleManagerImpl(db, eventBus, clock);
+			new LifecycleManagerImpl(db, eventBus, clock, threadFactory);
 
 	@Test
 	public void testOpenDatabaseHooksAreCalledAtStartup() throws Exception {
@@ -173,4 +205,271 @@ public class LifecycleManagerImplTest extends BrambleMockTestCase {
 		lifecycleManager.stopServices();
 		assertEquals(STOPPED, lifecycleManager.getLifecycleState());
 	}
+
+	@Test
+	public void testServicesAreStartedAfterTheirDependencies()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+		List<Service> started = new CopyOnWriteArrayList<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			oneOf(service1).startService();
+			will(new RecordStartAction(service1, started));
+			oneOf(service2).startService();
+			will(new RecordStartAction(service2, started));
+			oneOf(service).startService();
+			will(new RecordStartAction(service, started));
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+
+		// Register the dependent service first
+		lifecycleManager.registerService(service1, emptyList());
+		lifecycleManager.registerService(service2, singletonList(service1));
+		// A service without explicit dependencies depends on all the
+		// services registered before it
+		lifecycleManager.registerService(service);
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertEquals(RUNNING, lifecycleManager.getLifecycleState());
+		assertEquals(asList(service1, service2, service), started);
+	}
+
+	@Test
+	public void testIndependentServicesAreStartedConcurrently()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+		// Each service waits for the other to start. The services aren't
+		// mocks because the mockery serialises calls to mocks
+		CountDownLatch latch = new CountDownLatch(2);
+		Service concurrent1 = new AwaitLatchService(latch);
+		Service concurrent2 = new AwaitLatchService(latch);
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+
+		lifecycleManager.registerService(concurrent1, emptyList());
+		lifecycleManager.registerService(concurrent2, emptyList());
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertEquals(RUNNING, lifecycleManager.getLifecycleState());
+	}
+
+	@Test
+	public void testDependentServicesAreNotStartedIfDependencyFails()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			oneOf(service1).startService();
+			will(throwException(new ServiceException()));
+			never(service2).startService();
+			never(service).startService();
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+
+		lifecycleManager.registerService(service1, emptyList());
+		lifecycleManager.registerService(service2, singletonList(service1));
+		lifecycleManager.registerService(service);
+
+		assertEquals(SERVICE_ERROR, lifecycleManager.startServices(dbKey));
+		assertEquals(STARTING_SERVICES, lifecycleManager.getLifecycleState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegisteringServiceWithUnregisteredDependencyThrows() {
+		lifecycleManager.registerService(service2, singletonList(service1));
+	}
+
+	@Test
+	public void testStartupReportIsBroadcastWhenRunning() throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<LifecycleEvent> running = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			oneOf(hook).onDatabaseOpened(txn);
+			oneOf(service).startService();
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+			will(new CustomAction("capture running event") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					LifecycleEvent e =
+							(LifecycleEvent) invocation.getParameter(0);
+					if (e.getLifecycleState() == RUNNING) running.set(e);
+					return null;
+				}
+			});
+		}});
+
+		lifecycleManager.registerOpenDatabaseHook(hook);
+		lifecycleManager.registerService(service);
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		StartupReport report = lifecycleManager.getStartupReport();
+		assertNotNull(report);
+		assertSame(report, running.get().getStartupReport());
+		assertEquals(1, report.getOpenDatabaseHookDurations().size());
+		assertEquals(1, report.getServiceDurations().size());
+		assertTrue(report.getDeferredOpenDatabaseHookDurations().isEmpty());
+	}
+
+	@Test
+	public void testDeferredOpenDatabaseHooksAreCalledAfterStartup()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		CountDownLatch called = new CountDownLatch(1);
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			// The deferred hook is called in its own transaction once the
+			// lifecycle is running
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(deferredHook).onDatabaseOpened(txn1);
+			will(new CustomAction("check lifecycle state") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					if (lifecycleManager.getLifecycleState() == RUNNING)
+						called.countDown();
+					return null;
+				}
+			});
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+
+		lifecycleManager.registerDeferredOpenDatabaseHook(deferredHook);
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertTrue(called.await(10, SECONDS));
+		// The report is updated after the deferred hooks have been called
+		StartupReport report = lifecycleManager.getStartupReport();
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(report);
+			if (!report.getDeferredOpenDatabaseHookDurations().isEmpty())
+				break;
+			Thread.sleep(100);
+			report = lifecycleManager.getStartupReport();
+		}
+		assertNotNull(report);
+		assertEquals(1, report.getDeferredOpenDatabaseHookDurations().size());
+	}
+
+	@Test
+	public void testDeferredOpenDatabaseHookExceptionDoesNotStopOtherHooks()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		CountDownLatch called = new CountDownLatch(1);
+		AtomicReference<String> threadName = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			// The first deferred hook throws an exception
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(deferredHook).onDatabaseOpened(txn1);
+			will(throwException(new IllegalStateException()));
+			// The second deferred hook is still called, on a thread from
+			// the thread factory
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(deferredHook1).onDatabaseOpened(txn2);
+			will(new CustomAction("record thread") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					threadName.set(Thread.currentThread().getName());
+					called.countDown();
+					return null;
+				}
+			});
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+
+		lifecycleManager.registerDeferredOpenDatabaseHook(deferredHook);
+		lifecycleManager.registerDeferredOpenDatabaseHook(deferredHook1);
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertTrue(called.await(10, SECONDS));
+		assertEquals(STARTUP_THREAD_NAME, threadName.get());
+	}
+
+	private static class RecordStartAction extends CustomAction {
+
+		private final Service service;
+		private final List<Service> started;
+
+		private RecordStartAction(Service service, List<Service> started) {
+			super("record start");
+			this.service = service;
+			this.started = started;
+		}
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			started.add(service);
+			return null;
+		}
+	}
+
+	private static class AwaitLatchService implements Service {
+
+		private final CountDownLatch latch;
+
+		private AwaitLatchService(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void startService() throws ServiceException {
+			latch.countDown();
+			try {
+				if (!latch.await(10, SECONDS)) throw new ServiceException();
+			} catch (InterruptedException e) {
+				throw new ServiceException(e);
+			}
+		}
+
+		@Override
+		public void stopService() {
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.mailbox;
 
+import org.jmock.Expectations;
 import org.junit.Test;
 
 import java.util.concurrent.atomic.AtomicReference;
@@ -16,7 +17,7 @@ public class ContactMailboxDownloadWorkerTest
 		mailboxProperties = getMailboxProperties(false, CLIENT_SUPPORTS);
 		worker = new ContactMailboxDownloadWorker(connectivityChecker,
 				torReachabilityMonitor, mailboxApiCaller, mailboxApi,
-				mailboxFileManager, mailboxProperties);
+				mailboxFileManager, mailboxProperties, 1);
 	}
 
 	@Test
@@ -133,4 +134,107 @@ public class ContactMailboxDownloadWorkerTest
 		expectRemoveObservers();
 		worker.destroy();
 	}
+
+	@Test
+	public void testDownloadsAndDeletesFilesConcurrently() throws Exception {
+		worker = new ContactMailboxDownloadWorker(connectivityChecker,
+				torReachabilityMonitor, mailboxApiCaller, mailboxApi,
+				mailboxFileManager, mailboxProperties, 2);
+
+		// When the worker is started it should start a connectivity check
+		expectStartConnectivityCheck();
+		worker.start();
+
+		// When the connectivity check succeeds, a list-inbox task should be
+		// started for the first download cycle
+		AtomicReference<ApiCall> listTask = new AtomicReference<>();
+		expectStartTask(listTask);
+		worker.onConnectivityCheckSucceeded();
+
+		// When the list-inbox tasks runs and finds some files to download,
+		// it should start a download task for each file
+		AtomicReference<ApiCall> downloadTask1 = new AtomicReference<>();
+		AtomicReference<ApiCall> downloadTask2 = new AtomicReference<>();
+		expectCheckForFiles(mailboxProperties.getInboxId(), files);
+		expectStartTask(downloadTask1);
+		expectStartTask(downloadTask2);
+		assertFalse(listTask.get().callApi());
+
+		// When the first download task runs it should download the file and
+		// start a delete task, while the second download is still running
+		AtomicReference<ApiCall> deleteTask1 = new AtomicReference<>();
+		expectDownloadFile(mailboxProperties.getInboxId(), file1);
+		expectStartTask(deleteTask1);
+		assertFalse(downloadTask1.get().callApi());
+
+		// When the second download task runs it should download the file and
+		// start a delete task
+		AtomicReference<ApiCall> deleteTask2 = new AtomicReference<>();
+		expectDownloadFile(mailboxProperties.getInboxId(), file2);
+		expectStartTask(deleteTask2);
+		assertFalse(downloadTask2.get().callApi());
+
+		// When the first delete task runs it should delete the file. The
+		// second delete is still running, so nothing else should be started
+		expectDeleteFile(mailboxProperties.getInboxId(), file1, false);
+		assertFalse(deleteTask1.get().callApi());
+
+		// When the second delete task runs it should delete the file and
+		// start a list-inbox task to check for files that may have arrived
+		// since the first download cycle started
+		expectDeleteFile(mailboxProperties.getInboxId(), file2, false);
+		expectStartTask(listTask);
+		assertFalse(deleteTask2.get().callApi());
+
+		// When the list-inbox tasks runs and finds no more files to download,
+		// it should add a Tor reachability observer
+		expectCheckForFiles(mailboxProperties.getInboxId(), emptyList());
+		expectAddReachabilityObserver();
+		assertFalse(listTask.get().callApi());
+
+		// When the worker is destroyed it should remove the connectivity
+		// and reachability observers
+		expectRemoveObservers();
+		worker.destroy();
+	}
+
+	@Test
+	public void testCancelsTransfersWhenDestroyed() throws Exception {
+		worker = new ContactMailboxDownloadWorker(connectivityChecker,
+				torReachabilityMonitor, mailboxApiCaller, mailboxApi,
+				mailboxFileManager, mailboxProperties, 2);
+
+		// When the worker is started it should start a connectivity check
+		expectStartConnectivityCheck();
+		worker.start();
+
+		// When the connectivity check succeeds, a list-inbox task should be
+		// started for the first download cycle
+		AtomicReference<ApiCall> listTask = new AtomicReference<>();
+		expectStartTask(listTask);
+		worker.onConnectivityCheckSucceeded();
+
+		// When the list-inbox tasks runs and finds some files to download,
+		// it should start a download task for each file
+		AtomicReference<ApiCall> downloadTask1 = new AtomicReference<>();
+		AtomicReference<ApiCall> downloadTask2 = new AtomicReference<>();
+		expectCheckForFiles(mailboxProperties.getInboxId(), files);
+		expectStartTask(downloadTask1);
+		expectStartTask(downloadTask2);
+		assertFalse(listTask.get().callApi());
+
+		// When the worker is destroyed it should cancel the list-inbox task
+		// and both download tasks, and remove the connectivity and
+		// reachability observers
+		context.checking(new Expectations() {{
+			exactly(3).of(apiCall).cancel();
+		}});
+		expectRemoveObservers();
+		worker.destroy();
+
+		// If the download tasks run after the worker has been destroyed,
+		// they should do nothing
+		assertFalse(downloadTask1.get().callApi());
+		assertFalse(downloadTask2.get().callApi());
+	}
 }
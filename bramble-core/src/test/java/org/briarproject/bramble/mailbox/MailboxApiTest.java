@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.mailbox.MailboxId;
 import org.briarproject.bramble.api.mailbox.MailboxProperties;
 import org.briarproject.bramble.api.mailbox.MailboxVersion;
 import org.briarproject.bramble.mailbox.MailboxApi.ApiException;
+import org.briarproject.bramble.mailbox.MailboxApi.FileWriter;
 import org.briarproject.bramble.mailbox.MailboxApi.MailboxContact;
 import org.briarproject.bramble.mailbox.MailboxApi.MailboxFile;
 import org.briarproject.bramble.mailbox.MailboxApi.TolerableFailureException;
@@ -20,6 +21,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -589,6 +591,47 @@ public class MailboxApiTest extends BrambleTestCase {
 		assertToken(request3, token);
 	}
 
+	@Test
+	public void testAddFileWithWriter() throws Exception {
+		byte[] bytes = getRandomBytes(1337);
+		FileWriter writer = out -> {
+			// Write the file in pieces, as a sync session would
+			out.write(bytes, 0, 1000);
+			out.write(bytes, 1000, bytes.length - 1000);
+		};
+
+		MockWebServer server = new MockWebServer();
+		server.enqueue(new MockResponse());
+		server.enqueue(new MockResponse().setResponseCode(500));
+		server.start();
+		String baseUrl = getBaseUrl(server);
+		MailboxProperties properties =
+				new MailboxProperties(baseUrl, token, new ArrayList<>());
+
+		// file gets streamed as expected
+		api.addFile(properties, contactInboxId, writer);
+		RecordedRequest request1 = server.takeRequest();
+		assertEquals("/files/" + contactInboxId, request1.getPath());
+		assertEquals("POST", request1.getMethod());
+		assertToken(request1, token);
+		assertEquals("chunked", request1.getHeader("Transfer-Encoding"));
+		assertArrayEquals(bytes, request1.getBody().readByteArray());
+
+		// server error
+		assertThrows(ApiException.class, () ->
+				api.addFile(properties, contactInboxId, writer));
+		RecordedRequest request2 = server.takeRequest();
+		assertEquals("/files/" + contactInboxId, request2.getPath());
+		assertToken(request2, token);
+
+		// writer fails, so the request is aborted
+		assertThrows(IOException.class, () ->
+				api.addFile(properties, contactInboxId, out -> {
+					out.write(bytes);
+					throw new IOException();
+				}));
+	}
+
 	@Test
 	public void testGetFiles() throws Exception {
 		MailboxFile mailboxFile1 =
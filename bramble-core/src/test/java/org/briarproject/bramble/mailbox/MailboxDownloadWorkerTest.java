@@ -34,7 +34,7 @@ abstract class MailboxDownloadWorkerTest<W extends MailboxDownloadWorker>
 	final MailboxApi mailboxApi = context.mock(MailboxApi.class);
 	final MailboxFileManager mailboxFileManager =
 			context.mock(MailboxFileManager.class);
-	private final Cancellable apiCall = context.mock(Cancellable.class);
+	final Cancellable apiCall = context.mock(Cancellable.class);
 
 	private final long now = System.currentTimeMillis();
 	final MailboxFile file1 =
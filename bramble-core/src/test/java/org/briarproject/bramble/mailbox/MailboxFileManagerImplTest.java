@@ -23,6 +23,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Executor;
@@ -36,7 +37,9 @@ import static org.briarproject.bramble.mailbox.MailboxFileManagerImpl.DOWNLOAD_D
 import static org.briarproject.bramble.mailbox.MailboxFileManagerImpl.UPLOAD_DIR_NAME;
 import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -248,6 +251,62 @@ public class MailboxFileManagerImplTest extends BrambleMockTestCase {
 		assertTrue(f.exists());
 	}
 
+	@Test
+	public void testWritesSessionToStream() throws Exception {
+		OutgoingSessionRecord sessionRecord = new OutgoingSessionRecord();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] data = getRandomBytes(123);
+
+		context.checking(new Expectations() {{
+			oneOf(pluginManager).getPlugin(ID);
+			will(returnValue(plugin));
+			oneOf(connectionManager).manageOutgoingConnection(with(contactId),
+					with(ID), with(any(TransportConnectionWriter.class)),
+					with(sessionRecord));
+			// The session writes some data and succeeds
+			will(new ConsumeArgumentAction<>(TransportConnectionWriter.class, 2,
+					writer -> {
+						try {
+							writer.getOutputStream().write(data);
+							writer.dispose(false);
+						} catch (IOException e) {
+							fail();
+						}
+					}
+			));
+		}});
+
+		manager.writeStreamForUpload(contactId, sessionRecord, out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void testThrowsExceptionIfStreamedSessionFailsWithException()
+			throws Exception {
+		OutgoingSessionRecord sessionRecord = new OutgoingSessionRecord();
+
+		context.checking(new Expectations() {{
+			oneOf(pluginManager).getPlugin(ID);
+			will(returnValue(plugin));
+			oneOf(connectionManager).manageOutgoingConnection(with(contactId),
+					with(ID), with(any(TransportConnectionWriter.class)),
+					with(sessionRecord));
+			// The session fails with an exception
+			will(new ConsumeArgumentAction<>(TransportConnectionWriter.class, 2,
+					writer -> {
+						try {
+							writer.dispose(true);
+						} catch (IOException e) {
+							fail();
+						}
+					}
+			));
+		}});
+
+		manager.writeStreamForUpload(contactId, sessionRecord,
+				new ByteArrayOutputStream());
+	}
+
 	private void testDeletesDownloadedFile(boolean recognised,
 			LifecycleState state, boolean fileExists) throws Exception {
 		expectCheckForOrphans();
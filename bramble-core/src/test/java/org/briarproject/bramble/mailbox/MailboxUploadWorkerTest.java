@@ -16,19 +16,24 @@ import org.briarproject.bramble.api.sync.OutgoingSessionRecord;
 import org.briarproject.bramble.api.sync.event.MessageSharedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.mailbox.MailboxApi.FileWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.ConsumeArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.RunAction;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.action.DoAllAction;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -95,7 +100,7 @@ public class MailboxUploadWorkerTest extends BrambleMockTestCase {
 		worker = new MailboxUploadWorker(ioExecutor, db, clock, taskScheduler,
 				eventBus, connectionRegistry, connectivityChecker,
 				mailboxApiCaller, mailboxApi, mailboxFileManager,
-				mailboxProperties, folderId, contactId);
+				mailboxProperties, folderId, contactId, false);
 	}
 
 	@After
@@ -234,6 +239,90 @@ public class MailboxUploadWorkerTest extends BrambleMockTestCase {
 		assertFalse(tempFile.exists());
 	}
 
+	@Test
+	public void testStreamsFileAndRetriesIfUploadFails() throws Exception {
+		worker = new MailboxUploadWorker(ioExecutor, db, clock, taskScheduler,
+				eventBus, connectionRegistry, connectivityChecker,
+				mailboxApiCaller, mailboxApi, mailboxFileManager,
+				mailboxProperties, folderId, contactId, true);
+		Transaction recordTxn = new Transaction(null, false);
+
+		// When the worker is started it should check the connection registry.
+		// We're not connected to the contact, so the worker should check for
+		// data to send. As there's data ready to send immediately, the worker
+		// should start a connectivity check
+		expectRunTaskOnIoExecutor();
+		expectCheckConnectionRegistry(false);
+		expectCheckForDataToSendAndStartConnectivityCheck();
+
+		worker.start();
+
+		// When the connectivity check succeeds, the worker should start an
+		// upload task without writing a file
+		expectRunTaskOnIoExecutor();
+		AtomicReference<ApiCall> upload = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			oneOf(mailboxApiCaller).retryWithBackoff(with(any(ApiCall.class)));
+			will(new DoAllAction(
+					new CaptureArgumentAction<>(upload, ApiCall.class, 0),
+					returnValue(apiCall)
+			));
+		}});
+
+		worker.onConnectivityCheckSucceeded();
+
+		// When the upload task runs, it should write a session to the
+		// request. The upload fails, so nothing should be recorded in the DB
+		// and the task should be retried
+		context.checking(new Expectations() {{
+			oneOf(mailboxApi).addFile(with(mailboxProperties), with(folderId),
+					with(any(FileWriter.class)));
+			will(new DoAllAction(
+					new StreamFileAction(),
+					throwException(new IOException())
+			));
+			oneOf(mailboxFileManager).writeStreamForUpload(with(contactId),
+					with(any(OutgoingSessionRecord.class)),
+					with(any(OutputStream.class)));
+			will(new ConsumeArgumentAction<>(OutgoingSessionRecord.class, 1,
+					record -> record.onMessageSent(sentId)));
+		}});
+
+		assertTrue(upload.get().callApi());
+
+		// When the upload task runs again, it should write a new session to
+		// the request. This time the upload succeeds, so the worker should
+		// record the acked/sent messages from the new session and check for
+		// more data to send
+		context.checking(new DbExpectations() {{
+			oneOf(mailboxApi).addFile(with(mailboxProperties), with(folderId),
+					with(any(FileWriter.class)));
+			will(new StreamFileAction());
+			oneOf(mailboxFileManager).writeStreamForUpload(with(contactId),
+					with(any(OutgoingSessionRecord.class)),
+					with(any(OutputStream.class)));
+			will(new ConsumeArgumentAction<>(OutgoingSessionRecord.class, 1,
+					record -> {
+						record.onAckSent(singletonList(ackedId));
+						record.onMessageSent(sentId);
+					}));
+			oneOf(db).transaction(with(false), withDbRunnable(recordTxn));
+			oneOf(db).setAckSent(recordTxn, contactId, singletonList(ackedId));
+			oneOf(db).setMessagesSent(recordTxn, contactId,
+					singletonList(sentId), MAX_LATENCY);
+		}});
+		expectCheckConnectionRegistry(false);
+		expectCheckForDataToSendNoDataWaiting();
+
+		assertFalse(upload.get().callApi());
+
+		// When the worker is destroyed it should remove the connectivity
+		// observer and event listener
+		expectRemoveObserverAndListener();
+
+		worker.destroy();
+	}
+
 	@Test
 	public void testDoesNotWriteFileIfContactConnectsDuringConnectivityCheck()
 			throws Exception {
@@ -698,4 +787,22 @@ public class MailboxUploadWorkerTest extends BrambleMockTestCase {
 			oneOf(eventBus).removeListener(worker);
 		}});
 	}
+
+	/**
+	 * Calls the {@link FileWriter} passed to the API, as the request body
+	 * would.
+	 */
+	private static class StreamFileAction extends CustomAction {
+
+		private StreamFileAction() {
+			super("writes the file");
+		}
+
+		@Override
+		public Object invoke(Invocation invocation) throws Throwable {
+			FileWriter writer = (FileWriter) invocation.getParameter(2);
+			writer.writeTo(new ByteArrayOutputStream());
+			return null;
+		}
+	}
 }
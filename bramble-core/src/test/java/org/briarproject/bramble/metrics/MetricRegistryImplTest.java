@@ -0,0 +1,150 @@
+package org.briarproject.bramble.metrics;
+
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.Gauge;
+import org.briarproject.bramble.api.metrics.Histogram;
+import org.briarproject.bramble.api.metrics.MetricFamily;
+import org.briarproject.bramble.api.metrics.MetricSample;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.api.metrics.MetricType.COUNTER;
+import static org.briarproject.bramble.api.metrics.MetricType.GAUGE;
+import static org.briarproject.bramble.api.metrics.MetricType.HISTOGRAM;
+import static org.briarproject.bramble.metrics.MetricRegistryImpl.BUCKETS_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class MetricRegistryImplTest extends BrambleTestCase {
+
+	private final MetricRegistryImpl registry = new MetricRegistryImpl();
+
+	@Test
+	public void testSameMetricIsReturnedForSameNameAndLabel() {
+		Counter c = registry.getCounter("c", "help", "label", "a");
+		assertSame(c, registry.getCounter("c", "help", "label", "a"));
+		Gauge g = registry.getGauge("g", "help");
+		assertSame(g, registry.getGauge("g", "help"));
+	}
+
+	@Test
+	public void testCountersAndGauges() {
+		Counter a = registry.getCounter("c", "help", "label", "a");
+		Counter b = registry.getCounter("c", "help", "label", "b");
+		a.increment();
+		a.add(2);
+		b.increment();
+		assertEquals(3, a.getCount());
+		assertEquals(1, b.getCount());
+
+		Gauge g = registry.getGauge("g", "help");
+		g.add(5);
+		g.add(-2);
+		assertEquals(3, g.getValue());
+		g.set(10);
+		assertEquals(10, g.getValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCounterCannotBeDecreased() {
+		registry.getCounter("c", "help").add(-1);
+	}
+
+	@Test
+	public void testNameCannotBeReusedWithDifferentTypeOrLabel() {
+		registry.getCounter("c", "help", "label", "a");
+		try {
+			registry.getGauge("c", "help", "label", "a");
+			fail();
+		} catch (IllegalArgumentException expected) {
+			// Expected
+		}
+		try {
+			registry.getCounter("c", "help");
+			fail();
+		} catch (IllegalArgumentException expected) {
+			// Expected
+		}
+		try {
+			registry.getCounter("c", "help", "other", "a");
+			fail();
+		} catch (IllegalArgumentException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testSnapshotIsSortedByNameAndLabel() {
+		registry.getGauge("b", "help b").set(1);
+		registry.getCounter("a", "help a", "label", "y").increment();
+		registry.getCounter("a", "help a", "label", "x").add(2);
+
+		List<MetricFamily> families = new ArrayList<>(registry.getMetrics());
+		assertEquals(2, families.size());
+
+		MetricFamily a = families.get(0);
+		assertEquals("a", a.getName());
+		assertEquals("help a", a.getHelp());
+		assertEquals(COUNTER, a.getType());
+		assertEquals(2, a.getSamples().size());
+		assertSample(a.getSamples().get(0), "a", "x", 2);
+		assertSample(a.getSamples().get(1), "a", "y", 1);
+
+		MetricFamily b = families.get(1);
+		assertEquals("b", b.getName());
+		assertEquals(GAUGE, b.getType());
+		assertEquals(1, b.getSamples().size());
+		assertEquals(1, b.getSamples().get(0).getValue());
+		assertEquals(0, b.getSamples().get(0).getLabels().size());
+	}
+
+	@Test
+	public void testHistogramBucketsAreCumulative() {
+		Histogram h = registry.getHistogram("h", "help");
+		h.record(0);
+		h.record(1); // Upper bounds are inclusive
+		h.record(7);
+		h.record(100_000); // Larger than the largest bucket
+
+		List<MetricFamily> families = new ArrayList<>(registry.getMetrics());
+		assertEquals(1, families.size());
+		MetricFamily f = families.get(0);
+		assertEquals(HISTOGRAM, f.getType());
+		List<MetricSample> samples = f.getSamples();
+		// One sample per bucket, plus the infinite bucket, sum and count
+		assertEquals(BUCKETS_MS.length + 3, samples.size());
+
+		MetricSample first = samples.get(0);
+		assertEquals("h_bucket", first.getName());
+		assertEquals(singletonMap("le", "1"), first.getLabels());
+		assertEquals(2, first.getValue());
+		MetricSample second = samples.get(1);
+		assertEquals(singletonMap("le", "5"), second.getLabels());
+		assertEquals(2, second.getValue());
+		MetricSample third = samples.get(2);
+		assertEquals(singletonMap("le", "10"), third.getLabels());
+		assertEquals(3, third.getValue());
+		MetricSample inf = samples.get(BUCKETS_MS.length);
+		assertEquals(singletonMap("le", "+Inf"), inf.getLabels());
+		assertEquals(4, inf.getValue());
+
+		MetricSample sum = samples.get(BUCKETS_MS.length + 1);
+		assertEquals("h_sum", sum.getName());
+		assertEquals(100_008, sum.getValue());
+		MetricSample count = samples.get(BUCKETS_MS.length + 2);
+		assertEquals("h_count", count.getName());
+		assertEquals(4, count.getValue());
+	}
+
+	private void assertSample(MetricSample s, String name, String label,
+			long value) {
+		assertEquals(name, s.getName());
+		assertEquals(singletonMap("label", label), s.getLabels());
+		assertEquals(value, s.getValue());
+	}
+}
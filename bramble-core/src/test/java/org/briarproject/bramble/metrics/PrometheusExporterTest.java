@@ -0,0 +1,63 @@
+package org.briarproject.bramble.metrics;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusExporterTest extends BrambleTestCase {
+
+	private final MetricRegistryImpl registry = new MetricRegistryImpl();
+	private final PrometheusExporter exporter = new PrometheusExporter();
+
+	@Test
+	public void testExportsCountersAndGauges() throws Exception {
+		registry.getCounter("bytes_total", "Bytes sent", "transport", "tcp")
+				.add(123);
+		registry.getGauge("connections", "Open connections").set(2);
+
+		StringWriter out = new StringWriter();
+		exporter.export(registry.getMetrics(), out);
+		String expected = "# HELP bytes_total Bytes sent\n"
+				+ "# TYPE bytes_total counter\n"
+				+ "bytes_total{transport=\"tcp\"} 123\n"
+				+ "# HELP connections Open connections\n"
+				+ "# TYPE connections gauge\n"
+				+ "connections 2\n";
+		assertEquals(expected, out.toString());
+	}
+
+	@Test
+	public void testExportsHistograms() throws Exception {
+		registry.getHistogram("latency_ms", "Latency", "type", "ack")
+				.record(3);
+
+		StringWriter out = new StringWriter();
+		exporter.export(registry.getMetrics(), out);
+		String s = out.toString();
+		assertTrue(s.startsWith("# HELP latency_ms Latency\n"
+				+ "# TYPE latency_ms histogram\n"
+				+ "latency_ms_bucket{le=\"1\",type=\"ack\"} 0\n"
+				+ "latency_ms_bucket{le=\"5\",type=\"ack\"} 1\n"));
+		assertTrue(s.contains(
+				"latency_ms_bucket{le=\"+Inf\",type=\"ack\"} 1\n"));
+		assertTrue(s.endsWith("latency_ms_sum{type=\"ack\"} 3\n"
+				+ "latency_ms_count{type=\"ack\"} 1\n"));
+	}
+
+	@Test
+	public void testEscapesHelpAndLabelValues() throws Exception {
+		registry.getCounter("c", "Line one\nline two \\", "label",
+				"quote \" backslash \\").increment();
+
+		StringWriter out = new StringWriter();
+		exporter.export(registry.getMetrics(), out);
+		String expected = "# HELP c Line one\\nline two \\\\\n"
+				+ "# TYPE c counter\n"
+				+ "c{label=\"quote \\\" backslash \\\\\"} 1\n";
+		assertEquals(expected, out.toString());
+	}
+}
@@ -1,10 +1,13 @@
 package org.briarproject.bramble.plugin;
 
 import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.connection.ConnectionManager;
 import org.briarproject.bramble.api.connection.ConnectionRegistry;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.ConnectionHandler;
 import org.briarproject.bramble.api.plugin.Plugin;
 import org.briarproject.bramble.api.plugin.PluginManager;
@@ -21,7 +24,10 @@ import org.briarproject.bramble.api.properties.TransportProperties;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.ImmediateExecutor;
 import org.briarproject.bramble.test.RunAction;
 import org.jmock.Expectations;
@@ -29,22 +35,38 @@ import org.jmock.imposters.ByteBuddyClassImposteriser;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_ATTEMPT_TIME_MS;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_BACKOFF_MS;
+import static org.briarproject.bramble.plugin.PollerConstants.MAX_POLL_ATTEMPTS;
+import static org.briarproject.bramble.plugin.PollerImpl.getBackoff;
 import static org.briarproject.bramble.test.CollectionMatcher.collectionOf;
 import static org.briarproject.bramble.test.PairMatcher.pairOf;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.briarproject.bramble.test.TestUtils.getTransportProperties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 
 public class PollerImplTest extends BrambleMockTestCase {
 
 	private final TaskScheduler scheduler = context.mock(TaskScheduler.class);
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final ConnectionManager connectionManager =
 			context.mock(ConnectionManager.class);
 	private final ConnectionRegistry connectionRegistry =
@@ -62,6 +84,7 @@ public class PollerImplTest extends BrambleMockTestCase {
 	private final ContactId contactId = getContactId();
 	private final TransportProperties properties = new TransportProperties();
 	private final int pollingInterval = 60 * 1000;
+	private final long maxLatency = 30 * 1000;
 	private final long now = System.currentTimeMillis();
 
 	private final PollerImpl poller;
@@ -70,9 +93,10 @@ public class PollerImplTest extends BrambleMockTestCase {
 		context.setImposteriser(ByteBuddyClassImposteriser.INSTANCE);
 		random = context.mock(SecureRandom.class);
 		Executor wakefulIoExecutor = new ImmediateExecutor();
-		poller = new PollerImpl(ioExecutor, wakefulIoExecutor, scheduler,
+		poller = new PollerImpl(ioExecutor, wakefulIoExecutor, scheduler, db,
 				connectionManager, connectionRegistry, pluginManager,
-				transportPropertyManager, random, clock);
+				transportPropertyManager, random, clock,
+				new MetricRegistryImpl());
 	}
 
 	@Test
@@ -332,8 +356,9 @@ public class PollerImplTest extends BrambleMockTestCase {
 	@Test
 	public void testPollsOnTransportActivated() throws Exception {
 		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
+		Transaction txn = new Transaction(null, true);
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			allowing(plugin).getId();
 			will(returnValue(transportId));
 			// Get the plugin
@@ -365,6 +390,17 @@ public class PollerImplTest extends BrambleMockTestCase {
 			will(returnValue(singletonMap(contactId, properties)));
 			oneOf(connectionRegistry).getConnectedOrBetterContacts(transportId);
 			will(returnValue(emptyList()));
+			// The contact isn't backing off
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(plugin).getPollingInterval();
+			will(returnValue(pollingInterval));
+			// Check whether there's any data to send to the contact
+			oneOf(plugin).getMaxLatency();
+			will(returnValue(maxLatency));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getNextSendTime(txn, contactId, maxLatency);
+			will(returnValue(Long.MAX_VALUE));
 			// Poll the plugin
 			oneOf(plugin).poll(with(collectionOf(
 					pairOf(equal(properties), any(ConnectionHandler.class)))));
@@ -373,6 +409,193 @@ public class PollerImplTest extends BrambleMockTestCase {
 		poller.eventOccurred(new TransportActiveEvent(transportId));
 	}
 
+	@Test
+	public void testPollsContactsWithDataToSendFirst() throws Exception {
+		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
+		Transaction txn = new Transaction(null, true);
+		ContactId contactId1 = getContactId();
+		TransportProperties properties1 = getTransportProperties(1);
+		Map<ContactId, TransportProperties> remote = new HashMap<>();
+		remote.put(contactId, properties);
+		remote.put(contactId1, properties1);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		AtomicReference<Collection> polled = new AtomicReference<>();
+
+		expectPollNow(plugin, task);
+		context.checking(new DbExpectations() {{
+			// Running the polling task schedules the next polling task
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with((long) pollingInterval),
+					with(MILLISECONDS));
+			will(returnValue(cancellable));
+			// Get the transport properties and connected contacts
+			oneOf(transportPropertyManager).getRemoteProperties(transportId);
+			will(returnValue(remote));
+			oneOf(connectionRegistry).getConnectedOrBetterContacts(transportId);
+			will(returnValue(emptyList()));
+			// Neither contact is backing off
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			// Only the second contact has data to send
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getNextSendTime(txn, contactId, maxLatency);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).getNextSendTime(txn, contactId1, maxLatency);
+			will(returnValue(0L));
+			// Poll the plugin
+			oneOf(plugin).poll(with(any(Collection.class)));
+			will(new CaptureArgumentAction<>(polled, Collection.class, 0));
+		}});
+
+		poller.eventOccurred(new TransportActiveEvent(transportId));
+		task.get().run();
+
+		// The contact with data to send should be polled first
+		Iterator<?> it = polled.get().iterator();
+		assertSame(properties1, ((Pair<?, ?>) it.next()).getFirst());
+		assertSame(properties, ((Pair<?, ?>) it.next()).getFirst());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testBacksOffAfterFailedConnectionAttempts() throws Exception {
+		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
+		Transaction txn = new Transaction(null, true);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		expectPollNow(plugin, task);
+		poller.eventOccurred(new TransportActiveEvent(transportId));
+
+		// The contact is polled
+		expectPoll(plugin, txn, task, now, true);
+		task.get().run();
+
+		// The attempt is still in progress, so the contact is skipped
+		long time = now + MAX_ATTEMPT_TIME_MS - 1;
+		expectPoll(plugin, txn, task, time, false);
+		task.get().run();
+
+		// The attempt didn't succeed, so the contact is skipped
+		time = now + MAX_ATTEMPT_TIME_MS;
+		expectPoll(plugin, txn, task, time, false);
+		task.get().run();
+
+		// After backing off, the contact is polled again
+		time = now + MAX_ATTEMPT_TIME_MS + pollingInterval;
+		expectPoll(plugin, txn, task, time, true);
+		task.get().run();
+	}
+
+	@Test
+	public void testSuccessfulConnectionResetsBackoff() throws Exception {
+		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
+		DuplexTransportConnection duplexConnection =
+				context.mock(DuplexTransportConnection.class);
+		Transaction txn = new Transaction(null, true);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		AtomicReference<Collection> polled = new AtomicReference<>();
+
+		expectPollNow(plugin, task);
+		poller.eventOccurred(new TransportActiveEvent(transportId));
+
+		// The contact is polled
+		expectPoll(plugin, txn, task, now, true);
+		task.get().run();
+
+		// The attempt didn't succeed, so the contact is polled again after
+		// backing off
+		long time = now + MAX_ATTEMPT_TIME_MS;
+		expectPoll(plugin, txn, task, time, false);
+		task.get().run();
+		time += pollingInterval;
+		expectPoll(plugin, txn, task, time, true, polled);
+		task.get().run();
+
+		// The second attempt succeeds
+		context.checking(new Expectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now + MAX_ATTEMPT_TIME_MS + pollingInterval
+					+ 1000));
+			oneOf(connectionManager).manageOutgoingConnection(contactId,
+					transportId, duplexConnection);
+		}});
+		Pair<?, ?> pair = (Pair<?, ?>) polled.get().iterator().next();
+		ConnectionHandler handler = (ConnectionHandler) pair.getSecond();
+		handler.handleConnection(duplexConnection);
+
+		// The connection is later closed, and the contact is polled again
+		// without backing off
+		time += pollingInterval;
+		expectPoll(plugin, txn, task, time, true);
+		task.get().run();
+	}
+
+	@Test
+	public void testCapsAttemptsInProgressAcrossPolls() throws Exception {
+		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
+		Transaction txn = new Transaction(null, true);
+		Map<ContactId, TransportProperties> remote = new HashMap<>();
+		for (int i = 0; i <= MAX_POLL_ATTEMPTS; i++) {
+			remote.put(getContactId(), getTransportProperties(1));
+		}
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		AtomicReference<Collection> polled = new AtomicReference<>();
+
+		expectPollNow(plugin, task);
+		poller.eventOccurred(new TransportActiveEvent(transportId));
+
+		context.checking(new DbExpectations() {{
+			allowing(transportPropertyManager).getRemoteProperties(
+					transportId);
+			will(returnValue(remote));
+			allowing(connectionRegistry).getConnectedOrBetterContacts(
+					transportId);
+			will(returnValue(emptyList()));
+			allowing(db).transactionWithResult(with(true),
+					withDbCallable(txn));
+			allowing(db).getNextSendTime(with(txn),
+					with(any(ContactId.class)), with(maxLatency));
+			will(returnValue(Long.MAX_VALUE));
+		}});
+
+		// The maximum number of contacts is polled
+		expectPollAt(plugin, task, now, polled);
+		task.get().run();
+		assertEquals(MAX_POLL_ATTEMPTS, polled.get().size());
+
+		// The attempts are still in progress, so the remaining contact isn't
+		// polled
+		context.checking(new Expectations() {{
+			never(plugin).poll(with(any(Collection.class)));
+		}});
+		expectPollAt(plugin, task, now + pollingInterval, null);
+		task.get().run();
+	}
+
+	private void expectPollAt(DuplexPlugin plugin,
+			AtomicReference<Runnable> task, long time,
+			@Nullable AtomicReference<Collection> polled) {
+		context.checking(new Expectations() {{
+			// Schedule the next polling task
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(time));
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with((long) pollingInterval),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+			// Check whether the contacts are backing off
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(time));
+			if (polled != null) {
+				oneOf(plugin).poll(with(any(Collection.class)));
+				will(new CaptureArgumentAction<>(polled, Collection.class,
+						0));
+			}
+		}});
+	}
+
 	@Test
 	public void testDoesNotPollIfAllContactsAreConnected() throws Exception {
 		DuplexPlugin plugin = context.mock(DuplexPlugin.class);
@@ -442,6 +665,81 @@ public class PollerImplTest extends BrambleMockTestCase {
 		poller.eventOccurred(new TransportInactiveEvent(transportId));
 	}
 
+	@Test
+	public void testBackoffDoublesUpToMaximum() {
+		assertEquals(pollingInterval, getBackoff(pollingInterval, 1));
+		assertEquals(pollingInterval * 2, getBackoff(pollingInterval, 2));
+		assertEquals(pollingInterval * 4, getBackoff(pollingInterval, 3));
+		assertEquals(pollingInterval * 8, getBackoff(pollingInterval, 4));
+		assertEquals(MAX_BACKOFF_MS, getBackoff(pollingInterval, 100));
+	}
+
+	private void expectPollNow(DuplexPlugin plugin,
+			AtomicReference<Runnable> task) {
+		context.checking(new Expectations() {{
+			allowing(plugin).getId();
+			will(returnValue(transportId));
+			allowing(plugin).getPollingInterval();
+			will(returnValue(pollingInterval));
+			allowing(plugin).getMaxLatency();
+			will(returnValue(maxLatency));
+			// Get the plugin
+			oneOf(pluginManager).getPlugin(transportId);
+			will(returnValue(plugin));
+			// The plugin supports polling
+			oneOf(plugin).shouldPoll();
+			will(returnValue(true));
+			// Schedule a polling task immediately
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with(0L), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+			// Don't randomise the next polling interval
+			oneOf(random).nextDouble();
+			will(returnValue(1.0));
+		}});
+	}
+
+	private void expectPoll(DuplexPlugin plugin, Transaction txn,
+			AtomicReference<Runnable> task, long time, boolean poll)
+			throws Exception {
+		expectPoll(plugin, txn, task, time, poll, new AtomicReference<>());
+	}
+
+	private void expectPoll(DuplexPlugin plugin, Transaction txn,
+			AtomicReference<Runnable> task, long time, boolean poll,
+			AtomicReference<Collection> polled) throws Exception {
+		context.checking(new DbExpectations() {{
+			// Schedule the next polling task
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(time));
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with((long) pollingInterval),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+			// Get the transport properties and connected contacts
+			oneOf(transportPropertyManager).getRemoteProperties(transportId);
+			will(returnValue(singletonMap(contactId, properties)));
+			oneOf(connectionRegistry).getConnectedOrBetterContacts(transportId);
+			will(returnValue(emptyList()));
+			// Check whether the contact is backing off
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(time));
+			if (poll) {
+				// Check whether there's any data to send to the contact
+				oneOf(db).transactionWithResult(with(true),
+						withDbCallable(txn));
+				oneOf(db).getNextSendTime(txn, contactId, maxLatency);
+				will(returnValue(Long.MAX_VALUE));
+				// Poll the plugin
+				oneOf(plugin).poll(with(collectionOf(pairOf(equal(properties),
+						any(ConnectionHandler.class)))));
+				will(new CaptureArgumentAction<>(polled, Collection.class, 0));
+			}
+		}});
+	}
+
 	private void expectReschedule(Plugin plugin) {
 		context.checking(new Expectations() {{
 			// Get the plugin
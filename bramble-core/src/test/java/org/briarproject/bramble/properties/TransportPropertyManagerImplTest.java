@@ -8,32 +8,47 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.CommitAction;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.properties.event.LocalTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.properties.event.RemoteTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
 import org.jmock.Expectations;
 import org.junit.Test;
 
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_DELAY_MS;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_RETRY_DELAY_MS;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.GROUP_KEY_DISCOVERED;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_FAN_OUT_PENDING;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_LOCAL;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_TRANSPORT_ID;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_VERSION;
@@ -61,11 +76,15 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 	private final ContactGroupFactory contactGroupFactory =
 			context.mock(ContactGroupFactory.class);
 	private final Clock clock = context.mock(Clock.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Executor dbExecutor = new ImmediateExecutor();
 
 	private final Group localGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
 	private final BdfDictionary fooPropertiesDict, barPropertiesDict;
 	private final BdfDictionary discoveredPropertiesDict, mergedPropertiesDict;
 	private final TransportProperties fooProperties, barProperties;
+	private final TransportProperties mergedProperties;
 	private final TransportProperties discoveredProperties;
 
 	public TransportPropertyManagerImplTest() {
@@ -83,8 +102,9 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		discoveredProperties.put("fooKey3", "fooValue3");
 		discoveredPropertiesDict = new BdfDictionary(discoveredProperties);
 
-		mergedPropertiesDict = new BdfDictionary(fooProperties);
-		mergedPropertiesDict.put("u:fooKey3", "fooValue3");
+		mergedProperties = new TransportProperties(fooProperties);
+		mergedProperties.put("u:fooKey3", "fooValue3");
+		mergedPropertiesDict = new BdfDictionary(mergedProperties);
 	}
 
 	private TransportPropertyManagerImpl createInstance() {
@@ -95,7 +115,7 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		}});
 		return new TransportPropertyManagerImpl(db, clientHelper,
 				clientVersioningManager, metadataParser, contactGroupFactory,
-				clock);
+				clock, taskScheduler, dbExecutor);
 	}
 
 	@Test
@@ -139,10 +159,48 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		context.checking(new Expectations() {{
 			oneOf(db).containsGroup(txn, localGroup.getId());
 			will(returnValue(true));
+			// There are no pending fan-outs to resume
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					localGroup.getId());
+			will(returnValue(emptyMap()));
+		}});
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.onDatabaseOpened(txn);
+		assertTrue(txn.getActions().isEmpty());
+	}
+
+	@Test
+	public void testResumesPendingFanOutAtStartup() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Map<MessageId, BdfDictionary> messageMetadata = new LinkedHashMap<>();
+		messageMetadata.put(new MessageId(getRandomId()), BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+				new BdfEntry(MSG_KEY_VERSION, 2),
+				new BdfEntry(MSG_KEY_LOCAL, true),
+				new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+		));
+		messageMetadata.put(new MessageId(getRandomId()), BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "bar"),
+				new BdfEntry(MSG_KEY_VERSION, 3),
+				new BdfEntry(MSG_KEY_LOCAL, true)
+		));
+
+		context.checking(new Expectations() {{
+			oneOf(db).containsGroup(txn, localGroup.getId());
+			will(returnValue(true));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					localGroup.getId());
+			will(returnValue(messageMetadata));
 		}});
 
 		TransportPropertyManagerImpl t = createInstance();
 		t.onDatabaseOpened(txn);
+
+		// A fan-out should be scheduled for "foo" when the transaction
+		// commits
+		expectScheduleFanOut();
+		runAttachedTasks(txn);
 	}
 
 	@Test
@@ -579,8 +637,6 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 	@Test
 	public void testMergingNewPropertiesCreatesUpdate() throws Exception {
 		Transaction txn = new Transaction(null, false);
-		Contact contact = getContact();
-		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
 
 		// Property with an empty value should be discarded
 		TransportProperties properties = new TransportProperties(fooProperties);
@@ -592,38 +648,35 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
 					localGroup.getId());
 			will(returnValue(emptyMap()));
-			// Store the new properties in the local group, version 1
-			expectStoreMessage(txn, localGroup.getId(), "foo",
-					fooPropertiesDict, 1, true, false);
-			// Store the new properties in each contact's group, version 1
-			oneOf(db).getContacts(txn);
-			will(returnValue(singletonList(contact)));
-			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
-					MAJOR_VERSION, contact);
-			will(returnValue(contactGroup));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroup.getId());
-			will(returnValue(emptyMap()));
-			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
-					contactGroup.getId());
-			will(returnValue(new BdfDictionary()));
-			expectStoreMessage(txn, contactGroup.getId(), "foo",
-					fooPropertiesDict, 1, true, true);
 		}});
+		// Store the new properties in the local group, version 1
+		expectStoreMessage(txn, localGroup.getId(), "foo", fooPropertiesDict,
+				1, true, false, true);
+
+		// Contact groups should not be updated until the fan-out runs
+		expectScheduleFanOut();
 
 		TransportPropertyManagerImpl t = createInstance();
 		t.mergeLocalProperties(new TransportId("foo"), properties);
 	}
 
 	@Test
-	public void testMergingNewPropertiesCreatesUpdateWithReflectedProperties()
+	public void testFanOutCopiesNewPropertiesIntoContactGroups()
 			throws Exception {
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
 		Contact contact = getContact();
 		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
-		BdfDictionary contactGroupMeta = BdfDictionary.of(
-				new BdfEntry(GROUP_KEY_DISCOVERED, discoveredPropertiesDict)
-		);
+		MessageId localGroupUpdateId = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 1),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 1, fooPropertiesDict);
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transaction(with(false), withDbRunnable(txn));
@@ -631,38 +684,67 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
 					localGroup.getId());
 			will(returnValue(emptyMap()));
-			// Store the new properties in the local group, version 1
-			expectStoreMessage(txn, localGroup.getId(), "foo",
-					fooPropertiesDict, 1, true, false);
-			// Store the new properties in each contact's group, version 1
-			oneOf(db).getContacts(txn);
+		}});
+		// Store the new properties in the local group, version 1
+		expectStoreMessage(txn, localGroup.getId(), "foo", fooPropertiesDict,
+				1, true, false, true);
+
+		AtomicReference<Runnable> fanOut = expectScheduleFanOut();
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.mergeLocalProperties(new TransportId("foo"), fooProperties);
+
+		context.checking(new DbExpectations() {{
+			// Load the contacts
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(txn1));
+			oneOf(db).getContacts(txn1);
 			will(returnValue(singletonList(contact)));
-			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+			// Load the latest local properties
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn2,
+					localGroup.getId());
+			will(returnValue(localGroupMessageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn2, localGroupUpdateId,
+					false);
+			will(returnValue(localGroupUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			// Store the new properties in the contact's group, version 1
+			exactly(2).of(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+			oneOf(db).containsGroup(txn2, contactGroup.getId());
+			will(returnValue(true));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn2,
 					contactGroup.getId());
 			will(returnValue(emptyMap()));
-			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn2,
 					contactGroup.getId());
-			will(returnValue(contactGroupMeta));
-			// Reflect discovered properties
-			oneOf(clientHelper).parseAndValidateTransportProperties(
-					discoveredPropertiesDict);
-			will(returnValue(discoveredProperties));
-			expectStoreMessage(txn, contactGroup.getId(), "foo",
-					mergedPropertiesDict, 1, true, true);
+			will(returnValue(new BdfDictionary()));
+			// The fan-out is complete
+			oneOf(clientHelper).mergeMessageMetadata(txn2, localGroupUpdateId,
+					BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE)));
 		}});
+		expectStoreMessage(txn2, contactGroup.getId(), "foo",
+				fooPropertiesDict, 1, true, true);
 
-		TransportPropertyManagerImpl t = createInstance();
-		t.mergeLocalProperties(new TransportId("foo"), fooProperties);
+		fanOut.get().run();
+		assertTrue(hasEvent(txn2, LocalTransportPropertiesUpdatedEvent.class));
 	}
 
 	@Test
-	public void testMergingUpdatedPropertiesCreatesUpdate() throws Exception {
-		Transaction txn = new Transaction(null, false);
+	public void testFanOutCreatesUpdateWithReflectedProperties()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
 		Contact contact = getContact();
 		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		BdfDictionary contactGroupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_DISCOVERED, discoveredPropertiesDict)
+		);
 		BdfDictionary oldMetadata = BdfDictionary.of(
 				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
 				new BdfEntry(MSG_KEY_VERSION, 1),
@@ -670,132 +752,308 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		);
 		MessageId localGroupUpdateId = new MessageId(getRandomId());
 		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
-				singletonMap(localGroupUpdateId, oldMetadata);
-
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 2),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 2, fooPropertiesDict);
 		MessageId contactGroupUpdateId = new MessageId(getRandomId());
 		Map<MessageId, BdfDictionary> contactGroupMessageMetadata =
 				singletonMap(contactGroupUpdateId, oldMetadata);
-
 		TransportProperties oldProperties = new TransportProperties();
 		oldProperties.put("fooKey1", "oldFooValue1");
-		oldProperties.put("fooKey3", "oldFooValue3");
 		BdfDictionary oldPropertiesDict = BdfDictionary.of(
-				new BdfEntry("fooKey1", "oldFooValue1"),
-				new BdfEntry("fooKey3", "oldFooValue3")
+				new BdfEntry("fooKey1", "oldFooValue1")
 		);
 		BdfList oldUpdate = BdfList.of("foo", 1, oldPropertiesDict);
 
-		// Property assigned an empty value should be removed
-		TransportProperties properties = new TransportProperties(fooProperties);
-		properties.put("fooKey3", "");
-
 		context.checking(new DbExpectations() {{
-			oneOf(db).transaction(with(false), withDbRunnable(txn));
-			// Merge the new properties with the existing properties
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+			// Load the contacts
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(txn));
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			// Load the latest local properties
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
 					localGroup.getId());
 			will(returnValue(localGroupMessageMetadata));
-			oneOf(clientHelper).getMessageAsList(txn, localGroupUpdateId,
+			oneOf(clientHelper).getMessageAsList(txn1, localGroupUpdateId,
+					false);
+			will(returnValue(localGroupUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			// Store the merged properties in the contact's group, version 2
+			exactly(2).of(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(db).containsGroup(txn1, contactGroup.getId());
+			will(returnValue(true));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
+					contactGroup.getId());
+			will(returnValue(contactGroupMessageMetadata));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn1,
+					contactGroup.getId());
+			will(returnValue(contactGroupMeta));
+			// Reflect discovered properties
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					discoveredPropertiesDict);
+			will(returnValue(discoveredProperties));
+			// Compare with the previous update
+			oneOf(clientHelper).getMessageAsList(txn1, contactGroupUpdateId,
 					false);
 			will(returnValue(oldUpdate));
 			oneOf(clientHelper).parseAndValidateTransportProperties(
 					oldPropertiesDict);
 			will(returnValue(oldProperties));
-			// Store the merged properties in the local group, version 2
-			expectStoreMessage(txn, localGroup.getId(), "foo",
-					fooPropertiesDict, 2, true, false);
 			// Delete the previous update
-			oneOf(db).removeMessage(txn, localGroupUpdateId);
-			// Store the merged properties in each contact's group, version 2
+			oneOf(db).removeMessage(txn1, contactGroupUpdateId);
+			// The fan-out is complete
+			oneOf(clientHelper).mergeMessageMetadata(txn1, localGroupUpdateId,
+					BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE)));
+		}});
+		expectStoreMessage(txn1, contactGroup.getId(), "foo",
+				mergedPropertiesDict, 2, true, true);
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.startFanOut(new TransportId("foo"));
+		assertTrue(hasEvent(txn1, LocalTransportPropertiesUpdatedEvent.class));
+	}
+
+	@Test
+	public void testFanOutSkipsContactGroupsThatAreUpToDate()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Contact contact = getContact();
+		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		MessageId localGroupUpdateId = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 2),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 2, fooPropertiesDict);
+		MessageId contactGroupUpdateId = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> contactGroupMessageMetadata =
+				singletonMap(contactGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 5),
+						new BdfEntry(MSG_KEY_LOCAL, true)
+				));
+		BdfList contactGroupUpdate = BdfList.of("foo", 5, fooPropertiesDict);
+
+		context.checking(new DbExpectations() {{
+			// Load the contacts
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(txn));
 			oneOf(db).getContacts(txn);
 			will(returnValue(singletonList(contact)));
-			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+			// Load the latest local properties
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
+					localGroup.getId());
+			will(returnValue(localGroupMessageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn1, localGroupUpdateId,
+					false);
+			will(returnValue(localGroupUpdate));
+			exactly(2).of(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			exactly(2).of(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+			oneOf(db).containsGroup(txn1, contactGroup.getId());
+			will(returnValue(true));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
 					contactGroup.getId());
 			will(returnValue(contactGroupMessageMetadata));
-			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn1,
 					contactGroup.getId());
 			will(returnValue(new BdfDictionary()));
-			expectStoreMessage(txn, contactGroup.getId(), "foo",
-					fooPropertiesDict, 2, true, true);
-			// Delete the previous update
-			oneOf(db).removeMessage(txn, contactGroupUpdateId);
+			// The contact's group already has the latest properties
+			oneOf(clientHelper).getMessageAsList(txn1, contactGroupUpdateId,
+					false);
+			will(returnValue(contactGroupUpdate));
+			// The fan-out is complete
+			oneOf(clientHelper).mergeMessageMetadata(txn1, localGroupUpdateId,
+					BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE)));
 		}});
 
 		TransportPropertyManagerImpl t = createInstance();
-		t.mergeLocalProperties(new TransportId("foo"), properties);
+		t.startFanOut(new TransportId("foo"));
+		assertTrue(hasEvent(txn1, LocalTransportPropertiesUpdatedEvent.class));
 	}
 
 	@Test
-	public void testMergingUpdatedPropertiesCreatesUpdateWithReflectedProperties()
-			throws Exception {
-		Transaction txn = new Transaction(null, false);
+	public void testFanOutSkipsRemovedContacts() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
 		Contact contact = getContact();
 		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
-		BdfDictionary contactGroupMeta = BdfDictionary.of(
-				new BdfEntry(GROUP_KEY_DISCOVERED, discoveredPropertiesDict)
-		);
-		BdfDictionary oldMetadata = BdfDictionary.of(
-				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
-				new BdfEntry(MSG_KEY_VERSION, 1),
-				new BdfEntry(MSG_KEY_LOCAL, true)
-		);
 		MessageId localGroupUpdateId = new MessageId(getRandomId());
 		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
-				singletonMap(localGroupUpdateId, oldMetadata);
-		MessageId contactGroupUpdateId = new MessageId(getRandomId());
-		Map<MessageId, BdfDictionary> contactGroupMessageMetadata =
-				singletonMap(contactGroupUpdateId, oldMetadata);
-		TransportProperties oldProperties = new TransportProperties();
-		oldProperties.put("fooKey1", "oldFooValue1");
-		BdfDictionary oldPropertiesDict = BdfDictionary.of(
-				new BdfEntry("fooKey1", "oldFooValue1")
-		);
-		BdfList oldUpdate = BdfList.of("foo", 1, oldPropertiesDict);
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 1),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 1, fooPropertiesDict);
 
 		context.checking(new DbExpectations() {{
-			oneOf(db).transaction(with(false), withDbRunnable(txn));
-			// Merge the new properties with the existing properties
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+			// Load the contacts
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(txn));
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			// Load the latest local properties
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
 					localGroup.getId());
 			will(returnValue(localGroupMessageMetadata));
-			oneOf(clientHelper).getMessageAsList(txn, localGroupUpdateId,
+			oneOf(clientHelper).getMessageAsList(txn1, localGroupUpdateId,
 					false);
-			will(returnValue(oldUpdate));
+			will(returnValue(localGroupUpdate));
 			oneOf(clientHelper).parseAndValidateTransportProperties(
-					oldPropertiesDict);
-			will(returnValue(oldProperties));
-			// Store the merged properties in the local group, version 2
-			expectStoreMessage(txn, localGroup.getId(), "foo",
-					fooPropertiesDict, 2, true, false);
-			// Delete the previous update
-			oneOf(db).removeMessage(txn, localGroupUpdateId);
-			// Store the merged properties in each contact's group, version 2
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			// The contact has been removed since the fan-out started
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(db).containsGroup(txn1, contactGroup.getId());
+			will(returnValue(false));
+			// The fan-out is complete
+			oneOf(clientHelper).mergeMessageMetadata(txn1, localGroupUpdateId,
+					BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE)));
+		}});
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.startFanOut(new TransportId("foo"));
+		assertTrue(hasEvent(txn1, LocalTransportPropertiesUpdatedEvent.class));
+	}
+
+	@Test
+	public void testFailedFanOutBatchIsRetried() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Contact contact = getContact();
+		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		MessageId localGroupUpdateId = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 1),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 1, fooPropertiesDict);
+		AtomicReference<Runnable> retry = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			// Load the contacts
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(txn));
 			oneOf(db).getContacts(txn);
 			will(returnValue(singletonList(contact)));
+			// The batch fails
+			oneOf(db).transaction(with(false),
+					with(any(DbRunnable.class)));
+			will(throwException(new DbException()));
+			// The batch is retried later
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(FAN_OUT_RETRY_DELAY_MS),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(retry, Runnable.class, 0));
+		}});
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.startFanOut(new TransportId("foo"));
+
+		context.checking(new DbExpectations() {{
+			// Load the latest local properties
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
+					localGroup.getId());
+			will(returnValue(localGroupMessageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn1, localGroupUpdateId,
+					false);
+			will(returnValue(localGroupUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			// The contact has been removed since the fan-out started
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
+			oneOf(db).containsGroup(txn1, contactGroup.getId());
+			will(returnValue(false));
+			// The fan-out is complete
+			oneOf(clientHelper).mergeMessageMetadata(txn1, localGroupUpdateId,
+					BdfDictionary.of(
+							new BdfEntry(MSG_KEY_FAN_OUT_PENDING, NULL_VALUE)));
+		}});
+
+		retry.get().run();
+		assertTrue(hasEvent(txn1, LocalTransportPropertiesUpdatedEvent.class));
+	}
+
+	@Test
+	public void testFanOutIsCoalescedWithScheduledFanOut() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		MessageId localGroupUpdateId = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> localGroupMessageMetadata =
+				singletonMap(localGroupUpdateId, BdfDictionary.of(
+						new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+						new BdfEntry(MSG_KEY_VERSION, 1),
+						new BdfEntry(MSG_KEY_LOCAL, true),
+						new BdfEntry(MSG_KEY_FAN_OUT_PENDING, true)
+				));
+		BdfList localGroupUpdate = BdfList.of("foo", 1, fooPropertiesDict);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
 			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroup.getId());
-			will(returnValue(contactGroupMessageMetadata));
-			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
-					contactGroup.getId());
-			will(returnValue(contactGroupMeta));
-			// Reflect discovered properties
-			oneOf(clientHelper).parseAndValidateTransportProperties(
-					discoveredPropertiesDict);
-			will(returnValue(discoveredProperties));
-			expectStoreMessage(txn, contactGroup.getId(), "foo",
-					mergedPropertiesDict, 2, true, true);
-			// Delete the previous update
-			oneOf(db).removeMessage(txn, contactGroupUpdateId);
+					localGroup.getId());
+			will(returnValue(emptyMap()));
 		}});
+		expectStoreMessage(txn, localGroup.getId(), "foo", fooPropertiesDict,
+				1, true, false, true);
+
+		// The first change schedules a fan-out
+		expectScheduleFanOut();
 
 		TransportPropertyManagerImpl t = createInstance();
 		t.mergeLocalProperties(new TransportId("foo"), fooProperties);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
+					localGroup.getId());
+			will(returnValue(localGroupMessageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn1, localGroupUpdateId,
+					false);
+			will(returnValue(localGroupUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			oneOf(db).removeMessage(txn1, localGroupUpdateId);
+		}});
+		expectStoreMessage(txn1, localGroup.getId(), "foo",
+				mergedPropertiesDict, 2, true, false, true);
+
+		// The second change is picked up by the scheduled fan-out
+		t.mergeLocalProperties(new TransportId("foo"), mergedProperties);
 	}
 
 	private void expectGetLocalProperties(Transaction txn) throws Exception {
@@ -837,6 +1095,14 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 	private void expectStoreMessage(Transaction txn, GroupId g,
 			String transportId, BdfDictionary properties, long version,
 			boolean local, boolean shared) throws Exception {
+		expectStoreMessage(txn, g, transportId, properties, version, local,
+				shared, false);
+	}
+
+	private void expectStoreMessage(Transaction txn, GroupId g,
+			String transportId, BdfDictionary properties, long version,
+			boolean local, boolean shared, boolean fanOutPending)
+			throws Exception {
 		BdfList body = BdfList.of(transportId, version, properties);
 		Message message = getMessage(g);
 		long timestamp = message.getTimestamp();
@@ -845,6 +1111,7 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 				new BdfEntry(MSG_KEY_VERSION, version),
 				new BdfEntry(MSG_KEY_LOCAL, local)
 		);
+		if (fanOutPending) meta.put(MSG_KEY_FAN_OUT_PENDING, true);
 
 		context.checking(new Expectations() {{
 			oneOf(clock).currentTimeMillis();
@@ -855,4 +1122,23 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 					false);
 		}});
 	}
+
+	private AtomicReference<Runnable> expectScheduleFanOut() {
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(FAN_OUT_DELAY_MS),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+		return task;
+	}
+
+	private void runAttachedTasks(Transaction txn) {
+		for (CommitAction action : txn.getActions()) {
+			if (action instanceof TaskAction) {
+				((TaskAction) action).getTask().run();
+			}
+		}
+	}
 }
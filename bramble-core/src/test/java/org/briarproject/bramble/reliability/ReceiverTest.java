@@ -0,0 +1,141 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.reliability.WriteHandler;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReceiverTest extends BrambleTestCase {
+
+	private static final int WINDOW_SIZE = 8 * Data.MAX_PAYLOAD_LENGTH;
+
+	private final Clock clock = new SystemClock();
+	private final List<byte[]> written = new ArrayList<>();
+	private final WriteHandler writeHandler = written::add;
+	private final Sender sender =
+			new Sender(clock, writeHandler, WINDOW_SIZE);
+
+	@Test
+	public void testAcksOutOfOrderFramesWithSackBlocks() throws Exception {
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		receiver.handleRead(createDataFrame(1));
+		receiver.handleRead(createDataFrame(3));
+		receiver.handleRead(createDataFrame(4));
+		receiver.handleRead(createDataFrame(6));
+
+		assertEquals(4, written.size());
+		Ack a = new Ack(written.get(3));
+		assertEquals(a.calculateChecksum(), a.getChecksum());
+		assertEquals(6, a.getSequenceNumber());
+		assertEquals(1, a.getCumulativeAck());
+		assertEquals(2, a.getSackBlockCount());
+		assertEquals(3, a.getSackBlockStart(0));
+		assertEquals(4, a.getSackBlockEnd(0));
+		assertEquals(6, a.getSackBlockStart(1));
+		assertEquals(6, a.getSackBlockEnd(1));
+		assertEquals(WINDOW_SIZE - 4 * 10, a.getWindowSize());
+	}
+
+	@Test
+	public void testFillingGapAdvancesCumulativeAck() throws Exception {
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		receiver.handleRead(createDataFrame(2));
+		receiver.handleRead(createDataFrame(3));
+		receiver.handleRead(createDataFrame(1));
+
+		Ack a = new Ack(written.get(2));
+		assertEquals(1, a.getSequenceNumber());
+		assertEquals(3, a.getCumulativeAck());
+		assertEquals(0, a.getSackBlockCount());
+	}
+
+	@Test
+	public void testReadsFramesInOrder() throws Exception {
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		receiver.handleRead(createDataFrame(2));
+		receiver.handleRead(createDataFrame(1));
+
+		assertEquals(1, receiver.read().getSequenceNumber());
+		assertEquals(2, receiver.read().getSequenceNumber());
+		// Each read sends a window update
+		Ack a = new Ack(written.get(written.size() - 1));
+		assertEquals(0, a.getSequenceNumber());
+		assertEquals(WINDOW_SIZE, a.getWindowSize());
+	}
+
+	@Test
+	public void testIgnoresFramesBeyondRingBuffer() throws Exception {
+		int windowSize = 2 * Data.MAX_PAYLOAD_LENGTH;
+		Receiver receiver = new Receiver(clock, sender, windowSize);
+		receiver.handleRead(createDataFrame(3));
+
+		Ack a = new Ack(written.get(0));
+		assertEquals(3, a.getSequenceNumber());
+		assertEquals(0, a.getCumulativeAck());
+		assertEquals(0, a.getSackBlockCount());
+		assertEquals(windowSize, a.getWindowSize());
+	}
+
+	@Test
+	public void testLastFrameDiscardsLaterFrames() throws Exception {
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		receiver.handleRead(createDataFrame(3));
+		Data last = new Data(new byte[Data.MIN_LENGTH + 10]);
+		last.setLastFrame(true);
+		last.setSequenceNumber(2);
+		last.setChecksum(last.calculateChecksum());
+		receiver.handleRead(last.getBuffer());
+
+		Ack a = new Ack(written.get(1));
+		assertEquals(2, a.getSequenceNumber());
+		assertEquals(0, a.getCumulativeAck());
+		assertEquals(1, a.getSackBlockCount());
+		assertEquals(2, a.getSackBlockStart(0));
+		assertEquals(2, a.getSackBlockEnd(0));
+		assertEquals(WINDOW_SIZE - 10, a.getWindowSize());
+	}
+
+	@Test
+	public void testAcksUseSackFrameType() throws Exception {
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		receiver.handleRead(createDataFrame(1));
+
+		assertEquals(1, written.size());
+		assertEquals(Frame.SACK_FLAG, written.get(0)[0]);
+	}
+
+	@Test
+	public void testIgnoresAcksInOriginalFormat() throws Exception {
+		List<byte[]> acks = new ArrayList<>();
+		Sender sender = new Sender(clock, writeHandler, WINDOW_SIZE) {
+			@Override
+			void handleAck(byte[] b) {
+				acks.add(b);
+			}
+		};
+		Receiver receiver = new Receiver(clock, sender, WINDOW_SIZE);
+		// An ack in the original format isn't passed to the sender
+		byte[] original = new byte[11];
+		original[0] = Frame.ACK_FLAG;
+		receiver.handleRead(original);
+		assertEquals(0, acks.size());
+		// An ack with SACK blocks is passed to the sender
+		Ack a = new Ack(0);
+		a.setChecksum(a.calculateChecksum());
+		receiver.handleRead(a.getBuffer());
+		assertEquals(1, acks.size());
+	}
+
+	static byte[] createDataFrame(long sequenceNumber) {
+		Data d = new Data(new byte[Data.MIN_LENGTH + 10]);
+		d.setSequenceNumber(sequenceNumber);
+		d.setChecksum(d.calculateChecksum());
+		return d.getBuffer();
+	}
+}
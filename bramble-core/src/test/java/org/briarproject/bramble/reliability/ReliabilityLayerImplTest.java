@@ -0,0 +1,99 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.reliability.ReadHandler;
+import org.briarproject.bramble.api.reliability.WriteHandler;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+
+public class ReliabilityLayerImplTest extends BrambleTestCase {
+
+	private static final int LATENCY_MS = 100;
+	private static final double LOSS_RATE = 0.05;
+	private static final int WINDOW_SIZE = 64 * Data.MAX_PAYLOAD_LENGTH;
+
+	private final Clock clock = new SystemClock();
+	private final ExecutorService executor = newCachedThreadPool();
+	private final ScheduledExecutorService scheduler =
+			newSingleThreadScheduledExecutor();
+	// Use a fixed seed so any failures are reproducible
+	private final Random random = new Random(1234);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test(timeout = 60 * 1000)
+	public void testTransfersDataOverLossyHighLatencyPipe() throws Exception {
+		LossyPipe aToB = new LossyPipe(), bToA = new LossyPipe();
+		ReliabilityLayerImpl a =
+				new ReliabilityLayerImpl(executor, clock, aToB, WINDOW_SIZE);
+		ReliabilityLayerImpl b =
+				new ReliabilityLayerImpl(executor, clock, bToA, WINDOW_SIZE);
+		aToB.readHandler = b;
+		bToA.readHandler = a;
+		a.start();
+		b.start();
+
+		byte[] data = getRandomBytes(256 * 1024);
+		Future<?> writer = executor.submit(() -> {
+			OutputStream out = a.getOutputStream();
+			out.write(data);
+			out.close();
+			return null;
+		});
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		InputStream in = b.getInputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while ((read = in.read(buf)) != -1) received.write(buf, 0, read);
+		writer.get(1, MINUTES);
+		assertArrayEquals(data, received.toByteArray());
+
+		a.stop();
+		b.stop();
+	}
+
+	/**
+	 * Delivers writes to a read handler after a fixed delay, dropping some
+	 * of them at random.
+	 */
+	private class LossyPipe implements WriteHandler {
+
+		private volatile ReadHandler readHandler;
+
+		@Override
+		public void handleWrite(byte[] b) {
+			synchronized (random) {
+				if (random.nextDouble() < LOSS_RATE) return;
+			}
+			scheduler.schedule(() -> {
+				try {
+					readHandler.handleRead(b);
+				} catch (IOException e) {
+					// The layer has been stopped
+				}
+			}, LATENCY_MS, MILLISECONDS);
+		}
+	}
+}
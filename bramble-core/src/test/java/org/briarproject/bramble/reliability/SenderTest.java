@@ -0,0 +1,90 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.reliability.WriteHandler;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.SettableClock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.briarproject.bramble.reliability.ReceiverTest.createDataFrame;
+import static org.junit.Assert.assertEquals;
+
+public class SenderTest extends BrambleTestCase {
+
+	private static final int WINDOW_SIZE = 8 * Data.MAX_PAYLOAD_LENGTH;
+
+	private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+	private final List<byte[]> written = new ArrayList<>();
+	private final WriteHandler writeHandler = written::add;
+	private final Sender sender =
+			new Sender(new SettableClock(time), writeHandler, WINDOW_SIZE);
+
+	@Test
+	public void testSelectiveAcksTriggerFastRetransmission() throws Exception {
+		for (int i = 1; i <= 5; i++) sender.write(new Data(createDataFrame(i)));
+		assertEquals(5, written.size());
+
+		// Frame 1 is lost - the next two acks don't retransmit it
+		sender.handleAck(createAck(2, 0, 2, 2));
+		sender.handleAck(createAck(3, 0, 2, 3));
+		assertEquals(5, written.size());
+		// The third ack for a later frame retransmits frame 1
+		sender.handleAck(createAck(4, 0, 2, 4));
+		assertEquals(6, written.size());
+		assertEquals(1, new Data(written.get(5)).getSequenceNumber());
+		// Acking all the frames empties the window
+		sender.handleAck(createAck(1, 5));
+		sender.flush();
+		assertEquals(6, written.size());
+	}
+
+	@Test
+	public void testSelectivelyAckedFramesAreNotRetransmitted()
+			throws Exception {
+		for (int i = 1; i <= 3; i++) sender.write(new Data(createDataFrame(i)));
+		sender.handleAck(createAck(3, 0, 2, 3));
+		assertEquals(3, written.size());
+
+		// After the retransmission timeout, only frame 1 is retransmitted
+		time.addAndGet(60 * 1000 + 1);
+		sender.tick();
+		assertEquals(4, written.size());
+		assertEquals(1, new Data(written.get(3)).getSequenceNumber());
+	}
+
+	@Test
+	public void testRetransmissionTimeoutAdaptsToRoundTripTime()
+			throws Exception {
+		sender.write(new Data(createDataFrame(1)));
+		// The ack arrives after 5 seconds
+		time.addAndGet(5000);
+		sender.handleAck(createAck(1, 1));
+
+		sender.write(new Data(createDataFrame(2)));
+		assertEquals(2, written.size());
+		// The timeout is longer than the measured round-trip time
+		time.addAndGet(5000);
+		sender.tick();
+		assertEquals(2, written.size());
+		// But not unbounded
+		time.addAndGet(10 * 1000 + 1);
+		sender.tick();
+		assertEquals(3, written.size());
+		assertEquals(2, new Data(written.get(2)).getSequenceNumber());
+	}
+
+	private byte[] createAck(long sequenceNumber, long cumulativeAck,
+			long... sackBlocks) {
+		Ack a = new Ack(sackBlocks.length / 2);
+		a.setSequenceNumber(sequenceNumber);
+		a.setWindowSize(WINDOW_SIZE);
+		a.setCumulativeAck(cumulativeAck);
+		for (int i = 0; i < sackBlocks.length / 2; i++)
+			a.setSackBlock(i, sackBlocks[i * 2], sackBlocks[i * 2 + 1]);
+		a.setChecksum(a.calculateChecksum());
+		return a.getBuffer();
+	}
+}
@@ -0,0 +1,89 @@
+package org.briarproject.bramble.settings;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class SettingsManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+
+	private final SettingsManagerImpl settingsManager =
+			new SettingsManagerImpl(db);
+	private final String namespace = "namespace";
+	private final Settings settings = new Settings();
+
+	public SettingsManagerImplTest() {
+		settings.put("foo", "bar");
+	}
+
+	@Test
+	public void testSettingsAreLoadedOnce() throws Exception {
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getSettings(txn, namespace);
+			will(returnValue(settings));
+		}});
+
+		Settings first = settingsManager.getSettings(namespace);
+		assertEquals(settings, first);
+		// Modifying the returned settings should not affect the cache
+		first.put("foo", "baz");
+		Settings second = settingsManager.getSettings(namespace);
+		assertEquals(settings, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testSettingsAreNotCachedFromWriteTransaction()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).getSettings(txn, namespace);
+			will(returnValue(settings));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getSettings(txn1, namespace);
+			will(returnValue(settings));
+		}});
+
+		assertEquals(settings, settingsManager.getSettings(txn, namespace));
+		// The settings should be loaded again from a read-only transaction
+		assertEquals(settings, settingsManager.getSettings(namespace));
+		// The settings should now be cached
+		assertEquals(settings, settingsManager.getSettings(namespace));
+	}
+
+	@Test
+	public void testMergingSettingsInvalidatesCache() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		Settings update = new Settings();
+		update.put("foo", "baz");
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getSettings(txn, namespace);
+			will(returnValue(settings));
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).mergeSettings(txn1, update, namespace);
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn2));
+			oneOf(db).getSettings(txn2, namespace);
+			will(returnValue(update));
+		}});
+
+		assertEquals(settings, settingsManager.getSettings(namespace));
+		settingsManager.mergeSettings(update, namespace);
+		assertEquals(update, settingsManager.getSettings(namespace));
+	}
+}
@@ -0,0 +1,453 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.DifferenceReceivedEvent;
+import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
+import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
+import org.briarproject.bramble.api.sync.event.SummaryReceivedEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.PredicateMatcher;
+import org.hamcrest.Matcher;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUMMARY_FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.junit.Assert.fail;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	private static final int MAX_LATENCY = Integer.MAX_VALUE;
+	private static final int MAX_IDLE_TIME = 30_000;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+	private final Executor dbExecutor = new ImmediateExecutor();
+
+	private final ContactId contactId = getContactId();
+	private final TransportId transportId = getTransportId();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Message message1 = getMessage(groupId);
+	private final Message message2 = getMessage(groupId);
+	private final Ack ack =
+			new Ack(singletonList(new MessageId(getRandomId())));
+	private final Ack ack1 =
+			new Ack(singletonList(new MessageId(getRandomId())));
+	private final MessageId offeredId = new MessageId(getRandomId());
+	private final Offer offer = new Offer(singletonList(offeredId));
+	private final Request request =
+			new Request(singletonList(new MessageId(getRandomId())));
+	private final Summary summary = new Summary(groupId, 0, new int[] {1},
+			new byte[][] {getRandomBytes(SUMMARY_FINGERPRINT_LENGTH)});
+	private final Collection<MessageId> summarised =
+			singletonList(message1.getId());
+	private final Difference difference =
+			new Difference(groupId, 0, new boolean[] {true});
+
+	@Test
+	public void testRecordsAreWrittenInOrderOfRank() throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, eventBus, clock, contactId, transportId,
+				MAX_LATENCY, MAX_IDLE_TIME, streamWriter, recordWriter, null,
+				new SyncMetrics(new MetricRegistryImpl()), emptyMap());
+
+		Transaction ackTxn = new Transaction(null, false);
+		Transaction batchTxn = new Transaction(null, false);
+		Transaction summaryTxn = new Transaction(null, true);
+		Transaction offerTxn = new Transaction(null, false);
+		Transaction requestTxn = new Transaction(null, false);
+		Transaction ack1Txn = new Transaction(null, false);
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction noRequestTxn = new Transaction(null, false);
+		Transaction noOfferTxn = new Transaction(null, false);
+		Transaction noBatchTxn = new Transaction(null, false);
+		Transaction resetTxn = new Transaction(null, false);
+		Sequence writes = context.sequence("writes");
+
+		context.checking(new DbExpectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(1000L));
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			inSequence(writes);
+			// Generate one record of each type, in the order in which the
+			// session starts its queries
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(ackTxn));
+			oneOf(db).generateAck(ackTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(batchTxn));
+			oneOf(db).generateRequestedBatch(with(batchTxn),
+					with(contactId), with(any(long.class)),
+					with((long) MAX_LATENCY), with(emptyMap()));
+			will(returnValue(asList(message1, message2)));
+			oneOf(db).getNextSendTime(batchTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// The contact doesn't support set reconciliation, so offers are
+			// generated straight away
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(summaryTxn));
+			oneOf(db).getSyncVersions(summaryTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(offerTxn));
+			oneOf(db).generateOffer(offerTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(offer));
+			oneOf(db).getNextSendTime(offerTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(requestTxn));
+			oneOf(db).generateRequest(requestTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(request));
+			// The ack is written first, then the request and the offer
+			oneOf(recordWriter).writeAck(ack);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			oneOf(recordWriter).writeRequest(request);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			oneOf(recordWriter).writeOffer(offer);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noOfferTxn));
+			oneOf(db).generateOffer(noOfferTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noOfferTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// The first message of the batch is written, during which
+			// another message needs to be acked
+			oneOf(recordWriter).writeMessage(message1);
+			inSequence(writes);
+			will(new CustomAction("ack another message") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					session.eventOccurred(new MessageToAckEvent(contactId));
+					return null;
+				}
+			});
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(ack1Txn));
+			oneOf(db).generateAck(ack1Txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack1));
+			// The new ack is written before the rest of the batch
+			oneOf(recordWriter).writeAck(ack1);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			oneOf(recordWriter).writeMessage(message2);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noBatchTxn));
+			oneOf(db).generateRequestedBatch(with(noBatchTxn),
+					with(contactId), with(any(long.class)),
+					with((long) MAX_LATENCY), with(emptyMap()));
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noBatchTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// Nothing more to write, so flush the stream and close the
+			// session
+			oneOf(recordWriter).flush();
+			inSequence(writes);
+			will(new CustomAction("interrupt the session") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					session.interrupt();
+					return null;
+				}
+			});
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			inSequence(writes);
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// Nothing was acked, so the offered and sent messages are reset
+			oneOf(db).transaction(with(false), withDbRunnable(resetTxn));
+			oneOf(db).resetUnackedMessagesToSend(with(resetTxn),
+					with(contactId), with(sameIds(offeredId,
+							message1.getId(), message2.getId())));
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testOffersAreHeldBackUntilSummariesAreAnswered()
+			throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, eventBus, clock, contactId, transportId,
+				MAX_LATENCY, MAX_IDLE_TIME, streamWriter, recordWriter, null,
+				new SyncMetrics(new MetricRegistryImpl()), emptyMap());
+
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction noBatchTxn = new Transaction(null, false);
+		Transaction summaryTxn = new Transaction(null, true);
+		Transaction differenceTxn = new Transaction(null, false);
+		Transaction noRequestTxn = new Transaction(null, false);
+		Transaction offerTxn = new Transaction(null, false);
+		Transaction noOfferTxn = new Transaction(null, false);
+		Transaction resetTxn = new Transaction(null, false);
+		Sequence writes = context.sequence("writes");
+
+		context.checking(new DbExpectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(1000L));
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			inSequence(writes);
+			// No acks, batches or requests to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noBatchTxn));
+			oneOf(db).generateRequestedBatch(with(noBatchTxn),
+					with(contactId), with(any(long.class)),
+					with((long) MAX_LATENCY), with(emptyMap()));
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noBatchTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// The contact supports set reconciliation, so a group is
+			// summarised
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(summaryTxn));
+			oneOf(db).getSyncVersions(summaryTxn, contactId);
+			will(returnValue(SUPPORTED_VERSIONS));
+			oneOf(db).generateSummaries(with(summaryTxn), with(contactId),
+					with(any(int.class)));
+			will(returnValue(singletonList(new Pair<>(summary, summarised))));
+			// The summary is written, during which the contact sends its
+			// own summary and replies to ours
+			oneOf(recordWriter).writeSummary(summary);
+			inSequence(writes);
+			will(new CustomAction("receive summary and difference") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					session.eventOccurred(
+							new SummaryReceivedEvent(contactId, difference));
+					session.eventOccurred(
+							new DifferenceReceivedEvent(contactId, difference));
+					return null;
+				}
+			});
+			// The reply is processed using the IDs covered by the summary
+			oneOf(db).transaction(with(false), withDbRunnable(differenceTxn));
+			inSequence(writes);
+			oneOf(db).receiveDifference(differenceTxn, contactId, difference,
+					summarised);
+			// Offers are only generated once the reply has been processed
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(offerTxn));
+			inSequence(writes);
+			oneOf(db).generateOffer(offerTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(offer));
+			oneOf(db).getNextSendTime(offerTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// Our reply to the contact's summary is written before the offer
+			oneOf(recordWriter).writeDifference(difference);
+			inSequence(writes);
+			oneOf(recordWriter).writeOffer(offer);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noOfferTxn));
+			oneOf(db).generateOffer(noOfferTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noOfferTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// Nothing more to write, so flush the stream and close the
+			// session
+			oneOf(recordWriter).flush();
+			inSequence(writes);
+			will(new CustomAction("interrupt the session") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					session.interrupt();
+					return null;
+				}
+			});
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			inSequence(writes);
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// The offered message wasn't acked, so it's reset
+			oneOf(db).transaction(with(false), withDbRunnable(resetTxn));
+			oneOf(db).resetUnackedMessagesToSend(with(resetTxn),
+					with(contactId), with(sameIds(offeredId)));
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testUnackedMessagesAreResetWhenConnectionDrops()
+			throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, eventBus, clock, contactId, transportId,
+				MAX_LATENCY, MAX_IDLE_TIME, streamWriter, recordWriter, null,
+				new SyncMetrics(new MetricRegistryImpl()), emptyMap());
+
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction batchTxn = new Transaction(null, false);
+		Transaction summaryTxn = new Transaction(null, true);
+		Transaction offerTxn = new Transaction(null, false);
+		Transaction noOfferTxn = new Transaction(null, false);
+		Transaction noRequestTxn = new Transaction(null, false);
+		Transaction resetTxn = new Transaction(null, false);
+		Sequence writes = context.sequence("writes");
+
+		context.checking(new DbExpectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(1000L));
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			inSequence(writes);
+			// A batch and an offer are generated
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(batchTxn));
+			oneOf(db).generateRequestedBatch(with(batchTxn),
+					with(contactId), with(any(long.class)),
+					with((long) MAX_LATENCY), with(emptyMap()));
+			will(returnValue(asList(message1, message2)));
+			oneOf(db).getNextSendTime(batchTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(summaryTxn));
+			oneOf(db).getSyncVersions(summaryTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(offerTxn));
+			oneOf(db).generateOffer(offerTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(offer));
+			oneOf(db).getNextSendTime(offerTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// The offer is written
+			oneOf(recordWriter).writeOffer(offer);
+			inSequence(writes);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noOfferTxn));
+			oneOf(db).generateOffer(noOfferTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, emptyMap());
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noOfferTxn, contactId, MAX_LATENCY);
+			will(returnValue(Long.MAX_VALUE));
+			// The first message is written, during which the contact acks
+			// it
+			oneOf(recordWriter).writeMessage(message1);
+			inSequence(writes);
+			will(new CustomAction("ack the first message") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					session.eventOccurred(new MessagesAckedEvent(contactId,
+							singletonList(message1.getId())));
+					return null;
+				}
+			});
+			// The connection drops while the second message is written
+			oneOf(recordWriter).writeMessage(message2);
+			inSequence(writes);
+			will(throwException(new IOException()));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// The offered message and the second message weren't acked, so
+			// they're reset
+			oneOf(db).transaction(with(false), withDbRunnable(resetTxn));
+			oneOf(db).resetUnackedMessagesToSend(with(resetTxn),
+					with(contactId),
+					with(sameIds(offeredId, message2.getId())));
+		}});
+
+		try {
+			session.run();
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	private Matcher<Collection<MessageId>> sameIds(MessageId... ids) {
+		Set<MessageId> expected = new HashSet<>(asList(ids));
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Matcher<Collection<MessageId>> matcher = new PredicateMatcher(
+				Collection.class, c -> new HashSet<>((Collection<?>) c)
+				.equals(expected));
+		return matcher;
+	}
+}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.mailbox.MailboxConstants.MAX_FILE_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
@@ -58,7 +59,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 		MailboxOutgoingSession session = new MailboxOutgoingSession(db,
 				eventBus, contactId, transportId, MAX_LATENCY,
 				streamWriter, recordWriter, sessionRecord,
-				MAX_FILE_PAYLOAD_BYTES);
+				MAX_FILE_PAYLOAD_BYTES, emptyMap());
 
 		Transaction noAckIdTxn = new Transaction(null, true);
 		Transaction noMsgIdTxn = new Transaction(null, true);
@@ -82,7 +83,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithResult(with(true),
 					withDbCallable(noMsgIdTxn));
 			oneOf(db).getMessagesToSend(noMsgIdTxn, contactId,
-					capacityForMessages, MAX_LATENCY);
+					capacityForMessages, MAX_LATENCY, emptyMap());
 			will(returnValue(emptyList()));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
@@ -102,7 +103,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 		MailboxOutgoingSession session = new MailboxOutgoingSession(db,
 				eventBus, contactId, transportId, MAX_LATENCY,
 				streamWriter, recordWriter, sessionRecord,
-				MAX_FILE_PAYLOAD_BYTES);
+				MAX_FILE_PAYLOAD_BYTES, emptyMap());
 
 		Transaction ackIdTxn = new Transaction(null, true);
 		Transaction msgIdTxn = new Transaction(null, true);
@@ -137,7 +138,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithResult(with(true),
 					withDbCallable(msgIdTxn));
 			oneOf(db).getMessagesToSend(msgIdTxn, contactId,
-					capacityForMessages, MAX_LATENCY);
+					capacityForMessages, MAX_LATENCY, emptyMap());
 			will(returnValue(singletonList(message1.getId())));
 			// Send the message
 			oneOf(db).transactionWithNullableResult(with(true),
@@ -171,7 +172,8 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 		OutgoingSessionRecord sessionRecord = new OutgoingSessionRecord();
 		MailboxOutgoingSession session = new MailboxOutgoingSession(db,
 				eventBus, contactId, transportId, MAX_LATENCY,
-				streamWriter, recordWriter, sessionRecord, capacity);
+				streamWriter, recordWriter, sessionRecord, capacity,
+				emptyMap());
 
 		Transaction ackIdTxn = new Transaction(null, true);
 
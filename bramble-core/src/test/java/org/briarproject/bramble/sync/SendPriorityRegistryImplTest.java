@@ -0,0 +1,51 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.SendPriority;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.api.sync.SendPriority.HIGH;
+import static org.briarproject.bramble.api.sync.SendPriority.LOW;
+import static org.briarproject.bramble.api.sync.SendPriority.NORMAL;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.junit.Assert.assertEquals;
+
+public class SendPriorityRegistryImplTest extends BrambleTestCase {
+
+	private final ClientId clientId = getClientId();
+	private final ClientMajorVersion clientMajorVersion =
+			new ClientMajorVersion(clientId, 123);
+
+	private final SendPriorityRegistryImpl registry =
+			new SendPriorityRegistryImpl();
+
+	@Test
+	public void testNormalPriorityIsNotReturned() {
+		assertEquals(emptyMap(), registry.getSendPriorities());
+
+		registry.setSendPriority(clientId, 123, HIGH);
+		assertEquals(singletonMap(clientMajorVersion, HIGH),
+				registry.getSendPriorities());
+
+		registry.setSendPriority(clientId, 123, NORMAL);
+		assertEquals(emptyMap(), registry.getSendPriorities());
+	}
+
+	@Test
+	public void testReturnedPrioritiesAreASnapshot() {
+		registry.setSendPriority(clientId, 123, LOW);
+		Map<ClientMajorVersion, SendPriority> snapshot =
+				registry.getSendPriorities();
+
+		registry.setSendPriority(clientId, 123, HIGH);
+		assertEquals(singletonMap(clientMajorVersion, LOW), snapshot);
+		assertEquals(singletonMap(clientMajorVersion, HIGH),
+				registry.getSendPriorities());
+	}
+}
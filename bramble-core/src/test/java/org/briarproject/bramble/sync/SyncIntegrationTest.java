@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.crypto.TransportCrypto;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.Message;
@@ -14,6 +15,7 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
@@ -34,10 +36,12 @@ import java.util.Collection;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_GROUP_DESCRIPTOR_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUMMARY_FINGERPRINT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.junit.Assert.assertArrayEquals;
@@ -68,6 +72,8 @@ public class SyncIntegrationTest extends BrambleTestCase {
 	private final long streamNumber;
 	private final Message message, message1;
 	private final Collection<MessageId> messageIds;
+	private final Summary summary;
+	private final Difference difference;
 
 	public SyncIntegrationTest() throws Exception {
 
@@ -95,6 +101,15 @@ public class SyncIntegrationTest extends BrambleTestCase {
 		message = messageFactory.createMessage(group.getId(), timestamp, body);
 		message1 = messageFactory.createMessage(group.getId(), timestamp, body);
 		messageIds = Arrays.asList(message.getId(), message1.getId());
+		// Summarise the group and reply to the summary
+		byte[][] fingerprints = new byte[4][];
+		for (int i = 0; i < 4; i++) {
+			fingerprints[i] = getRandomBytes(SUMMARY_FINGERPRINT_LENGTH);
+		}
+		summary = new Summary(group.getId(), 2, new int[] {0, 1, 2, 3},
+				fingerprints);
+		difference = new Difference(group.getId(), 2,
+				new boolean[] {false, true, true, false});
 	}
 
 	@Test
@@ -116,6 +131,8 @@ public class SyncIntegrationTest extends BrambleTestCase {
 		recordWriter.writeMessage(message1);
 		recordWriter.writeOffer(new Offer(messageIds));
 		recordWriter.writeRequest(new Request(messageIds));
+		recordWriter.writeSummary(summary);
+		recordWriter.writeDifference(difference);
 
 		streamWriter.sendEndOfStream();
 		return out.toByteArray();
@@ -165,6 +182,26 @@ public class SyncIntegrationTest extends BrambleTestCase {
 		Request req = recordReader.readRequest();
 		assertEquals(messageIds, req.getMessageIds());
 
+		// Read the summary
+		assertTrue(recordReader.hasSummary());
+		Summary s = recordReader.readSummary();
+		assertEquals(summary.getGroupId(), s.getGroupId());
+		assertEquals(summary.getBucketBits(), s.getBucketBits());
+		for (int i = 0; i < summary.getBucketCount(); i++) {
+			assertEquals(summary.getCount(i), s.getCount(i));
+			assertArrayEquals(summary.getFingerprint(i),
+					s.getFingerprint(i));
+		}
+
+		// Read the difference
+		assertTrue(recordReader.hasDifference());
+		Difference d = recordReader.readDifference();
+		assertEquals(difference.getGroupId(), d.getGroupId());
+		assertEquals(difference.getBucketBits(), d.getBucketBits());
+		for (int i = 0; i < difference.getBucketCount(); i++) {
+			assertEquals(difference.isDifferent(i), d.isDifferent(i));
+		}
+
 		in.close();
 	}
 
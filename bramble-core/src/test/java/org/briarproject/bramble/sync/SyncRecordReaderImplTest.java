@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.record.RecordReader.RecordPredicate;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Difference;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
@@ -13,6 +14,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Summary;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.test.BrambleMockTestCase;
@@ -26,19 +28,26 @@ import java.util.List;
 
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.DIFFERENCE;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SUMMARY;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUMMARY_BUCKET_BITS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUMMARY_FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -181,6 +190,69 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		assertEquals(PRIORITY_NONCE_BYTES, priority.getNonce().length);
 	}
 
+	@Test
+	public void testNoFormatExceptionIfSummaryIsMaximumSize()
+			throws Exception {
+		byte[] payload = createSummaryPayload(MAX_SUMMARY_BUCKET_BITS);
+		expectReadRecord(new Record(PROTOCOL_VERSION, SUMMARY, payload));
+
+		Summary summary = reader.readSummary();
+		assertEquals(MAX_SUMMARY_BUCKET_BITS, summary.getBucketBits());
+		assertEquals(1 << MAX_SUMMARY_BUCKET_BITS, summary.getBucketCount());
+		int off = UniqueId.LENGTH + 1;
+		for (int i = 0; i < summary.getBucketCount(); i++) {
+			assertEquals(i, summary.getCount(i));
+			off += INT_32_BYTES;
+			byte[] fingerprint = new byte[SUMMARY_FINGERPRINT_LENGTH];
+			System.arraycopy(payload, off, fingerprint, 0,
+					SUMMARY_FINGERPRINT_LENGTH);
+			assertArrayEquals(fingerprint, summary.getFingerprint(i));
+			off += SUMMARY_FINGERPRINT_LENGTH;
+		}
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSummaryHasTooManyBucketBits()
+			throws Exception {
+		byte[] payload = createSummaryPayload(MAX_SUMMARY_BUCKET_BITS + 1);
+		expectReadRecord(new Record(PROTOCOL_VERSION, SUMMARY, payload));
+
+		reader.readSummary();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSummaryIsTruncated() throws Exception {
+		byte[] payload = createSummaryPayload(1);
+		byte[] truncated = new byte[payload.length - 1];
+		System.arraycopy(payload, 0, truncated, 0, truncated.length);
+		expectReadRecord(new Record(PROTOCOL_VERSION, SUMMARY, truncated));
+
+		reader.readSummary();
+	}
+
+	@Test
+	public void testReadsDifferenceBitmap() throws Exception {
+		byte[] payload = new byte[UniqueId.LENGTH + 2];
+		payload[UniqueId.LENGTH] = 3; // 8 buckets
+		payload[UniqueId.LENGTH + 1] = (byte) 0x81; // Buckets 0 and 7
+		expectReadRecord(new Record(PROTOCOL_VERSION, DIFFERENCE, payload));
+
+		Difference difference = reader.readDifference();
+		assertEquals(8, difference.getBucketCount());
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i == 0 || i == 7, difference.isDifferent(i));
+		}
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfDifferenceIsTooLarge() throws Exception {
+		byte[] payload = new byte[UniqueId.LENGTH + 3];
+		payload[UniqueId.LENGTH] = 3; // 8 buckets need a 1-byte bitmap
+		expectReadRecord(new Record(PROTOCOL_VERSION, DIFFERENCE, payload));
+
+		reader.readDifference();
+	}
+
 	@Test
 	public void testEofReturnsTrueWhenAtEndOfStream() throws Exception {
 		expectReadRecord(createAck());
@@ -268,6 +340,19 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		return new Record(PROTOCOL_VERSION, PRIORITY, payload);
 	}
 
+	private byte[] createSummaryPayload(int bucketBits) throws Exception {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		payload.write(getRandomId());
+		payload.write(bucketBits);
+		byte[] count = new byte[INT_32_BYTES];
+		for (int i = 0; i < 1 << bucketBits; i++) {
+			writeUint32(i, count, 0);
+			payload.write(count);
+			payload.write(getRandomBytes(SUMMARY_FINGERPRINT_LENGTH));
+		}
+		return payload.toByteArray();
+	}
+
 	private byte[] createPayload() throws Exception {
 		ByteArrayOutputStream payload = new ByteArrayOutputStream();
 		while (payload.size() + UniqueId.LENGTH <= MAX_RECORD_PAYLOAD_BYTES) {
@@ -12,6 +12,9 @@ import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.properties.TransportPropertyManager;
+import org.briarproject.bramble.api.properties.event.LocalTransportPropertiesUpdatedEvent;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.event.MessageStateChangedEvent;
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
@@ -324,6 +327,32 @@ public abstract class BrambleIntegrationTest<C extends BrambleIntegrationTestCom
 		if (!latch.await(1, MINUTES)) fail();
 	}
 
+	/**
+	 * Merges the given local transport properties and waits for them to be
+	 * copied into each contact's group.
+	 */
+	public static void mergeLocalProperties(
+			BrambleIntegrationTestComponent component,
+			TransportPropertyManager transportPropertyManager,
+			TransportId transportId, TransportProperties p) throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		EventBus eventBus = component.getEventBus();
+		EventListener listener = e -> {
+			if (e instanceof LocalTransportPropertiesUpdatedEvent) {
+				LocalTransportPropertiesUpdatedEvent l =
+						(LocalTransportPropertiesUpdatedEvent) e;
+				if (l.getTransportId().equals(transportId)) latch.countDown();
+			}
+		};
+		eventBus.addListener(listener);
+		try {
+			transportPropertyManager.mergeLocalProperties(transportId, p);
+			if (!latch.await(1, MINUTES)) fail();
+		} finally {
+			eventBus.removeListener(listener);
+		}
+	}
+
 	private static class MarkerEvent extends Event {
 	}
 
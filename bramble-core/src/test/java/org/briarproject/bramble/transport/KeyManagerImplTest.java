@@ -220,10 +220,8 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGetStreamContextForTag() throws Exception {
-		context.checking(new DbExpectations() {{
-			oneOf(db).transactionWithNullableResult(with(false),
-					withNullableDbCallable(txn));
-			oneOf(transportKeyManager).getStreamContext(txn, tag);
+		context.checking(new Expectations() {{
+			oneOf(transportKeyManager).getStreamContext(tag);
 			will(returnValue(contactStreamContext));
 		}});
 
@@ -231,6 +229,15 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 				keyManager.getStreamContext(transportId, tag));
 	}
 
+	@Test
+	public void testStopServiceWritesRecognisedTags() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(transportKeyManager).writeRecognisedTags();
+		}});
+
+		keyManager.stopService();
+	}
+
 	@Test
 	public void testContactRemovedEvent() {
 		ContactRemovedEvent event = new ContactRemovedEvent(contactId);
@@ -1,6 +1,8 @@
 package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamDecrypter;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.jmock.Expectations;
 import org.junit.Test;
@@ -10,6 +12,9 @@ import static org.junit.Assert.assertEquals;
 
 public class StreamReaderImplTest extends BrambleMockTestCase {
 
+	private final Counter counter =
+			new MetricRegistryImpl().getCounter("bytes", "Bytes");
+
 	@Test
 	public void testEmptyFramesAreSkipped() throws Exception {
 		StreamDecrypter decrypter = context.mock(StreamDecrypter.class);
@@ -23,7 +28,7 @@ public class StreamReaderImplTest extends BrambleMockTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = new StreamReaderImpl(decrypter, counter);
 		assertEquals(0, r.read()); // Skip the first empty frame, read a byte
 		assertEquals(0, r.read()); // Read another byte
 		assertEquals(-1, r.read()); // Skip the second empty frame, reach EOF
@@ -44,7 +49,7 @@ public class StreamReaderImplTest extends BrambleMockTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = new StreamReaderImpl(decrypter, counter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
 		// Skip the first empty frame, read the two payload bytes
 		assertEquals(2, r.read(buf));
@@ -64,7 +69,7 @@ public class StreamReaderImplTest extends BrambleMockTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = new StreamReaderImpl(decrypter, counter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH / 2];
 		// Read the first half of the payload
 		assertEquals(MAX_PAYLOAD_LENGTH / 2, r.read(buf));
@@ -84,7 +89,7 @@ public class StreamReaderImplTest extends BrambleMockTestCase {
 			oneOf(decrypter).readFrame(with(any(byte[].class)));
 			will(returnValue(-1)); // No more frames
 		}});
-		StreamReaderImpl r = new StreamReaderImpl(decrypter);
+		StreamReaderImpl r = new StreamReaderImpl(decrypter, counter);
 		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
 		// Read the first half of the payload
 		assertEquals(MAX_PAYLOAD_LENGTH / 2, r.read(buf, MAX_PAYLOAD_LENGTH / 2,
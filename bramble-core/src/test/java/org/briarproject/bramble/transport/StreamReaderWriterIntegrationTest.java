@@ -2,6 +2,9 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamDecrypter;
 import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.api.metrics.MetricRegistry;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.junit.Test;
@@ -23,6 +26,9 @@ public class StreamReaderWriterIntegrationTest extends BrambleTestCase {
 
 	@Test
 	public void testWriteAndRead() throws Exception {
+		MetricRegistry metricRegistry = new MetricRegistryImpl();
+		Counter bytesWritten = metricRegistry.getCounter("written", "");
+		Counter bytesRead = metricRegistry.getCounter("read", "");
 		// Generate a random tag
 		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
 		// Generate two frames with random payloads
@@ -31,7 +37,8 @@ public class StreamReaderWriterIntegrationTest extends BrambleTestCase {
 		// Write the tag and the frames
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamEncrypter encrypter = new TestStreamEncrypter(out, tag);
-		OutputStream streamWriter = new StreamWriterImpl(encrypter);
+		OutputStream streamWriter = new StreamWriterImpl(encrypter,
+				bytesWritten);
 		streamWriter.write(payload1);
 		streamWriter.flush();
 		streamWriter.write(payload2);
@@ -48,13 +55,18 @@ public class StreamReaderWriterIntegrationTest extends BrambleTestCase {
 		assertArrayEquals(tag, recoveredTag);
 		// Read the frames back
 		StreamDecrypter decrypter = new TestStreamDecrypter(in);
-		InputStream streamReader = new StreamReaderImpl(decrypter);
+		InputStream streamReader = new StreamReaderImpl(decrypter,
+				bytesRead);
 		byte[] recoveredPayload1 = new byte[payload1.length];
 		read(streamReader, recoveredPayload1);
 		assertArrayEquals(payload1, recoveredPayload1);
 		byte[] recoveredPayload2 = new byte[payload2.length];
 		read(streamReader, recoveredPayload2);
 		assertArrayEquals(payload2, recoveredPayload2);
+		// Check that the payload bytes were counted
+		long total = payload1.length + payload2.length;
+		assertEquals(total, bytesWritten.getCount());
+		assertEquals(total, bytesRead.getCount());
 		streamWriter.close();
 		streamReader.close();
 	}
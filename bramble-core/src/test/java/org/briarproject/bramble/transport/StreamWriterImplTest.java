@@ -1,6 +1,8 @@
 package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.metrics.Counter;
+import org.briarproject.bramble.metrics.MetricRegistryImpl;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.jmock.Expectations;
 import org.junit.Test;
@@ -10,6 +12,9 @@ import static org.junit.Assert.assertEquals;
 
 public class StreamWriterImplTest extends BrambleMockTestCase {
 
+	private final Counter counter =
+			new MetricRegistryImpl().getCounter("bytes", "Bytes");
+
 	@Test
 	public void testCloseWithoutWritingWritesFinalFrame() throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
@@ -20,7 +25,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 			// Flush the stream
 			oneOf(encrypter).flush();
 		}});
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		w.close();
 	}
 
@@ -28,7 +33,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 	public void testFlushWithoutBufferedDataWritesFrameAndFlushes()
 			throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		context.checking(new Expectations() {{
 			// Write a non-final frame with an empty payload
 			oneOf(encrypter).writeFrame(with(any(byte[].class)), with(0),
@@ -53,7 +58,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 	public void testFlushWithBufferedDataWritesFrameAndFlushes()
 			throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		context.checking(new Expectations() {{
 			// Write a non-final frame with one payload byte
 			oneOf(encrypter).writeFrame(with(any(byte[].class)), with(1),
@@ -78,7 +83,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 	@Test
 	public void testSingleByteWritesWriteFullFrame() throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		context.checking(new Expectations() {{
 			// Write a full non-final frame
 			oneOf(encrypter).writeFrame(with(any(byte[].class)),
@@ -100,7 +105,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 	@Test
 	public void testMultiByteWritesWriteFullFrames() throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		context.checking(new Expectations() {{
 			// Write two full non-final frames
 			exactly(2).of(encrypter).writeFrame(with(any(byte[].class)),
@@ -129,7 +134,7 @@ public class StreamWriterImplTest extends BrambleMockTestCase {
 	@Test
 	public void testLargeMultiByteWriteWritesFullFrames() throws Exception {
 		StreamEncrypter encrypter = context.mock(StreamEncrypter.class);
-		StreamWriterImpl w = new StreamWriterImpl(encrypter);
+		StreamWriterImpl w = new StreamWriterImpl(encrypter, counter);
 		context.checking(new Expectations() {{
 			// Write two full non-final frames
 			exactly(2).of(encrypter).writeFrame(with(any(byte[].class)),
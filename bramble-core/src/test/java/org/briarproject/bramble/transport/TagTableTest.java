@@ -0,0 +1,198 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.transport.TagTable.Match;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final TagTable<String> table = new TagTable<>();
+	private final Random random = new Random();
+
+	@Test
+	public void testPutGetAndRemove() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		assertNull(table.get(tag));
+
+		table.put(tag, "foo", 123);
+		Match<String> match = table.get(tag);
+		assertNotNull(match);
+		assertEquals("foo", match.getValue());
+		assertEquals(123, match.getStreamNumber());
+		// A copy of the tag should also be found
+		assertNotNull(table.get(tag.clone()));
+		assertEquals(1, table.size());
+
+		// Replace the entry
+		table.put(tag, "bar", 456);
+		match = table.get(tag);
+		assertNotNull(match);
+		assertEquals("bar", match.getValue());
+		assertEquals(456, match.getStreamNumber());
+		assertEquals(1, table.size());
+
+		assertTrue(table.remove(tag));
+		assertNull(table.get(tag));
+		assertFalse(table.remove(tag));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testCollidingTagsAreReachableAfterRemoval() {
+		// Tags with the same low half have the same home slot
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 5; i++) tags.add(createTag(i, 42));
+		for (int i = 0; i < tags.size(); i++) table.put(tags.get(i), "", i);
+
+		// Remove a tag from the middle of the run
+		assertTrue(table.remove(tags.get(2)));
+		assertNull(table.get(tags.get(2)));
+		for (int i = 0; i < tags.size(); i++) {
+			if (i == 2) continue;
+			Match<String> match = table.get(tags.get(i));
+			assertNotNull(match);
+			assertEquals(i, match.getStreamNumber());
+		}
+		// Remove the first tag in the run
+		assertTrue(table.remove(tags.get(0)));
+		for (int i = 3; i < tags.size(); i++) {
+			assertNotNull(table.get(tags.get(i)));
+		}
+		assertEquals(3, table.size());
+	}
+
+	@Test
+	public void testRandomOperationsMatchHashMap() {
+		Map<Bytes, Long> expected = new HashMap<>();
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) tags.add(getRandomBytes(TAG_LENGTH));
+		for (int i = 0; i < 20_000; i++) {
+			byte[] tag = tags.get(random.nextInt(tags.size()));
+			if (random.nextBoolean()) {
+				long streamNumber = random.nextInt(1000);
+				table.put(tag, "", streamNumber);
+				expected.put(new Bytes(tag), streamNumber);
+			} else {
+				assertEquals(expected.remove(new Bytes(tag)) != null,
+						table.remove(tag));
+			}
+		}
+		assertEquals(expected.size(), table.size());
+		for (byte[] tag : tags) {
+			Long streamNumber = expected.get(new Bytes(tag));
+			Match<String> match = table.get(tag);
+			if (streamNumber == null) {
+				assertNull(match);
+			} else {
+				assertNotNull(match);
+				assertEquals(streamNumber.longValue(),
+						match.getStreamNumber());
+			}
+		}
+	}
+
+	@Test
+	public void testRemoveIf() {
+		byte[] foo = getRandomBytes(TAG_LENGTH);
+		byte[] bar = getRandomBytes(TAG_LENGTH);
+		byte[] baz = getRandomBytes(TAG_LENGTH);
+		String fooValue = "foo";
+		table.put(foo, fooValue, 1);
+		table.put(bar, "bar", 2);
+		table.put(baz, "bar", 3);
+
+		table.removeIf("bar"::equals);
+		assertEquals(1, table.size());
+		Match<String> match = table.get(foo);
+		assertNotNull(match);
+		assertSame(fooValue, match.getValue());
+		assertNull(table.get(bar));
+		assertNull(table.get(baz));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTagMustHaveCorrectLength() {
+		table.get(new byte[TAG_LENGTH - 1]);
+	}
+
+	@Test
+	public void testReadersDoNotNeedToHoldLock() throws Exception {
+		// Add some tags that will remain in the table
+		List<byte[]> stable = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			stable.add(tag);
+			table.put(tag, "stable", i);
+		}
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicReference<String> error = new AtomicReference<>();
+		CountDownLatch finished = new CountDownLatch(2);
+		Runnable reader = () -> {
+			try {
+				while (!done.get()) {
+					for (int i = 0; i < stable.size(); i++) {
+						Match<String> match = table.get(stable.get(i));
+						if (match == null
+								|| !"stable".equals(match.getValue())
+								|| match.getStreamNumber() != i) {
+							error.set("Stable tag " + i + " not found");
+						}
+					}
+				}
+			} finally {
+				finished.countDown();
+			}
+		};
+		new Thread(reader).start();
+		new Thread(reader).start();
+		// Add and remove other tags, causing the table to grow
+		Map<Bytes, Long> added = new HashMap<>();
+		for (int i = 0; i < 20_000; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			table.put(tag, "temporary", i);
+			added.put(new Bytes(tag), (long) i);
+			if (random.nextBoolean()) {
+				Bytes remove = added.keySet().iterator().next();
+				assertTrue(table.remove(remove.getBytes()));
+				added.remove(remove);
+			}
+		}
+		done.set(true);
+		assertTrue(finished.await(10, SECONDS));
+		assertNull(error.get());
+		for (Entry<Bytes, Long> e : added.entrySet()) {
+			Match<String> match = table.get(e.getKey().getBytes());
+			assertNotNull(match);
+			assertEquals(e.getValue().longValue(), match.getStreamNumber());
+		}
+	}
+
+	private byte[] createTag(long hi, long lo) {
+		byte[] tag = new byte[TAG_LENGTH];
+		writeUint64(hi, tag, 0);
+		writeUint64(lo, tag, 8);
+		return tag;
+	}
+}
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.system.Clock;
@@ -16,22 +17,29 @@ import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.RunAction;
 import org.hamcrest.Description;
 import org.jmock.Expectations;
 import org.jmock.api.Action;
 import org.jmock.api.Invocation;
+import org.junit.After;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
@@ -42,11 +50,13 @@ import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 
@@ -75,6 +85,14 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			new TransportKeyManagerImpl(db, transportCrypto, dbExecutor,
 					scheduler, clock, transportId, maxLatency);
 
+	// Threads that wait for recognised tags to be written
+	private final ExecutorService ioExecutor = newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		ioExecutor.shutdownNow();
+	}
+
 	@Test
 	public void testKeysAreUpdatedAtStartup() throws Exception {
 		boolean active = random.nextBoolean();
@@ -323,8 +341,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(active,
 				transportKeyManager.canSendOutgoingStreams(contactId));
 		// The tag should not be recognised
-		assertNull(transportKeyManager.getStreamContext(txn,
-				new byte[TAG_LENGTH]));
+		assertNull(transportKeyManager.getStreamContext(new byte[TAG_LENGTH]));
 	}
 
 	@Test
@@ -332,11 +349,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		boolean alice = random.nextBoolean();
 		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		// Keep a copy of the tags
 		List<byte[]> tags = new ArrayList<>();
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
 					1000, alice, true);
 			will(returnValue(transportKeys));
@@ -361,8 +379,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 					with(tagKey), with(PROTOCOL_VERSION),
 					with((long) REORDERING_WINDOW_SIZE));
 			will(new EncodeTagAction(tags));
+			// Schedule a task to save the reordering window
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
 			// Save the reordering window (previous time period, base 1)
-			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
 					1, new byte[REORDERING_WINDOW_SIZE / 8]);
 		}});
 
@@ -375,7 +397,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
 		// The first request should return a stream context
-		StreamContext ctx = transportKeyManager.getStreamContext(txn, tag);
+		StreamContext ctx = transportKeyManager.getStreamContext(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -385,7 +407,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		// Another tag should have been encoded
 		assertEquals(REORDERING_WINDOW_SIZE * 3 + 1, tags.size());
 		// The second request should return null, the tag has already been used
-		assertNull(transportKeyManager.getStreamContext(txn, tag));
+		assertNull(transportKeyManager.getStreamContext(tag));
 	}
 
 	@Test
@@ -393,11 +415,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		boolean alice = random.nextBoolean();
 		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		// Keep a copy of the tags
 		List<byte[]> tags = new ArrayList<>();
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
 					1000, alice, true);
 			will(returnValue(transportKeys));
@@ -422,8 +445,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 					with(tagKey), with(PROTOCOL_VERSION),
 					with((long) REORDERING_WINDOW_SIZE));
 			will(new EncodeTagAction(tags));
+			// Schedule a task to save the reordering window
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
 			// Save the reordering window (previous time period, base 1)
-			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
 					1, new byte[REORDERING_WINDOW_SIZE / 8]);
 		}});
 
@@ -436,14 +463,14 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
 		// Repeated request should return same stream context
-		StreamContext ctx = transportKeyManager.getStreamContextOnly(txn, tag);
+		StreamContext ctx = transportKeyManager.getStreamContextOnly(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
 		assertEquals(tagKey, ctx.getTagKey());
 		assertEquals(headerKey, ctx.getHeaderKey());
 		assertEquals(0L, ctx.getStreamNumber());
-		ctx = transportKeyManager.getStreamContextOnly(txn, tag);
+		ctx = transportKeyManager.getStreamContextOnly(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -451,11 +478,182 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(headerKey, ctx.getHeaderKey());
 		assertEquals(0L, ctx.getStreamNumber());
 		// Then mark tag as recognised
-		transportKeyManager.markTagAsRecognised(txn, tag);
+		transportKeyManager.markTagAsRecognised(tag);
 		// Another tag should have been encoded
 		assertEquals(REORDERING_WINDOW_SIZE * 3 + 1, tags.size());
 		// Finally ensure the used tag is not recognised again
-		assertNull(transportKeyManager.getStreamContextOnly(txn, tag));
+		assertNull(transportKeyManager.getStreamContextOnly(tag));
+	}
+
+	@Test
+	public void testRecognisedTagsAreWrittenInOneTransaction()
+			throws Exception {
+		boolean alice = random.nextBoolean();
+		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		// Keep a copy of the tags
+		List<byte[]> tags = new ArrayList<>();
+
+		context.checking(new Expectations() {{
+			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
+					1000, alice, true);
+			will(returnValue(transportKeys));
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Encode the tags (3 sets)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction(tags));
+			}
+			// Updated the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			// Save the keys
+			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
+			will(returnValue(keySetId));
+			// Encode a new tag for each window after sliding it
+			exactly(2).of(transportCrypto).encodeTag(
+					with(any(byte[].class)), with(tagKey),
+					with(PROTOCOL_VERSION),
+					with((long) REORDERING_WINDOW_SIZE));
+			will(new EncodeTagAction(tags));
+			// Schedule a single task to save the reordering windows
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		// The timestamp is at the start of time period 1000
+		long timestamp = timePeriodLength * 1000;
+		assertEquals(keySetId, transportKeyManager.addRotationKeys(
+				txn, contactId, rootKey, timestamp, alice, true));
+		// Use the first tag for the previous and current time periods
+		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
+		byte[] prevTag = tags.get(0);
+		byte[] currTag = tags.get(REORDERING_WINDOW_SIZE);
+		Future<StreamContext> prev = ioExecutor.submit(() ->
+				transportKeyManager.getStreamContext(prevTag));
+		Future<StreamContext> curr = ioExecutor.submit(() ->
+				transportKeyManager.getStreamContext(currTag));
+		// Both windows are updated in memory, but neither stream context is
+		// returned until the windows have been written
+		awaitRecognisedTags(task, prevTag, currTag);
+		assertFalse(prev.isDone());
+		assertFalse(curr.isDone());
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			// Save both reordering windows in the same transaction
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
+					1, new byte[REORDERING_WINDOW_SIZE / 8]);
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 1000,
+					1, new byte[REORDERING_WINDOW_SIZE / 8]);
+		}});
+
+		task.get().run();
+		StreamContext ctx = prev.get();
+		assertNotNull(ctx);
+		assertEquals(0L, ctx.getStreamNumber());
+		ctx = curr.get();
+		assertNotNull(ctx);
+		assertEquals(0L, ctx.getStreamNumber());
+		// There's nothing left to write
+		transportKeyManager.writeRecognisedTags();
+	}
+
+	@Test
+	public void testRecognisedTagsAreRestoredIfWriteFails()
+			throws Exception {
+		boolean alice = random.nextBoolean();
+		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		// Keep a copy of the tags
+		List<byte[]> tags = new ArrayList<>();
+
+		context.checking(new Expectations() {{
+			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
+					1000, alice, true);
+			will(returnValue(transportKeys));
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Encode the tags (3 sets)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction(tags));
+			}
+			// Updated the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			// Save the keys
+			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
+			will(returnValue(keySetId));
+			// Encode a new tag for each window after sliding it
+			exactly(2).of(transportCrypto).encodeTag(
+					with(any(byte[].class)), with(tagKey),
+					with(PROTOCOL_VERSION),
+					with((long) REORDERING_WINDOW_SIZE));
+			will(new EncodeTagAction(tags));
+			// Schedule a single task to save the reordering windows
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		// The timestamp is at the start of time period 1000
+		long timestamp = timePeriodLength * 1000;
+		assertEquals(keySetId, transportKeyManager.addRotationKeys(
+				txn, contactId, rootKey, timestamp, alice, true));
+		// Use the first tag for the previous and current time periods
+		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
+		byte[] prevTag = tags.get(0);
+		byte[] currTag = tags.get(REORDERING_WINDOW_SIZE);
+		Future<StreamContext> prev = ioExecutor.submit(() ->
+				transportKeyManager.getStreamContext(prevTag));
+		Future<StreamContext> curr = ioExecutor.submit(() ->
+				transportKeyManager.getStreamContext(currTag));
+		// Both windows are updated in memory, but neither stream context is
+		// returned until the windows have been written
+		awaitRecognisedTags(task, prevTag, currTag);
+		assertFalse(prev.isDone());
+		assertFalse(curr.isDone());
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			// The first write fails, so the transaction doesn't commit
+			oneOf(db).setReorderingWindow(with(txn1), with(keySetId),
+					with(transportId), with(any(long.class)), with(1L),
+					with(any(byte[].class)));
+			will(throwException(new DbException()));
+		}});
+
+		task.get().run();
+		// Neither stream context is returned, as the windows weren't written
+		assertWriteFailed(prev);
+		assertWriteFailed(curr);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			// Both reordering windows are still waiting to be written
+			oneOf(db).setReorderingWindow(txn2, keySetId, transportId, 999,
+					1, new byte[REORDERING_WINDOW_SIZE / 8]);
+			oneOf(db).setReorderingWindow(txn2, keySetId, transportId, 1000,
+					1, new byte[REORDERING_WINDOW_SIZE / 8]);
+		}});
+
+		transportKeyManager.writeRecognisedTags();
+		// There's nothing left to write
+		transportKeyManager.writeRecognisedTags();
 	}
 
 	@Test
@@ -498,9 +696,10 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			oneOf(transportCrypto).updateTransportKeys(
 					with(any(TransportKeys.class)), with(1001L));
 			will(returnValue(updated));
-			// Encode the tags (3 sets)
+			// Encode the tags for the keys that are removed and added (the
+			// tags for the retained keys are not encoded again)
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(transportCrypto).encodeTag(
+				exactly(2).of(transportCrypto).encodeTag(
 						with(any(byte[].class)), with(tagKey),
 						with(PROTOCOL_VERSION), with(i));
 				will(new EncodeTagAction());
@@ -518,6 +717,91 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
 
+	@Test
+	public void testTagsForRetainedKeysAreKeptWhenKeysAreUpdated()
+			throws Exception {
+		SecretKey prevTagKey = getSecretKey(), currTagKey = getSecretKey();
+		SecretKey nextTagKey = getSecretKey(), newTagKey = getSecretKey();
+		IncomingKeys inPrev = new IncomingKeys(prevTagKey, headerKey, 999);
+		IncomingKeys inCurr = new IncomingKeys(currTagKey, headerKey, 1000);
+		IncomingKeys inNext = new IncomingKeys(nextTagKey, headerKey, 1001);
+		IncomingKeys inNew = new IncomingKeys(newTagKey, headerKey, 1002);
+		TransportKeys transportKeys = new TransportKeys(transportId, inPrev,
+				inCurr, inNext, new OutgoingKeys(tagKey, headerKey, 1000, 0,
+				true));
+		TransportKeys updated = new TransportKeys(transportId, inCurr,
+				inNext, inNew, new OutgoingKeys(tagKey, headerKey, 1001, 0,
+				true));
+		Collection<TransportKeySet> loaded = singletonList(
+				new TransportKeySet(keySetId, contactId, null, transportKeys));
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Load the transport keys
+			oneOf(db).getTransportKeys(txn, transportId);
+			will(returnValue(loaded));
+			// Update the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				// Encode the tags for the previous period's keys at startup
+				// and again when removing them
+				exactly(2).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(prevTagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeDeterministicTagAction());
+				// Encode the tags for the retained keys once, at startup
+				oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+						with(currTagKey), with(PROTOCOL_VERSION), with(i));
+				will(new EncodeDeterministicTagAction());
+				oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+						with(nextTagKey), with(PROTOCOL_VERSION), with(i));
+				will(new EncodeDeterministicTagAction());
+				// Encode the tags for the new keys when adding them
+				oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+						with(newTagKey), with(PROTOCOL_VERSION), with(i));
+				will(new EncodeDeterministicTagAction());
+			}
+			// Schedule a key update at the start of the next time period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(timePeriodLength),
+					with(MILLISECONDS));
+			will(new RunAction());
+			// Get the current time (the start of time period 1001)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1001));
+			// Update the transport keys
+			oneOf(transportCrypto).updateTransportKeys(
+					with(any(TransportKeys.class)), with(1001L));
+			will(returnValue(updated));
+			// Start a transaction for updating keys
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			// Save the keys that were updated
+			oneOf(db).updateTransportKeys(txn1, singletonList(
+					new TransportKeySet(keySetId, contactId, null, updated)));
+			// Schedule a key update at the start of the next time period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(timePeriodLength),
+					with(MILLISECONDS));
+		}});
+
+		transportKeyManager.start(txn);
+		// The tags for the previous period's keys should have been removed
+		assertNull(transportKeyManager.getStreamContextOnly(
+				getDeterministicTag(prevTagKey, 0)));
+		// The tags for the retained keys and the new keys should be recognised
+		assertNotNull(transportKeyManager.getStreamContextOnly(
+				getDeterministicTag(currTagKey, 0)));
+		assertNotNull(transportKeyManager.getStreamContextOnly(
+				getDeterministicTag(nextTagKey, 0)));
+		assertNotNull(transportKeyManager.getStreamContextOnly(
+				getDeterministicTag(newTagKey, 0)));
+	}
+
 	@Test
 	public void testActivatingKeys() throws Exception {
 		boolean alice = random.nextBoolean();
@@ -558,11 +842,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		boolean alice = random.nextBoolean();
 		TransportKeys transportKeys = createTransportKeys(1000, 0, false);
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		// Keep a copy of the tags
 		List<byte[]> tags = new ArrayList<>();
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
 					1000, alice, false);
 			will(returnValue(transportKeys));
@@ -587,11 +872,15 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 					with(tagKey), with(PROTOCOL_VERSION),
 					with((long) REORDERING_WINDOW_SIZE));
 			will(new EncodeTagAction(tags));
+			// Schedule a task to save the reordering window
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
 			// Save the reordering window (previous time period, base 1)
-			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
 					1, new byte[REORDERING_WINDOW_SIZE / 8]);
 			// Activate the keys
-			oneOf(db).setTransportKeysActive(txn, transportId, keySetId);
+			oneOf(db).setTransportKeysActive(txn1, transportId, keySetId);
 			// Increment the stream counter
 			oneOf(db).incrementStreamCounter(txn, transportId, keySetId);
 		}});
@@ -606,7 +895,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		// Recognising an incoming tag should activate the outgoing keys
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
-		StreamContext ctx = transportKeyManager.getStreamContext(txn, tag);
+		StreamContext ctx = transportKeyManager.getStreamContext(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -677,6 +966,55 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 				rootKey, alice);
 	}
 
+	private byte[] getDeterministicTag(SecretKey tagKey, long streamNumber) {
+		byte[] tag = new byte[TAG_LENGTH];
+		System.arraycopy(tagKey.getBytes(), 0, tag, 0, TAG_LENGTH - 8);
+		writeUint64(streamNumber, tag, TAG_LENGTH - 8);
+		return tag;
+	}
+
+	private class EncodeDeterministicTagAction implements Action {
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			byte[] tag = (byte[]) invocation.getParameter(0);
+			SecretKey tagKey = (SecretKey) invocation.getParameter(1);
+			long streamNumber = (Long) invocation.getParameter(3);
+			byte[] expected = getDeterministicTag(tagKey, streamNumber);
+			System.arraycopy(expected, 0, tag, 0, TAG_LENGTH);
+			return null;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("encodes a deterministic tag");
+		}
+	}
+
+	/**
+	 * Waits until the given tags have been removed from the tag table and
+	 * the task to write the updated reordering windows has been scheduled.
+	 */
+	private void awaitRecognisedTags(AtomicReference<Runnable> task,
+			byte[]... tags) throws InterruptedException {
+		for (byte[] tag : tags) {
+			while (transportKeyManager.getStreamContextOnly(tag) != null) {
+				Thread.sleep(10);
+			}
+		}
+		while (task.get() == null) Thread.sleep(10);
+	}
+
+	private void assertWriteFailed(Future<StreamContext> f)
+			throws InterruptedException {
+		try {
+			f.get();
+			fail();
+		} catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof DbException);
+		}
+	}
+
 	private class EncodeTagAction implements Action {
 
 		private final Collection<byte[]> tags;
@@ -417,7 +417,8 @@ public class TransportKeyAgreementIntegrationTest
 			TransportId transportId) throws Exception {
 		TransportProperties p = new TransportProperties();
 		p.putBoolean("foo", true);
-		from.getTransportPropertyManager().mergeLocalProperties(transportId, p);
+		mergeLocalProperties(from, from.getTransportPropertyManager(),
+				transportId, p);
 		syncMessage(from, to, toId, transportId, 1, true);
 	}
 
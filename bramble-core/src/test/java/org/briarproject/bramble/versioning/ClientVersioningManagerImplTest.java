@@ -3,6 +3,7 @@ package org.briarproject.bramble.versioning;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -13,6 +14,7 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
@@ -105,6 +107,39 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 		c.addingContact(txn, contact);
 	}
 
+	@Test
+	public void testCreatesContactGroupsInBatchWhenAddingContacts()
+			throws Exception {
+		long now = System.currentTimeMillis();
+		BdfList localUpdateBody = BdfList.of(new BdfList(), 1L);
+		Message localUpdate = getMessage(contactGroup.getId());
+		BdfDictionary localUpdateMeta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_UPDATE_VERSION, 1L),
+				new BdfEntry(MSG_KEY_LOCAL, true));
+
+		context.checking(new Expectations() {{
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(db).addGroups(txn, singletonList(contactGroup));
+			oneOf(db).setGroupVisibility(txn,
+					singletonMap(contact.getId(), contactGroup.getId()),
+					SHARED);
+			oneOf(clientHelper).setContactId(txn, contactGroup.getId(),
+					contact.getId());
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(clientHelper).createMessage(contactGroup.getId(), now,
+					localUpdateBody);
+			will(returnValue(localUpdate));
+			oneOf(clientHelper).addLocalMessage(txn, localUpdate,
+					localUpdateMeta, true, false);
+		}});
+
+		ClientVersioningManagerImpl c = createInstance();
+		c.addingContacts(txn, singletonList(contact));
+	}
+
 	private void expectAddingContact() throws Exception {
 		long now = System.currentTimeMillis();
 		BdfList localUpdateBody = BdfList.of(new BdfList(), 1L);
@@ -844,6 +879,44 @@ public class ClientVersioningManagerImplTest extends BrambleMockTestCase {
 				clientId, 123));
 	}
 
+	@Test
+	public void testSetsClientVisibilityOfContactGroups() throws Exception {
+		MessageId localUpdateId = new MessageId(getRandomId());
+		BdfDictionary localUpdateMeta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_UPDATE_VERSION, 1L),
+				new BdfEntry(MSG_KEY_LOCAL, true));
+		MessageId remoteUpdateId = new MessageId(getRandomId());
+		BdfDictionary remoteUpdateMeta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_UPDATE_VERSION, 1L),
+				new BdfEntry(MSG_KEY_LOCAL, false));
+		Map<MessageId, BdfDictionary> messageMetadata = new HashMap<>();
+		messageMetadata.put(localUpdateId, localUpdateMeta);
+		messageMetadata.put(remoteUpdateId, remoteUpdateMeta);
+		// The client is supported locally and remotely and active
+		BdfList localUpdateBody = BdfList.of(BdfList.of(
+				BdfList.of(clientId.getString(), 123, 234, true)), 1L);
+		BdfList remoteUpdateBody = BdfList.of(BdfList.of(
+				BdfList.of(clientId.getString(), 123, 234, true)), 1L);
+		GroupId groupId = new GroupId(getRandomId());
+		Map<ContactId, GroupId> contactGroups =
+				singletonMap(contact.getId(), groupId);
+
+		expectGetContactGroup(true);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(messageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn, localUpdateId);
+			will(returnValue(localUpdateBody));
+			oneOf(clientHelper).getMessageAsList(txn, remoteUpdateId);
+			will(returnValue(remoteUpdateBody));
+			oneOf(db).setGroupVisibility(txn, contactGroups, SHARED);
+		}});
+
+		ClientVersioningManagerImpl c = createInstance();
+		c.setClientVisibility(txn, contactGroups, clientId, 123);
+	}
+
 	@Test
 	public void testReturnsNegativeIfContactGroupDoesNotExist()
 			throws Exception {
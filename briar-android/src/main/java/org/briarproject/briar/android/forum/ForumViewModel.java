@@ -133,20 +133,19 @@ class ForumViewModel extends ThreadListViewModel<ForumPostItem> {
 	}
 
 	@Override
-	public void loadItems() {
-		loadFromDb(txn -> {
-			long start = now();
-			List<ForumPostHeader> headers =
-					forumManager.getPostHeaders(txn, groupId);
-			logDuration(LOG, "Loading headers", start);
-			start = now();
-			List<ForumPostItem> items = new ArrayList<>();
-			for (ForumPostHeader header : headers) {
-				items.add(loadItem(txn, header));
-			}
-			logDuration(LOG, "Loading bodies and creating items", start);
-			return items;
-		}, this::setItems);
+	protected List<ForumPostItem> loadItems(Transaction txn, int offset,
+			int maxThreads) throws DbException {
+		long start = now();
+		List<ForumPostHeader> headers =
+				forumManager.getPostHeaders(txn, groupId, offset, maxThreads);
+		logDuration(LOG, "Loading headers", start);
+		start = now();
+		List<ForumPostItem> items = new ArrayList<>();
+		for (ForumPostHeader header : headers) {
+			items.add(loadItem(txn, header));
+		}
+		logDuration(LOG, "Loading bodies and creating items", start);
+		return items;
 	}
 
 	private ForumPostItem loadItem(Transaction txn, ForumPostHeader header)
@@ -157,24 +157,25 @@ class GroupViewModel extends ThreadListViewModel<GroupMessageItem> {
 	}
 
 	@Override
-	public void loadItems() {
-		loadFromDb(txn -> {
-			// check first if group is dissolved
+	protected List<GroupMessageItem> loadItems(Transaction txn, int offset,
+			int maxThreads) throws DbException {
+		// check first if group is dissolved
+		if (offset == 0) {
 			isDissolved
 					.postValue(privateGroupManager.isDissolved(txn, groupId));
-			// now continue to load the items
-			long start = now();
-			List<GroupMessageHeader> headers =
-					privateGroupManager.getHeaders(txn, groupId);
-			logDuration(LOG, "Loading headers", start);
-			start = now();
-			List<GroupMessageItem> items = new ArrayList<>();
-			for (GroupMessageHeader header : headers) {
-				items.add(loadItem(txn, header));
-			}
-			logDuration(LOG, "Loading bodies and creating items", start);
-			return items;
-		}, this::setItems);
+		}
+		// now continue to load the items
+		long start = now();
+		List<GroupMessageHeader> headers = privateGroupManager.getHeaders(txn,
+				groupId, offset, maxThreads);
+		logDuration(LOG, "Loading headers", start);
+		start = now();
+		List<GroupMessageItem> items = new ArrayList<>();
+		for (GroupMessageHeader header : headers) {
+			items.add(loadItem(txn, header));
+		}
+		logDuration(LOG, "Loading bodies and creating items", start);
+		return items;
 	}
 
 	private GroupMessageItem loadItem(Transaction txn,
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.db.TransactionManager;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
@@ -28,6 +29,7 @@ import org.briarproject.briar.client.MessageTreeImpl;
 import org.briarproject.nullsafety.MethodsNotNullByDefault;
 import org.briarproject.nullsafety.ParametersNotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -52,6 +54,12 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 	private static final Logger LOG =
 			getLogger(ThreadListViewModel.class.getName());
 
+	/**
+	 * The number of threads loaded at a time. Further threads are loaded
+	 * when the list is scrolled close to its end.
+	 */
+	private static final int THREADS_PER_PAGE = 50;
+
 	protected final IdentityManager identityManager;
 	protected final AndroidNotificationManager notificationManager;
 	protected final SharingController sharingController;
@@ -68,6 +76,9 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 			new MutableLiveData<>();
 	private final AtomicReference<MessageId> scrollToItem =
 			new AtomicReference<>();
+	// The number of threads loaded from the DB so far
+	private int threadsLoaded = 0;
+	private boolean loadingPage = false, allThreadsLoaded = false;
 
 	protected volatile GroupId groupId;
 	@Nullable
@@ -164,7 +175,72 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		});
 	}
 
-	public abstract void loadItems();
+	/**
+	 * Loads the first page of threads, replacing any items already loaded.
+	 * If the list position has been stored, pages are loaded until the
+	 * stored message is included, so the list position can be restored.
+	 */
+	@UiThread
+	public void loadItems() {
+		loadingPage = true;
+		// The stored message ID is loaded by an earlier task on the same
+		// executor, so it's available by the time this task runs
+		loadFromDb(txn -> loadPages(txn, 0, storedMessageId.get()),
+				this::setItems);
+	}
+
+	/**
+	 * Loads the next page of threads, unless all threads have been loaded
+	 * or a page is already being loaded.
+	 */
+	@UiThread
+	void loadNextPage() {
+		if (loadingPage || allThreadsLoaded) return;
+		// Don't load further pages until the first page has been loaded
+		LiveResult<List<I>> current = items.getValue();
+		if (current == null || current.hasError()) return;
+		loadingPage = true;
+		int offset = threadsLoaded;
+		loadFromDb(txn -> loadPages(txn, offset, null), this::addPage);
+	}
+
+	/**
+	 * Loads the items in the given page of threads, in depth-first order.
+	 * Threads are ordered by the timestamp of their first message.
+	 */
+	@DatabaseExecutor
+	protected abstract List<I> loadItems(Transaction txn, int offset,
+			int maxThreads) throws DbException;
+
+	@DatabaseExecutor
+	private Page<I> loadPages(Transaction txn, int offset,
+			@Nullable MessageId loadUntil) throws DbException {
+		List<I> loaded = new ArrayList<>();
+		int threads = 0;
+		while (true) {
+			List<I> page = loadItems(txn, offset + threads, THREADS_PER_PAGE);
+			loaded.addAll(page);
+			int pageThreads = countThreads(page);
+			threads += pageThreads;
+			if (pageThreads < THREADS_PER_PAGE) {
+				return new Page<>(loaded, threads, true);
+			}
+			if (loadUntil == null || containsItem(page, loadUntil)) {
+				return new Page<>(loaded, threads, false);
+			}
+		}
+	}
+
+	private int countThreads(List<I> items) {
+		int threads = 0;
+		for (I item : items) if (item.getParentId() == null) threads++;
+		return threads;
+	}
+
+	private boolean containsItem(List<I> items, MessageId m) {
+		for (I item : items) if (item.getId().equals(m)) return true;
+		return false;
+	}
 
 	public abstract void createAndStoreMessage(String text,
 			@Nullable MessageId parentMessageId);
@@ -176,17 +252,41 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 	protected abstract void loadSharingContacts();
 
 	@UiThread
-	protected void setItems(LiveResult<List<I>> items) {
-		if (items.hasError()) {
-			this.items.setValue(items);
+	private void setItems(LiveResult<Page<I>> result) {
+		loadingPage = false;
+		Exception e = result.getException();
+		if (e != null) {
+			items.setValue(new LiveResult<>(e));
 		} else {
-			messageTree.clear();
 			// not null, because hasError() is false
-			messageTree.add(requireNonNull(items.getResultOrNull()));
-			LiveResult<List<I>> result =
-					new LiveResult<>(messageTree.depthFirstOrder());
-			this.items.setValue(result);
+			Page<I> page = requireNonNull(result.getResultOrNull());
+			messageTree.clear();
+			messageTree.add(page.items);
+			threadsLoaded = page.threads;
+			allThreadsLoaded = page.complete;
+			items.setValue(new LiveResult<>(messageTree.depthFirstOrder()));
+		}
+	}
+
+	@UiThread
+	private void addPage(LiveResult<Page<I>> result) {
+		loadingPage = false;
+		Exception e = result.getException();
+		if (e != null) {
+			handleException(e);
+			return;
+		}
+		// not null, because hasError() is false
+		Page<I> page = requireNonNull(result.getResultOrNull());
+		// Skip any items that were added by events while the page loaded
+		List<I> newItems = new ArrayList<>(page.items.size());
+		for (I item : page.items) {
+			if (!messageTree.contains(item.getId())) newItems.add(item);
 		}
+		messageTree.add(newItems);
+		threadsLoaded += page.threads;
+		allThreadsLoaded = page.complete;
+		items.setValue(new LiveResult<>(messageTree.depthFirstOrder()));
 	}
 
 	/**
@@ -199,6 +299,12 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		// If items haven't loaded, we need to wait until they have.
 		// Since this was a R/W DB transaction, the load will pick up this item.
 		if (items.getValue() == null) return;
+		// Replies to threads that haven't been loaded yet will be loaded
+		// with their threads. New threads are the most recent ones, so
+		// they can be added before the pages in between are loaded.
+		MessageId parentId = item.getParentId();
+		if (parentId != null && !messageTree.contains(parentId)) return;
+		if (messageTree.contains(item.getId())) return;
 
 		messageTree.add(item);
 		if (scrollToItem) this.scrollToItem.set(item.getId());
@@ -260,4 +366,17 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		return scrollToItem.getAndSet(null);
 	}
 
+	private static class Page<I> {
+
+		private final List<I> items;
+		private final int threads;
+		private final boolean complete;
+
+		private Page(List<I> items, int threads, boolean complete) {
+			this.items = items;
+			this.threads = threads;
+			this.complete = complete;
+		}
+	}
+
 }
@@ -20,6 +20,12 @@ class ThreadScrollListener<I extends ThreadItem>
 	private static final Logger LOG =
 			getLogger(ThreadScrollListener.class.getName());
 
+	/**
+	 * The next page of threads is loaded when the last visible item is
+	 * this close to the end of the list.
+	 */
+	private static final int LOAD_NEXT_PAGE_DISTANCE = 20;
+
 	private final ThreadListViewModel<I> viewModel;
 	private final UnreadMessageButton upButton, downButton;
 
@@ -38,6 +44,10 @@ class ThreadScrollListener<I extends ThreadItem>
 			int itemCount) {
 		super.onItemsVisible(firstVisible, lastVisible, itemCount);
 		updateUnreadButtons(firstVisible, lastVisible, itemCount);
+		if (lastVisible != NO_POSITION &&
+				lastVisible >= itemCount - LOAD_NEXT_PAGE_DISTANCE) {
+			viewModel.loadNextPage();
+		}
 	}
 
 	@Override
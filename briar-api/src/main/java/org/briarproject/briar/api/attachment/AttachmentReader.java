@@ -27,6 +27,10 @@ public interface AttachmentReader {
 	 * expected content type. This is meant to prevent social engineering
 	 * attacks that use invalid attachment IDs to test whether messages exist
 	 * in the victim's database
+	 * <p>
+	 * If the attachment is stored in blocks, the returned stream loads each
+	 * block in its own transaction, so it must be read after the given
+	 * transaction has ended.
 	 */
 	Attachment getAttachment(Transaction txn, AttachmentHeader h)
 			throws DbException;
@@ -7,6 +7,9 @@ public interface MediaConstants {
 	// Metadata keys for messages
 	String MSG_KEY_CONTENT_TYPE = "contentType";
 	String MSG_KEY_DESCRIPTOR_LENGTH = "descriptorLength";
+	String MSG_KEY_BLOCKS = "blocks";
+	// Only attachment blocks have this key
+	String MSG_KEY_BLOCK_INDEX = "blockIndex";
 
 	/**
 	 * The maximum length of an attachment's content type in UTF-8 bytes.
@@ -0,0 +1,75 @@
+package org.briarproject.briar.api.client;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maintains an index of the threads in a group of threaded messages, so that
+ * a page of the threaded view can be loaded without loading every message
+ * in the group.
+ * <p>
+ * Threads are ordered by the timestamp of their first message, oldest first.
+ * Within a thread, messages are returned in depth-first order with the
+ * replies to each message ordered by timestamp, which is the same order as
+ * {@link MessageTree#depthFirstOrder()}.
+ * <p>
+ * The index is stored in the messages' metadata. Clients must use the same
+ * metadata key for the timestamp, {@code "timestamp"}, and pass the key
+ * they use for the parent ID.
+ */
+@NotNullByDefault
+public interface ThreadIndex {
+
+	/**
+	 * The metadata key that clients must use for the timestamp.
+	 */
+	String KEY_TIMESTAMP = "timestamp";
+
+	/**
+	 * Adds the given message to the index. The message's metadata must
+	 * already have been stored and the parent, if any, must already have
+	 * been added.
+	 */
+	void addMessage(Transaction txn, MessageId m, @Nullable MessageId parent,
+			long timestamp) throws DbException;
+
+	/**
+	 * Adds any messages in the given group that have not yet been added to
+	 * the index. This only needs to be called once for groups that existed
+	 * before the index was introduced.
+	 *
+	 * @param parentKey The metadata key the client uses for the parent ID
+	 */
+	void addGroup(Transaction txn, GroupId g, String parentKey)
+			throws DbException;
+
+	/**
+	 * Adds any messages in the given groups that have not yet been added to
+	 * the index, in the background. Each group is indexed in its own
+	 * transaction, and a group that can't be indexed is retried later.
+	 *
+	 * @param parentKey The metadata key the client uses for the parent ID
+	 */
+	void addGroupsInBackground(Collection<GroupId> groups, String parentKey);
+
+	/**
+	 * Returns the metadata of the messages in the given page of threads, in
+	 * depth-first order. If the group hasn't been indexed yet, the page is
+	 * found by loading every message in the group.
+	 *
+	 * @param parentKey The metadata key the client uses for the parent ID
+	 * @param offset The number of threads to skip
+	 * @param maxThreads The maximum number of threads to return
+	 */
+	Map<MessageId, BdfDictionary> getThreads(Transaction txn, GroupId g,
+			String parentKey, int offset, int maxThreads) throws DbException;
+}
@@ -13,6 +13,7 @@ import org.briarproject.briar.api.messaging.MessagingManager;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 @NotNullByDefault
@@ -57,6 +58,20 @@ public interface ConversationManager {
 	 */
 	GroupCount getGroupCount(Transaction txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the unified group counts for the private conversations with
+	 * the given contacts, loaded in a single transaction.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Collection<ContactId> contacts)
+			throws DbException;
+
+	/**
+	 * Returns the unified group counts for the private conversations with
+	 * the given contacts.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<ContactId> contacts) throws DbException;
+
 	/**
 	 * Updates the group count for the given incoming private conversation message
 	 * and broadcasts a corresponding event.
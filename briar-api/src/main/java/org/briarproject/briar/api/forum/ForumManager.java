@@ -112,6 +112,17 @@ public interface ForumManager {
 	List<ForumPostHeader> getPostHeaders(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the headers of the posts in the given page of threads in the
+	 * given forum, in depth-first order. Threads are ordered by the
+	 * timestamp of their first post, oldest first.
+	 *
+	 * @param offset The number of threads to skip
+	 * @param maxThreads The maximum number of threads to return
+	 */
+	List<ForumPostHeader> getPostHeaders(Transaction txn, GroupId g,
+			int offset, int maxThreads) throws DbException;
+
 	/**
 	 * Registers a hook to be called whenever a forum is removed.
 	 */
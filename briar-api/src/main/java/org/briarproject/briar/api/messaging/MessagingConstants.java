@@ -14,4 +14,17 @@ public interface MessagingConstants {
 	 */
 	int MAX_ATTACHMENTS_PER_MESSAGE = 10;
 
+	/**
+	 * The length of each block of an attachment that's too big to be sent in
+	 * a single message, in bytes. The last block may be shorter. Room is left
+	 * in each message for the block's descriptor.
+	 */
+	int ATTACHMENT_BLOCK_LENGTH = MAX_MESSAGE_BODY_LENGTH - 1024;
+
+	/**
+	 * The maximum number of blocks in an attachment that's too big to be
+	 * sent in a single message.
+	 */
+	int MAX_ATTACHMENT_BLOCKS = 512;
+
 }
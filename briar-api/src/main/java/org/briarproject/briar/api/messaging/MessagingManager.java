@@ -2,6 +2,7 @@ package org.briarproject.briar.api.messaging;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -32,7 +33,7 @@ public interface MessagingManager extends ConversationClient {
 	/**
 	 * The current minor version of the messaging client.
 	 */
-	int MINOR_VERSION = 3;
+	int MINOR_VERSION = 4;
 
 	/**
 	 * Stores a local private message.
@@ -45,7 +46,9 @@ public interface MessagingManager extends ConversationClient {
 	void addLocalMessage(Transaction txn, PrivateMessage m) throws DbException;
 
 	/**
-	 * Stores a local attachment message.
+	 * Stores a local attachment message. If the contact supports it, an
+	 * attachment that's too big for a single message is split into blocks,
+	 * which are read from the stream and stored one at a time.
 	 *
 	 * @throws FileTooBigException If the attachment is too big
 	 */
@@ -57,6 +60,16 @@ public interface MessagingManager extends ConversationClient {
 	 */
 	void removeAttachment(AttachmentHeader header) throws DbException;
 
+	/**
+	 * Returns the header of the local attachment with the given ID, using
+	 * the content type it was stored with.
+	 *
+	 * @throws NoSuchMessageException If the message is not a local
+	 * attachment in the given private conversation
+	 */
+	AttachmentHeader getLocalAttachmentHeader(GroupId g, MessageId m)
+			throws DbException;
+
 	/**
 	 * Returns the ID of the contact with the given private conversation.
 	 */
@@ -146,6 +146,17 @@ public interface PrivateGroupManager {
 	List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the headers of the messages in the given page of threads in
+	 * the given private group, in depth-first order. Threads are ordered by
+	 * the timestamp of their first message, oldest first.
+	 *
+	 * @param offset The number of threads to skip
+	 * @param maxThreads The maximum number of threads to return
+	 */
+	List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g,
+			int offset, int maxThreads) throws DbException;
+
 	/**
 	 * Returns all members of the given private group.
 	 */
@@ -0,0 +1,129 @@
+package org.briarproject.briar.attachment;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.TransactionManager;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.lang.System.arraycopy;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCK_INDEX;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
+
+/**
+ * An input stream that reads the blocks of an attachment from the database
+ * one at a time, so the whole attachment is never held in memory.
+ * <p>
+ * Each block is loaded in its own transaction, so the stream must not be
+ * read while the caller holds a transaction.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class AttachmentBlockInputStream extends InputStream {
+
+	private final TransactionManager db;
+	private final ClientHelper clientHelper;
+	private final GroupId groupId;
+	private final List<MessageId> blocks;
+
+	@Nullable
+	private byte[] block = null;
+	private int nextBlock = 0, offset = 0;
+
+	AttachmentBlockInputStream(TransactionManager db,
+			ClientHelper clientHelper, GroupId groupId,
+			List<MessageId> blocks) {
+		this.db = db;
+		this.clientHelper = clientHelper;
+		this.groupId = groupId;
+		this.blocks = blocks;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = fill();
+		if (b == null) return -1;
+		return b[offset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		byte[] b = fill();
+		if (b == null) return -1;
+		int n = Math.min(len, b.length - offset);
+		arraycopy(b, offset, buf, off, n);
+		offset += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return block == null ? 0 : block.length - offset;
+	}
+
+	/**
+	 * Returns the current block, loading the next block if the current block
+	 * has been read, or null if all blocks have been read.
+	 */
+	@Nullable
+	private byte[] fill() throws IOException {
+		while (block == null || offset == block.length) {
+			if (nextBlock == blocks.size()) {
+				block = null;
+				return null;
+			}
+			loadBlock(nextBlock++);
+		}
+		return block;
+	}
+
+	private void loadBlock(int index) throws IOException {
+		MessageId m = blocks.get(index);
+		Pair<Message, BdfDictionary> loaded;
+		try {
+			loaded = db.transactionWithResult(true, txn -> new Pair<>(
+					clientHelper.getMessage(txn, m),
+					clientHelper.getMessageMetadataAsDictionary(txn, m)));
+		} catch (DbException | FormatException e) {
+			throw new IOException(e);
+		}
+		Message message = loaded.getFirst();
+		// Check that the block is in the same group as the attachment
+		if (!message.getGroupId().equals(groupId)) throw new IOException();
+		byte[] body = message.getBody();
+		BdfDictionary meta = loaded.getSecond();
+		int descriptorLength;
+		try {
+			// Check that the message is the expected block of an attachment
+			if (meta.getLong(MSG_KEY_BLOCK_INDEX) != index) {
+				throw new IOException("Not the expected block");
+			}
+			descriptorLength = meta.getInt(MSG_KEY_DESCRIPTOR_LENGTH);
+		} catch (FormatException e) {
+			throw new IOException(e);
+		}
+		// Every block except the last must be full
+		int length = body.length - descriptorLength;
+		boolean last = index == blocks.size() - 1;
+		if (length < 1 || length > ATTACHMENT_BLOCK_LENGTH ||
+				(!last && length != ATTACHMENT_BLOCK_LENGTH)) {
+			throw new IOException("Invalid block length");
+		}
+		block = body;
+		offset = descriptorLength;
+	}
+}
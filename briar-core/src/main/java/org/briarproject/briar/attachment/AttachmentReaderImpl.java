@@ -3,6 +3,7 @@ package org.briarproject.briar.attachment;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
@@ -15,9 +16,12 @@ import org.briarproject.briar.api.attachment.AttachmentReader;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCKS;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTENT_TYPE;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
 
@@ -41,7 +45,6 @@ public class AttachmentReaderImpl implements AttachmentReader {
 	@Override
 	public Attachment getAttachment(Transaction txn, AttachmentHeader h)
 			throws DbException {
-		// TODO: Support large messages
 		MessageId m = h.getMessageId();
 		Message message = clientHelper.getMessage(txn, m);
 		// Check that the message is in the expected group, to prevent it from
@@ -57,8 +60,20 @@ public class AttachmentReaderImpl implements AttachmentReader {
 			if (!contentType.equals(h.getContentType()))
 				throw new NoSuchMessageException();
 			int offset = meta.getInt(MSG_KEY_DESCRIPTOR_LENGTH);
-			InputStream stream = new ByteArrayInputStream(body, offset,
-					body.length - offset);
+			BdfList blockList = meta.getOptionalList(MSG_KEY_BLOCKS);
+			InputStream stream;
+			if (blockList == null) {
+				stream = new ByteArrayInputStream(body, offset,
+						body.length - offset);
+			} else {
+				// The data is stored in separate block messages
+				List<MessageId> blocks = new ArrayList<>(blockList.size());
+				for (int i = 0; i < blockList.size(); i++) {
+					blocks.add(new MessageId(blockList.getRaw(i)));
+				}
+				stream = new AttachmentBlockInputStream(db, clientHelper,
+						h.getGroupId(), blocks);
+			}
 			return new Attachment(h, stream);
 		} catch (FormatException e) {
 			throw new NoSuchMessageException();
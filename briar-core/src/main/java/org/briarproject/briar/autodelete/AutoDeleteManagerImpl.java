@@ -18,6 +18,7 @@ import org.briarproject.briar.api.autodelete.AutoDeleteManager;
 import org.briarproject.briar.api.autodelete.event.AutoDeleteTimerMirroredEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.Immutable;
@@ -74,6 +75,12 @@ class AutoDeleteManagerImpl
 		clientHelper.setContactId(txn, g.getId(), c.getId());
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		db.removeGroup(txn, getGroup(c));
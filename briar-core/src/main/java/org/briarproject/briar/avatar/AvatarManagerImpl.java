@@ -34,6 +34,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -109,6 +110,12 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 		db.setGroupVisibility(txn, c.getId(), theirGroup.getId(), client);
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		db.removeGroup(txn, getGroup(c.getAuthor().getId()));
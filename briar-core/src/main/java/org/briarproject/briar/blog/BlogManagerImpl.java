@@ -110,6 +110,12 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		if (db.containsGroup(txn, b.getId())) removeBlog(txn, b);
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	protected DeliveryAction incomingMessage(Transaction txn, Message m,
 			BdfList list, BdfDictionary meta)
@@ -19,6 +19,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SendPriority.LOW;
 import static org.briarproject.briar.api.blog.BlogManager.CLIENT_ID;
 import static org.briarproject.briar.api.blog.BlogManager.MAJOR_VERSION;
 
@@ -36,7 +37,8 @@ public class BlogModule {
 	@Singleton
 	BlogManager provideBlogManager(BlogManagerImpl blogManager,
 			LifecycleManager lifecycleManager, ContactManager contactManager,
-			ValidationManager validationManager, FeatureFlags featureFlags) {
+			ValidationManager validationManager, ClientHelper clientHelper,
+			FeatureFlags featureFlags) {
 		if (!featureFlags.shouldEnableBlogsInCore()) {
 			return blogManager;
 		}
@@ -44,6 +46,7 @@ public class BlogModule {
 		contactManager.registerContactHook(blogManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				blogManager);
+		clientHelper.setSendPriority(CLIENT_ID, MAJOR_VERSION, LOW);
 		return blogManager;
 	}
 
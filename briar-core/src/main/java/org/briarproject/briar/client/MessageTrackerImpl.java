@@ -7,15 +7,21 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
@@ -24,14 +30,27 @@ import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_ST
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
-class MessageTrackerImpl implements MessageTracker {
+class MessageTrackerImpl implements MessageTracker, EventListener {
 
 	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
 	private final Clock clock;
 
+	/**
+	 * Group counts that have been loaded from the database, indexed by
+	 * group ID.
+	 * <p>
+	 * Entries are only added during read-only transactions, which can't
+	 * overlap with a write transaction, so uncommitted counts are never
+	 * cached. An entry is removed whenever its group count is updated, so if
+	 * the updating transaction is rolled back the cache is no more than
+	 * empty, and the next read loads the committed count.
+	 */
+	private final ConcurrentMap<GroupId, GroupCount> cache =
+			new ConcurrentHashMap<>();
+
 	@Inject
 	MessageTrackerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			Clock clock) {
@@ -111,6 +130,15 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public GroupCount getGroupCount(Transaction txn, GroupId g)
 			throws DbException {
+		GroupCount cached = cache.get(g);
+		if (cached != null) return cached;
+		GroupCount count = loadGroupCount(txn, g);
+		if (txn.isReadOnly()) cache.put(g, count);
+		return count;
+	}
+
+	private GroupCount loadGroupCount(Transaction txn, GroupId g)
+			throws DbException {
 		try {
 			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
 			return new GroupCount(
@@ -125,6 +153,7 @@ class MessageTrackerImpl implements MessageTracker {
 
 	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
 			throws DbException {
+		cache.remove(g);
 		try {
 			BdfDictionary d = BdfDictionary.of(
 					new BdfEntry(GROUP_KEY_MSG_COUNT, c.getMsgCount()),
@@ -174,4 +203,10 @@ class MessageTrackerImpl implements MessageTracker {
 		storeGroupCount(txn, g, groupCount);
 	}
 
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof GroupRemovedEvent) {
+			cache.remove(((GroupRemovedEvent) e).getGroup().getId());
+		}
+	}
 }
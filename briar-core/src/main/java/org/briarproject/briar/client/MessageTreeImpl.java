@@ -9,8 +9,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -26,8 +28,10 @@ public class MessageTreeImpl<T extends MessageTree.MessageNode>
 	@GuardedBy("this")
 	private final List<T> roots = new ArrayList<>();
 
+	// Lists are compared by identity, as two lists of children may be equal
 	@GuardedBy("this")
-	private final List<List<T>> unsortedLists = new ArrayList<>();
+	private final Set<List<T>> unsortedLists =
+			Collections.newSetFromMap(new IdentityHashMap<>());
 
 	@SuppressWarnings("UseCompareMethod")
 	private final Comparator<T> comparator = (o1, o2) ->
@@ -37,6 +41,7 @@ public class MessageTreeImpl<T extends MessageTree.MessageNode>
 	public synchronized void clear() {
 		roots.clear();
 		nodeMap.clear();
+		unsortedLists.clear();
 	}
 
 	@Override
@@ -59,8 +64,7 @@ public class MessageTreeImpl<T extends MessageTree.MessageNode>
 
 	@GuardedBy("this")
 	private void markAsUnsorted(List<T> list) {
-		if (!unsortedLists.contains(list))
-			unsortedLists.add(list);
+		unsortedLists.add(list);
 	}
 
 	@GuardedBy("this")
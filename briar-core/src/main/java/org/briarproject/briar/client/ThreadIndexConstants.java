@@ -0,0 +1,24 @@
+package org.briarproject.briar.client;
+
+interface ThreadIndexConstants {
+
+	// Metadata keys for messages
+	String MSG_KEY_THREAD_ROOT = "threadRoot";
+	String MSG_KEY_THREAD_TIME = "threadTime";
+	String MSG_KEY_THREAD_DEPTH = "threadDepth";
+
+	// Metadata keys for groups
+	String GROUP_KEY_THREADS_INDEXED = "threadsIndexed";
+
+	/**
+	 * The delay before retrying a group that couldn't be indexed in the
+	 * background. The delay doubles with each consecutive failure, up to
+	 * {@link #MAX_RETRY_DELAY_MS}.
+	 */
+	long RETRY_DELAY_MS = 30_000;
+
+	/**
+	 * The maximum delay before retrying a group that couldn't be indexed.
+	 */
+	long MAX_RETRY_DELAY_MS = 60 * 60 * 1000;
+}
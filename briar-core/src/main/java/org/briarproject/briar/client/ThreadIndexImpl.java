@@ -0,0 +1,350 @@
+package org.briarproject.briar.client;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataRange;
+import org.briarproject.bramble.api.db.NoSuchGroupException;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.briar.api.client.ThreadIndex;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+import static java.lang.Math.min;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.db.MetadataQuery.NO_LIMIT;
+import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.briar.client.ThreadIndexConstants.GROUP_KEY_THREADS_INDEXED;
+import static org.briarproject.briar.client.ThreadIndexConstants.MAX_RETRY_DELAY_MS;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_DEPTH;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_ROOT;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_TIME;
+import static org.briarproject.briar.client.ThreadIndexConstants.RETRY_DELAY_MS;
+
+/**
+ * Stores the root, the root's timestamp and the depth of each message in its
+ * metadata. A page of threads is loaded by querying the roots in timestamp
+ * order, then the messages belonging to those roots, and only the messages
+ * on the page are sorted into depth-first order.
+ * <p>
+ * Until a group has been indexed, pages are found by loading and sorting
+ * every message in the group.
+ */
+@Immutable
+@NotNullByDefault
+class ThreadIndexImpl implements ThreadIndex {
+
+	private static final Logger LOG =
+			getLogger(ThreadIndexImpl.class.getName());
+
+	private final DatabaseComponent db;
+	private final ClientHelper clientHelper;
+	private final TaskScheduler taskScheduler;
+	private final Executor dbExecutor;
+
+	@Inject
+	ThreadIndexImpl(DatabaseComponent db, ClientHelper clientHelper,
+			TaskScheduler taskScheduler,
+			@DatabaseExecutor Executor dbExecutor) {
+		this.db = db;
+		this.clientHelper = clientHelper;
+		this.taskScheduler = taskScheduler;
+		this.dbExecutor = dbExecutor;
+	}
+
+	@Override
+	public void addMessage(Transaction txn, MessageId m,
+			@Nullable MessageId parent, long timestamp) throws DbException {
+		try {
+			BdfDictionary entry;
+			if (parent == null) {
+				entry = createEntry(m, timestamp, 0);
+			} else {
+				BdfDictionary parentMeta;
+				try {
+					parentMeta = clientHelper
+							.getMessageMetadataAsDictionary(txn, parent);
+				} catch (NoSuchMessageException e) {
+					// The parent is invalid, so the message can't be shown
+					// as part of a thread
+					return;
+				}
+				// If the parent hasn't been indexed, the group hasn't been
+				// indexed yet and the message will be indexed along with it
+				if (!parentMeta.containsKey(MSG_KEY_THREAD_ROOT)) return;
+				entry = createChildEntry(parentMeta);
+			}
+			clientHelper.mergeMessageMetadata(txn, m, entry);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void addGroup(Transaction txn, GroupId g, String parentKey)
+			throws DbException {
+		try {
+			BdfDictionary groupMeta =
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			if (groupMeta.getBoolean(GROUP_KEY_THREADS_INDEXED, false)) return;
+			Map<MessageId, BdfDictionary> all =
+					clientHelper.getMessageMetadataAsDictionary(txn, g);
+			Map<MessageId, BdfDictionary> indexed = new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : all.entrySet()) {
+				if (e.getValue().containsKey(MSG_KEY_THREAD_ROOT))
+					indexed.put(e.getKey(), e.getValue());
+			}
+			for (MessageId m : all.keySet()) {
+				if (indexed.containsKey(m)) continue;
+				// Walk up to the root or the nearest indexed ancestor
+				Deque<MessageId> unindexed = new ArrayDeque<>();
+				BdfDictionary ancestor = null;
+				MessageId current = m;
+				boolean missingAncestor = false;
+				while (true) {
+					BdfDictionary meta = all.get(current);
+					if (meta == null) {
+						missingAncestor = true;
+						break;
+					}
+					unindexed.push(current);
+					byte[] parent = meta.getOptionalRaw(parentKey);
+					if (parent == null) break;
+					current = new MessageId(parent);
+					ancestor = indexed.get(current);
+					if (ancestor != null) break;
+				}
+				if (missingAncestor) continue;
+				// Index the messages on the way back down
+				while (!unindexed.isEmpty()) {
+					MessageId id = unindexed.pop();
+					BdfDictionary entry;
+					if (ancestor == null) {
+						long timestamp = all.get(id).getLong(KEY_TIMESTAMP);
+						entry = createEntry(id, timestamp, 0);
+					} else {
+						entry = createChildEntry(ancestor);
+					}
+					clientHelper.mergeMessageMetadata(txn, id, entry);
+					indexed.put(id, entry);
+					ancestor = entry;
+				}
+			}
+			clientHelper.mergeGroupMetadata(txn, g, BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_THREADS_INDEXED, true)));
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void addGroupsInBackground(Collection<GroupId> groups,
+			String parentKey) {
+		for (GroupId g : groups) {
+			dbExecutor.execute(() -> addGroupInBackground(g, parentKey, 0));
+		}
+	}
+
+	@DatabaseExecutor
+	private void addGroupInBackground(GroupId g, String parentKey,
+			int failures) {
+		try {
+			db.transaction(false, txn -> addGroup(txn, g, parentKey));
+		} catch (NoSuchGroupException e) {
+			// The group has been removed
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			long delay = RETRY_DELAY_MS << min(failures, 16);
+			delay = min(delay, MAX_RETRY_DELAY_MS);
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Retrying thread index in " + delay + " ms");
+			}
+			taskScheduler.schedule(
+					() -> addGroupInBackground(g, parentKey, failures + 1),
+					dbExecutor, delay, MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getThreads(Transaction txn,
+			GroupId g, String parentKey, int offset, int maxThreads)
+			throws DbException {
+		try {
+			BdfDictionary groupMeta =
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			if (!groupMeta.getBoolean(GROUP_KEY_THREADS_INDEXED, false)) {
+				return getUnindexedThreads(txn, g, parentKey, offset,
+						maxThreads);
+			}
+			// Find the roots on the page
+			MetadataRange isRoot =
+					new MetadataRange(MSG_KEY_THREAD_DEPTH, 0, 0);
+			MetadataQuery rootQuery = new MetadataQuery(new Metadata(),
+					singletonList(isRoot), MSG_KEY_THREAD_TIME, false,
+					offset, maxThreads);
+			Map<MessageId, BdfDictionary> roots = clientHelper
+					.getMessageMetadataAsDictionary(txn, g, rootQuery);
+			if (roots.isEmpty()) return Collections.emptyMap();
+			// Find the replies in threads with timestamps in the page's range
+			long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+			for (BdfDictionary meta : roots.values()) {
+				long time = meta.getLong(MSG_KEY_THREAD_TIME);
+				min = Math.min(min, time);
+				max = Math.max(max, time);
+			}
+			List<MetadataRange> ranges = new ArrayList<>(2);
+			ranges.add(new MetadataRange(MSG_KEY_THREAD_TIME, min, max));
+			ranges.add(MetadataRange.atLeast(MSG_KEY_THREAD_DEPTH, 1));
+			MetadataQuery replyQuery = new MetadataQuery(new Metadata(),
+					ranges, null, false, NO_LIMIT);
+			Map<MessageId, BdfDictionary> replies = clientHelper
+					.getMessageMetadataAsDictionary(txn, g, replyQuery);
+			// Group the replies by parent, ignoring threads that aren't on
+			// the page but share a timestamp with a thread that is
+			Map<MessageId, List<MessageId>> children = new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : replies.entrySet()) {
+				BdfDictionary meta = e.getValue();
+				MessageId root =
+						new MessageId(meta.getRaw(MSG_KEY_THREAD_ROOT));
+				if (!roots.containsKey(root)) continue;
+				MessageId parent = new MessageId(meta.getRaw(parentKey));
+				List<MessageId> siblings = children.get(parent);
+				if (siblings == null) {
+					siblings = new ArrayList<>();
+					children.put(parent, siblings);
+				}
+				siblings.add(e.getKey());
+			}
+			for (List<MessageId> siblings : children.values()) {
+				sortByTimestamp(siblings, replies);
+			}
+			// Traverse each thread in depth-first order
+			Map<MessageId, BdfDictionary> page = new LinkedHashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : roots.entrySet()) {
+				page.put(e.getKey(), e.getValue());
+				Deque<MessageId> stack = new ArrayDeque<>();
+				pushChildren(stack, children.get(e.getKey()));
+				while (!stack.isEmpty()) {
+					MessageId m = stack.pop();
+					page.put(m, replies.get(m));
+					pushChildren(stack, children.get(m));
+				}
+			}
+			return page;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the given page of threads from a group that hasn't been
+	 * indexed yet, in the same order as the index would return them.
+	 */
+	private Map<MessageId, BdfDictionary> getUnindexedThreads(
+			Transaction txn, GroupId g, String parentKey, int offset,
+			int maxThreads) throws DbException, FormatException {
+		Map<MessageId, BdfDictionary> all =
+				clientHelper.getMessageMetadataAsDictionary(txn, g);
+		List<MessageId> roots = new ArrayList<>();
+		Map<MessageId, List<MessageId>> children = new HashMap<>();
+		for (Entry<MessageId, BdfDictionary> e : all.entrySet()) {
+			byte[] parent = e.getValue().getOptionalRaw(parentKey);
+			if (parent == null) {
+				roots.add(e.getKey());
+				continue;
+			}
+			MessageId parentId = new MessageId(parent);
+			List<MessageId> siblings = children.get(parentId);
+			if (siblings == null) {
+				siblings = new ArrayList<>();
+				children.put(parentId, siblings);
+			}
+			siblings.add(e.getKey());
+		}
+		if (offset >= roots.size()) return Collections.emptyMap();
+		sortByTimestamp(roots, all);
+		for (List<MessageId> siblings : children.values()) {
+			sortByTimestamp(siblings, all);
+		}
+		// Traverse each thread on the page in depth-first order. Messages
+		// whose ancestors are missing aren't reachable from any root
+		Map<MessageId, BdfDictionary> page = new LinkedHashMap<>();
+		int end = (int) min((long) offset + maxThreads, roots.size());
+		for (MessageId root : roots.subList(offset, end)) {
+			page.put(root, all.get(root));
+			Deque<MessageId> stack = new ArrayDeque<>();
+			pushChildren(stack, children.get(root));
+			while (!stack.isEmpty()) {
+				MessageId m = stack.pop();
+				page.put(m, all.get(m));
+				pushChildren(stack, children.get(m));
+			}
+		}
+		return page;
+	}
+
+	private BdfDictionary createEntry(MessageId root, long time, long depth) {
+		return BdfDictionary.of(
+				new BdfEntry(MSG_KEY_THREAD_ROOT, root),
+				new BdfEntry(MSG_KEY_THREAD_TIME, time),
+				new BdfEntry(MSG_KEY_THREAD_DEPTH, depth)
+		);
+	}
+
+	private BdfDictionary createChildEntry(BdfDictionary parentMeta)
+			throws FormatException {
+		return createEntry(
+				new MessageId(parentMeta.getRaw(MSG_KEY_THREAD_ROOT)),
+				parentMeta.getLong(MSG_KEY_THREAD_TIME),
+				parentMeta.getLong(MSG_KEY_THREAD_DEPTH) + 1);
+	}
+
+	private void sortByTimestamp(List<MessageId> ids,
+			Map<MessageId, BdfDictionary> metadata) throws FormatException {
+		Map<MessageId, Long> timestamps = new HashMap<>(ids.size());
+		for (MessageId m : ids) {
+			timestamps.put(m, metadata.get(m).getLong(KEY_TIMESTAMP));
+		}
+		Collections.sort(ids, (a, b) ->
+				timestamps.get(a).compareTo(timestamps.get(b)));
+	}
+
+	private void pushChildren(Deque<MessageId> stack,
+			@Nullable List<MessageId> children) {
+		if (children == null) return;
+		// Push in reverse so the earliest child is popped first
+		for (int i = children.size() - 1; i >= 0; i--) {
+			stack.push(children.get(i));
+		}
+	}
+}
@@ -20,7 +20,9 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -93,6 +95,21 @@ class ConversationManagerImpl implements ConversationManager {
 		return new GroupCount(msgCount, unreadCount, latestTime);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(
+			Collection<ContactId> contacts) throws DbException {
+		return db.transactionWithResult(true,
+				txn -> getGroupCounts(txn, contacts));
+	}
+
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<ContactId> contacts) throws DbException {
+		Map<ContactId, GroupCount> counts = new HashMap<>();
+		for (ContactId c : contacts) counts.put(c, getGroupCount(txn, c));
+		return counts;
+	}
+
 	@Override
 	public void trackIncomingMessage(Transaction txn, Message m)
 			throws DbException {
@@ -12,12 +12,14 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.client.ThreadIndex;
 import org.briarproject.briar.api.forum.Forum;
 import org.briarproject.briar.api.forum.ForumFactory;
 import org.briarproject.briar.api.forum.ForumManager;
@@ -54,27 +56,40 @@ import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ
 
 @ThreadSafe
 @NotNullByDefault
-class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
+class ForumManagerImpl extends BdfIncomingMessageHook
+		implements ForumManager, OpenDatabaseHook {
 
 	private final AuthorManager authorManager;
 	private final ForumFactory forumFactory;
 	private final ForumPostFactory forumPostFactory;
 	private final MessageTracker messageTracker;
+	private final ThreadIndex threadIndex;
 	private final List<RemoveForumHook> removeHooks;
 
 	@Inject
 	ForumManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MetadataParser metadataParser, AuthorManager authorManager,
 			ForumFactory forumFactory, ForumPostFactory forumPostFactory,
-			MessageTracker messageTracker) {
+			MessageTracker messageTracker, ThreadIndex threadIndex) {
 		super(db, clientHelper, metadataParser);
 		this.authorManager = authorManager;
 		this.forumFactory = forumFactory;
 		this.forumPostFactory = forumPostFactory;
 		this.messageTracker = messageTracker;
+		this.threadIndex = threadIndex;
 		removeHooks = new CopyOnWriteArrayList<>();
 	}
 
+	@Override
+	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Index any forums that were joined before the thread index existed.
+		// Until a forum has been indexed, its threads are loaded without the
+		// index
+		List<GroupId> forums = new ArrayList<>();
+		for (Forum f : getForums(txn)) forums.add(f.getId());
+		threadIndex.addGroupsInBackground(forums, KEY_PARENT);
+	}
+
 	@Override
 	protected DeliveryAction incomingMessage(Transaction txn, Message m,
 			BdfList body, BdfDictionary meta)
@@ -83,6 +98,8 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		messageTracker.trackIncomingMessage(txn, m);
 
 		ForumPostHeader header = getForumPostHeader(txn, m.getId(), meta);
+		threadIndex.addMessage(txn, m.getId(), header.getParentId(),
+				header.getTimestamp());
 		String text = getPostText(body);
 		ForumPostReceivedEvent event =
 				new ForumPostReceivedEvent(m.getGroupId(), header, text);
@@ -94,13 +111,15 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	@Override
 	public Forum addForum(String name) throws DbException {
 		Forum f = forumFactory.createForum(name);
-		db.transaction(false, txn -> db.addGroup(txn, f.getGroup()));
+		db.transaction(false, txn -> addForum(txn, f));
 		return f;
 	}
 
 	@Override
 	public void addForum(Transaction txn, Forum f) throws DbException {
 		db.addGroup(txn, f.getGroup());
+		// The forum is empty, so this just marks it as indexed
+		threadIndex.addGroup(txn, f.getId(), KEY_PARENT);
 	}
 
 	@Override
@@ -147,6 +166,8 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 			clientHelper
 					.addLocalMessage(txn, p.getMessage(), meta, true, false);
 			messageTracker.trackOutgoingMessage(txn, p.getMessage());
+			threadIndex.addMessage(txn, p.getMessage().getId(), p.getParent(),
+					p.getMessage().getTimestamp());
 			AuthorInfo authorInfo = authorManager.getMyAuthorInfo(txn);
 			return new ForumPostHeader(p.getMessage().getId(), p.getParent(),
 					p.getMessage().getTimestamp(), p.getAuthor(), authorInfo,
@@ -221,33 +242,49 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	public List<ForumPostHeader> getPostHeaders(Transaction txn, GroupId g)
 			throws DbException {
 		try {
-			List<ForumPostHeader> headers = new ArrayList<>();
-			Map<MessageId, BdfDictionary> metadata =
-					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the info for
-			Set<AuthorId> authors = new HashSet<>();
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-				Author a = clientHelper.parseAndValidateAuthor(authorList);
-				authors.add(a.getId());
-			}
-			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
-			}
-			// Parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				headers.add(getForumPostHeader(txn, entry.getKey(), meta,
-						authorInfos));
-			}
-			return headers;
+			return getPostHeaders(txn,
+					clientHelper.getMessageMetadataAsDictionary(txn, g));
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<ForumPostHeader> getPostHeaders(Transaction txn, GroupId g,
+			int offset, int maxThreads) throws DbException {
+		try {
+			return getPostHeaders(txn, threadIndex.getThreads(txn, g,
+					KEY_PARENT, offset, maxThreads));
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private List<ForumPostHeader> getPostHeaders(Transaction txn,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<ForumPostHeader> headers = new ArrayList<>(metadata.size());
+		// get all authors we need to get the info for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
+		}
+		// Parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			headers.add(getForumPostHeader(txn, entry.getKey(), meta,
+					authorInfos));
+		}
+		return headers;
+	}
+
 	@Override
 	public void registerRemoveForumHook(RemoveForumHook hook) {
 		removeHooks.add(hook);
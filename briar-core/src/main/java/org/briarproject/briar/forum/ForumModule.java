@@ -3,6 +3,7 @@ package org.briarproject.briar.forum;
 import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.forum.ForumFactory;
@@ -15,6 +16,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SendPriority.LOW;
 import static org.briarproject.briar.api.forum.ForumManager.CLIENT_ID;
 import static org.briarproject.briar.api.forum.ForumManager.MAJOR_VERSION;
 
@@ -31,13 +33,16 @@ public class ForumModule {
 	@Provides
 	@Singleton
 	ForumManager provideForumManager(ForumManagerImpl forumManager,
-			ValidationManager validationManager,
+			LifecycleManager lifecycleManager,
+			ValidationManager validationManager, ClientHelper clientHelper,
 			FeatureFlags featureFlags) {
 		if (!featureFlags.shouldEnableForumsInCore()) {
 			return forumManager;
 		}
+		lifecycleManager.registerDeferredOpenDatabaseHook(forumManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				forumManager);
+		clientHelper.setSendPriority(CLIENT_ID, MAJOR_VERSION, LOW);
 		return forumManager;
 	}
 
@@ -148,6 +148,12 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		clientHelper.setContactId(txn, g.getId(), c.getId());
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		removeSessionWithIntroducer(txn, c);
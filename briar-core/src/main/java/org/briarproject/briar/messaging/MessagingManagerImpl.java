@@ -45,37 +45,49 @@ import org.briarproject.briar.api.messaging.event.AttachmentReceivedEvent;
 import org.briarproject.briar.api.messaging.event.PrivateMessageReceivedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static java.lang.System.arraycopy;
+import static java.util.Arrays.copyOf;
 import static java.util.Collections.emptyList;
+import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.client.ContactGroupConstants.GROUP_KEY_CONTACT_ID;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
-import static org.briarproject.bramble.util.IoUtils.copyAndClose;
+import static org.briarproject.bramble.util.IoUtils.tryToClose;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.now;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCKS;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCK_INDEX;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTENT_TYPE;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENT_BLOCKS;
 import static org.briarproject.briar.api.messaging.PrivateMessageFormat.TEXT_IMAGES;
 import static org.briarproject.briar.api.messaging.PrivateMessageFormat.TEXT_IMAGES_AUTO_DELETE;
 import static org.briarproject.briar.api.messaging.PrivateMessageFormat.TEXT_ONLY;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT;
+import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT_BLOCK;
 import static org.briarproject.briar.messaging.MessageTypes.PRIVATE_MESSAGE;
 import static org.briarproject.briar.messaging.MessagingConstants.MISSING_ATTACHMENT_CLEANUP_DURATION_MS;
 import static org.briarproject.briar.messaging.MessagingConstants.MSG_KEY_ATTACHMENT_HEADERS;
@@ -157,6 +169,29 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		messageTracker.initializeGroupCount(txn, g.getId());
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		// Create a group to share with each contact
+		Map<ContactId, Group> groups = new LinkedHashMap<>();
+		for (Contact c : contacts) groups.put(c.getId(), getContactGroup(c));
+		db.addGroups(txn, groups.values());
+		// Apply the client's visibility to each contact group
+		Map<ContactId, GroupId> groupIds = new HashMap<>();
+		for (Entry<ContactId, Group> e : groups.entrySet()) {
+			groupIds.put(e.getKey(), e.getValue().getId());
+		}
+		clientVersioningManager.setClientVisibility(txn, groupIds, CLIENT_ID,
+				MAJOR_VERSION);
+		for (Entry<ContactId, Group> e : groups.entrySet()) {
+			GroupId g = e.getValue().getId();
+			// Attach the contact ID to the group
+			clientHelper.setContactId(txn, g, e.getKey());
+			// Initialize the group count with current time
+			messageTracker.initializeGroupCount(txn, g);
+		}
+	}
+
 	@Override
 	public Group getContactGroup(Contact c) {
 		return contactGroupFactory.createContactGroup(CLIENT_ID,
@@ -191,7 +226,9 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 						parseAttachmentHeaders(m.getGroupId(), metaDict);
 				incomingPrivateMessage(txn, m, metaDict, hasText, headers);
 			} else if (messageType == ATTACHMENT) {
-				incomingAttachment(txn, m);
+				incomingAttachment(txn, m, metaDict);
+			} else if (messageType == ATTACHMENT_BLOCK) {
+				incomingAttachmentBlock(txn, m);
 			} else {
 				throw new InvalidMessageException();
 			}
@@ -259,11 +296,27 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		}
 	}
 
-	private void incomingAttachment(Transaction txn, Message m)
-			throws DbException {
+	private void incomingAttachment(Transaction txn, Message m,
+			BdfDictionary attachmentMeta)
+			throws DbException, FormatException, InvalidMessageException {
 		long start = now();
+		// The attachment's blocks were delivered before the attachment, as
+		// they're its dependencies. Check that they're blocks sent by the
+		// contact, listed in order
+		List<MessageId> blocks = getBlocks(attachmentMeta);
+		for (int i = 0; i < blocks.size(); i++) {
+			BdfDictionary blockMeta = clientHelper
+					.getMessageMetadataAsDictionary(txn, blocks.get(i));
+			if (!isAttachmentBlock(blockMeta) ||
+					blockMeta.getBoolean(MSG_KEY_LOCAL) ||
+					blockMeta.getLong(MSG_KEY_BLOCK_INDEX) != i) {
+				throw new InvalidMessageException();
+			}
+		}
 		ContactId contactId = getContactId(txn, m.getGroupId());
 		txn.attach(new AttachmentReceivedEvent(m.getId(), contactId));
+		// The blocks' lifetime is now tied to the attachment's
+		for (MessageId block : blocks) db.stopCleanupTimer(txn, block);
 		// If no private messages that list this attachment have been
 		// delivered, start the cleanup timer. It will be stopped when a
 		// private message that lists this attachment is delivered
@@ -290,6 +343,39 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		logDuration(LOG, "Receiving attachment", start);
 	}
 
+	private void incomingAttachmentBlock(Transaction txn, Message m)
+			throws DbException {
+		// Start the cleanup timer in case the attachment that lists this
+		// block never arrives. It will be stopped when the attachment is
+		// delivered
+		db.setCleanupTimerDuration(txn, m.getId(),
+				MISSING_ATTACHMENT_CLEANUP_DURATION_MS);
+		db.startCleanupTimer(txn, m.getId());
+	}
+
+	private boolean isAttachmentBlock(BdfDictionary meta)
+			throws FormatException {
+		Integer messageType = meta.getOptionalInt(MSG_KEY_MSG_TYPE);
+		return messageType != null && messageType == ATTACHMENT_BLOCK;
+	}
+
+	private List<MessageId> getBlocks(BdfDictionary meta)
+			throws FormatException {
+		BdfList blockList = meta.getOptionalList(MSG_KEY_BLOCKS);
+		if (blockList == null) return emptyList();
+		List<MessageId> blocks = new ArrayList<>(blockList.size());
+		for (int i = 0; i < blockList.size(); i++) {
+			blocks.add(new MessageId(blockList.getRaw(i)));
+		}
+		return blocks;
+	}
+
+	private List<MessageId> getBlocks(Transaction txn, MessageId attachment)
+			throws DbException, FormatException {
+		return getBlocks(
+				clientHelper.getMessageMetadataAsDictionary(txn, attachment));
+	}
+
 	@Override
 	public void addLocalMessage(PrivateMessage m) throws DbException {
 		db.transaction(false, txn -> addLocalMessage(txn, m));
@@ -318,8 +404,13 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 					meta.put(MSG_KEY_AUTO_DELETE_TIMER, timer);
 				}
 			}
-			// Mark attachments as shared and permanent now we're ready to send
+			// Mark attachments and their blocks as shared and permanent now
+			// we're ready to send
 			for (AttachmentHeader a : m.getAttachmentHeaders()) {
+				for (MessageId block : getBlocks(txn, a.getMessageId())) {
+					db.setMessageShared(txn, block);
+					db.setMessagePermanent(txn, block);
+				}
 				db.setMessageShared(txn, a.getMessageId());
 				db.setMessagePermanent(txn, a.getMessageId());
 			}
@@ -338,32 +429,179 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 	public AttachmentHeader addLocalAttachment(GroupId groupId, long timestamp,
 			String contentType, InputStream in)
 			throws DbException, IOException {
-		// TODO: Support large messages
-		ByteArrayOutputStream bodyOut = new ByteArrayOutputStream();
+		try {
+			byte[] descriptor = clientHelper.toByteArray(
+					BdfList.of(ATTACHMENT, contentType));
+			if (descriptor.length >= MAX_MESSAGE_BODY_LENGTH)
+				throw new FileTooBigException();
+			// Read the attachment into a buffer that can hold the largest
+			// possible body, so we can tell whether the attachment fits
+			// into a single message
+			byte[] buf = new byte[MAX_MESSAGE_BODY_LENGTH];
+			arraycopy(descriptor, 0, buf, 0, descriptor.length);
+			int length = descriptor.length + read(in, buf, descriptor.length);
+			int next = length == buf.length ? in.read() : -1;
+			if (next == -1) {
+				byte[] body = length == buf.length ? buf : copyOf(buf, length);
+				return addLocalAttachment(groupId, timestamp, contentType,
+						body, descriptor.length, null);
+			}
+			// The attachment is too big for a single message. If the contact
+			// supports it, split the attachment into blocks, starting with
+			// the data that has already been read
+			if (!contactSupportsAttachmentBlocks(groupId))
+				throw new FileTooBigException();
+			byte[] alreadyRead = new byte[buf.length - descriptor.length + 1];
+			arraycopy(buf, descriptor.length, alreadyRead, 0,
+					alreadyRead.length - 1);
+			alreadyRead[alreadyRead.length - 1] = (byte) next;
+			InputStream data = new SequenceInputStream(
+					new ByteArrayInputStream(alreadyRead), in);
+			return addLocalAttachmentBlocks(groupId, timestamp, contentType,
+					data);
+		} finally {
+			tryToClose(in, LOG, WARNING);
+		}
+	}
+
+	/**
+	 * Reads from the given stream until the buffer is full or the end of
+	 * the stream is reached, and returns the number of bytes read.
+	 */
+	private int read(InputStream in, byte[] buf, int offset)
+			throws IOException {
+		int length = offset;
+		while (length < buf.length) {
+			int read = in.read(buf, length, buf.length - length);
+			if (read == -1) break;
+			length += read;
+		}
+		return length - offset;
+	}
+
+	private boolean contactSupportsAttachmentBlocks(GroupId g)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			ContactId c = getContactId(txn, g);
+			return clientVersioningManager.getClientMinorVersion(txn, c,
+					CLIENT_ID, MAJOR_VERSION) >= 4;
+		});
+	}
+
+	/**
+	 * Reads the attachment from the given stream one block at a time,
+	 * storing each block in its own message, and then stores an attachment
+	 * message that lists the blocks. The ID of the attachment message
+	 * therefore covers the hashes of all the blocks, and each block can be
+	 * synced and verified separately.
+	 */
+	private AttachmentHeader addLocalAttachmentBlocks(GroupId g,
+			long timestamp, String contentType, InputStream in)
+			throws DbException, IOException {
+		List<MessageId> blocks = new ArrayList<>();
+		try {
+			byte[] buf = new byte[ATTACHMENT_BLOCK_LENGTH];
+			while (true) {
+				int length = read(in, buf, 0);
+				if (length == 0) break;
+				blocks.add(addLocalAttachmentBlock(g, timestamp,
+						blocks.size(), buf, length));
+				if (length < buf.length) break;
+				if (blocks.size() == MAX_ATTACHMENT_BLOCKS) {
+					if (in.read() != -1) throw new FileTooBigException();
+					break;
+				}
+			}
+			BdfList blockList = new BdfList();
+			for (MessageId block : blocks) blockList.add(block);
+			byte[] body = clientHelper.toByteArray(
+					BdfList.of(ATTACHMENT, contentType, blockList));
+			return addLocalAttachment(g, timestamp, contentType, body,
+					body.length, blockList);
+		} catch (DbException | IOException e) {
+			// Remove any blocks that have been stored
+			db.transaction(false, txn -> {
+				for (MessageId block : blocks) db.removeMessage(txn, block);
+			});
+			throw e;
+		}
+	}
+
+	private MessageId addLocalAttachmentBlock(GroupId g, long timestamp,
+			int index, byte[] data, int length)
+			throws DbException, FormatException {
 		byte[] descriptor =
-				clientHelper.toByteArray(BdfList.of(ATTACHMENT, contentType));
-		bodyOut.write(descriptor);
-		copyAndClose(in, bodyOut);
-		if (bodyOut.size() > MAX_MESSAGE_BODY_LENGTH)
-			throw new FileTooBigException();
-		byte[] body = bodyOut.toByteArray();
+				clientHelper.toByteArray(BdfList.of(ATTACHMENT_BLOCK, index));
+		byte[] body = new byte[descriptor.length + length];
+		arraycopy(descriptor, 0, body, 0, descriptor.length);
+		arraycopy(data, 0, body, descriptor.length, length);
+		BdfDictionary meta = new BdfDictionary();
+		meta.put(MSG_KEY_TIMESTAMP, timestamp);
+		meta.put(MSG_KEY_LOCAL, true);
+		meta.put(MSG_KEY_MSG_TYPE, ATTACHMENT_BLOCK);
+		meta.put(MSG_KEY_BLOCK_INDEX, index);
+		meta.put(MSG_KEY_DESCRIPTOR_LENGTH, descriptor.length);
+		Message m = clientHelper.createMessage(g, timestamp, body);
+		// Mark blocks as temporary, not shared until we're ready to send
+		db.transaction(false, txn ->
+				clientHelper.addLocalMessage(txn, m, meta, false, true));
+		return m.getId();
+	}
+
+	private AttachmentHeader addLocalAttachment(GroupId g, long timestamp,
+			String contentType, byte[] body, int descriptorLength,
+			@Nullable BdfList blocks) throws DbException, FormatException {
 		BdfDictionary meta = new BdfDictionary();
 		meta.put(MSG_KEY_TIMESTAMP, timestamp);
 		meta.put(MSG_KEY_LOCAL, true);
 		meta.put(MSG_KEY_MSG_TYPE, ATTACHMENT);
 		meta.put(MSG_KEY_CONTENT_TYPE, contentType);
-		meta.put(MSG_KEY_DESCRIPTOR_LENGTH, descriptor.length);
-		Message m = clientHelper.createMessage(groupId, timestamp, body);
+		meta.put(MSG_KEY_DESCRIPTOR_LENGTH, descriptorLength);
+		if (blocks != null) meta.put(MSG_KEY_BLOCKS, blocks);
+		Message m = clientHelper.createMessage(g, timestamp, body);
 		// Mark attachments as temporary, not shared until we're ready to send
 		db.transaction(false, txn ->
 				clientHelper.addLocalMessage(txn, m, meta, false, true));
-		return new AttachmentHeader(groupId, m.getId(), contentType);
+		return new AttachmentHeader(g, m.getId(), contentType);
 	}
 
 	@Override
 	public void removeAttachment(AttachmentHeader header) throws DbException {
-		db.transaction(false,
-				txn -> db.removeMessage(txn, header.getMessageId()));
+		db.transaction(false, txn -> {
+			MessageId m = header.getMessageId();
+			try {
+				for (MessageId block : getBlocks(txn, m)) {
+					db.removeMessage(txn, block);
+				}
+			} catch (FormatException e) {
+				throw new DbException(e);
+			}
+			db.removeMessage(txn, m);
+		});
+	}
+
+	@Override
+	public AttachmentHeader getLocalAttachmentHeader(GroupId g, MessageId m)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			// Check that the attachment is in the expected conversation, so
+			// it can't be sent to a different contact
+			if (!db.getGroupId(txn, m).equals(g))
+				throw new NoSuchMessageException();
+			try {
+				BdfDictionary meta =
+						clientHelper.getMessageMetadataAsDictionary(txn, m);
+				Integer messageType = meta.getOptionalInt(MSG_KEY_MSG_TYPE);
+				if (messageType == null || messageType != ATTACHMENT ||
+						!meta.getBoolean(MSG_KEY_LOCAL, false)) {
+					throw new NoSuchMessageException();
+				}
+				String contentType = meta.getString(MSG_KEY_CONTENT_TYPE);
+				return new AttachmentHeader(g, m, contentType);
+			} catch (FormatException e) {
+				throw new NoSuchMessageException();
+			}
+		});
 	}
 
 	private ContactId getContactId(Transaction txn, GroupId g)
@@ -532,12 +770,16 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 			if (messageType != null && messageType == PRIVATE_MESSAGE) {
 				for (AttachmentHeader h : parseAttachmentHeaders(g, meta)) {
 					try {
-						db.deleteMessage(txn, h.getMessageId());
-						db.deleteMessageMetadata(txn, h.getMessageId());
+						MessageId a = h.getMessageId();
+						deleteBlocks(txn, getBlocks(txn, a));
+						db.deleteMessage(txn, a);
+						db.deleteMessageMetadata(txn, a);
 					} catch (NoSuchMessageException e) {
 						// Continue
 					}
 				}
+			} else if (messageType != null && messageType == ATTACHMENT) {
+				deleteBlocks(txn, getBlocks(meta));
 			}
 			db.deleteMessage(txn, m);
 			db.deleteMessageMetadata(txn, m);
@@ -546,6 +788,22 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		}
 	}
 
+	private void deleteBlocks(Transaction txn, List<MessageId> blocks)
+			throws DbException, FormatException {
+		for (MessageId block : blocks) {
+			try {
+				// Don't delete any other message that's listed as a block
+				BdfDictionary meta =
+						clientHelper.getMessageMetadataAsDictionary(txn, block);
+				if (!isAttachmentBlock(meta)) continue;
+				db.deleteMessage(txn, block);
+				db.deleteMessageMetadata(txn, block);
+			} catch (NoSuchMessageException e) {
+				// Continue
+			}
+		}
+	}
+
 	private void recalculateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
 		try {
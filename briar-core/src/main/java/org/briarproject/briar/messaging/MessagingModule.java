@@ -2,6 +2,7 @@ package org.briarproject.briar.messaging;
 
 import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.cleanup.CleanupManager;
+import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.BdfReaderFactory;
 import org.briarproject.bramble.api.data.MetadataEncoder;
@@ -19,6 +20,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SendPriority.HIGH;
 import static org.briarproject.briar.api.messaging.MessagingManager.CLIENT_ID;
 import static org.briarproject.briar.api.messaging.MessagingManager.MAJOR_VERSION;
 import static org.briarproject.briar.api.messaging.MessagingManager.MINOR_VERSION;
@@ -57,12 +59,13 @@ public class MessagingModule {
 			ContactManager contactManager, ValidationManager validationManager,
 			ConversationManager conversationManager,
 			ClientVersioningManager clientVersioningManager,
-			CleanupManager cleanupManager, FeatureFlags featureFlags,
-			MessagingManagerImpl messagingManager) {
+			CleanupManager cleanupManager, ClientHelper clientHelper,
+			FeatureFlags featureFlags, MessagingManagerImpl messagingManager) {
 		lifecycleManager.registerOpenDatabaseHook(messagingManager);
 		contactManager.registerContactHook(messagingManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				messagingManager);
+		clientHelper.setSendPriority(CLIENT_ID, MAJOR_VERSION, HIGH);
 		conversationManager.registerConversationClient(messagingManager);
 		// Don't advertise support for image attachments or disappearing
 		// messages unless the respective feature flags are enabled
@@ -13,6 +13,7 @@ import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageContext;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.validation.MessageValidator;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.attachment.CountingInputStream;
@@ -21,21 +22,30 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.emptyList;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.util.ValidationUtils.checkLength;
+import static org.briarproject.bramble.util.ValidationUtils.checkRange;
 import static org.briarproject.bramble.util.ValidationUtils.checkSize;
 import static org.briarproject.briar.api.attachment.MediaConstants.MAX_CONTENT_TYPE_BYTES;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCKS;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCK_INDEX;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTENT_TYPE;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
 import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENTS_PER_MESSAGE;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENT_BLOCKS;
 import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_PRIVATE_MESSAGE_TEXT_LENGTH;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT;
+import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT_BLOCK;
 import static org.briarproject.briar.messaging.MessageTypes.PRIVATE_MESSAGE;
 import static org.briarproject.briar.messaging.MessagingConstants.MSG_KEY_ATTACHMENT_HEADERS;
 import static org.briarproject.briar.messaging.MessagingConstants.MSG_KEY_AUTO_DELETE_TIMER;
@@ -70,7 +80,6 @@ class PrivateMessageValidator implements MessageValidator {
 					"Timestamp is too far in the future");
 		}
 		try {
-			// TODO: Support large messages
 			InputStream in = new ByteArrayInputStream(m.getBody());
 			CountingInputStream countIn =
 					new CountingInputStream(in, MAX_MESSAGE_BODY_LENGTH);
@@ -89,7 +98,9 @@ class PrivateMessageValidator implements MessageValidator {
 					if (!reader.eof()) throw new FormatException();
 					context = validatePrivateMessage(m, list);
 				} else if (messageType == ATTACHMENT) {
-					context = validateAttachment(m, list, bytesRead);
+					context = validateAttachment(m, list, bytesRead, reader);
+				} else if (messageType == ATTACHMENT_BLOCK) {
+					context = validateAttachmentBlock(m, list, bytesRead);
 				} else {
 					throw new InvalidMessageException();
 				}
@@ -155,18 +166,54 @@ class PrivateMessageValidator implements MessageValidator {
 	}
 
 	private BdfMessageContext validateAttachment(Message m, BdfList descriptor,
-			long descriptorLength) throws FormatException {
-		// Message type, content type
-		checkSize(descriptor, 2);
+			long descriptorLength, BdfReader reader) throws IOException {
+		// Client version 0.1 to 0.3: Message type, content type.
+		// Client version 0.4: Message type, content type, optional list of
+		// block IDs. If the block IDs are present, the attachment's data is
+		// stored in separate blocks rather than following the descriptor.
+		checkSize(descriptor, 2, 3);
 		String contentType = descriptor.getString(1);
 		checkLength(contentType, 1, MAX_CONTENT_TYPE_BYTES);
-		// Return the metadata
+		BdfList blocks = null;
+		List<MessageId> dependencies = emptyList();
+		if (descriptor.size() == 3) {
+			if (!reader.eof()) throw new FormatException();
+			blocks = descriptor.getList(2);
+			checkSize(blocks, 1, MAX_ATTACHMENT_BLOCKS);
+			dependencies = new ArrayList<>(blocks.size());
+			for (int i = 0; i < blocks.size(); i++) {
+				byte[] id = blocks.getRaw(i);
+				checkLength(id, UniqueId.LENGTH);
+				dependencies.add(new MessageId(id));
+			}
+		}
+		// Return the metadata and dependencies. The attachment won't be
+		// delivered until all of its blocks have been delivered
 		BdfDictionary meta = new BdfDictionary();
 		meta.put(MSG_KEY_TIMESTAMP, m.getTimestamp());
 		meta.put(MSG_KEY_LOCAL, false);
 		meta.put(MSG_KEY_MSG_TYPE, ATTACHMENT);
 		meta.put(MSG_KEY_DESCRIPTOR_LENGTH, descriptorLength);
 		meta.put(MSG_KEY_CONTENT_TYPE, contentType);
+		if (blocks != null) meta.put(MSG_KEY_BLOCKS, blocks);
+		return new BdfMessageContext(meta, dependencies);
+	}
+
+	private BdfMessageContext validateAttachmentBlock(Message m,
+			BdfList descriptor, long descriptorLength) throws FormatException {
+		// Message type, index of the block within the attachment
+		checkSize(descriptor, 2);
+		long index = descriptor.getLong(1);
+		checkRange(index, 0, MAX_ATTACHMENT_BLOCKS - 1);
+		long length = m.getBody().length - descriptorLength;
+		checkRange(length, 1, ATTACHMENT_BLOCK_LENGTH);
+		// Return the metadata
+		BdfDictionary meta = new BdfDictionary();
+		meta.put(MSG_KEY_TIMESTAMP, m.getTimestamp());
+		meta.put(MSG_KEY_LOCAL, false);
+		meta.put(MSG_KEY_MSG_TYPE, ATTACHMENT_BLOCK);
+		meta.put(MSG_KEY_BLOCK_INDEX, index);
+		meta.put(MSG_KEY_DESCRIPTOR_LENGTH, descriptorLength);
 		return new BdfMessageContext(meta);
 	}
 }
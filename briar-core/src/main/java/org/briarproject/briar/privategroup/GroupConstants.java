@@ -13,7 +13,14 @@ interface GroupConstants {
 	String KEY_MEMBER = "member";
 	String KEY_INITIAL_JOIN_MSG = "initialJoinMsg";
 
+	/**
+	 * Earlier versions stored all members in a single list under this key.
+	 * Each member is now stored under its own key, starting with
+	 * {@link #GROUP_KEY_MEMBER_PREFIX}, so a member can be looked up or
+	 * updated without parsing or rewriting the other members.
+	 */
 	String GROUP_KEY_MEMBERS = "members";
+	String GROUP_KEY_MEMBER_PREFIX = "member:";
 	String GROUP_KEY_OUR_GROUP = "ourGroup";
 	String GROUP_KEY_CREATOR_ID = "creatorId";
 	String GROUP_KEY_DISSOLVED = "dissolved";
@@ -17,6 +17,7 @@ import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -24,6 +25,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.client.ProtocolStateException;
+import org.briarproject.briar.api.client.ThreadIndex;
 import org.briarproject.briar.api.identity.AuthorInfo;
 import org.briarproject.briar.api.identity.AuthorInfo.Status;
 import org.briarproject.briar.api.identity.AuthorManager;
@@ -52,10 +54,13 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_SHARE;
+import static org.briarproject.bramble.util.StringUtils.toHexString;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.UNVERIFIED;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 import static org.briarproject.briar.api.privategroup.MessageType.JOIN;
@@ -67,6 +72,7 @@ import static org.briarproject.briar.api.privategroup.Visibility.VISIBLE;
 import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_CREATOR_ID;
 import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_DISSOLVED;
 import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_MEMBERS;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_MEMBER_PREFIX;
 import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_OUR_GROUP;
 import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_VISIBILITY;
 import static org.briarproject.briar.privategroup.GroupConstants.KEY_INITIAL_JOIN_MSG;
@@ -80,13 +86,14 @@ import static org.briarproject.briar.privategroup.GroupConstants.KEY_TYPE;
 @ThreadSafe
 @NotNullByDefault
 class PrivateGroupManagerImpl extends BdfIncomingMessageHook
-		implements PrivateGroupManager {
+		implements PrivateGroupManager, OpenDatabaseHook {
 
 	private final PrivateGroupFactory privateGroupFactory;
 	private final ContactManager contactManager;
 	private final IdentityManager identityManager;
 	private final AuthorManager authorManager;
 	private final MessageTracker messageTracker;
+	private final ThreadIndex threadIndex;
 	private final List<PrivateGroupHook> hooks;
 
 	@Inject
@@ -94,16 +101,56 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			MetadataParser metadataParser, DatabaseComponent db,
 			PrivateGroupFactory privateGroupFactory,
 			ContactManager contactManager, IdentityManager identityManager,
-			AuthorManager authorManager, MessageTracker messageTracker) {
+			AuthorManager authorManager, MessageTracker messageTracker,
+			ThreadIndex threadIndex) {
 		super(db, clientHelper, metadataParser);
 		this.privateGroupFactory = privateGroupFactory;
 		this.contactManager = contactManager;
 		this.identityManager = identityManager;
 		this.authorManager = authorManager;
 		this.messageTracker = messageTracker;
+		this.threadIndex = threadIndex;
 		hooks = new CopyOnWriteArrayList<>();
 	}
 
+	@Override
+	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Migrate the members of each group, then queue the groups for
+		// indexing, which happens in the background in other transactions
+		List<GroupId> groups = new ArrayList<>();
+		for (PrivateGroup g : getPrivateGroups(txn)) {
+			try {
+				migrateMembers(txn, g.getId());
+			} catch (FormatException e) {
+				throw new DbException(e);
+			}
+			groups.add(g.getId());
+		}
+		// Index any groups that were joined before the thread index existed.
+		// Until a group has been indexed, its threads are loaded without the
+		// index
+		threadIndex.addGroupsInBackground(groups, KEY_PARENT_MSG_ID);
+	}
+
+	/**
+	 * Moves the members of a group that were stored in a single list by an
+	 * earlier version to their own metadata keys.
+	 */
+	private void migrateMembers(Transaction txn, GroupId g)
+			throws DbException, FormatException {
+		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g,
+				GROUP_KEY_MEMBERS);
+		BdfList list = meta.getOptionalList(GROUP_KEY_MEMBERS);
+		if (list == null) return;
+		BdfDictionary migrated = new BdfDictionary();
+		for (int i = 0; i < list.size(); i++) {
+			BdfDictionary d = list.getDictionary(i);
+			migrated.put(getMemberKey(getAuthor(d).getId()), d);
+		}
+		migrated.put(GROUP_KEY_MEMBERS, NULL_VALUE);
+		clientHelper.mergeGroupMetadata(txn, g, migrated);
+	}
+
 	@Override
 	public void addPrivateGroup(PrivateGroup group, GroupMessage joinMsg,
 			boolean creator) throws DbException {
@@ -123,13 +170,13 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			db.addGroup(txn, group.getGroup());
 			AuthorId creatorId = group.getCreator().getId();
 			BdfDictionary meta = BdfDictionary.of(
-					new BdfEntry(GROUP_KEY_MEMBERS, new BdfList()),
 					new BdfEntry(GROUP_KEY_CREATOR_ID, creatorId),
 					new BdfEntry(GROUP_KEY_OUR_GROUP, creator),
 					new BdfEntry(GROUP_KEY_DISSOLVED, false)
 			);
 			clientHelper.mergeGroupMetadata(txn, group.getId(), meta);
 			joinPrivateGroup(txn, joinMsg, creator);
+			threadIndex.addGroup(txn, group.getId(), KEY_PARENT_MSG_ID);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
@@ -143,6 +190,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		addMessageMetadata(meta, m);
 		clientHelper.addLocalMessage(txn, m.getMessage(), meta, true, false);
 		messageTracker.trackOutgoingMessage(txn, m.getMessage());
+		threadIndex.addMessage(txn, m.getMessage().getId(), null,
+				m.getMessage().getTimestamp());
 		addMember(txn, m.getMessage().getGroupId(), m.getMember(), VISIBLE);
 		setPreviousMsgId(txn, m.getMessage().getGroupId(),
 				m.getMessage().getId());
@@ -173,7 +222,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	public MessageId getPreviousMsgId(Transaction txn, GroupId g)
 			throws DbException {
 		try {
-			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
+			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g,
+					KEY_PREVIOUS_MSG_ID);
 			byte[] previousMsgIdBytes = d.getRaw(KEY_PREVIOUS_MSG_ID);
 			return new MessageId(previousMsgIdBytes);
 		} catch (FormatException e) {
@@ -225,6 +275,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			// track message
 			setPreviousMsgId(txn, g, m.getMessage().getId());
 			messageTracker.trackOutgoingMessage(txn, m.getMessage());
+			threadIndex.addMessage(txn, m.getMessage().getId(), m.getParent(),
+					m.getMessage().getTimestamp());
 			// broadcast event
 			attachGroupMessageAddedEvent(txn, m.getMessage(), meta, true);
 			AuthorInfo authorInfo = authorManager.getMyAuthorInfo(txn);
@@ -297,8 +349,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public boolean isDissolved(Transaction txn, GroupId g) throws DbException {
 		try {
-			BdfDictionary meta =
-					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn,
+					g, GROUP_KEY_DISSOLVED);
 			return meta.getBoolean(GROUP_KEY_DISSOLVED);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -344,37 +396,53 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g)
 			throws DbException {
-		List<GroupMessageHeader> headers = new ArrayList<>();
 		try {
-			Map<MessageId, BdfDictionary> metadata =
-					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the information for
-			Set<AuthorId> authors = new HashSet<>();
-			for (BdfDictionary meta : metadata.values()) {
-				authors.add(getAuthor(meta).getId());
-			}
-			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
-			}
-			// parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				if (meta.getInt(KEY_TYPE) == JOIN.getInt()) {
-					headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos));
-				} else {
-					headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos));
-				}
-			}
-			return headers;
+			return getHeaders(txn, g,
+					clientHelper.getMessageMetadataAsDictionary(txn, g));
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g,
+			int offset, int maxThreads) throws DbException {
+		try {
+			return getHeaders(txn, g, threadIndex.getThreads(txn, g,
+					KEY_PARENT_MSG_ID, offset, maxThreads));
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private List<GroupMessageHeader> getHeaders(Transaction txn, GroupId g,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<GroupMessageHeader> headers = new ArrayList<>(metadata.size());
+		// get all authors we need to get the information for
+		Set<AuthorId> authors = new HashSet<>();
+		for (BdfDictionary meta : metadata.values()) {
+			authors.add(getAuthor(meta).getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
+		}
+		// parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			if (meta.getInt(KEY_TYPE) == JOIN.getInt()) {
+				headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos));
+			} else {
+				headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos));
+			}
+		}
+		return headers;
+	}
+
 	private GroupMessageHeader getGroupMessageHeader(Transaction txn, GroupId g,
 			MessageId id, BdfDictionary meta,
 			Map<AuthorId, AuthorInfo> authorInfos)
@@ -444,13 +512,11 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		try {
 			BdfDictionary meta =
 					clientHelper.getGroupMetadataAsDictionary(txn, g);
-			BdfList list = meta.getList(GROUP_KEY_MEMBERS);
-			Map<Author, Visibility> members = new HashMap<>(list.size());
-			for (int i = 0; i < list.size(); i++) {
-				BdfDictionary d = list.getDictionary(i);
-				Author member = getAuthor(d);
-				Visibility v = getVisibility(d);
-				members.put(member, v);
+			Map<Author, Visibility> members = new HashMap<>();
+			for (Entry<String, Object> e : meta.entrySet()) {
+				if (!e.getKey().startsWith(GROUP_KEY_MEMBER_PREFIX)) continue;
+				BdfDictionary d = meta.getDictionary(e.getKey());
+				members.put(getAuthor(d), getVisibility(d));
 			}
 			return members;
 		} catch (FormatException e) {
@@ -461,10 +527,29 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public boolean isMember(Transaction txn, GroupId g, Author a)
 			throws DbException {
-		for (Author member : getMemberAuthors(txn, g).keySet()) {
-			if (member.equals(a)) return true;
+		try {
+			BdfDictionary member = getMember(txn, g, a.getId());
+			return member != null && getAuthor(member).equals(a);
+		} catch (FormatException e) {
+			throw new DbException(e);
 		}
-		return false;
+	}
+
+	/**
+	 * Returns the metadata for the given member of the given group, or null
+	 * if the author is not a member.
+	 */
+	@Nullable
+	private BdfDictionary getMember(Transaction txn, GroupId g, AuthorId a)
+			throws DbException, FormatException {
+		String key = getMemberKey(a);
+		BdfDictionary meta =
+				clientHelper.getGroupMetadataAsDictionary(txn, g, key);
+		return meta.getOptionalDictionary(key);
+	}
+
+	private String getMemberKey(AuthorId a) {
+		return GROUP_KEY_MEMBER_PREFIX + toHexString(a.getBytes());
 	}
 
 	@Override
@@ -493,26 +578,14 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public void relationshipRevealed(Transaction txn, GroupId g, AuthorId a,
 			boolean byContact) throws FormatException, DbException {
-		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
-		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
-		Visibility v = INVISIBLE;
-		boolean foundMember = false, changed = false;
-		for (int i = 0; i < members.size(); i++) {
-			BdfDictionary d = members.getDictionary(i);
-			if (a.equals(getAuthor(d).getId())) {
-				foundMember = true;
-				// Don't update the visibility if the contact is already visible
-				if (getVisibility(d) == INVISIBLE) {
-					changed = true;
-					v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
-					d.put(GROUP_KEY_VISIBILITY, v.getInt());
-				}
-				break;
-			}
-		}
-		if (!foundMember) throw new ProtocolStateException();
-		if (changed) {
-			clientHelper.mergeGroupMetadata(txn, g, meta);
+		BdfDictionary member = getMember(txn, g, a);
+		if (member == null) throw new ProtocolStateException();
+		// Don't update the visibility if the contact is already visible
+		if (getVisibility(member) == INVISIBLE) {
+			Visibility v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
+			member.put(GROUP_KEY_VISIBILITY, v.getInt());
+			clientHelper.mergeGroupMetadata(txn, g,
+					BdfDictionary.of(new BdfEntry(getMemberKey(a), member)));
 			LocalAuthor la = identityManager.getLocalAuthor(txn);
 			ContactId c = contactManager.getContact(txn, a, la.getId()).getId();
 			Event e = new ContactRelationshipRevealedEvent(g, a, c, v);
@@ -548,19 +621,21 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			BdfDictionary meta) throws FormatException, DbException {
 		// find out if contact relationship is visible and then add new member
 		Author member = getAuthor(meta);
-		BdfDictionary groupMeta = clientHelper
-				.getGroupMetadataAsDictionary(txn, m.getGroupId());
-		boolean ourGroup = groupMeta.getBoolean(GROUP_KEY_OUR_GROUP);
+		GroupId g = m.getGroupId();
+		boolean ourGroup = clientHelper.getGroupMetadataAsDictionary(txn, g,
+				GROUP_KEY_OUR_GROUP).getBoolean(GROUP_KEY_OUR_GROUP);
 		Visibility v = VISIBLE;
 		if (!ourGroup) {
-			AuthorId creatorId = new AuthorId(
-					groupMeta.getRaw(GROUP_KEY_CREATOR_ID));
+			AuthorId creatorId = new AuthorId(clientHelper
+					.getGroupMetadataAsDictionary(txn, g, GROUP_KEY_CREATOR_ID)
+					.getRaw(GROUP_KEY_CREATOR_ID));
 			if (!creatorId.equals(member.getId()))
 				v = INVISIBLE;
 		}
 		addMember(txn, m.getGroupId(), member, v);
 		// track message and broadcast event
 		messageTracker.trackIncomingMessage(txn, m);
+		threadIndex.addMessage(txn, m.getId(), null, m.getTimestamp());
 		attachJoinMessageAddedEvent(txn, m, meta, false);
 	}
 
@@ -597,6 +672,9 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			throw new FormatException();
 		// track message and broadcast event
 		messageTracker.trackIncomingMessage(txn, m);
+		MessageId parentId = parentIdBytes == null ? null :
+				new MessageId(parentIdBytes);
+		threadIndex.addMessage(txn, m.getId(), parentId, timestamp);
 		attachGroupMessageAddedEvent(txn, m, meta, false);
 	}
 
@@ -622,13 +700,13 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	private void addMember(Transaction txn, GroupId g, Author a, Visibility v)
 			throws DbException, FormatException {
 
-		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
-		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
-		members.add(BdfDictionary.of(
+		BdfDictionary member = BdfDictionary.of(
 				new BdfEntry(KEY_MEMBER, clientHelper.toList(a)),
 				new BdfEntry(GROUP_KEY_VISIBILITY, v.getInt())
-		));
-		clientHelper.mergeGroupMetadata(txn, g, meta);
+		);
+		String key = getMemberKey(a.getId());
+		clientHelper.mergeGroupMetadata(txn, g,
+				BdfDictionary.of(new BdfEntry(key, member)));
 		for (PrivateGroupHook hook : hooks) {
 			hook.addingMember(txn, g, a);
 		}
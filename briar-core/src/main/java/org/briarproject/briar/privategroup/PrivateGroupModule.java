@@ -3,6 +3,7 @@ package org.briarproject.briar.privategroup;
 import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.privategroup.GroupMessageFactory;
@@ -16,6 +17,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SendPriority.LOW;
 import static org.briarproject.briar.api.privategroup.PrivateGroupManager.CLIENT_ID;
 import static org.briarproject.briar.api.privategroup.PrivateGroupManager.MAJOR_VERSION;
 
@@ -33,13 +35,18 @@ public class PrivateGroupModule {
 	@Singleton
 	PrivateGroupManager provideGroupManager(
 			PrivateGroupManagerImpl groupManager,
-			ValidationManager validationManager,
+			LifecycleManager lifecycleManager,
+			ValidationManager validationManager, ClientHelper clientHelper,
 			FeatureFlags featureFlags) {
 		if (!featureFlags.shouldEnablePrivateGroupsInCore()) {
 			return groupManager;
 		}
+		// Not deferred, as members stored by an earlier version must be
+		// migrated before they're read
+		lifecycleManager.registerOpenDatabaseHook(groupManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				groupManager);
+		clientHelper.setSendPriority(CLIENT_ID, MAJOR_VERSION, LOW);
 		return groupManager;
 	}
 
@@ -146,6 +146,12 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		}
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	private void recreateSession(Transaction txn, Contact c,
 			PrivateGroup pg, GroupId contactGroupId) throws DbException {
 		boolean isOur = privateGroupManager.isOurPrivateGroup(txn, pg);
@@ -127,6 +127,12 @@ abstract class SharingManagerImpl<S extends Shareable>
 		clientHelper.setContactId(txn, g.getId(), c.getId());
 	}
 
+	@Override
+	public void addingContacts(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		for (Contact c : contacts) addingContact(txn, c);
+	}
+
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		// Remove the contact group (all messages will be removed with it)
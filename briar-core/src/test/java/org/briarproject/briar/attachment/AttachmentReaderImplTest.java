@@ -3,6 +3,7 @@ package org.briarproject.briar.attachment;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
@@ -16,14 +17,21 @@ import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.System.arraycopy;
+import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.util.IoUtils.copyAndClose;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCKS;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCK_INDEX;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTENT_TYPE;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
 import static org.junit.Assert.assertArrayEquals;
 
 public class AttachmentReaderImplTest extends BrambleMockTestCase {
@@ -125,4 +133,121 @@ public class AttachmentReaderImplTest extends BrambleMockTestCase {
 
 		assertArrayEquals(expectedData, data);
 	}
+
+	@Test
+	public void testReadsBlocks() throws Exception {
+		int descriptorLength = 12;
+		Message block = getMessage(groupId,
+				descriptorLength + ATTACHMENT_BLOCK_LENGTH);
+		Message block1 = getMessage(groupId, descriptorLength + 1234);
+
+		byte[] expectedData = new byte[ATTACHMENT_BLOCK_LENGTH + 1234];
+		arraycopy(block.getBody(), descriptorLength, expectedData, 0,
+				ATTACHMENT_BLOCK_LENGTH);
+		arraycopy(block1.getBody(), descriptorLength, expectedData,
+				ATTACHMENT_BLOCK_LENGTH, 1234);
+
+		byte[] data = readBlocks(descriptorLength, 2, block, block1);
+
+		assertArrayEquals(expectedData, data);
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsShortBlockBeforeLastBlock() throws Exception {
+		int descriptorLength = 12;
+		Message block = getMessage(groupId, descriptorLength + 1234);
+		Message block1 = getMessage(groupId, descriptorLength + 1234);
+
+		// The stream should fail when the first block is loaded
+		readBlocks(descriptorLength, 1, block, block1);
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsMessageThatIsNotABlock() throws Exception {
+		int descriptorLength = 12;
+		Message notBlock = getMessage(groupId, descriptorLength + 1234);
+		// The message has no block index, like a private message
+		BdfDictionary notBlockMeta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_DESCRIPTOR_LENGTH, descriptorLength));
+
+		// The stream should fail when the message is loaded
+		readBlocks(singletonList(notBlockMeta), 1, notBlock);
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsBlocksListedOutOfOrder() throws Exception {
+		int descriptorLength = 12;
+		Message block = getMessage(groupId,
+				descriptorLength + ATTACHMENT_BLOCK_LENGTH);
+		Message block1 = getMessage(groupId, descriptorLength + 1234);
+		// The blocks are listed in the opposite order to their indices
+		List<BdfDictionary> blockMeta = new ArrayList<>();
+		blockMeta.add(getBlockMetadata(1, descriptorLength));
+		blockMeta.add(getBlockMetadata(0, descriptorLength));
+
+		// The stream should fail when the first block is loaded
+		readBlocks(blockMeta, 1, block, block1);
+	}
+
+	private byte[] readBlocks(int descriptorLength, int blocksLoaded,
+			Message... blocks) throws Exception {
+		List<BdfDictionary> blockMeta = new ArrayList<>(blocks.length);
+		for (int i = 0; i < blocks.length; i++) {
+			blockMeta.add(getBlockMetadata(i, descriptorLength));
+		}
+		return readBlocks(blockMeta, blocksLoaded, blocks);
+	}
+
+	private BdfDictionary getBlockMetadata(int index, int descriptorLength) {
+		return BdfDictionary.of(
+				new BdfEntry(MSG_KEY_BLOCK_INDEX, index),
+				new BdfEntry(MSG_KEY_DESCRIPTOR_LENGTH, descriptorLength));
+	}
+
+	private byte[] readBlocks(List<BdfDictionary> blockMeta,
+			int blocksLoaded, Message... blocks) throws Exception {
+		BdfList blockList = new BdfList();
+		for (Message block : blocks) blockList.add(block.getId());
+		int manifestLength = message.getBody().length;
+		BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_CONTENT_TYPE, contentType),
+				new BdfEntry(MSG_KEY_DESCRIPTOR_LENGTH, manifestLength),
+				new BdfEntry(MSG_KEY_BLOCKS, blockList));
+
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(clientHelper).getMessage(txn, message.getId());
+			will(returnValue(message));
+			oneOf(clientHelper)
+					.getMessageMetadataAsDictionary(txn, message.getId());
+			will(returnValue(meta));
+		}});
+
+		Attachment attachment = attachmentReader.getAttachment(header);
+
+		// Each block is loaded in its own transaction while reading
+		for (int i = 0; i < blocksLoaded; i++) {
+			Message block = blocks[i];
+			BdfDictionary blockMetadata = blockMeta.get(i);
+			Transaction blockTxn = new Transaction(null, true);
+			context.checking(new DbExpectations() {{
+				oneOf(db).transactionWithResult(with(true),
+						withDbCallable(blockTxn));
+				oneOf(clientHelper).getMessage(blockTxn, block.getId());
+				will(returnValue(block));
+				oneOf(clientHelper).getMessageMetadataAsDictionary(blockTxn,
+						block.getId());
+				will(returnValue(blockMetadata));
+			}});
+		}
+
+		InputStream in = attachment.getStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int read;
+		while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+		return out.toByteArray();
+	}
 }
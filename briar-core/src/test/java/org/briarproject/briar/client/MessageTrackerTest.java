@@ -5,35 +5,47 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.TestUtils;
-import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.jmock.Expectations;
 import org.junit.Test;
 
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 public class MessageTrackerTest extends BrambleMockTestCase {
 
-	protected final GroupId groupId = new GroupId(TestUtils.getRandomId());
+	private final Group group = getGroup(getClientId(), 1);
+	protected final GroupId groupId = group.getId();
 	protected final ClientHelper clientHelper =
 			context.mock(ClientHelper.class);
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final Clock clock = context.mock(Clock.class);
 	private final MessageId messageId = new MessageId(TestUtils.getRandomId());
-	private final MessageTracker messageTracker =
+	private final MessageTrackerImpl messageTracker =
 			new MessageTrackerImpl(db, clientHelper, clock);
 	private final BdfDictionary dictionary = BdfDictionary.of(
 			new BdfEntry(GROUP_KEY_STORED_MESSAGE_ID, messageId)
 	);
+	private final long timestamp = 123L;
+	private final BdfDictionary countDictionary = BdfDictionary.of(
+			new BdfEntry(GROUP_KEY_MSG_COUNT, 2),
+			new BdfEntry(GROUP_KEY_UNREAD_COUNT, 1),
+			new BdfEntry(GROUP_KEY_LATEST_MSG, timestamp)
+	);
 
 	@Test
 	public void testInitializeGroupCount() throws Exception {
@@ -71,4 +83,123 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 		assertEquals(messageId, loadedId);
 	}
 
+	@Test
+	public void testGroupCountIsCachedFromReadOnlyTransaction()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(countDictionary));
+		}});
+
+		assertGroupCount(2, 1, timestamp,
+				messageTracker.getGroupCount(txn, groupId));
+		// The count should now be cached
+		assertGroupCount(2, 1, timestamp,
+				messageTracker.getGroupCount(txn1, groupId));
+	}
+
+	@Test
+	public void testGroupCountIsNotCachedFromWriteTransaction()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(countDictionary));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn1, groupId);
+			will(returnValue(countDictionary));
+		}});
+
+		assertGroupCount(2, 1, timestamp,
+				messageTracker.getGroupCount(txn, groupId));
+		assertGroupCount(2, 1, timestamp,
+				messageTracker.getGroupCount(txn1, groupId));
+	}
+
+	@Test
+	public void testTrackingMessageInvalidatesCache() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		BdfDictionary updated = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 3),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 2),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, timestamp + 1)
+		);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(countDictionary));
+			// The cached count is used to calculate the new count
+			oneOf(clientHelper).mergeGroupMetadata(txn1, groupId, updated);
+			// The new count is loaded from the database
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn2, groupId);
+			will(returnValue(updated));
+		}});
+
+		messageTracker.getGroupCount(txn, groupId);
+		messageTracker.trackMessage(txn1, groupId, timestamp + 1, false);
+		assertGroupCount(3, 2, timestamp + 1,
+				messageTracker.getGroupCount(txn2, groupId));
+	}
+
+	@Test
+	public void testSettingReadFlagInvalidatesCache() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		BdfDictionary unread = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_READ, false));
+		BdfDictionary read = BdfDictionary.of(new BdfEntry(MSG_KEY_READ, true));
+		BdfDictionary updated = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 2),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 0),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, timestamp)
+		);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(countDictionary));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn1,
+					messageId);
+			will(returnValue(unread));
+			oneOf(clientHelper).mergeMessageMetadata(txn1, messageId, read);
+			oneOf(clientHelper).mergeGroupMetadata(txn1, groupId, updated);
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn2, groupId);
+			will(returnValue(updated));
+		}});
+
+		messageTracker.getGroupCount(txn, groupId);
+		messageTracker.setReadFlag(txn1, groupId, messageId, true);
+		assertGroupCount(2, 0, timestamp,
+				messageTracker.getGroupCount(txn2, groupId));
+	}
+
+	@Test
+	public void testRemovingGroupInvalidatesCache() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(countDictionary));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn1, groupId);
+			will(returnValue(new BdfDictionary()));
+		}});
+
+		messageTracker.getGroupCount(txn, groupId);
+		messageTracker.eventOccurred(new GroupRemovedEvent(group));
+		assertGroupCount(0, 0, 0, messageTracker.getGroupCount(txn1, groupId));
+	}
+
+	private void assertGroupCount(int msgCount, int unreadCount,
+			long latestMsgTime, GroupCount c) {
+		assertEquals(msgCount, c.getMsgCount());
+		assertEquals(unreadCount, c.getUnreadCount());
+		assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
 }
@@ -0,0 +1,215 @@
+package org.briarproject.briar.client;
+
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.briar.api.client.ThreadIndex;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.briar.api.client.ThreadIndex.KEY_TIMESTAMP;
+import static org.briarproject.briar.client.ThreadIndexConstants.GROUP_KEY_THREADS_INDEXED;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_DEPTH;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_ROOT;
+import static org.briarproject.briar.client.ThreadIndexConstants.MSG_KEY_THREAD_TIME;
+import static org.briarproject.briar.client.ThreadIndexConstants.RETRY_DELAY_MS;
+import static org.junit.Assert.assertEquals;
+
+public class ThreadIndexImplTest extends BrambleMockTestCase {
+
+	private static final String KEY_PARENT = "parent";
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final ThreadIndex threadIndex = new ThreadIndexImpl(db,
+			clientHelper, taskScheduler, dbExecutor);
+
+	private final Transaction txn = new Transaction(null, false);
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final MessageId root = new MessageId(getRandomId());
+	private final MessageId reply = new MessageId(getRandomId());
+	private final MessageId replyToReply = new MessageId(getRandomId());
+	private final long timestamp = 123;
+
+	@Test
+	public void testAddsRoot() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).mergeMessageMetadata(txn, root,
+					createEntry(root, timestamp, 0));
+		}});
+
+		threadIndex.addMessage(txn, root, null, timestamp);
+	}
+
+	@Test
+	public void testAddsReply() throws Exception {
+		BdfDictionary parentMeta = createEntry(root, timestamp, 1);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, reply);
+			will(returnValue(parentMeta));
+			oneOf(clientHelper).mergeMessageMetadata(txn, replyToReply,
+					createEntry(root, timestamp, 2));
+		}});
+
+		threadIndex.addMessage(txn, replyToReply, reply, timestamp + 2);
+	}
+
+	@Test
+	public void testDoesNotAddReplyIfParentIsNotIndexed() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, reply);
+			will(returnValue(new BdfDictionary()));
+		}});
+
+		threadIndex.addMessage(txn, replyToReply, reply, timestamp + 2);
+	}
+
+	@Test
+	public void testDoesNotIndexGroupTwice() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_THREADS_INDEXED, true))));
+		}});
+
+		threadIndex.addGroup(txn, groupId, KEY_PARENT);
+	}
+
+	@Test
+	public void testIndexesGroup() throws Exception {
+		MessageId orphan = new MessageId(getRandomId());
+		MessageId missing = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> all = new HashMap<>();
+		all.put(root, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp)));
+		all.put(reply, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 1),
+				new BdfEntry(KEY_PARENT, root)));
+		all.put(replyToReply, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 2),
+				new BdfEntry(KEY_PARENT, reply)));
+		// A message whose parent isn't in the group can't be indexed
+		all.put(orphan, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 3),
+				new BdfEntry(KEY_PARENT, missing)));
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(new BdfDictionary()));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, groupId);
+			will(returnValue(all));
+			oneOf(clientHelper).mergeMessageMetadata(txn, root,
+					createEntry(root, timestamp, 0));
+			oneOf(clientHelper).mergeMessageMetadata(txn, reply,
+					createEntry(root, timestamp, 1));
+			oneOf(clientHelper).mergeMessageMetadata(txn, replyToReply,
+					createEntry(root, timestamp, 2));
+			oneOf(clientHelper).mergeGroupMetadata(txn, groupId,
+					BdfDictionary.of(
+							new BdfEntry(GROUP_KEY_THREADS_INDEXED, true)));
+		}});
+
+		threadIndex.addGroup(txn, groupId, KEY_PARENT);
+	}
+
+	@Test
+	public void testRetriesGroupThatCannotBeIndexedInBackground()
+			throws Exception {
+		AtomicReference<Runnable> retry = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			// The first attempt fails
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(throwException(new DbException()));
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(RETRY_DELAY_MS),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(retry, Runnable.class, 0));
+		}});
+
+		threadIndex.addGroupsInBackground(singletonList(groupId), KEY_PARENT);
+
+		context.checking(new DbExpectations() {{
+			// The retry succeeds in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_THREADS_INDEXED, true))));
+		}});
+
+		retry.get().run();
+	}
+
+	@Test
+	public void testLoadsPageOfGroupThatIsNotIndexed() throws Exception {
+		MessageId laterRoot = new MessageId(getRandomId());
+		MessageId laterReply = new MessageId(getRandomId());
+		Map<MessageId, BdfDictionary> all = new HashMap<>();
+		all.put(root, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp)));
+		all.put(reply, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 1),
+				new BdfEntry(KEY_PARENT, root)));
+		all.put(laterReply, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 2),
+				new BdfEntry(KEY_PARENT, root)));
+		all.put(replyToReply, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 3),
+				new BdfEntry(KEY_PARENT, reply)));
+		all.put(laterRoot, BdfDictionary.of(
+				new BdfEntry(KEY_TIMESTAMP, timestamp + 4)));
+
+		context.checking(new Expectations() {{
+			exactly(2).of(clientHelper)
+					.getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(new BdfDictionary()));
+			exactly(2).of(clientHelper)
+					.getMessageMetadataAsDictionary(txn, groupId);
+			will(returnValue(all));
+		}});
+
+		// The first thread is returned in depth-first order
+		Map<MessageId, BdfDictionary> page =
+				threadIndex.getThreads(txn, groupId, KEY_PARENT, 0, 1);
+		assertEquals(asList(root, reply, replyToReply, laterReply),
+				new ArrayList<>(page.keySet()));
+		assertEquals(all.get(replyToReply), page.get(replyToReply));
+		// The second page contains the later thread
+		page = threadIndex.getThreads(txn, groupId, KEY_PARENT, 1, 1);
+		assertEquals(singletonList(laterRoot),
+				new ArrayList<>(page.keySet()));
+	}
+
+	private BdfDictionary createEntry(MessageId root, long time, long depth) {
+		return BdfDictionary.of(
+				new BdfEntry(MSG_KEY_THREAD_ROOT, root),
+				new BdfEntry(MSG_KEY_THREAD_TIME, time),
+				new BdfEntry(MSG_KEY_THREAD_DEPTH, depth)
+		);
+	}
+}
@@ -1,6 +1,8 @@
 package org.briarproject.briar.forum;
 
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.forum.Forum;
 import org.briarproject.briar.api.forum.ForumManager;
@@ -13,10 +15,15 @@ import org.briarproject.briar.test.DaggerBriarIntegrationTestComponent;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -190,6 +197,60 @@ public class ForumManagerTest
 		assertEquals(2, forumManager1.getPostHeaders(groupId0).size());
 	}
 
+	@Test
+	public void testThreadedPostHeaders() throws Exception {
+		// Create three threads with replies:
+		// a
+		//   a1
+		//     a1a
+		//   a2
+		// b
+		//   b1
+		// c
+		long time = c0.getClock().currentTimeMillis() - 1000;
+		ForumPost a = createForumPost(groupId0, null, "a", time);
+		ForumPost b = createForumPost(groupId0, null, "b", time + 1);
+		ForumPost c = createForumPost(groupId0, null, "c", time + 2);
+		ForumPost a2 = createForumPost(groupId0, a, "a2", time + 4);
+		ForumPost a1 = createForumPost(groupId0, a, "a1", time + 3);
+		ForumPost a1a = createForumPost(groupId0, a1, "a1a", time + 5);
+		ForumPost b1 = createForumPost(groupId0, b, "b1", time + 6);
+		for (ForumPost p : asList(c, b, a, b1, a1, a2, a1a)) {
+			forumManager0.addLocalPost(p);
+		}
+		assertThreadedPostHeaders(db0, forumManager0,
+				asList(a, a1, a1a, a2, b, b1), singletonList(c), asList(b, b1));
+
+		// The threads should be indexed in the same way when the posts are
+		// delivered to 1
+		sync0To1(7, true);
+		assertThreadedPostHeaders(db1, forumManager1,
+				asList(a, a1, a1a, a2, b, b1), singletonList(c), asList(b, b1));
+	}
+
+	private void assertThreadedPostHeaders(DatabaseComponent db,
+			ForumManager forumManager, List<ForumPost> firstTwoThreads,
+			List<ForumPost> thirdThread, List<ForumPost> secondThread)
+			throws Exception {
+		assertPostIds(firstTwoThreads, db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, groupId0, 0, 2)));
+		assertPostIds(thirdThread, db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, groupId0, 2, 2)));
+		assertPostIds(secondThread, db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, groupId0, 1, 1)));
+		assertEquals(emptyList(), db.transactionWithResult(true, txn ->
+				forumManager.getPostHeaders(txn, groupId0, 3, 2)));
+	}
+
+	private void assertPostIds(List<ForumPost> expected,
+			List<ForumPostHeader> actual) {
+		List<MessageId> expectedIds = new ArrayList<>();
+		for (ForumPost p : expected) expectedIds.add(p.getMessage().getId());
+		List<MessageId> actualIds = new ArrayList<>();
+		for (ForumPostHeader h : actual) actualIds.add(h.getId());
+		assertEquals(expectedIds, actualIds);
+	}
+
 	@Test
 	public void testForumPostWithParentInOtherGroup() throws Exception {
 		// share a second forum
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.briarproject.bramble.api.cleanup.CleanupManager.BATCH_DELAY_MS;
+import static org.briarproject.bramble.api.properties.TransportPropertyConstants.FAN_OUT_DELAY_MS;
 import static org.briarproject.bramble.test.TestPluginConfigModule.SIMPLEX_TRANSPORT_ID;
 import static org.briarproject.bramble.test.TestUtils.getTransportProperties;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.MIN_AUTO_DELETE_TIMER_MS;
@@ -1176,20 +1177,26 @@ public class AutoDeleteIntegrationTest extends AbstractAutoDeleteTest {
 		TransportPropertyManager tpm1 = c1.getTransportPropertyManager();
 		TransportPropertyManager tpm2 = c2.getTransportPropertyManager();
 
-		tpm0.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
-				getTransportProperties(2));
+		mergeLocalProperties(c0, tpm0);
 		sync0To1(1, true);
 		sync0To2(1, true);
 
-		tpm1.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
-				getTransportProperties(2));
+		mergeLocalProperties(c1, tpm1);
 		sync1To0(1, true);
 
-		tpm2.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
-				getTransportProperties(2));
+		mergeLocalProperties(c2, tpm2);
 		sync2To0(1, true);
 	}
 
+	private void mergeLocalProperties(BriarIntegrationTestComponent c,
+			TransportPropertyManager tpm) throws Exception {
+		tpm.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
+				getTransportProperties(2));
+		// Wait for the fan-out to be scheduled, then run it
+		waitForEvents(c);
+		timeTravel(c, FAN_OUT_DELAY_MS);
+	}
+
 	private IntroducerSession getIntroducerSession()
 			throws DbException, FormatException {
 		Map<MessageId, BdfDictionary> dicts = c0.getClientHelper()
@@ -1722,16 +1722,16 @@ public class IntroductionIntegrationTest
 		TransportPropertyManager tpm1 = c1.getTransportPropertyManager();
 		TransportPropertyManager tpm2 = c2.getTransportPropertyManager();
 
-		tpm0.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
+		mergeLocalProperties(c0, tpm0, SIMPLEX_TRANSPORT_ID,
 				getTransportProperties(2));
 		sync0To1(1, true);
 		sync0To2(1, true);
 
-		tpm1.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
+		mergeLocalProperties(c1, tpm1, SIMPLEX_TRANSPORT_ID,
 				getTransportProperties(2));
 		sync1To0(1, true);
 
-		tpm2.mergeLocalProperties(SIMPLEX_TRANSPORT_ID,
+		mergeLocalProperties(c2, tpm2, SIMPLEX_TRANSPORT_ID,
 				getTransportProperties(2));
 		sync2To0(1, true);
 	}
@@ -1,17 +1,28 @@
 package org.briarproject.briar.messaging;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.MessageDeletedException;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.plugin.event.ConnectionClosedEvent;
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessagesSentEvent;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.bramble.test.TestDuplexTransportConnection;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
+import org.briarproject.briar.api.attachment.FileTooBigException;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.messaging.MessagingManager;
 import org.briarproject.briar.api.messaging.PrivateMessage;
 import org.briarproject.briar.api.messaging.PrivateMessageFactory;
 import org.briarproject.briar.api.messaging.PrivateMessageHeader;
+import org.briarproject.briar.api.messaging.event.AttachmentReceivedEvent;
 import org.briarproject.briar.test.BriarIntegrationTest;
 import org.briarproject.briar.test.BriarIntegrationTestComponent;
 import org.briarproject.briar.test.DaggerBriarIntegrationTestComponent;
@@ -19,30 +30,59 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
+import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.test.TestPluginConfigModule.DUPLEX_TRANSPORT_ID;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.IoUtils.copyAndClose;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.MIN_AUTO_DELETE_TIMER_MS;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENT_BLOCKS;
+import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class MessagingManagerIntegrationTest
 		extends BriarIntegrationTest<BriarIntegrationTestComponent> {
 
+	/**
+	 * The max latency of {@link TestDuplexTransportConnection}.
+	 */
+	private static final long DUPLEX_MAX_LATENCY = 30_000;
+
 	private DatabaseComponent db0, db1;
 	private MessagingManager messagingManager0, messagingManager1;
 	private PrivateMessageFactory messageFactory;
@@ -273,6 +313,256 @@ public class MessagingManagerIntegrationTest
 		assertEquals(0, getMessages(c1).size());
 	}
 
+	@Test
+	public void testAttachmentThatIsTooBigIsRejectedWithoutReadingAll()
+			throws Exception {
+		GroupId g = c0.getMessagingManager().getConversationId(contactId);
+		// An endless stream of zeroes
+		AtomicLong bytesRead = new AtomicLong();
+		AtomicBoolean closed = new AtomicBoolean();
+		InputStream stream = new InputStream() {
+			@Override
+			public int read() {
+				bytesRead.incrementAndGet();
+				return 0;
+			}
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		try {
+			c0.getMessagingManager().addLocalAttachment(g,
+					c0.getClock().currentTimeMillis(), "image/jpeg", stream);
+			fail();
+		} catch (FileTooBigException expected) {
+			// Expected
+		}
+		// No more than one byte past the maximum attachment length was read
+		assertTrue(bytesRead.get() <=
+				MAX_ATTACHMENT_BLOCKS * ATTACHMENT_BLOCK_LENGTH + 1);
+		assertTrue(closed.get());
+		// The blocks that were stored have been removed
+		assertEquals(0, db0.transactionWithResult(true,
+				txn -> db0.getMessageIds(txn, g)).size());
+	}
+
+	@Test
+	public void testLargeAttachment() throws Exception {
+		// Add an attachment that needs three blocks
+		byte[] data = getRandomBytes(ATTACHMENT_BLOCK_LENGTH * 2 + 123);
+		GroupId g = c0.getMessagingManager().getConversationId(contactId);
+		AttachmentHeader h = c0.getMessagingManager().addLocalAttachment(g,
+				c0.getClock().currentTimeMillis(), "image/jpeg",
+				new ByteArrayInputStream(data));
+
+		// The message, the attachment and its blocks are sent
+		PrivateMessage m = messageFactory.createPrivateMessage(g,
+				c0.getClock().currentTimeMillis(), null, singletonList(h),
+				NO_AUTO_DELETE_TIMER);
+		c0.getMessagingManager().addLocalMessage(m);
+		syncMessage(c0, c1, contactId, 5, true);
+
+		// The attachment can be read on both devices
+		assertArrayEquals(data, readAttachment(c0, h));
+		assertArrayEquals(data, readAttachment(c1, h));
+
+		// Deleting the message deletes the attachment and its blocks
+		Set<MessageId> toDelete = singleton(m.getMessage().getId());
+		assertTrue(db1.transactionWithResult(false, txn ->
+				messagingManager1.deleteMessages(txn, contactId, toDelete))
+				.allDeleted());
+		GroupId g1 = c1.getMessagingManager().getConversationId(contactId);
+		Collection<MessageId> ids = db1.transactionWithResult(true,
+				txn -> db1.getMessageIds(txn, g1));
+		assertEquals(5, ids.size());
+		for (MessageId id : ids) {
+			try {
+				db1.transaction(true, txn -> db1.getMessage(txn, id));
+				fail();
+			} catch (MessageDeletedException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testAttachmentThatListsPrivateMessageAsBlockIsInvalid()
+			throws Exception {
+		// The second device sends a private message
+		PrivateMessage m = sendMessage(c1, c0, getRandomString(42));
+		MessageId messageId = m.getMessage().getId();
+
+		// The first device sends an attachment that lists the private
+		// message as a block
+		GroupId g = c0.getMessagingManager().getConversationId(contactId);
+		Message attachment = c0.getClientHelper().createMessage(g,
+				c0.getClock().currentTimeMillis(), BdfList.of(ATTACHMENT,
+						"image/jpeg", BdfList.of(messageId)));
+		db0.transaction(false, txn -> c0.getClientHelper().addLocalMessage(
+				txn, attachment, new BdfDictionary(), true, false));
+		syncMessage(c0, c1, contactId, 1, false);
+
+		// The attachment is invalid and the private message is untouched
+		MessageId attachmentId = attachment.getId();
+		assertEquals(INVALID, db1.transactionWithResult(true,
+				txn -> db1.getMessageState(txn, attachmentId)));
+		db1.transaction(true, txn -> db1.getMessage(txn, messageId));
+		Collection<ConversationMessageHeader> messages1 = getMessages(c1);
+		assertEquals(1, messages1.size());
+		assertEquals(messageId, messages1.iterator().next().getId());
+	}
+
+	@Test
+	public void testTransferResumesAfterConnectionDrops() throws Exception {
+		// Add a message with an attachment that needs several blocks
+		int blocks = 8, total = blocks + 2;
+		byte[] data = getRandomBytes(ATTACHMENT_BLOCK_LENGTH * blocks);
+		GroupId g = c0.getMessagingManager().getConversationId(contactId);
+		AttachmentHeader h = c0.getMessagingManager().addLocalAttachment(g,
+				c0.getClock().currentTimeMillis(), "image/jpeg",
+				new ByteArrayInputStream(data));
+		PrivateMessage m = messageFactory.createPrivateMessage(g,
+				c0.getClock().currentTimeMillis(), null, singletonList(h),
+				NO_AUTO_DELETE_TIMER);
+		c0.getMessagingManager().addLocalMessage(m);
+
+		// Record the messages sent by the sender
+		Set<MessageId> sent = newSetFromMap(new ConcurrentHashMap<>());
+		CountDownLatch attachmentDelivered = new CountDownLatch(1);
+		CountDownLatch fenced = new CountDownLatch(1);
+		EventListener sentListener = e -> {
+			if (e instanceof MessagesSentEvent) {
+				sent.addAll(((MessagesSentEvent) e).getMessageIds());
+			} else if (e instanceof FenceEvent) {
+				// Events are delivered in order, so any messages sent
+				// during the first connection have been recorded
+				sent.clear();
+				fenced.countDown();
+			}
+		};
+		EventListener receivedListener = e -> {
+			if (e instanceof AttachmentReceivedEvent)
+				attachmentDelivered.countDown();
+		};
+		c0.getEventBus().addListener(sentListener);
+		c1.getEventBus().addListener(receivedListener);
+
+		// Connect over a transport that drops part way through the transfer
+		connect(MAX_MESSAGE_LENGTH * total / 2);
+
+		// The messages that weren't acked can be sent again immediately,
+		// rather than waiting for them to expire
+		long deadline = currentTimeMillis() + TIMEOUT;
+		while (db0.transactionWithResult(true, txn -> db0.getNextSendTime(
+				txn, contactId, DUPLEX_MAX_LATENCY)) > 0) {
+			assertTrue(currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		// Wait for the recipient to validate the messages it received
+		while (!db1.transactionWithResult(true,
+				db1::getMessagesToValidate).isEmpty()) {
+			assertTrue(currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		Collection<MessageId> deliveredBeforeDrop =
+				db1.transactionWithResult(true, txn ->
+						db1.getMessageIds(txn, g));
+		assertFalse(deliveredBeforeDrop.isEmpty());
+		assertTrue(deliveredBeforeDrop.size() < total);
+
+		c0.getEventBus().broadcast(new FenceEvent());
+		assertTrue(fenced.await(TIMEOUT, MILLISECONDS));
+
+		// Connect again. The recipient acks the messages it already has,
+		// so only the missing messages are sent
+		connect(Long.MAX_VALUE);
+		assertTrue(attachmentDelivered.await(TIMEOUT, MILLISECONDS));
+		assertFalse(sent.isEmpty());
+		for (MessageId id : sent) assertFalse(deliveredBeforeDrop.contains(id));
+		assertArrayEquals(data, readAttachment(c1, h));
+
+		c0.getEventBus().removeListener(sentListener);
+		c1.getEventBus().removeListener(receivedListener);
+	}
+
+	/**
+	 * Connects the first device to the second over an in-memory duplex
+	 * transport. If the given number of bytes is written by the first
+	 * device, the connection drops and this method waits for both devices
+	 * to close it. Otherwise the connection stays open.
+	 */
+	private void connect(long bytesBeforeDrop) throws Exception {
+		CountDownLatch closed = new CountDownLatch(2);
+		EventListener closedListener = e -> {
+			if (e instanceof ConnectionClosedEvent) closed.countDown();
+		};
+		c0.getEventBus().addListener(closedListener);
+		c1.getEventBus().addListener(closedListener);
+		// Use 64k buffers to prevent deadlock
+		PipedInputStream in0 = new PipedInputStream(1 << 16);
+		PipedInputStream in1 = new PipedInputStream(1 << 16);
+		OutputStream out0 = new FlakyOutputStream(new PipedOutputStream(in1),
+				bytesBeforeDrop);
+		OutputStream out1 = new PipedOutputStream(in0);
+		c0.getConnectionManager().manageOutgoingConnection(contactId,
+				DUPLEX_TRANSPORT_ID, new TestDuplexTransportConnection(in0,
+						out0));
+		c1.getConnectionManager().manageIncomingConnection(
+				DUPLEX_TRANSPORT_ID, new TestDuplexTransportConnection(in1,
+						out1));
+		if (bytesBeforeDrop != Long.MAX_VALUE)
+			assertTrue(closed.await(TIMEOUT, MILLISECONDS));
+		c0.getEventBus().removeListener(closedListener);
+		c1.getEventBus().removeListener(closedListener);
+	}
+
+	@Test
+	public void testRemoveLargeAttachment() throws Exception {
+		byte[] data = getRandomBytes(MAX_MESSAGE_BODY_LENGTH + 1);
+		GroupId g = c0.getMessagingManager().getConversationId(contactId);
+		AttachmentHeader h = c0.getMessagingManager().addLocalAttachment(g,
+				c0.getClock().currentTimeMillis(), "image/jpeg",
+				new ByteArrayInputStream(data));
+		// The attachment and its two blocks have been stored
+		assertEquals(3, db0.transactionWithResult(true,
+				txn -> db0.getMessageIds(txn, g)).size());
+
+		c0.getMessagingManager().removeAttachment(h);
+		assertEquals(0, db0.transactionWithResult(true,
+				txn -> db0.getMessageIds(txn, g)).size());
+	}
+
+	@Test
+	public void testGetLocalAttachmentHeader() throws Exception {
+		MessagingManager messagingManager = c0.getMessagingManager();
+		AttachmentHeader h = addAttachment(c0);
+		GroupId g = h.getGroupId();
+		AttachmentHeader stored =
+				messagingManager.getLocalAttachmentHeader(g, h.getMessageId());
+		assertEquals(h, stored);
+		assertEquals("image/jpeg", stored.getContentType());
+
+		// The attachment can't be found in a different group
+		GroupId otherGroup = new GroupId(getRandomId());
+		assertThrows(NoSuchMessageException.class, () ->
+				messagingManager.getLocalAttachmentHeader(otherGroup,
+						h.getMessageId()));
+
+		// A private message isn't an attachment
+		PrivateMessage m = sendMessage(c0, c1, getRandomString(42),
+				singletonList(h));
+		assertThrows(NoSuchMessageException.class, () ->
+				messagingManager.getLocalAttachmentHeader(g,
+						m.getMessage().getId()));
+
+		// The contact's copy of the attachment isn't local
+		assertThrows(NoSuchMessageException.class, () ->
+				c1.getMessagingManager().getLocalAttachmentHeader(g,
+						h.getMessageId()));
+	}
+
 	@Test
 	public void testDeleteAttachment() throws Exception {
 		// send one message with attachment
@@ -345,6 +635,18 @@ public class MessagingManagerIntegrationTest
 				c.getClock().currentTimeMillis(), "image/jpeg", stream);
 	}
 
+	private byte[] readAttachment(BriarIntegrationTestComponent c,
+			AttachmentHeader h) throws Exception {
+		GroupId g = c.getMessagingManager().getConversationId(contactId);
+		AttachmentHeader header =
+				new AttachmentHeader(g, h.getMessageId(), h.getContentType());
+		InputStream in = c.getAttachmentReader().getAttachment(header)
+				.getStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		copyAndClose(in, out);
+		return out.toByteArray();
+	}
+
 	private Collection<ConversationMessageHeader> getMessages(
 			BriarIntegrationTestComponent c)
 			throws Exception {
@@ -364,6 +666,55 @@ public class MessagingManagerIntegrationTest
 		return messages;
 	}
 
+	/**
+	 * An event that's broadcast to wait for earlier events to be delivered.
+	 */
+	private static class FenceEvent extends Event {
+	}
+
+	/**
+	 * An output stream that closes the underlying stream and throws an
+	 * exception once a given number of bytes have been written, like a
+	 * connection that drops.
+	 */
+	private static class FlakyOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final long bytesBeforeDrop;
+
+		private long written = 0;
+
+		private FlakyOutputStream(OutputStream out, long bytesBeforeDrop) {
+			this.out = out;
+			this.bytesBeforeDrop = bytesBeforeDrop;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (written + len > bytesBeforeDrop) {
+				out.close();
+				throw new IOException("Connection dropped");
+			}
+			out.write(b, off, len);
+			written += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
 	private void assertGroupCounts(BriarIntegrationTestComponent c,
 			long msgCount, long unreadCount) throws Exception {
 		GroupId g = c.getMessagingManager().getConversationId(contactId);
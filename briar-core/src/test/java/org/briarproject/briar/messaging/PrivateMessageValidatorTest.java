@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import java.io.InputStream;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getGroup;
@@ -28,14 +29,19 @@ import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.briarproject.briar.api.attachment.MediaConstants.MAX_CONTENT_TYPE_BYTES;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCKS;
+import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_BLOCK_INDEX;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTENT_TYPE;
 import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCRIPTOR_LENGTH;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.MAX_AUTO_DELETE_TIMER_MS;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.MIN_AUTO_DELETE_TIMER_MS;
+import static org.briarproject.briar.api.messaging.MessagingConstants.ATTACHMENT_BLOCK_LENGTH;
 import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENTS_PER_MESSAGE;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_ATTACHMENT_BLOCKS;
 import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_PRIVATE_MESSAGE_TEXT_LENGTH;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT;
+import static org.briarproject.briar.messaging.MessageTypes.ATTACHMENT_BLOCK;
 import static org.briarproject.briar.messaging.MessageTypes.PRIVATE_MESSAGE;
 import static org.briarproject.briar.messaging.MessagingConstants.MSG_KEY_ATTACHMENT_HEADERS;
 import static org.briarproject.briar.messaging.MessagingConstants.MSG_KEY_AUTO_DELETE_TIMER;
@@ -62,6 +68,8 @@ public class PrivateMessageValidatorTest extends BrambleMockTestCase {
 	private final BdfList attachmentHeader = getAttachmentHeader();
 	private final MessageId attachmentId = new MessageId(getRandomId());
 	private final String contentType = getRandomString(MAX_CONTENT_TYPE_BYTES);
+	private final MessageId blockId = new MessageId(getRandomId());
+	private final MessageId blockId1 = new MessageId(getRandomId());
 	private final BdfDictionary legacyMeta = BdfDictionary.of(
 			new BdfEntry(MSG_KEY_TIMESTAMP, message.getTimestamp()),
 			new BdfEntry(MSG_KEY_LOCAL, false),
@@ -351,7 +359,8 @@ public class PrivateMessageValidatorTest extends BrambleMockTestCase {
 
 	@Test(expected = InvalidMessageException.class)
 	public void testRejectsTooLongDescriptorForAttachment() throws Exception {
-		testRejectsAttachment(BdfList.of(ATTACHMENT, contentType, 123));
+		testRejectsAttachment(BdfList.of(ATTACHMENT, contentType,
+				new BdfList(), 123));
 	}
 
 	@Test(expected = InvalidMessageException.class)
@@ -386,10 +395,89 @@ public class PrivateMessageValidatorTest extends BrambleMockTestCase {
 		validator.validateMessage(message, group);
 	}
 
+	@Test
+	public void testAcceptsAttachmentWithBlocks() throws Exception {
+		BdfList blocks = BdfList.of(blockId, blockId1);
+		BdfDictionary meta = new BdfDictionary(attachmentMeta);
+		meta.put(MSG_KEY_BLOCKS, blocks);
+
+		expectCheckTimestamp(now);
+		expectParseList(BdfList.of(ATTACHMENT, contentType, blocks));
+		expectReadEof(true);
+		expectEncodeMetadata(meta);
+
+		MessageContext result = validator.validateMessage(message, group);
+		// The attachment depends on its blocks
+		assertEquals(asList(blockId, blockId1), result.getDependencies());
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsTrailingDataForAttachmentWithBlocks()
+			throws Exception {
+		expectCheckTimestamp(now);
+		expectParseList(BdfList.of(ATTACHMENT, contentType,
+				BdfList.of(blockId)));
+		expectReadEof(false);
+
+		validator.validateMessage(message, group);
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsEmptyBlockListForAttachment() throws Exception {
+		testRejectsAttachmentWithBlocks(new BdfList());
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsTooLongBlockListForAttachment() throws Exception {
+		BdfList blocks = new BdfList();
+		for (int i = 0; i < MAX_ATTACHMENT_BLOCKS + 1; i++) {
+			blocks.add(new MessageId(getRandomId()));
+		}
+		testRejectsAttachmentWithBlocks(blocks);
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsNonRawBlockIdForAttachment() throws Exception {
+		testRejectsAttachmentWithBlocks(BdfList.of(123));
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsTooShortBlockIdForAttachment() throws Exception {
+		testRejectsAttachmentWithBlocks(
+				BdfList.of((Object) getRandomBytes(UniqueId.LENGTH - 1)));
+	}
+
+	@Test
+	public void testAcceptsFullAttachmentBlock() throws Exception {
+		testAcceptsAttachmentBlock(ATTACHMENT_BLOCK_LENGTH,
+				MAX_ATTACHMENT_BLOCKS - 1);
+	}
+
+	@Test
+	public void testAcceptsMinLengthAttachmentBlock() throws Exception {
+		testAcceptsAttachmentBlock(1, 0);
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsTooLongAttachmentBlock() throws Exception {
+		testRejectsAttachmentBlock(ATTACHMENT_BLOCK_LENGTH + 1, 0);
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsNegativeIndexForAttachmentBlock() throws Exception {
+		testRejectsAttachmentBlock(ATTACHMENT_BLOCK_LENGTH, -1);
+	}
+
+	@Test(expected = InvalidMessageException.class)
+	public void testRejectsTooBigIndexForAttachmentBlock() throws Exception {
+		testRejectsAttachmentBlock(ATTACHMENT_BLOCK_LENGTH,
+				MAX_ATTACHMENT_BLOCKS);
+	}
+
 	@Test(expected = InvalidMessageException.class)
 	public void testRejectsUnknownMessageType() throws Exception {
 		expectCheckTimestamp(now);
-		expectParseList(BdfList.of(ATTACHMENT + 1, contentType));
+		expectParseList(BdfList.of(ATTACHMENT_BLOCK + 1, contentType));
 
 		validator.validateMessage(message, group);
 	}
@@ -480,6 +568,46 @@ public class PrivateMessageValidatorTest extends BrambleMockTestCase {
 		validator.validateMessage(message, group);
 	}
 
+	private void testRejectsAttachmentWithBlocks(BdfList blocks)
+			throws Exception {
+		expectCheckTimestamp(now);
+		expectParseList(BdfList.of(ATTACHMENT, contentType, blocks));
+		expectReadEof(true);
+
+		validator.validateMessage(message, group);
+	}
+
+	private void testAcceptsAttachmentBlock(int length, int index)
+			throws Exception {
+		// Descriptor length is zero as the test doesn't read from the
+		// counting input stream, so the whole body counts as data
+		Message block = getMessage(group.getId(), length);
+		BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TIMESTAMP, block.getTimestamp()),
+				new BdfEntry(MSG_KEY_LOCAL, false),
+				new BdfEntry(MSG_KEY_MSG_TYPE, ATTACHMENT_BLOCK),
+				new BdfEntry(MSG_KEY_BLOCK_INDEX, (long) index),
+				new BdfEntry(MSG_KEY_DESCRIPTOR_LENGTH, 0L)
+		);
+
+		expectCheckTimestamp(now);
+		expectParseList(BdfList.of(ATTACHMENT_BLOCK, index));
+		expectEncodeMetadata(meta);
+
+		MessageContext result = validator.validateMessage(block, group);
+		assertEquals(0, result.getDependencies().size());
+	}
+
+	private void testRejectsAttachmentBlock(int length, int index)
+			throws Exception {
+		Message block = getMessage(group.getId(), length);
+
+		expectCheckTimestamp(now);
+		expectParseList(BdfList.of(ATTACHMENT_BLOCK, index));
+
+		validator.validateMessage(block, group);
+	}
+
 	private void expectCheckTimestamp(long now) {
 		context.checking(new Expectations() {{
 			oneOf(clock).currentTimeMillis();
@@ -1,7 +1,10 @@
 package org.briarproject.briar.privategroup;
 
+import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
@@ -18,9 +21,16 @@ import org.briarproject.briar.test.DaggerBriarIntegrationTestComponent;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import javax.annotation.Nullable;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
@@ -29,6 +39,8 @@ import static org.briarproject.briar.api.privategroup.Visibility.REVEALED_BY_CON
 import static org.briarproject.briar.api.privategroup.Visibility.REVEALED_BY_US;
 import static org.briarproject.briar.api.privategroup.Visibility.VISIBLE;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationFactory.SIGNING_LABEL_INVITE;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_MEMBERS;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_MEMBER_PREFIX;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -119,6 +131,73 @@ public class PrivateGroupManagerIntegrationTest
 		assertEquals(3, count.getMsgCount());
 	}
 
+	@Test
+	public void testThreadedHeaders() throws Exception {
+		addGroup();
+
+		// The two join messages are the first two threads. Add two more
+		// threads with replies:
+		// a
+		//   a1
+		//     a1a
+		// b
+		//   b1
+		long time = c0.getClock().currentTimeMillis() + 1;
+		GroupMessage a = addLocalMessage(null, "a", time);
+		GroupMessage b = addLocalMessage(null, "b", time + 1);
+		GroupMessage a1 = addLocalMessage(a, "a1", time + 2);
+		GroupMessage b1 = addLocalMessage(b, "b1", time + 3);
+		GroupMessage a1a = addLocalMessage(a1, "a1a", time + 4);
+		assertThreadedHeaders(db0, groupManager0, asList(a, a1, a1a),
+				asList(b, b1));
+
+		// The threads should be indexed in the same way when the messages
+		// are delivered to 1
+		sync0To1(5, true);
+		assertThreadedHeaders(db1, groupManager1, asList(a, a1, a1a),
+				asList(b, b1));
+	}
+
+	private GroupMessage addLocalMessage(@Nullable GroupMessage parent,
+			String text, long time) throws Exception {
+		MessageId parentId = parent == null ? null : parent.getMessage().getId();
+		MessageId previousMsgId = groupManager0.getPreviousMsgId(groupId0);
+		GroupMessage msg = groupMessageFactory.createGroupMessage(groupId0,
+				time, parentId, author0, text, previousMsgId);
+		groupManager0.addLocalMessage(msg);
+		return msg;
+	}
+
+	private void assertThreadedHeaders(DatabaseComponent db,
+			PrivateGroupManager groupManager, List<GroupMessage> thirdThread,
+			List<GroupMessage> fourthThread) throws Exception {
+		List<GroupMessageHeader> joins = db.transactionWithResult(true,
+				txn -> groupManager.getHeaders(txn, groupId0, 0, 2));
+		assertEquals(2, joins.size());
+		for (GroupMessageHeader h : joins) {
+			assertTrue(h instanceof JoinMessageHeader);
+		}
+		assertMessageIds(thirdThread, db.transactionWithResult(true, txn ->
+				groupManager.getHeaders(txn, groupId0, 2, 1)));
+		assertMessageIds(fourthThread, db.transactionWithResult(true, txn ->
+				groupManager.getHeaders(txn, groupId0, 3, 1)));
+		List<GroupMessage> lastTwoThreads = new ArrayList<>(thirdThread);
+		lastTwoThreads.addAll(fourthThread);
+		assertMessageIds(lastTwoThreads, db.transactionWithResult(true, txn ->
+				groupManager.getHeaders(txn, groupId0, 2, 5)));
+		assertEquals(emptyList(), db.transactionWithResult(true, txn ->
+				groupManager.getHeaders(txn, groupId0, 4, 1)));
+	}
+
+	private void assertMessageIds(List<GroupMessage> expected,
+			List<GroupMessageHeader> actual) {
+		List<MessageId> expectedIds = new ArrayList<>();
+		for (GroupMessage m : expected) expectedIds.add(m.getMessage().getId());
+		List<MessageId> actualIds = new ArrayList<>();
+		for (GroupMessageHeader h : actual) actualIds.add(h.getId());
+		assertEquals(expectedIds, actualIds);
+	}
+
 	@Test
 	public void testMessageWithWrongPreviousMsgId() throws Exception {
 		addGroup();
@@ -445,6 +524,50 @@ public class PrivateGroupManagerIntegrationTest
 		assertTrue(groupManager1.isDissolved(groupId0));
 	}
 
+	@Test
+	public void testIsMember() throws Exception {
+		addGroup();
+
+		db0.transaction(true, txn -> {
+			assertTrue(groupManager0.isMember(txn, groupId0, author0));
+			assertTrue(groupManager0.isMember(txn, groupId0, author1));
+			assertFalse(groupManager0.isMember(txn, groupId0, author2));
+		});
+	}
+
+	@Test
+	public void testMembersAreMigratedFromList() throws Exception {
+		addGroup();
+		Collection<GroupMember> members = groupManager0.getMembers(groupId0);
+
+		// Store the members in a single list, as earlier versions did
+		ClientHelper clientHelper0 = c0.getClientHelper();
+		BdfDictionary meta =
+				clientHelper0.getGroupMetadataAsDictionary(groupId0);
+		BdfDictionary legacy = new BdfDictionary();
+		BdfList list = new BdfList();
+		for (String key : meta.keySet()) {
+			if (key.startsWith(GROUP_KEY_MEMBER_PREFIX)) {
+				list.add(meta.getDictionary(key));
+				legacy.put(key, NULL_VALUE);
+			}
+		}
+		assertEquals(2, list.size());
+		legacy.put(GROUP_KEY_MEMBERS, list);
+		clientHelper0.mergeGroupMetadata(groupId0, legacy);
+		db0.transaction(true, txn ->
+				assertFalse(groupManager0.isMember(txn, groupId0, author1)));
+
+		// Migrate the members
+		db0.transaction(false, txn -> ((PrivateGroupManagerImpl) groupManager0)
+				.onDatabaseOpened(txn));
+		meta = clientHelper0.getGroupMetadataAsDictionary(groupId0);
+		assertFalse(meta.containsKey(GROUP_KEY_MEMBERS));
+		assertEquals(members.size(), groupManager0.getMembers(groupId0).size());
+		db0.transaction(true, txn ->
+				assertTrue(groupManager0.isMember(txn, groupId0, author1)));
+	}
+
 	private void addGroup() throws Exception {
 		// author0 joins privateGroup0
 		long joinTime = c0.getClock().currentTimeMillis();
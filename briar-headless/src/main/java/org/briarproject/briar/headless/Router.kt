@@ -19,6 +19,8 @@ import org.briarproject.briar.headless.contact.ContactController
 import org.briarproject.briar.headless.event.WebSocketController
 import org.briarproject.briar.headless.forums.ForumController
 import org.briarproject.briar.headless.messaging.MessagingController
+import org.briarproject.briar.headless.metrics.MetricsController
+import org.briarproject.briar.headless.startup.StartupController
 import java.lang.Runtime.getRuntime
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.logging.Level.INFO
@@ -41,7 +43,9 @@ constructor(
     private val contactController: ContactController,
     private val messagingController: MessagingController,
     private val forumController: ForumController,
-    private val blogController: BlogController
+    private val blogController: BlogController,
+    private val metricsController: MetricsController,
+    private val startupController: StartupController
 ) {
 
     private val logger = getLogger(Router::javaClass.name)
@@ -93,6 +97,9 @@ constructor(
                     get { ctx -> messagingController.list(ctx) }
                     post { ctx -> messagingController.write(ctx) }
                 }
+                path("/messages/:contactId/attachments") {
+                    post { ctx -> messagingController.addAttachments(ctx) }
+                }
                 path("/messages/:contactId/read") {
                     post { ctx -> messagingController.markMessageRead(ctx) }
                 }
@@ -109,6 +116,12 @@ constructor(
                         post { ctx -> blogController.createPost(ctx) }
                     }
                 }
+                path("/metrics") {
+                    get { ctx -> metricsController.get(ctx) }
+                }
+                path("/startup") {
+                    get { ctx -> startupController.get(ctx) }
+                }
             }
         }
         app.ws(WS) { ws ->
@@ -118,9 +131,16 @@ constructor(
             }
             ws.onMessage { ctx ->
                 val session = ctx.session
-                if (ctx.message() == authToken && !webSocketController.sessions.contains(ctx)) {
+                if (webSocketController.hasSession(ctx)) {
+                    // Authenticated sessions may subscribe to specific events
+                    if (!webSocketController.onMessage(ctx, ctx.message())) {
+                        logger.info("Invalid subscription received: ${ctx.message()}")
+                        logger.info("Closing websocket connection with ${session.remoteAddress}")
+                        session.close(1008, "Invalid Subscription")
+                    }
+                } else if (ctx.message() == authToken) {
                     logger.info("Authenticated websocket session with ${session.remoteAddress}")
-                    webSocketController.sessions.add(ctx)
+                    webSocketController.addSession(ctx)
                 } else {
                     logger.info("Invalid message received: ${ctx.message()}")
                     logger.info("Closing websocket connection with ${session.remoteAddress}")
@@ -129,7 +149,7 @@ constructor(
             }
             ws.onClose { ctx ->
                 logger.info("Removing websocket connection with ${ctx.session.remoteAddress}")
-                webSocketController.sessions.remove(ctx)
+                webSocketController.removeSession(ctx)
             }
         }
         return app.start(port)
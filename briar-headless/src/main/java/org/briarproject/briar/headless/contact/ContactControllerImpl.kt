@@ -79,13 +79,14 @@ constructor(
     }
 
     override fun list(ctx: Context): Context {
-        val contacts = contactManager.contacts.map { contact ->
-            val latestMsgTime = conversationManager.getGroupCount(contact.id).latestMsgTime
+        val contacts = contactManager.contacts
+        val counts = conversationManager.getGroupCounts(contacts.map { it.id })
+        val output = contacts.map { contact ->
+            val count = counts.getValue(contact.id)
             val connected = connectionRegistry.isConnected(contact.id)
-            val unreadCount = conversationManager.getGroupCount(contact.id).unreadCount
-            contact.output(latestMsgTime, connected, unreadCount)
+            contact.output(count.latestMsgTime, connected, count.unreadCount)
         }
-        return ctx.json(contacts)
+        return ctx.json(output)
     }
 
     override fun getLink(ctx: Context): Context {
@@ -8,10 +8,26 @@ import javax.annotation.concurrent.ThreadSafe
 @ThreadSafe
 interface WebSocketController {
 
-    val sessions: MutableSet<WsContext>
+    /**
+     * Adds an authenticated session. The session receives all events until
+     * it subscribes to specific events.
+     */
+    fun addSession(ctx: WsContext)
+
+    fun removeSession(ctx: WsContext)
+
+    fun hasSession(ctx: WsContext): Boolean
+
+    /**
+     * Handles a subscription message from an authenticated session.
+     *
+     * @return false if the message is invalid
+     */
+    fun onMessage(ctx: WsContext, message: String): Boolean
 
     /**
-     * Sends an event to all open sessions using the [IoExecutor].
+     * Queues an event for all open sessions that are subscribed to it.
+     * Each session's events are sent in order using the [IoExecutor].
      */
     fun sendEvent(name: String, obj: JsonDict)
 
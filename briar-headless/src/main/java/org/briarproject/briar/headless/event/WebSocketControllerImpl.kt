@@ -1,42 +1,67 @@
 package org.briarproject.briar.headless.event
 
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.plugin.json.JavalinJson.toJson
 import io.javalin.websocket.WsContext
 import org.briarproject.bramble.api.lifecycle.IoExecutor
-import org.briarproject.bramble.util.LogUtils.logException
+import org.briarproject.bramble.api.system.TaskScheduler
 import org.briarproject.briar.headless.json.JsonDict
-import org.eclipse.jetty.websocket.api.WebSocketException
-import java.io.IOException
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executor
-import java.util.logging.Level.WARNING
-import java.util.logging.Logger.getLogger
-import javax.annotation.concurrent.Immutable
+import javax.annotation.concurrent.ThreadSafe
 import javax.inject.Inject
 import javax.inject.Singleton
 
-@Immutable
+@ThreadSafe
 @Singleton
 internal class WebSocketControllerImpl
 @Inject
-constructor(@IoExecutor private val ioExecutor: Executor) : WebSocketController {
+constructor(
+    @IoExecutor private val ioExecutor: Executor,
+    private val taskScheduler: TaskScheduler,
+    private val objectMapper: ObjectMapper
+) : WebSocketController {
 
-    private val logger = getLogger(WebSocketControllerImpl::javaClass.name)
+    private val sessions = ConcurrentHashMap<WsContext, WebSocketSession>()
 
-    override val sessions: MutableSet<WsContext> = ConcurrentHashMap.newKeySet<WsContext>()
+    override fun addSession(ctx: WsContext) {
+        sessions.putIfAbsent(ctx, WebSocketSession(ctx, ioExecutor, taskScheduler))
+    }
+
+    override fun removeSession(ctx: WsContext) {
+        sessions.remove(ctx)?.close()
+    }
+
+    override fun hasSession(ctx: WsContext) = sessions.containsKey(ctx)
+
+    override fun onMessage(ctx: WsContext, message: String): Boolean {
+        val session = sessions[ctx] ?: return false
+        val json = try {
+            objectMapper.readTree(message)
+        } catch (e: JsonProcessingException) {
+            return false
+        }
+        if (json == null || !json.isObject) return false
+        val subscribe = json.get("subscribe")
+        val names = when {
+            subscribe == null || subscribe.isNull -> null
+            subscribe.isArray && subscribe.all { it.isTextual } ->
+                subscribe.map { it.asText() }.toSet()
+            else -> return false
+        }
+        val batch = json.get("batch")
+        if (batch != null && !batch.isBoolean) return false
+        session.subscribe(names, batch?.asBoolean() ?: false)
+        return true
+    }
 
     override fun sendEvent(name: String, obj: JsonDict) {
+        if (sessions.isEmpty()) return
+        // Serialise the event once, however many sessions receive it
         val event = toJson(OutputEvent(name, obj))
-        sessions.forEach { session ->
-            ioExecutor.execute {
-                try {
-                    session.send(event)
-                } catch (e: WebSocketException) {
-                    logException(logger, WARNING, e)
-                } catch (e: IOException) {
-                    logException(logger, WARNING, e)
-                }
-            }
+        sessions.values.forEach { session ->
+            if (session.isSubscribed(name)) session.enqueue(event)
         }
     }
 
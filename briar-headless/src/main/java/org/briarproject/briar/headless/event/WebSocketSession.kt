@@ -0,0 +1,159 @@
+package org.briarproject.briar.headless.event
+
+import io.javalin.websocket.WsContext
+import org.briarproject.bramble.api.system.TaskScheduler
+import org.briarproject.bramble.util.LogUtils.logException
+import org.eclipse.jetty.websocket.api.WebSocketException
+import java.io.IOException
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.TimeoutException
+import java.util.logging.Level.WARNING
+import java.util.logging.Logger.getLogger
+import javax.annotation.concurrent.GuardedBy
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * The maximum number of events that can be waiting to be sent to a session.
+ * A session that falls further behind than this is closed, and the client
+ * should reconnect and reload any state it needs from the REST API.
+ */
+internal const val MAX_QUEUED_EVENTS = 1000
+
+/**
+ * How long to wait for more events before sending a batch, for sessions
+ * that have asked for events to be batched.
+ */
+internal const val BATCH_WINDOW_MS = 100L
+
+/**
+ * How long to wait for a frame to be written before closing the session.
+ */
+internal val SEND_TIMEOUT_MS = SECONDS.toMillis(30)
+
+/**
+ * The close code used for sessions that can't keep up with their events,
+ * which asks the client to try again later.
+ */
+internal const val CLOSE_TRY_AGAIN_LATER = 1013
+
+/**
+ * An authenticated websocket session with a bounded queue of events waiting
+ * to be sent. At most one task at a time sends the session's events, so they
+ * are delivered in the order they were queued.
+ */
+@ThreadSafe
+internal class WebSocketSession(
+    private val ctx: WsContext,
+    private val ioExecutor: Executor,
+    private val taskScheduler: TaskScheduler
+) {
+
+    private val logger = getLogger(WebSocketSession::javaClass.name)
+
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val queue = ArrayDeque<String>()
+
+    @GuardedBy("lock")
+    private var sending = false
+
+    @GuardedBy("lock")
+    private var closed = false
+
+    /**
+     * The names of the events the session is subscribed to, or null if the
+     * session receives all events.
+     */
+    @GuardedBy("lock")
+    private var subscriptions: Set<String>? = null
+
+    @GuardedBy("lock")
+    private var batch = false
+
+    fun subscribe(names: Set<String>?, batch: Boolean) = synchronized(lock) {
+        subscriptions = names
+        this.batch = batch
+    }
+
+    fun isSubscribed(name: String) = synchronized(lock) {
+        subscriptions?.contains(name) ?: true
+    }
+
+    fun enqueue(event: String) {
+        val overflow: Boolean
+        val schedule: Boolean
+        val delay: Long
+        synchronized(lock) {
+            if (closed) return
+            overflow = queue.size >= MAX_QUEUED_EVENTS
+            if (overflow) {
+                closed = true
+                queue.clear()
+                schedule = false
+            } else {
+                queue.add(event)
+                schedule = !sending
+                sending = true
+            }
+            delay = if (batch) BATCH_WINDOW_MS else 0
+        }
+        when {
+            overflow -> closeSlowConsumer()
+            !schedule -> return
+            delay == 0L -> ioExecutor.execute(this::sendQueuedEvents)
+            else -> taskScheduler.schedule(this::sendQueuedEvents, ioExecutor, delay, MILLISECONDS)
+        }
+    }
+
+    fun close() = synchronized(lock) {
+        closed = true
+        queue.clear()
+    }
+
+    private fun sendQueuedEvents() {
+        while (true) {
+            val frame = synchronized(lock) {
+                if (closed || queue.isEmpty()) {
+                    sending = false
+                    return
+                }
+                if (batch) {
+                    // Reuse the serialised events rather than parsing them
+                    val events = queue.joinToString(",", "[", "]")
+                    queue.clear()
+                    "{\"type\":\"events\",\"events\":$events}"
+                } else {
+                    queue.poll()
+                }
+            }
+            try {
+                ctx.send(frame).get(SEND_TIMEOUT_MS, MILLISECONDS)
+            } catch (e: TimeoutException) {
+                close()
+                closeSlowConsumer()
+                return
+            } catch (e: ExecutionException) {
+                logException(logger, WARNING, e)
+            } catch (e: WebSocketException) {
+                logException(logger, WARNING, e)
+            } catch (e: IOException) {
+                logException(logger, WARNING, e)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                close()
+                return
+            }
+        }
+    }
+
+    private fun closeSlowConsumer() {
+        logger.warning("Closing websocket connection with slow consumer")
+        ctx.session.close(CLOSE_TRY_AGAIN_LATER, "Too many queued events")
+    }
+
+}
@@ -1,5 +1,7 @@
 package org.briarproject.briar.headless.messaging
 
+import com.fasterxml.jackson.core.JsonParseException
+import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
@@ -11,13 +13,17 @@ import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.bramble.api.contact.ContactManager
 import org.briarproject.bramble.api.db.DatabaseExecutor
 import org.briarproject.bramble.api.db.NoSuchContactException
+import org.briarproject.bramble.api.db.NoSuchMessageException
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
+import org.briarproject.bramble.api.sync.GroupId
 import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent
 import org.briarproject.bramble.api.system.Clock
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
+import org.briarproject.briar.api.attachment.AttachmentHeader
+import org.briarproject.briar.api.attachment.FileTooBigException
 import org.briarproject.briar.api.blog.BlogInvitationRequest
 import org.briarproject.briar.api.blog.BlogInvitationResponse
 import org.briarproject.briar.api.conversation.ConversationManager
@@ -38,6 +44,7 @@ import org.briarproject.briar.headless.event.output
 import org.briarproject.briar.headless.getContactIdFromPathParam
 import org.briarproject.briar.headless.getFromJson
 import org.briarproject.briar.headless.json.JsonDict
+import java.io.IOException
 import java.util.concurrent.Executor
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
@@ -79,13 +86,76 @@ constructor(
             throw BadRequestResponse("Message text is too long")
 
         val group = messagingManager.getContactGroup(contact)
+        val attachments = getAttachmentsFromJson(ctx, group.id)
         val now = clock.currentTimeMillis()
-        val m = privateMessageFactory.createLegacyPrivateMessage(group.id, now, text)
+        val m = if (attachments.isEmpty()) {
+            privateMessageFactory.createLegacyPrivateMessage(group.id, now, text)
+        } else {
+            privateMessageFactory.createPrivateMessage(group.id, now, text, attachments)
+        }
 
         messagingManager.addLocalMessage(m)
         return ctx.json(m.output(contact.id, text))
     }
 
+    /**
+     * Returns the attachments listed in the optional "attachments" field,
+     * which should contain the JSON objects returned by [addAttachments].
+     * Only the IDs are taken from the client: each one must be a local
+     * attachment in the contact's conversation, and its stored content
+     * type is used.
+     */
+    private fun getAttachmentsFromJson(ctx: Context, groupId: GroupId): List<AttachmentHeader> {
+        val attachments = try {
+            objectMapper.readTree(ctx.body()).get("attachments")
+        } catch (e: JsonParseException) {
+            throw BadRequestResponse("Invalid JSON")
+        }
+        if (attachments == null || attachments.isNull) return emptyList()
+        if (!attachments.isArray) throw BadRequestResponse("'attachments' must be an array")
+        return attachments.map { attachment ->
+            val id = getTextFromJson(attachment, "id")
+            try {
+                messagingManager.getLocalAttachmentHeader(groupId, deserializeMessageId(id))
+            } catch (e: NotFoundResponse) {
+                throw BadRequestResponse("Unknown attachment")
+            } catch (e: NoSuchMessageException) {
+                throw BadRequestResponse("Unknown attachment")
+            }
+        }
+    }
+
+    private fun getTextFromJson(json: JsonNode, field: String): String {
+        val node = json.get(field)
+        if (node == null || !node.isTextual || node.asText().isEmpty())
+            throw BadRequestResponse("'$field' missing in attachment")
+        return node.asText()
+    }
+
+    override fun addAttachments(ctx: Context): Context {
+        val contact = getContact(ctx)
+        val files = ctx.uploadedFiles("file")
+        if (files.isEmpty()) throw BadRequestResponse("No files uploaded")
+
+        val groupId = messagingManager.getContactGroup(contact).id
+        val now = clock.currentTimeMillis()
+        val headers = ArrayList<AttachmentHeader>(files.size)
+        try {
+            // Each file is read from the multipart upload as a stream
+            files.forEach { file ->
+                headers.add(
+                    messagingManager.addLocalAttachment(groupId, now, file.contentType, file.content)
+                )
+            }
+        } catch (e: IOException) {
+            // Don't leave the other attachments from this upload behind
+            headers.forEach { messagingManager.removeAttachment(it) }
+            if (e is FileTooBigException) throw BadRequestResponse("Attachment is too big")
+            throw e
+        }
+        return ctx.json(headers.output())
+    }
+
     override fun markMessageRead(ctx: Context): Context {
         val contact = getContact(ctx)
         val groupId = messagingManager.getContactGroup(contact).id
@@ -0,0 +1,12 @@
+package org.briarproject.briar.headless.messaging
+
+import org.briarproject.briar.api.attachment.AttachmentHeader
+import org.briarproject.briar.headless.json.JsonDict
+
+internal fun AttachmentHeader.output() = JsonDict(
+    "id" to messageId.bytes,
+    "groupId" to groupId.bytes,
+    "contentType" to contentType
+)
+
+internal fun Collection<AttachmentHeader>.output() = map { it.output() }
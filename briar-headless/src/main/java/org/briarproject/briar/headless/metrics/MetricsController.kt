@@ -0,0 +1,9 @@
+package org.briarproject.briar.headless.metrics
+
+import io.javalin.http.Context
+
+interface MetricsController {
+
+    fun get(ctx: Context): Context
+
+}
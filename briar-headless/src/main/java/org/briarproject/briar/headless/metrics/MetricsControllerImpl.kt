@@ -0,0 +1,26 @@
+package org.briarproject.briar.headless.metrics
+
+import io.javalin.http.Context
+import org.briarproject.bramble.api.metrics.MetricExporter
+import org.briarproject.bramble.api.metrics.MetricRegistry
+import java.io.StringWriter
+import javax.annotation.concurrent.Immutable
+import javax.inject.Inject
+import javax.inject.Singleton
+
+@Immutable
+@Singleton
+internal class MetricsControllerImpl
+@Inject
+constructor(
+    private val metricRegistry: MetricRegistry,
+    private val metricExporter: MetricExporter
+) : MetricsController {
+
+    override fun get(ctx: Context): Context {
+        val out = StringWriter()
+        metricExporter.export(metricRegistry.metrics, out)
+        return ctx.contentType(metricExporter.contentType).result(out.toString())
+    }
+
+}
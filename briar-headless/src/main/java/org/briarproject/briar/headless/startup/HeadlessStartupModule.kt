@@ -0,0 +1,16 @@
+package org.briarproject.briar.headless.startup
+
+import dagger.Module
+import dagger.Provides
+import javax.inject.Singleton
+
+@Module
+class HeadlessStartupModule {
+
+    @Provides
+    @Singleton
+    internal fun provideStartupController(startupController: StartupControllerImpl): StartupController {
+        return startupController
+    }
+
+}
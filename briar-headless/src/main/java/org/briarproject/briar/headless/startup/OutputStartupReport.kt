@@ -0,0 +1,12 @@
+package org.briarproject.briar.headless.startup
+
+import org.briarproject.bramble.api.lifecycle.StartupReport
+import org.briarproject.briar.headless.json.JsonDict
+
+internal fun StartupReport.output() = JsonDict(
+    "openDatabase" to openDatabaseDuration,
+    "total" to totalDuration,
+    "openDatabaseHooks" to openDatabaseHookDurations,
+    "services" to serviceDurations,
+    "deferredOpenDatabaseHooks" to deferredOpenDatabaseHookDurations
+)
@@ -0,0 +1,9 @@
+package org.briarproject.briar.headless.startup
+
+import io.javalin.http.Context
+
+interface StartupController {
+
+    fun get(ctx: Context): Context
+
+}
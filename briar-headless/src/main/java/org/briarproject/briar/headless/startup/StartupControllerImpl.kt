@@ -0,0 +1,22 @@
+package org.briarproject.briar.headless.startup
+
+import io.javalin.http.Context
+import io.javalin.http.NotFoundResponse
+import org.briarproject.bramble.api.lifecycle.LifecycleManager
+import javax.annotation.concurrent.Immutable
+import javax.inject.Inject
+import javax.inject.Singleton
+
+@Immutable
+@Singleton
+internal class StartupControllerImpl
+@Inject
+constructor(private val lifecycleManager: LifecycleManager) : StartupController {
+
+    override fun get(ctx: Context): Context {
+        // There's no report until the services have started
+        val report = lifecycleManager.startupReport ?: throw NotFoundResponse()
+        return ctx.json(report.output())
+    }
+
+}
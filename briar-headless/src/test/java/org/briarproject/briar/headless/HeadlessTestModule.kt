@@ -27,6 +27,8 @@ import org.briarproject.briar.headless.contact.HeadlessContactModule
 import org.briarproject.briar.headless.event.HeadlessEventModule
 import org.briarproject.briar.headless.forums.HeadlessForumModule
 import org.briarproject.briar.headless.messaging.HeadlessMessagingModule
+import org.briarproject.briar.headless.metrics.HeadlessMetricsModule
+import org.briarproject.briar.headless.startup.HeadlessStartupModule
 import java.io.File
 import java.util.Collections.emptyList
 import javax.inject.Singleton
@@ -45,7 +47,9 @@ import javax.inject.Singleton
         HeadlessContactModule::class,
         HeadlessEventModule::class,
         HeadlessForumModule::class,
-        HeadlessMessagingModule::class
+        HeadlessMessagingModule::class,
+        HeadlessMetricsModule::class,
+        HeadlessStartupModule::class
     ]
 )
 internal class HeadlessTestModule(private val appDir: File) {
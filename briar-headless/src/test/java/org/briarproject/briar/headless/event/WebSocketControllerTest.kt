@@ -4,8 +4,13 @@ import io.javalin.plugin.json.JavalinJson.toJson
 import io.javalin.websocket.WsContext
 import io.mockk.CapturingSlot
 import io.mockk.every
+import io.mockk.just
 import io.mockk.mockk
+import io.mockk.runs
+import io.mockk.slot
 import io.mockk.verify
+import org.briarproject.bramble.api.Cancellable
+import org.briarproject.bramble.api.system.TaskScheduler
 import org.briarproject.bramble.test.ImmediateExecutor
 import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER
@@ -17,20 +22,29 @@ import org.briarproject.briar.api.introduction.event.IntroductionRequestReceived
 import org.briarproject.briar.api.messaging.PrivateMessageHeader
 import org.briarproject.briar.api.messaging.event.PrivateMessageReceivedEvent
 import org.briarproject.briar.headless.ControllerTest
+import org.briarproject.briar.headless.json.JsonDict
 import org.briarproject.briar.headless.messaging.EVENT_CONVERSATION_MESSAGE
 import org.briarproject.briar.headless.messaging.output
+import org.eclipse.jetty.websocket.api.Session
 import org.eclipse.jetty.websocket.api.WebSocketException
 import org.eclipse.jetty.websocket.common.io.FutureWriteCallback
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
 import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit.MILLISECONDS
 
 internal class WebSocketControllerTest : ControllerTest() {
 
     private val session1 = mockk<WsContext>()
     private val session2 = mockk<WsContext>()
 
-    private val controller = WebSocketControllerImpl(ImmediateExecutor())
+    private val taskScheduler = mockk<TaskScheduler>()
+
+    private val controller =
+        WebSocketControllerImpl(ImmediateExecutor(), taskScheduler, objectMapper)
 
     private val header =
         PrivateMessageHeader(
@@ -52,9 +66,9 @@ internal class WebSocketControllerTest : ControllerTest() {
     fun testSendEvent() {
         val slot = CapturingSlot<String>()
 
-        every { session1.send(capture(slot)) } returns FutureWriteCallback()
+        every { session1.send(capture(slot)) } returns written()
 
-        controller.sessions.add(session1)
+        controller.addSession(session1)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
 
         assertJsonEquals(slot.captured, outputEvent)
@@ -74,10 +88,10 @@ internal class WebSocketControllerTest : ControllerTest() {
         val slot = CapturingSlot<String>()
 
         every { session1.send(capture(slot)) } throws throwable
-        every { session2.send(capture(slot)) } returns FutureWriteCallback()
+        every { session2.send(capture(slot)) } returns written()
 
-        controller.sessions.add(session1)
-        controller.sessions.add(session2)
+        controller.addSession(session1)
+        controller.addSession(session2)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
 
         verify { session2.send(slot.captured) }
@@ -106,9 +120,9 @@ internal class WebSocketControllerTest : ControllerTest() {
             OutputEvent(EVENT_CONVERSATION_MESSAGE, introductionRequestEvent.output())
         val slot = CapturingSlot<String>()
 
-        every { session1.send(capture(slot)) } returns FutureWriteCallback()
+        every { session1.send(capture(slot)) } returns written()
 
-        controller.sessions.add(session1)
+        controller.addSession(session1)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, introductionRequestEvent.output())
         assertJsonEquals(slot.captured, introductionOutputEvent)
         assertEquals("IntroductionRequest", introductionRequestEvent.output()["type"])
@@ -126,4 +140,108 @@ internal class WebSocketControllerTest : ControllerTest() {
         assertJsonEquals(json, outputEvent)
     }
 
+    @Test
+    fun testEventsAreSentInOrder() {
+        val frames = ArrayList<String>()
+        val tasks = ArrayList<Runnable>()
+        val controller = WebSocketControllerImpl(
+            Executor { tasks.add(it) }, taskScheduler, objectMapper
+        )
+
+        every { session1.send(capture(frames)) } returns written()
+
+        controller.addSession(session1)
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        controller.sendEvent("SecondEvent", JsonDict("n" to 2))
+
+        // Only one task sends the session's events
+        assertEquals(1, tasks.size)
+        tasks[0].run()
+
+        assertEquals(2, frames.size)
+        assertJsonEquals(frames[0], outputEvent)
+        assertJsonEquals(frames[1], OutputEvent("SecondEvent", JsonDict("n" to 2)))
+    }
+
+    @Test
+    fun testSubscribedEventsAreSent() {
+        val slot = CapturingSlot<String>()
+
+        every { session1.send(capture(slot)) } returns written()
+
+        controller.addSession(session1)
+        controller.addSession(session2)
+        assertTrue(controller.onMessage(session1, """{"subscribe": ["$EVENT_CONVERSATION_MESSAGE"]}"""))
+        assertTrue(controller.onMessage(session2, """{"subscribe": ["OtherEvent"]}"""))
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+
+        assertJsonEquals(slot.captured, outputEvent)
+        verify(exactly = 0) { session2.send(any<String>()) }
+    }
+
+    @Test
+    fun testInvalidSubscriptionsAreRejected() {
+        controller.addSession(session1)
+
+        assertFalse(controller.onMessage(session1, "not json"))
+        assertFalse(controller.onMessage(session1, "[]"))
+        assertFalse(controller.onMessage(session1, """{"subscribe": "Event"}"""))
+        assertFalse(controller.onMessage(session1, """{"subscribe": [1]}"""))
+        assertFalse(controller.onMessage(session1, """{"batch": "yes"}"""))
+        // Unauthenticated sessions can't subscribe
+        assertFalse(controller.onMessage(session2, "{}"))
+    }
+
+    @Test
+    fun testEventsAreBatched() {
+        val slot = CapturingSlot<String>()
+        val task = slot<Runnable>()
+
+        every {
+            taskScheduler.schedule(capture(task), any(), BATCH_WINDOW_MS, MILLISECONDS)
+        } returns Cancellable {}
+        every { session1.send(capture(slot)) } returns written()
+
+        controller.addSession(session1)
+        assertTrue(controller.onMessage(session1, """{"batch": true}"""))
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+
+        // Both events are sent in one frame when the batch window ends
+        verify(exactly = 1) { taskScheduler.schedule(any(), any(), any(), any()) }
+        task.captured.run()
+
+        val json = """
+        {
+            "type": "events",
+            "events": [${toJson(outputEvent)}, ${toJson(outputEvent)}]
+        }
+        """
+        verify(exactly = 1) { session1.send(any<String>()) }
+        assertJsonEquals(json, objectMapper.readTree(slot.captured))
+    }
+
+    @Test
+    fun testSlowConsumerIsDisconnected() {
+        val jettySession = mockk<Session>()
+        // The events are never sent
+        val controller = WebSocketControllerImpl(
+            Executor {}, taskScheduler, objectMapper
+        )
+
+        every { session1.session } returns jettySession
+        every { jettySession.close(CLOSE_TRY_AGAIN_LATER, any()) } just runs
+
+        controller.addSession(session1)
+        repeat(MAX_QUEUED_EVENTS) {
+            controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        }
+        verify(exactly = 0) { jettySession.close(any<Int>(), any()) }
+
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        verify(exactly = 1) { jettySession.close(CLOSE_TRY_AGAIN_LATER, any()) }
+    }
+
+    private fun written() = FutureWriteCallback().apply { writeSuccess() }
+
 }
@@ -3,6 +3,7 @@ package org.briarproject.briar.headless.messaging
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
 import io.javalin.http.NotFoundResponse
+import io.javalin.http.UploadedFile
 import io.javalin.plugin.json.JavalinJson.toJson
 import io.mockk.CapturingSlot
 import io.mockk.Runs
@@ -11,15 +12,19 @@ import io.mockk.just
 import io.mockk.mockk
 import io.mockk.mockkStatic
 import io.mockk.runs
+import io.mockk.verify
 import org.bouncycastle.util.encoders.Base64
 import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.bramble.api.db.NoSuchContactException
+import org.briarproject.bramble.api.db.NoSuchMessageException
 import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent
 import org.briarproject.bramble.test.ImmediateExecutor
 import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.bramble.util.StringUtils.getRandomString
+import org.briarproject.briar.api.attachment.AttachmentHeader
+import org.briarproject.briar.api.attachment.FileTooBigException
 import org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER
 import org.briarproject.briar.api.client.SessionId
 import org.briarproject.briar.api.conversation.DeletionResult
@@ -40,6 +45,7 @@ import org.briarproject.briar.headless.json.JsonDict
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
 import kotlin.random.Random
 
 internal class MessagingControllerImplTest : ControllerTest() {
@@ -210,6 +216,127 @@ internal class MessagingControllerImplTest : ControllerTest() {
         assertThrows(BadRequestResponse::class.java) { controller.write(ctx) }
     }
 
+    @Test
+    fun writeWithAttachments() {
+        val slot = CapturingSlot<JsonDict>()
+        val attachment = AttachmentHeader(group.id, MessageId(getRandomId()), "image/jpeg")
+        // The client's content type is replaced by the stored one
+        val claimed = AttachmentHeader(group.id, attachment.messageId, "text/html")
+
+        expectGetContact()
+        every { ctx.body() } returns """
+            {
+                "text": "$text",
+                "attachments": [${toJson(claimed.output())}]
+            }
+        """
+        every { messagingManager.getContactGroup(contact) } returns group
+        every {
+            messagingManager.getLocalAttachmentHeader(group.id, attachment.messageId)
+        } returns attachment
+        every { clock.currentTimeMillis() } returns timestamp
+        every {
+            privateMessageFactory.createPrivateMessage(
+                group.id,
+                timestamp,
+                text,
+                listOf(attachment)
+            )
+        } returns privateMessage
+        every { messagingManager.addLocalMessage(privateMessage) } just runs
+        every { ctx.json(capture(slot)) } returns ctx
+
+        controller.write(ctx)
+
+        assertEquals(privateMessage.output(contact.id, text), slot.captured)
+    }
+
+    @Test
+    fun writeWithInvalidAttachments() {
+        expectGetContact()
+        every { ctx.body() } returns """{"text": "$text", "attachments": [{"id": "foo"}]}"""
+        every { messagingManager.getContactGroup(contact) } returns group
+
+        assertThrows(BadRequestResponse::class.java) { controller.write(ctx) }
+    }
+
+    @Test
+    fun writeWithUnknownAttachment() {
+        val attachment = AttachmentHeader(group.id, MessageId(getRandomId()), "image/jpeg")
+
+        expectGetContact()
+        every { ctx.body() } returns """
+            {
+                "text": "$text",
+                "attachments": [${toJson(attachment.output())}]
+            }
+        """
+        every { messagingManager.getContactGroup(contact) } returns group
+        // The ID isn't a local attachment in this contact's conversation
+        every {
+            messagingManager.getLocalAttachmentHeader(group.id, attachment.messageId)
+        } throws NoSuchMessageException()
+
+        assertThrows(BadRequestResponse::class.java) { controller.write(ctx) }
+    }
+
+    @Test
+    fun addAttachments() {
+        val file1 = uploadedFile("image/jpeg")
+        val file2 = uploadedFile("image/png")
+        val header1 = AttachmentHeader(group.id, MessageId(getRandomId()), "image/jpeg")
+        val header2 = AttachmentHeader(group.id, MessageId(getRandomId()), "image/png")
+
+        expectGetContact()
+        every { ctx.uploadedFiles("file") } returns listOf(file1, file2)
+        every { messagingManager.getContactGroup(contact) } returns group
+        every { clock.currentTimeMillis() } returns timestamp
+        every {
+            messagingManager.addLocalAttachment(group.id, timestamp, "image/jpeg", file1.content)
+        } returns header1
+        every {
+            messagingManager.addLocalAttachment(group.id, timestamp, "image/png", file2.content)
+        } returns header2
+        every { ctx.json(listOf(header1.output(), header2.output())) } returns ctx
+
+        controller.addAttachments(ctx)
+    }
+
+    @Test
+    fun addAttachmentsTooBig() {
+        val file1 = uploadedFile("image/jpeg")
+        val file2 = uploadedFile("image/jpeg")
+        val header1 = AttachmentHeader(group.id, MessageId(getRandomId()), "image/jpeg")
+
+        expectGetContact()
+        every { ctx.uploadedFiles("file") } returns listOf(file1, file2)
+        every { messagingManager.getContactGroup(contact) } returns group
+        every { clock.currentTimeMillis() } returns timestamp
+        every {
+            messagingManager.addLocalAttachment(group.id, timestamp, "image/jpeg", file1.content)
+        } returns header1
+        every {
+            messagingManager.addLocalAttachment(group.id, timestamp, "image/jpeg", file2.content)
+        } throws FileTooBigException()
+        every { messagingManager.removeAttachment(header1) } just runs
+
+        assertThrows(BadRequestResponse::class.java) { controller.addAttachments(ctx) }
+        verify { messagingManager.removeAttachment(header1) }
+    }
+
+    @Test
+    fun addAttachmentsNoFiles() {
+        expectGetContact()
+        every { ctx.uploadedFiles("file") } returns emptyList()
+
+        assertThrows(BadRequestResponse::class.java) { controller.addAttachments(ctx) }
+    }
+
+    @Test
+    fun addAttachmentsInvalidContactId() {
+        testInvalidContactId { controller.addAttachments(ctx) }
+    }
+
     @Test
     fun markMessageRead() {
         mockkStatic("org.briarproject.briar.headless.RouterKt")
@@ -416,4 +543,12 @@ internal class MessagingControllerImplTest : ControllerTest() {
         assertThrows(NotFoundResponse::class.java) { function.invoke() }
     }
 
+    private fun uploadedFile(contentType: String): UploadedFile {
+        val file = mockk<UploadedFile>()
+        val content = ByteArrayInputStream(Random.nextBytes(42))
+        every { file.contentType } returns contentType
+        every { file.content } returns content
+        return file
+    }
+
 }
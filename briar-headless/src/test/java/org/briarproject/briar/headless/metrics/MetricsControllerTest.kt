@@ -0,0 +1,39 @@
+package org.briarproject.briar.headless.metrics
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.briarproject.bramble.api.metrics.MetricExporter
+import org.briarproject.bramble.api.metrics.MetricFamily
+import org.briarproject.bramble.api.metrics.MetricRegistry
+import org.briarproject.briar.headless.ControllerTest
+import org.junit.jupiter.api.Test
+import java.io.Writer
+
+internal class MetricsControllerTest : ControllerTest() {
+
+    private val metricRegistry = mockk<MetricRegistry>()
+    private val metricExporter = mockk<MetricExporter>()
+
+    private val controller = MetricsControllerImpl(metricRegistry, metricExporter)
+
+    @Test
+    fun get() {
+        val families = emptyList<MetricFamily>()
+        val contentType = "text/plain; version=0.0.4; charset=utf-8"
+        val body = "# HELP bramble_connections Open connections\n"
+
+        every { metricRegistry.metrics } returns families
+        every { metricExporter.contentType } returns contentType
+        every { metricExporter.export(families, any()) } answers {
+            secondArg<Writer>().write(body)
+        }
+        every { ctx.contentType(contentType) } returns ctx
+        every { ctx.result(body) } returns ctx
+
+        controller.get(ctx)
+
+        verify { ctx.result(body) }
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.briarproject.briar.headless.startup
+
+import io.javalin.http.NotFoundResponse
+import io.mockk.every
+import io.mockk.mockk
+import org.briarproject.bramble.api.lifecycle.LifecycleManager
+import org.briarproject.bramble.api.lifecycle.StartupReport
+import org.briarproject.briar.headless.ControllerTest
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+internal class StartupControllerTest : ControllerTest() {
+
+    private val lifecycleManager = mockk<LifecycleManager>()
+
+    private val controller = StartupControllerImpl(lifecycleManager)
+
+    private val report = StartupReport(
+        100, 250,
+        linkedMapOf("IdentityManagerImpl" to 10L),
+        linkedMapOf("KeyManagerImpl" to 50L, "PluginManagerImpl" to 30L),
+        linkedMapOf("ForumManagerImpl" to 20L)
+    )
+
+    @Test
+    fun get() {
+        every { lifecycleManager.startupReport } returns report
+        every { ctx.json(report.output()) } returns ctx
+
+        controller.get(ctx)
+    }
+
+    @Test
+    fun getBeforeStartup() {
+        every { lifecycleManager.startupReport } returns null
+
+        assertThrows(NotFoundResponse::class.java) { controller.get(ctx) }
+    }
+
+    @Test
+    fun outputStartupReport() {
+        val json = """
+            {
+                "openDatabase": 100,
+                "total": 250,
+                "openDatabaseHooks": {"IdentityManagerImpl": 10},
+                "services": {"KeyManagerImpl": 50, "PluginManagerImpl": 30},
+                "deferredOpenDatabaseHooks": {"ForumManagerImpl": 20}
+            }
+        """
+        assertJsonEquals(json, report.output())
+    }
+
+}
@@ -198,7 +198,8 @@ abstract class AbstractMailboxIntegrationTest
 		TransportProperties p = from.getTransportPropertyManager()
 				.getLocalProperties(transportId);
 		p.put(getRandomString(23), getRandomString(8));
-		from.getTransportPropertyManager().mergeLocalProperties(transportId, p);
+		mergeLocalProperties(from, from.getTransportPropertyManager(),
+				transportId, p);
 	}
 
 	void sync1To2(int num, boolean valid) throws Exception {
@@ -1,16 +1,22 @@
 package org.briarproject.bramble.mailbox;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.mailbox.MailboxFolderId;
 import org.briarproject.bramble.api.mailbox.MailboxProperties;
 import org.briarproject.bramble.mailbox.MailboxApi.MailboxFile;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
 
+import static java.lang.System.currentTimeMillis;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.mailbox.MailboxIntegrationTestUtils.retryUntilSuccessOrTimeout;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.writeBytes;
+import static org.briarproject.nullsafety.NullSafety.requireNonNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -67,4 +73,38 @@ public class MailboxIntegrationTest extends AbstractMailboxIntegrationTest {
 		assertEquals(0, api.getFiles(props2, props2.getInboxId()).size());
 	}
 
+	@Test
+	public void testDownloadsBacklogOfFiles() throws Exception {
+		int numFiles = 200;
+		addContacts();
+
+		// c1 one pairs the mailbox
+		MailboxProperties props1 = pair(c1, mailbox);
+		retryUntilSuccessOrTimeout(1_000, 100, () -> {
+			Collection<ContactId> contacts = api.getContacts(props1);
+			return contacts.size() == 1;
+		});
+
+		// tell contact about mailbox
+		sync1To2(1, true);
+		ack2To1(1);
+		MailboxProperties props2 =
+				getMailboxProperties(c2, contact1From2.getId());
+		MailboxFolderId inboxId = requireNonNull(props2.getInboxId());
+
+		// the owner fills the contact's inbox with files. The contact can't
+		// read them, but downloads and deletes them like any others
+		File file = new File(testDir, "backlog");
+		writeBytes(file, getRandomBytes(1024));
+		for (int i = 0; i < numFiles; i++) api.addFile(props1, inboxId, file);
+		long start = currentTimeMillis();
+
+		// wait for the contact to download and delete all the files. This
+		// might require 2nd download cycle after Tor reachability period
+		retryUntilSuccessOrTimeout(60_000, 100, () ->
+				api.getFiles(props2, inboxId).isEmpty());
+		long duration = currentTimeMillis() - start;
+		LOG.info("Downloaded and deleted " + numFiles + " files in "
+				+ duration + " ms");
+	}
 }
@@ -27,4 +27,14 @@ class TestMailboxConfigImpl implements MailboxConfig {
 	public long getTorReachabilityPeriod() {
 		return 10_000;
 	}
+
+	@Override
+	public boolean isUploadStreamingEnabled() {
+		return true;
+	}
+
+	@Override
+	public int getMaxConcurrentTransfers() {
+		return MailboxDownloadWorker.MAX_CONCURRENT_TRANSFERS;
+	}
 }